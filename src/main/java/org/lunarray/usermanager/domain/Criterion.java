@@ -0,0 +1,261 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * A condition on the properties of an entity. Criteria are either a
+ * comparison of a property with a value, a presence test of a property, or a
+ * combination of other criteria.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class Criterion
+		implements Serializable {
+
+	/** Serial id. */
+	private static final long serialVersionUID = -6386140829170725138L;
+	/** The combined criteria, empty for comparisons. */
+	private final List<Criterion> criteria;
+	/** The operator. */
+	private final Operator operator;
+	/** The compared property, null for combinations. */
+	private final String property;
+	/** The compared value, null for combinations and presence tests. */
+	private final String value;
+
+	/**
+	 * Constructs the criterion.
+	 * 
+	 * @param operator
+	 *            The operator.
+	 * @param property
+	 *            The property.
+	 * @param value
+	 *            The value.
+	 * @param criteria
+	 *            The combined criteria.
+	 */
+	private Criterion(final Operator operator, final String property, final String value, final List<Criterion> criteria) {
+		this.operator = operator;
+		this.property = property;
+		this.value = value;
+		this.criteria = criteria;
+	}
+
+	/**
+	 * Creates a criterion that holds if all given criteria hold.
+	 * 
+	 * @param criteria
+	 *            The criteria. May not be empty.
+	 * @return The criterion.
+	 */
+	public static Criterion and(final Criterion... criteria) {
+		return Criterion.combine(Operator.AND, criteria);
+	}
+
+	/**
+	 * Creates a comparison of a property with a value.
+	 * 
+	 * @param property
+	 *            The property. May not be null.
+	 * @param operator
+	 *            The comparison operator. May not be a combination or a
+	 *            presence test.
+	 * @param value
+	 *            The value. May not be null.
+	 * @return The criterion.
+	 */
+	public static Criterion compare(final String property, final Operator operator, final String value) {
+		Validate.notNull(property, "Property may not be null.");
+		Validate.notNull(operator, "Operator may not be null.");
+		Validate.notNull(value, "Value may not be null.");
+		Validate.isTrue(operator.isComparison(), "Operator must be a comparison.");
+		return new Criterion(operator, property, value, Collections.<Criterion> emptyList());
+	}
+
+	/**
+	 * Creates a criterion that holds if the given criterion doesn't.
+	 * 
+	 * @param criterion
+	 *            The criterion. May not be null.
+	 * @return The criterion.
+	 */
+	public static Criterion not(final Criterion criterion) {
+		return Criterion.combine(Operator.NOT, criterion);
+	}
+
+	/**
+	 * Creates a criterion that holds if any of the given criteria hold.
+	 * 
+	 * @param criteria
+	 *            The criteria. May not be empty.
+	 * @return The criterion.
+	 */
+	public static Criterion or(final Criterion... criteria) {
+		return Criterion.combine(Operator.OR, criteria);
+	}
+
+	/**
+	 * Creates a criterion that holds if a property has a value.
+	 * 
+	 * @param property
+	 *            The property. May not be null.
+	 * @return The criterion.
+	 */
+	public static Criterion present(final String property) {
+		Validate.notNull(property, "Property may not be null.");
+		return new Criterion(Operator.PRESENT, property, null, Collections.<Criterion> emptyList());
+	}
+
+	/**
+	 * Creates a combination.
+	 * 
+	 * @param operator
+	 *            The operator.
+	 * @param criteria
+	 *            The criteria.
+	 * @return The criterion.
+	 */
+	private static Criterion combine(final Operator operator, final Criterion... criteria) {
+		Validate.notEmpty(criteria, "Criteria may not be empty.");
+		Validate.noNullElements(criteria, "Criteria may not contain null.");
+		return new Criterion(operator, null, null, Collections.unmodifiableList(new ArrayList<Criterion>(Arrays
+				.asList(criteria))));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * Gets the value for the criteria field.
+	 * 
+	 * @return The value for the criteria field.
+	 */
+	public List<Criterion> getCriteria() {
+		return this.criteria;
+	}
+
+	/**
+	 * Gets the value for the operator field.
+	 * 
+	 * @return The value for the operator field.
+	 */
+	public Operator getOperator() {
+		return this.operator;
+	}
+
+	/**
+	 * Gets the value for the property field.
+	 * 
+	 * @return The value for the property field.
+	 */
+	public String getProperty() {
+		return this.property;
+	}
+
+	/**
+	 * Gets the value for the value field.
+	 * 
+	 * @return The value for the value field.
+	 */
+	public String getValue() {
+		return this.value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+
+	/**
+	 * The criterion operators.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public enum Operator {
+		/** All criteria hold. */
+		AND(false),
+		/** The property contains the value. */
+		CONTAINS(true),
+		/** The property ends with the value. */
+		ENDS_WITH(true),
+		/** The property equals the value. */
+		EQUALS(true),
+		/** The property is greater than the value. */
+		GREATER(true),
+		/** The property is greater than or equal to the value. */
+		GREATER_OR_EQUAL(true),
+		/** The property is less than the value. */
+		LESS(true),
+		/** The property is less than or equal to the value. */
+		LESS_OR_EQUAL(true),
+		/** The criterion doesn't hold. */
+		NOT(false),
+		/** The property doesn't equal the value. */
+		NOT_EQUALS(true),
+		/** Any of the criteria hold. */
+		OR(false),
+		/** The property has a value. */
+		PRESENT(false),
+		/** The property starts with the value. */
+		STARTS_WITH(true);
+
+		/** Whether the operator compares a property with a value. */
+		private final boolean comparison;
+
+		/**
+		 * Constructs the operator.
+		 * 
+		 * @param comparison
+		 *            Whether the operator compares a property with a value.
+		 */
+		private Operator(final boolean comparison) {
+			this.comparison = comparison;
+		}
+
+		/**
+		 * Gets the value for the comparison field.
+		 * 
+		 * @return The value for the comparison field.
+		 */
+		public boolean isComparison() {
+			return this.comparison;
+		}
+	}
+}
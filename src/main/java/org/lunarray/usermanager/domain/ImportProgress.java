@@ -0,0 +1,287 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.domain;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * The progress of an import.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ImportProgress
+		implements Serializable {
+
+	/** Milliseconds per second. */
+	private static final double MILLIS_PER_SECOND = 1000d;
+	/** Serial id. */
+	private static final long serialVersionUID = 2360179815474733041L;
+	/** The number of leading records that are done, to resume after. */
+	private final long checkpoint;
+	/** The number of created users. */
+	private final long created;
+	/** The elapsed time in milliseconds. */
+	private final long elapsed;
+	/** The number of failed records. */
+	private final long failed;
+	/** Whether the import is finished. */
+	private final boolean finished;
+	/** The number of skipped existing users. */
+	private final long skipped;
+	/** The number of updated users. */
+	private final long updated;
+
+	/**
+	 * Constructs the progress.
+	 * 
+	 * @param builder
+	 *            The builder.
+	 */
+	protected ImportProgress(final Builder builder) {
+		this.checkpoint = builder.checkpointBuilder;
+		this.created = builder.createdBuilder;
+		this.elapsed = builder.elapsedBuilder;
+		this.failed = builder.failedBuilder;
+		this.finished = builder.finishedBuilder;
+		this.skipped = builder.skippedBuilder;
+		this.updated = builder.updatedBuilder;
+	}
+
+	/**
+	 * Creates a builder.
+	 * 
+	 * @return The builder.
+	 */
+	public static Builder createBuilder() {
+		return new Builder();
+	}
+
+	/**
+	 * Gets the value for the checkpoint field.
+	 * 
+	 * @return The value for the checkpoint field.
+	 */
+	public long getCheckpoint() {
+		return this.checkpoint;
+	}
+
+	/**
+	 * Gets the value for the created field.
+	 * 
+	 * @return The value for the created field.
+	 */
+	public long getCreated() {
+		return this.created;
+	}
+
+	/**
+	 * Gets the value for the elapsed field.
+	 * 
+	 * @return The value for the elapsed field.
+	 */
+	public long getElapsed() {
+		return this.elapsed;
+	}
+
+	/**
+	 * Gets the value for the failed field.
+	 * 
+	 * @return The value for the failed field.
+	 */
+	public long getFailed() {
+		return this.failed;
+	}
+
+	/**
+	 * Gets the number of processed records.
+	 * 
+	 * @return The number of processed records.
+	 */
+	public long getProcessed() {
+		return this.created + this.updated + this.skipped + this.failed;
+	}
+
+	/**
+	 * Gets the throughput.
+	 * 
+	 * @return The processed records per second.
+	 */
+	public double getRate() {
+		if (this.elapsed <= 0) {
+			return 0;
+		}
+		return (this.getProcessed() * ImportProgress.MILLIS_PER_SECOND) / this.elapsed;
+	}
+
+	/**
+	 * Gets the value for the skipped field.
+	 * 
+	 * @return The value for the skipped field.
+	 */
+	public long getSkipped() {
+		return this.skipped;
+	}
+
+	/**
+	 * Gets the value for the updated field.
+	 * 
+	 * @return The value for the updated field.
+	 */
+	public long getUpdated() {
+		return this.updated;
+	}
+
+	/**
+	 * Gets the value for the finished field.
+	 * 
+	 * @return The value for the finished field.
+	 */
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+
+	/**
+	 * A builder.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public static final class Builder {
+		/** The checkpoint. */
+		private transient long checkpointBuilder;
+		/** The number of created users. */
+		private transient long createdBuilder;
+		/** The elapsed time. */
+		private transient long elapsedBuilder;
+		/** The number of failed records. */
+		private transient long failedBuilder;
+		/** Whether the import is finished. */
+		private transient boolean finishedBuilder;
+		/** The number of skipped users. */
+		private transient long skippedBuilder;
+		/** The number of updated users. */
+		private transient long updatedBuilder;
+
+		/**
+		 * Default constructor.
+		 */
+		protected Builder() {
+			// Default constructor.
+		}
+
+		/**
+		 * Build the progress.
+		 * 
+		 * @return The progress.
+		 */
+		public ImportProgress build() {
+			return new ImportProgress(this);
+		}
+
+		/**
+		 * Sets a new value for the checkpoint field.
+		 * 
+		 * @param checkpoint
+		 *            The new value for the checkpoint field.
+		 * @return The builder.
+		 */
+		public Builder checkpoint(final long checkpoint) {
+			this.checkpointBuilder = checkpoint;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the created field.
+		 * 
+		 * @param created
+		 *            The new value for the created field.
+		 * @return The builder.
+		 */
+		public Builder created(final long created) {
+			this.createdBuilder = created;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the elapsed field.
+		 * 
+		 * @param elapsed
+		 *            The new value for the elapsed field.
+		 * @return The builder.
+		 */
+		public Builder elapsed(final long elapsed) {
+			this.elapsedBuilder = elapsed;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the failed field.
+		 * 
+		 * @param failed
+		 *            The new value for the failed field.
+		 * @return The builder.
+		 */
+		public Builder failed(final long failed) {
+			this.failedBuilder = failed;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the finished field.
+		 * 
+		 * @param finished
+		 *            The new value for the finished field.
+		 * @return The builder.
+		 */
+		public Builder finished(final boolean finished) {
+			this.finishedBuilder = finished;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the skipped field.
+		 * 
+		 * @param skipped
+		 *            The new value for the skipped field.
+		 * @return The builder.
+		 */
+		public Builder skipped(final long skipped) {
+			this.skippedBuilder = skipped;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the updated field.
+		 * 
+		 * @param updated
+		 *            The new value for the updated field.
+		 * @return The builder.
+		 */
+		public Builder updated(final long updated) {
+			this.updatedBuilder = updated;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.domain;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * Describes how users are to be imported.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ImportRequest
+		implements Serializable {
+
+	/** Serial id. */
+	private static final long serialVersionUID = -6517388214306154623L;
+	/** What to do with users that already exist. */
+	private final Existing existing;
+	/** The number of failed records after which the import stops. */
+	private final int maxFailures;
+	/** The number of leading records that were imported before. */
+	private final long resumeAfter;
+
+	/**
+	 * Constructs the request.
+	 * 
+	 * @param builder
+	 *            The builder.
+	 */
+	protected ImportRequest(final Builder builder) {
+		Validate.notNull(builder.existingBuilder, "Existing may not be null.");
+		Validate.isTrue(builder.maxFailuresBuilder >= 0, "Maximum failures may not be negative.");
+		Validate.isTrue(builder.resumeAfterBuilder >= 0, "Resume point may not be negative.");
+		this.existing = builder.existingBuilder;
+		this.maxFailures = builder.maxFailuresBuilder;
+		this.resumeAfter = builder.resumeAfterBuilder;
+	}
+
+	/**
+	 * Creates a builder.
+	 * 
+	 * @return The builder.
+	 */
+	public static Builder createBuilder() {
+		return new Builder();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * Gets the value for the existing field.
+	 * 
+	 * @return The value for the existing field.
+	 */
+	public Existing getExisting() {
+		return this.existing;
+	}
+
+	/**
+	 * Gets the value for the maxFailures field.
+	 * 
+	 * @return The value for the maxFailures field.
+	 */
+	public int getMaxFailures() {
+		return this.maxFailures;
+	}
+
+	/**
+	 * Gets the value for the resumeAfter field.
+	 * 
+	 * @return The value for the resumeAfter field.
+	 */
+	public long getResumeAfter() {
+		return this.resumeAfter;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+
+	/**
+	 * A builder.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public static final class Builder {
+		/** What to do with existing users. */
+		private transient Existing existingBuilder = Existing.FAIL;
+		/** The number of failed records after which the import stops. */
+		private transient int maxFailuresBuilder = 1000;
+		/** The number of leading records that were imported before. */
+		private transient long resumeAfterBuilder;
+
+		/**
+		 * Default constructor.
+		 */
+		protected Builder() {
+			// Default constructor.
+		}
+
+		/**
+		 * Build the request.
+		 * 
+		 * @return The request.
+		 */
+		public ImportRequest build() {
+			return new ImportRequest(this);
+		}
+
+		/**
+		 * Sets a new value for the existing field.
+		 * 
+		 * @param existing
+		 *            The new value for the existing field.
+		 * @return The builder.
+		 */
+		public Builder existing(final Existing existing) {
+			this.existingBuilder = existing;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the maxFailures field.
+		 * 
+		 * @param maxFailures
+		 *            The new value for the maxFailures field.
+		 * @return The builder.
+		 */
+		public Builder maxFailures(final int maxFailures) {
+			this.maxFailuresBuilder = maxFailures;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the resumeAfter field.
+		 * 
+		 * @param resumeAfter
+		 *            The new value for the resumeAfter field.
+		 * @return The builder.
+		 */
+		public Builder resumeAfter(final long resumeAfter) {
+			this.resumeAfterBuilder = resumeAfter;
+			return this;
+		}
+	}
+
+	/**
+	 * What to do with a user that already exists.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public enum Existing {
+		/** Report the record as failed. */
+		FAIL,
+		/** Leave the user and its roles as they are. */
+		SKIP,
+		/** Update the user and set its roles. */
+		UPDATE;
+	}
+}
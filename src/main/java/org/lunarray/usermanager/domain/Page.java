@@ -0,0 +1,115 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * A slice of a sorted and filtered result.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ * @param <E>
+ *            The element type.
+ */
+public final class Page<E>
+		implements Serializable {
+
+	/** Serial id. */
+	private static final long serialVersionUID = -2265096541718466920L;
+	/** The elements of this page. */
+	private final List<E> items;
+	/** The request this page answers. */
+	private final PageRequest request;
+	/** The total number of matching elements. */
+	private final int total;
+
+	/**
+	 * Constructs the page.
+	 * 
+	 * @param request
+	 *            The request. May not be null.
+	 * @param items
+	 *            The elements. May not be null.
+	 * @param total
+	 *            The total number of matching elements.
+	 */
+	public Page(final PageRequest request, final List<E> items, final int total) {
+		Validate.notNull(request, "Request may not be null.");
+		Validate.notNull(items, "Items may not be null.");
+		this.request = request;
+		this.items = Collections.unmodifiableList(new ArrayList<E>(items));
+		this.total = total;
+	}
+
+	/**
+	 * Gets the value for the items field.
+	 * 
+	 * @return The value for the items field.
+	 */
+	public List<E> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * Gets the value for the request field.
+	 * 
+	 * @return The value for the request field.
+	 */
+	public PageRequest getRequest() {
+		return this.request;
+	}
+
+	/**
+	 * Gets the value for the total field.
+	 * 
+	 * @return The value for the total field.
+	 */
+	public int getTotal() {
+		return this.total;
+	}
+
+	/**
+	 * Tests whether elements follow this page.
+	 * 
+	 * @return True if there is a next page.
+	 */
+	public boolean hasNext() {
+		return (this.request.getOffset() + this.items.size()) < this.total;
+	}
+
+	/**
+	 * Tests whether elements precede this page.
+	 * 
+	 * @return True if there is a previous page.
+	 */
+	public boolean hasPrevious() {
+		return this.request.getOffset() > 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+}
@@ -0,0 +1,255 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.domain;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * Describes a slice of a sorted and filtered result.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class PageRequest
+		implements Serializable {
+
+	/** Serial id. */
+	private static final long serialVersionUID = 3902567436402364184L;
+	/** Whether to sort ascending. */
+	private final boolean ascending;
+	/** The criterion results must meet, may be null. */
+	private final Criterion criterion;
+	/** The filter text, may be null. */
+	private final String filter;
+	/** The maximum number of results. */
+	private final int limit;
+	/** The index of the first result. */
+	private final int offset;
+	/** The property to sort on, may be null. */
+	private final String sortProperty;
+
+	/**
+	 * Constructs the request.
+	 * 
+	 * @param builder
+	 *            The builder.
+	 */
+	protected PageRequest(final Builder builder) {
+		Validate.isTrue(builder.offsetBuilder >= 0, "Offset may not be negative.");
+		Validate.isTrue(builder.limitBuilder > 0, "Limit must be positive.");
+		this.ascending = builder.ascendingBuilder;
+		this.criterion = builder.criterionBuilder;
+		this.filter = builder.filterBuilder;
+		this.limit = builder.limitBuilder;
+		this.offset = builder.offsetBuilder;
+		this.sortProperty = builder.sortPropertyBuilder;
+	}
+
+	/**
+	 * Creates a builder.
+	 * 
+	 * @return The builder.
+	 */
+	public static Builder createBuilder() {
+		return new Builder();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * Gets the value for the criterion field.
+	 * 
+	 * @return The value for the criterion field.
+	 */
+	public Criterion getCriterion() {
+		return this.criterion;
+	}
+
+	/**
+	 * Gets the value for the filter field.
+	 * 
+	 * @return The value for the filter field.
+	 */
+	public String getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Gets the value for the limit field.
+	 * 
+	 * @return The value for the limit field.
+	 */
+	public int getLimit() {
+		return this.limit;
+	}
+
+	/**
+	 * Gets the value for the offset field.
+	 * 
+	 * @return The value for the offset field.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Gets the value for the sortProperty field.
+	 * 
+	 * @return The value for the sortProperty field.
+	 */
+	public String getSortProperty() {
+		return this.sortProperty;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/**
+	 * Gets the value for the ascending field.
+	 * 
+	 * @return The value for the ascending field.
+	 */
+	public boolean isAscending() {
+		return this.ascending;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+
+	/**
+	 * A builder.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public static final class Builder {
+		/** Whether to sort ascending. */
+		private transient boolean ascendingBuilder = true;
+		/** The criterion. */
+		private transient Criterion criterionBuilder;
+		/** The filter text. */
+		private transient String filterBuilder;
+		/** The maximum number of results. */
+		private transient int limitBuilder = 25;
+		/** The index of the first result. */
+		private transient int offsetBuilder;
+		/** The property to sort on. */
+		private transient String sortPropertyBuilder;
+
+		/**
+		 * Default constructor.
+		 */
+		protected Builder() {
+			// Default constructor.
+		}
+
+		/**
+		 * Sets a new value for the ascending field.
+		 * 
+		 * @param ascending
+		 *            The new value for the ascending field.
+		 * @return The builder.
+		 */
+		public Builder ascending(final boolean ascending) {
+			this.ascendingBuilder = ascending;
+			return this;
+		}
+
+		/**
+		 * Build the request.
+		 * 
+		 * @return The request.
+		 */
+		public PageRequest build() {
+			return new PageRequest(this);
+		}
+
+		/**
+		 * Sets a new value for the criterion field.
+		 * 
+		 * @param criterion
+		 *            The new value for the criterion field.
+		 * @return The builder.
+		 */
+		public Builder criterion(final Criterion criterion) {
+			this.criterionBuilder = criterion;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the filter field.
+		 * 
+		 * @param filter
+		 *            The new value for the filter field.
+		 * @return The builder.
+		 */
+		public Builder filter(final String filter) {
+			this.filterBuilder = filter;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the limit field.
+		 * 
+		 * @param limit
+		 *            The new value for the limit field.
+		 * @return The builder.
+		 */
+		public Builder limit(final int limit) {
+			this.limitBuilder = limit;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the offset field.
+		 * 
+		 * @param offset
+		 *            The new value for the offset field.
+		 * @return The builder.
+		 */
+		public Builder offset(final int offset) {
+			this.offsetBuilder = offset;
+			return this;
+		}
+
+		/**
+		 * Sets a new value for the sortProperty field.
+		 * 
+		 * @param sortProperty
+		 *            The new value for the sortProperty field.
+		 * @return The builder.
+		 */
+		public Builder sortProperty(final String sortProperty) {
+			this.sortPropertyBuilder = sortProperty;
+			return this;
+		}
+	}
+}
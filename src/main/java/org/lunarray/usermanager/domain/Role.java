@@ -41,6 +41,8 @@ public final class Role {
 	/** The users of the role. */
 	@Reference(User.class)
 	private List<String> users;
+	/** The entry version, null if unknown. */
+	private String version;
 
 	/**
 	 * Default constructor.
@@ -91,6 +93,15 @@ public final class Role {
 		return this.users;
 	}
 
+	/**
+	 * Gets the value for the version field.
+	 * 
+	 * @return The value for the version field.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
@@ -127,6 +138,16 @@ public final class Role {
 		this.users = users;
 	}
 
+	/**
+	 * Sets a new value for the version field.
+	 * 
+	 * @param version
+	 *            The new value for the version field.
+	 */
+	public void setVersion(final String version) {
+		this.version = version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -146,6 +167,8 @@ public final class Role {
 		private transient String identifierBuilder;
 		/** The users of the role. */
 		private transient List<String> usersBuilder;
+		/** The entry version. */
+		private transient String versionBuilder;
 
 		/**
 		 * Default constructor.
@@ -163,6 +186,7 @@ public final class Role {
 			final Role result = new Role();
 			result.setIdentifier(this.identifierBuilder);
 			result.setUsers(this.usersBuilder);
+			result.setVersion(this.versionBuilder);
 			result.setDisplayName(this.displayNameBuilder);
 			return result;
 		}
@@ -202,5 +226,17 @@ public final class Role {
 			this.usersBuilder = users;
 			return this;
 		}
+
+		/**
+		 * Sets a new value for the version field.
+		 * 
+		 * @param version
+		 *            The new value for the version field.
+		 * @return The builder.
+		 */
+		public Builder version(final String version) {
+			this.versionBuilder = version;
+			return this;
+		}
 	}
 }
@@ -40,6 +40,8 @@ public final class User {
 	private String lastName;
 	/** The users email address. */
 	private String mail;
+	/** The entry version, null if unknown. */
+	private String version;
 
 	/**
 	 * Default constructor.
@@ -108,6 +110,15 @@ public final class User {
 		return this.mail;
 	}
 
+	/**
+	 * Gets the value for the version field.
+	 * 
+	 * @return The value for the version field.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
@@ -164,6 +175,16 @@ public final class User {
 		this.mail = mail;
 	}
 
+	/**
+	 * Sets a new value for the version field.
+	 * 
+	 * @param version
+	 *            The new value for the version field.
+	 */
+	public void setVersion(final String version) {
+		this.version = version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -186,6 +207,8 @@ public final class User {
 		private transient String lastNameBuilder;
 		/** The users email address. */
 		private transient String mailBuilder;
+		/** The entry version. */
+		private transient String versionBuilder;
 
 		/**
 		 * Default constructor.
@@ -206,6 +229,7 @@ public final class User {
 			user.setIdentifier(this.identifierBuilder);
 			user.setLastName(this.lastNameBuilder);
 			user.setMail(this.mailBuilder);
+			user.setVersion(this.versionBuilder);
 			return user;
 		}
 
@@ -268,5 +292,17 @@ public final class User {
 			this.mailBuilder = mail;
 			return this;
 		}
+
+		/**
+		 * Sets a new value for the version field.
+		 * 
+		 * @param version
+		 *            The new value for the version field.
+		 * @return The builder.
+		 */
+		public Builder version(final String version) {
+			this.versionBuilder = version;
+			return this;
+		}
 	}
 }
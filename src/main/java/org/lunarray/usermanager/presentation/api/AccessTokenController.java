@@ -0,0 +1,134 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.subject.Subject;
+import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.lunarray.usermanager.support.shiro.AccessTokenCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Issues access tokens to API clients.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class AccessTokenController {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenController.class);
+	/** The token codec. */
+	private transient AccessTokenCodec accessTokenCodec;
+	/** The user service. */
+	private transient UserService userService;
+
+	/**
+	 * Default constructor.
+	 */
+	public AccessTokenController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Authenticates the client once and issues a token. A user name that
+	 * cannot be carried in a token is rejected as a bad request.
+	 * 
+	 * @param username
+	 *            The user name.
+	 * @param password
+	 *            The password.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/token", method = RequestMethod.POST)
+	public void issue(@RequestParam("username") final String username, @RequestParam("password") final String password,
+			final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		if (!this.accessTokenCodec.isEncodable(username)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "User name may not contain a line break.");
+			return;
+		}
+		final Subject subject = SecurityUtils.getSubject();
+		try {
+			subject.login(new UsernamePasswordToken(username, password, request.getRemoteHost()));
+		} catch (final AuthenticationException e) {
+			AccessTokenController.LOGGER.warn("Could not authenticate token request for: {}", username, e);
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		try {
+			final List<String> roles = this.userService.getEffectiveUserRoles(username);
+			final String token = this.accessTokenCodec.encode(username, roles);
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Cache-Control", "no-store");
+			final JsonWriter writer = new JsonWriter(response.getWriter());
+			writer.beginObject();
+			writer.property("access_token", token);
+			writer.property("token_type", "Bearer");
+			writer.name("expires_in").value(this.accessTokenCodec.getTimeToLive());
+			writer.endObject();
+			writer.flush();
+			AccessTokenController.LOGGER.debug("Issued token for: {}", username);
+		} catch (final ServiceException e) {
+			AccessTokenController.LOGGER.warn("Could not resolve roles for token.", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		} finally {
+			subject.logout();
+		}
+	}
+
+	/**
+	 * Sets a new value for the accessTokenCodec field.
+	 * 
+	 * @param accessTokenCodec
+	 *            The new value for the accessTokenCodec field.
+	 */
+	public void setAccessTokenCodec(final AccessTokenCodec accessTokenCodec) {
+		this.accessTokenCodec = accessTokenCodec;
+	}
+
+	/**
+	 * Sets a new value for the userService field.
+	 * 
+	 * @param userService
+	 *            The new value for the userService field.
+	 */
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+}
@@ -0,0 +1,386 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.BackgroundWork;
+import org.lunarray.usermanager.support.change.ChangeEvent;
+import org.lunarray.usermanager.support.change.ChangeListener;
+import org.lunarray.usermanager.support.change.ChangeTracker;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes changes of users and roles to open pages as server sent events. A
+ * page subscribes once and patches the rows that changed, instead of
+ * reloading or polling. Events are sent from a single dispatch thread, so
+ * slow clients never hold up the writes that caused them.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class ChangeFeedController
+		implements ChangeListener {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeedController.class);
+	/** The event data type. */
+	private static final MediaType UTF8_TEXT = new MediaType("text", "plain", Charset.forName("UTF-8"));
+	/** The change tracker. */
+	private transient ChangeTracker changeTracker;
+	/** The heartbeat interval in seconds. */
+	private transient long heartbeat = 30;
+	/** The maximum number of identifiers per event, more are sent as none. */
+	private transient int maxIdentifiers = 50;
+	/** The maximum number of subscribers. */
+	private transient int maxSubscribers = 200;
+	/** The dispatch and heartbeat scheduler. */
+	private transient ScheduledExecutorService scheduler;
+	/** The subscribers. */
+	private final transient List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+	/** The subscription timeout in milliseconds, after which clients reconnect. */
+	private transient long timeout = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Default constructor.
+	 */
+	public ChangeFeedController() {
+		// Default constructor.
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void changed(final ChangeEvent event) {
+		if (this.subscribers.isEmpty() || CheckUtil.isNull(this.scheduler)) {
+			return;
+		}
+		try {
+			this.scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					ChangeFeedController.this.dispatch(event);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			ChangeFeedController.LOGGER.debug("Dropped change event after shutdown.", e);
+		}
+	}
+
+	/**
+	 * Stops sending events and closes all subscriptions.
+	 */
+	public void destroy() {
+		this.changeTracker.removeListener(this);
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+		for (final Subscriber subscriber : this.subscribers) {
+			subscriber.emitter.complete();
+		}
+		this.subscribers.clear();
+	}
+
+	/**
+	 * Starts sending events.
+	 */
+	public void init() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(BackgroundWork.wrap(runnable), "change-feed");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				ChangeFeedController.this.sendHeartbeat();
+			}
+		}, this.heartbeat, this.heartbeat, TimeUnit.SECONDS);
+		this.changeTracker.addListener(this);
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the heartbeat field.
+	 * 
+	 * @param heartbeat
+	 *            The new value for the heartbeat field.
+	 */
+	public void setHeartbeat(final long heartbeat) {
+		Validate.isTrue(heartbeat > 0, "Heartbeat must be positive.");
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * Sets a new value for the maxIdentifiers field.
+	 * 
+	 * @param maxIdentifiers
+	 *            The new value for the maxIdentifiers field.
+	 */
+	public void setMaxIdentifiers(final int maxIdentifiers) {
+		this.maxIdentifiers = maxIdentifiers;
+	}
+
+	/**
+	 * Sets a new value for the maxSubscribers field.
+	 * 
+	 * @param maxSubscribers
+	 *            The new value for the maxSubscribers field.
+	 */
+	public void setMaxSubscribers(final int maxSubscribers) {
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	/**
+	 * Sets a new value for the timeout field.
+	 * 
+	 * @param timeout
+	 *            The new value for the timeout field.
+	 */
+	public void setTimeout(final long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Subscribes to changes. The first event, named versions, carries the
+	 * current version of every subscribed type so a reconnecting page can
+	 * tell whether it missed changes. Every following event, named change,
+	 * carries the type, the kind of change, the version and the identifiers
+	 * of the changed entities the subscriber may read. Changes without
+	 * identifiers were detected in the directory and may affect any entity.
+	 * 
+	 * @param types
+	 *            The comma separated simple names of the types to subscribe
+	 *            to, all tracked types if empty.
+	 * @param response
+	 *            The response.
+	 * @return The event stream, or null if no more subscribers are accepted.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/events", method = RequestMethod.GET, produces = "text/event-stream")
+	@ResponseBody
+	public SseEmitter subscribe(@RequestParam(value = "types", defaultValue = "") final String types,
+			final HttpServletResponse response) throws IOException {
+		if (this.subscribers.size() >= this.maxSubscribers) {
+			ChangeFeedController.LOGGER.warn("Refused change feed subscriber, {} subscribed.", this.subscribers.size());
+			response.setHeader("Retry-After", String.valueOf(this.heartbeat));
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return null;
+		}
+		final Set<Class<?>> subscribed = new LinkedHashSet<Class<?>>();
+		for (final String name : StringUtils.split(types, ", ")) {
+			final Class<?> type = this.changeTracker.getType(name);
+			if (CheckUtil.isNull(type)) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return null;
+			}
+			subscribed.add(type);
+		}
+		if (subscribed.isEmpty()) {
+			subscribed.addAll(this.changeTracker.getTypes());
+		}
+		final SseEmitter emitter = new SseEmitter(this.timeout);
+		final Subscriber subscriber = new Subscriber(emitter, SecurityUtils.getSubject(), subscribed);
+		final Runnable remove = new Runnable() {
+			@Override
+			public void run() {
+				ChangeFeedController.this.subscribers.remove(subscriber);
+			}
+		};
+		emitter.onCompletion(remove);
+		emitter.onTimeout(remove);
+		response.setHeader("Cache-Control", "no-store");
+		this.subscribers.add(subscriber);
+		final StringWriter data = new StringWriter();
+		final JsonWriter writer = new JsonWriter(data);
+		writer.beginObject();
+		for (final Class<?> type : subscribed) {
+			writer.name(type.getSimpleName()).value(this.changeTracker.getVersion(type));
+		}
+		writer.name("epoch").value(this.changeTracker.getEpoch());
+		writer.endObject();
+		writer.flush();
+		this.send(subscriber, SseEmitter.event().name("versions").reconnectTime(TimeUnit.SECONDS.toMillis(this.heartbeat))
+				.data(data.toString(), ChangeFeedController.UTF8_TEXT));
+		return emitter;
+	}
+
+	/**
+	 * Sends a change to all subscribers of its type.
+	 * 
+	 * @param event
+	 *            The change.
+	 */
+	private void dispatch(final ChangeEvent event) {
+		final List<String> identifiers;
+		if (event.getIdentifiers().size() > this.maxIdentifiers) {
+			identifiers = new ArrayList<String>();
+		} else {
+			identifiers = event.getIdentifiers();
+		}
+		final String permission = event.getType().getSimpleName().toLowerCase(Locale.ENGLISH) + ":%s:read";
+		for (final Subscriber subscriber : this.subscribers) {
+			if (subscriber.types.contains(event.getType())) {
+				final List<String> readable = new ArrayList<String>();
+				for (final String identifier : identifiers) {
+					if (subscriber.subject.isPermitted(String.format(permission, identifier))) {
+						readable.add(identifier);
+					}
+				}
+				if (identifiers.isEmpty() || !readable.isEmpty()) {
+					try {
+						this.send(subscriber, SseEmitter.event().name("change")
+								.id(event.getType().getSimpleName() + ":" + event.getVersion())
+								.data(this.toData(event, readable), ChangeFeedController.UTF8_TEXT));
+					} catch (final IOException e) {
+						ChangeFeedController.LOGGER.warn("Could not write change event.", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends an event to a subscriber, dropping the subscriber if it is gone.
+	 * 
+	 * @param subscriber
+	 *            The subscriber.
+	 * @param event
+	 *            The event.
+	 */
+	private void send(final Subscriber subscriber, final SseEmitter.SseEventBuilder event) {
+		try {
+			subscriber.emitter.send(event);
+		} catch (final IOException e) {
+			ChangeFeedController.LOGGER.debug("Dropped change feed subscriber.", e);
+			this.subscribers.remove(subscriber);
+			subscriber.emitter.complete();
+		} catch (final IllegalStateException e) {
+			ChangeFeedController.LOGGER.debug("Dropped completed change feed subscriber.", e);
+			this.subscribers.remove(subscriber);
+		}
+	}
+
+	/**
+	 * Sends a comment to every subscriber, keeping connections through
+	 * proxies alive and detecting clients that went away.
+	 */
+	private void sendHeartbeat() {
+		for (final Subscriber subscriber : this.subscribers) {
+			this.send(subscriber, SseEmitter.event().comment("heartbeat"));
+		}
+	}
+
+	/**
+	 * Writes the data of a change event.
+	 * 
+	 * @param event
+	 *            The change.
+	 * @param identifiers
+	 *            The identifiers to include.
+	 * @return The data.
+	 * @throws IOException
+	 *             Thrown if the data could not be written.
+	 */
+	private String toData(final ChangeEvent event, final List<String> identifiers) throws IOException {
+		final StringWriter data = new StringWriter();
+		final JsonWriter writer = new JsonWriter(data);
+		writer.beginObject();
+		writer.property("type", event.getType().getSimpleName());
+		writer.property("kind", event.getKind().name().toLowerCase(Locale.ENGLISH));
+		writer.name("version").value(event.getVersion());
+		writer.name("identifiers");
+		JsonBodyUtils.writeStrings(writer, identifiers);
+		writer.endObject();
+		writer.flush();
+		return data.toString();
+	}
+
+	/**
+	 * An open subscription.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Subscriber {
+
+		/** The event stream. */
+		private final SseEmitter emitter;
+		/** The subscribed user, whose permissions filter the identifiers. */
+		private final Subject subject;
+		/** The subscribed types. */
+		private final Set<Class<?>> types;
+
+		/**
+		 * Constructs the subscriber.
+		 * 
+		 * @param emitter
+		 *            The event stream.
+		 * @param subject
+		 *            The subscribed user.
+		 * @param types
+		 *            The subscribed types.
+		 */
+		public Subscriber(final SseEmitter emitter, final Subject subject, final Set<Class<?>> types) {
+			this.emitter = emitter;
+			this.subject = subject;
+			this.types = types;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * The fields a client selected for a response.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class FieldSelection {
+
+	/** The selected fields. */
+	private final Set<String> fields;
+
+	/**
+	 * Constructs the selection.
+	 * 
+	 * @param fields
+	 *            The comma separated fields a client asked for, may be blank
+	 *            to select the defaults.
+	 * @param available
+	 *            The available fields. May not be null.
+	 * @param defaults
+	 *            The fields selected by default. May not be null.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an unavailable field was asked for.
+	 */
+	public FieldSelection(final String fields, final Collection<String> available, final Collection<String> defaults) {
+		Validate.notNull(available, "Available fields may not be null.");
+		Validate.notNull(defaults, "Default fields may not be null.");
+		if (StringUtils.isBlank(fields)) {
+			this.fields = Collections.unmodifiableSet(new LinkedHashSet<String>(defaults));
+		} else {
+			final Set<String> selected = new LinkedHashSet<String>();
+			for (final String field : Arrays.asList(StringUtils.split(fields, ','))) {
+				final String trimmed = field.trim();
+				Validate.isTrue(available.contains(trimmed), String.format("Unknown field: %s", trimmed));
+				selected.add(trimmed);
+			}
+			this.fields = Collections.unmodifiableSet(selected);
+		}
+	}
+
+	/**
+	 * Tests whether a field is selected.
+	 * 
+	 * @param field
+	 *            The field.
+	 * @return True if and only if the field is selected.
+	 */
+	public boolean contains(final String field) {
+		return this.fields.contains(field);
+	}
+}
@@ -0,0 +1,233 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
+import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.json.JsonReader;
+import org.lunarray.usermanager.support.json.JsonWriter;
+
+/**
+ * Reads request bodies and prepares responses of the API.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum JsonBodyUtils {
+	/** The util instance. */
+	INSTANCE;
+
+	/**
+	 * Converts a member value to a list of strings.
+	 * 
+	 * @param value
+	 *            The value, may be null.
+	 * @return The strings, empty if the value is null.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the value isn't an array of strings.
+	 */
+	public static List<String> asStrings(final Object value) {
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		if (!(value instanceof List)) {
+			throw new IllegalArgumentException("Expected an array of strings.");
+		}
+		final List<?> values = (List<?>) value;
+		final List<String> result = new ArrayList<String>(values.size());
+		for (final Object element : values) {
+			if (!(element instanceof String)) {
+				throw new IllegalArgumentException("Expected an array of strings.");
+			}
+			result.add((String) element);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a reader for the request body.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @return The reader.
+	 * @throws IOException
+	 *             Thrown if the body could not be read.
+	 */
+	public static JsonReader createReader(final HttpServletRequest request) throws IOException {
+		if (request.getCharacterEncoding() == null) {
+			request.setCharacterEncoding("UTF-8");
+		}
+		return new JsonReader(request.getReader());
+	}
+
+	/**
+	 * Prepares the response for a JSON result.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @return The writer to write the result with.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	public static JsonWriter createWriter(final HttpServletResponse response) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		return new JsonWriter(response.getWriter());
+	}
+
+	/**
+	 * Gets the status to answer a failed service call with.
+	 * 
+	 * @param exception
+	 *            The exception.
+	 * @return The status, 404 if the entity does not exist, 409 if it
+	 *         already exists or was changed concurrently, otherwise 500.
+	 */
+	public static int getStatus(final ServiceException exception) {
+		final int result;
+		if (exception.getCause() instanceof EntityNotFoundException) {
+			result = HttpServletResponse.SC_NOT_FOUND;
+		} else if ((exception instanceof ConcurrentUpdateException)
+				|| (exception.getCause() instanceof EntityAlreadyExistsException)) {
+			result = HttpServletResponse.SC_CONFLICT;
+		} else {
+			result = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads an object of which the members are strings, arrays or null.
+	 * Objects are skipped. Array elements are read as any value, see
+	 * {@link #asStrings(Object)} to check them.
+	 * 
+	 * @param reader
+	 *            The reader.
+	 * @return The members, either strings, lists of values or null, in the
+	 *         order they were read.
+	 * @throws IOException
+	 *             Thrown if the object could not be read.
+	 */
+	public static Map<String, Object> readProperties(final JsonReader reader) throws IOException {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			switch (reader.peek()) {
+			case STRING:
+			case NUMBER:
+			case NULL:
+				result.put(name, reader.nextString());
+				break;
+			case BEGIN_ARRAY:
+				result.put(name, JsonBodyUtils.readValue(reader));
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+		reader.endObject();
+		return result;
+	}
+
+	/**
+	 * Reads an array of strings.
+	 * 
+	 * @param reader
+	 *            The reader.
+	 * @return The strings.
+	 * @throws IOException
+	 *             Thrown if the array could not be read.
+	 */
+	public static List<String> readStrings(final JsonReader reader) throws IOException {
+		final List<String> result = new ArrayList<String>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			result.add(reader.nextString());
+		}
+		reader.endArray();
+		return result;
+	}
+
+	/**
+	 * Reads any value.
+	 * 
+	 * @param reader
+	 *            The reader.
+	 * @return The value, either a map of members, a list of values, a
+	 *         string, a boolean or null. Numbers are returned as written.
+	 * @throws IOException
+	 *             Thrown if the value could not be read.
+	 */
+	public static Object readValue(final JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case BEGIN_ARRAY:
+			final List<Object> list = new ArrayList<Object>();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				list.add(JsonBodyUtils.readValue(reader));
+			}
+			reader.endArray();
+			return list;
+		case BEGIN_OBJECT:
+			final Map<String, Object> map = new LinkedHashMap<String, Object>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				map.put(name, JsonBodyUtils.readValue(reader));
+			}
+			reader.endObject();
+			return map;
+		case BOOLEAN:
+			return Boolean.valueOf(reader.nextBoolean());
+		default:
+			return reader.nextString();
+		}
+	}
+
+	/**
+	 * Writes an array of strings.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param values
+	 *            The strings.
+	 * @throws IOException
+	 *             Thrown if the array could not be written.
+	 */
+	public static void writeStrings(final JsonWriter writer, final Iterable<String> values) throws IOException {
+		writer.beginArray();
+		for (final String value : values) {
+			writer.value(value);
+		}
+		writer.endArray();
+	}
+}
@@ -0,0 +1,198 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.json.JsonWriter;
+
+/**
+ * Streams a listing to a JSON writer. The sorted identifiers of the listing
+ * are searched once, after which elements are read a slice at a time and
+ * written as soon as they are read, so no more than a slice of elements is
+ * held in memory regardless of the size of the listing.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ * @param <E>
+ *            The element type.
+ */
+public abstract class PageStreamer<E> {
+
+	/** The number of elements to read at a time. */
+	private final int fetchSize;
+
+	/**
+	 * Constructs the streamer.
+	 * 
+	 * @param fetchSize
+	 *            The number of elements to read at a time. Must be positive.
+	 */
+	public PageStreamer(final int fetchSize) {
+		Validate.isTrue(fetchSize > 0, "Fetch size must be positive.");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Streams a listing. By default the listing is an object holding the
+	 * items, the total and the token of the next page, if any. The
+	 * identifiers and the first slice are read before anything is written,
+	 * so a failing listing leaves the writer untouched.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param token
+	 *            The token of the first element.
+	 * @param limit
+	 *            The maximum number of elements to write.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 * @throws ServiceException
+	 *             Thrown if the listing could not be read.
+	 */
+	public final void stream(final JsonWriter writer, final PageToken token, final int limit) throws IOException,
+			ServiceException {
+		final List<String> identifiers = this.loadIdentifiers(token.toRequest(Math.max(1, limit)));
+		final int total = identifiers.size();
+		final int from = Math.min(token.getOffset(), total);
+		final int to = (int) Math.min((long) from + Math.max(0, limit), total);
+		int offset = Math.min(from + this.fetchSize, to);
+		List<E> items = this.loadSlice(identifiers.subList(from, offset));
+		this.writeStart(writer, total);
+		writer.beginArray();
+		int count = 0;
+		while (true) {
+			for (final E element : items) {
+				this.write(writer, element);
+			}
+			count += items.size();
+			if (offset >= to) {
+				break;
+			}
+			writer.flush();
+			final int end = Math.min(offset + this.fetchSize, to);
+			items = this.loadSlice(identifiers.subList(offset, end));
+			offset = end;
+		}
+		writer.endArray();
+		PageToken next = null;
+		if (to < total) {
+			next = token.moveTo(to);
+		}
+		this.writeEnd(writer, total, count, next);
+		writer.flush();
+	}
+
+	/**
+	 * Searches the sorted identifiers of the listing.
+	 * 
+	 * @param request
+	 *            The page request, its offset and limit may be ignored.
+	 * @return The identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the identifiers could not be searched.
+	 */
+	protected abstract List<String> loadIdentifiers(PageRequest request) throws ServiceException;
+
+	/**
+	 * Reads the elements with the given identifiers.
+	 * 
+	 * @param identifiers
+	 *            The identifiers, never empty.
+	 * @return The elements, in the order of the identifiers. Elements that
+	 *         no longer exist may be left out.
+	 * @throws ServiceException
+	 *             Thrown if the elements could not be read.
+	 */
+	protected abstract List<E> loadItems(List<String> identifiers) throws ServiceException;
+
+	/**
+	 * Writes an element.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param element
+	 *            The element.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	protected abstract void write(JsonWriter writer, E element) throws IOException;
+
+	/**
+	 * Writes what follows the elements, by default the total and the token
+	 * of the next page, if any.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param total
+	 *            The total number of elements of the listing.
+	 * @param count
+	 *            The number of elements written.
+	 * @param next
+	 *            The token of the next page, null if there is none.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	protected void writeEnd(final JsonWriter writer, final int total, final int count, final PageToken next)
+			throws IOException {
+		writer.name("total").value(total);
+		if (!CheckUtil.isNull(next)) {
+			writer.property("nextPageToken", next.encode());
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Writes what precedes the array of elements, by default the start of
+	 * the listing object and the items name.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param total
+	 *            The total number of elements of the listing.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	protected void writeStart(final JsonWriter writer, final int total) throws IOException {
+		writer.beginObject();
+		writer.name("items");
+	}
+
+	/**
+	 * Reads a slice of elements.
+	 * 
+	 * @param identifiers
+	 *            The identifiers of the slice.
+	 * @return The elements.
+	 * @throws ServiceException
+	 *             Thrown if the elements could not be read.
+	 */
+	private List<E> loadSlice(final List<String> identifiers) throws ServiceException {
+		List<E> result = Collections.emptyList();
+		if (!identifiers.isEmpty()) {
+			result = this.loadItems(new ArrayList<String>(identifiers));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,167 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.support.json.JsonReader;
+import org.lunarray.usermanager.support.json.JsonWriter;
+
+/**
+ * An opaque pagination token. It carries the offset of the next element
+ * together with the sorting and filtering of the listing, so a client only
+ * has to pass the token back to continue where the previous response ended.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class PageToken {
+
+	/** The token character set. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** Whether to sort ascending. */
+	private final boolean ascending;
+	/** The filter text, may be null. */
+	private final String filter;
+	/** The offset of the next element. */
+	private final int offset;
+	/** The sort property, may be null. */
+	private final String sortProperty;
+
+	/**
+	 * Constructs the token.
+	 * 
+	 * @param offset
+	 *            The offset of the next element. May not be negative.
+	 * @param sortProperty
+	 *            The sort property, may be null.
+	 * @param ascending
+	 *            Whether to sort ascending.
+	 * @param filter
+	 *            The filter text, may be null.
+	 */
+	public PageToken(final int offset, final String sortProperty, final boolean ascending, final String filter) {
+		Validate.isTrue(offset >= 0, "Offset may not be negative.");
+		this.offset = offset;
+		this.sortProperty = StringUtils.trimToNull(sortProperty);
+		this.ascending = ascending;
+		this.filter = StringUtils.trimToNull(filter);
+	}
+
+	/**
+	 * Decodes a token.
+	 * 
+	 * @param token
+	 *            The encoded token. May not be null.
+	 * @return The token.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the token is malformed.
+	 */
+	public static PageToken decode(final String token) {
+		Validate.notNull(token, "Token may not be null.");
+		int offset = 0;
+		String sortProperty = null;
+		boolean ascending = true;
+		String filter = null;
+		try {
+			final JsonReader reader = new JsonReader(new StringReader(new String(Base64.decodeBase64(token), PageToken.UTF_8)));
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				if ("o".equals(name)) {
+					offset = (int) reader.nextLong();
+				} else if ("s".equals(name)) {
+					sortProperty = reader.nextString();
+				} else if ("a".equals(name)) {
+					ascending = reader.nextBoolean();
+				} else if ("f".equals(name)) {
+					filter = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Malformed page token.", e);
+		}
+		return new PageToken(offset, sortProperty, ascending, filter);
+	}
+
+	/**
+	 * Encodes the token.
+	 * 
+	 * @return The encoded token, safe for use in a URL.
+	 */
+	public String encode() {
+		final StringWriter result = new StringWriter();
+		try {
+			final JsonWriter writer = new JsonWriter(result);
+			writer.beginObject();
+			writer.name("o").value(this.offset);
+			if (!StringUtils.isBlank(this.sortProperty)) {
+				writer.property("s", this.sortProperty);
+			}
+			writer.name("a").value(this.ascending);
+			if (!StringUtils.isBlank(this.filter)) {
+				writer.property("f", this.filter);
+			}
+			writer.endObject();
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not encode token.", e);
+		}
+		return Base64.encodeBase64URLSafeString(result.toString().getBytes(PageToken.UTF_8));
+	}
+
+	/**
+	 * Gets the value for the offset field.
+	 * 
+	 * @return The value for the offset field.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Creates the token continuing at another offset.
+	 * 
+	 * @param nextOffset
+	 *            The offset of the next element.
+	 * @return The token.
+	 */
+	public PageToken moveTo(final int nextOffset) {
+		return new PageToken(nextOffset, this.sortProperty, this.ascending, this.filter);
+	}
+
+	/**
+	 * Creates the page request starting at the offset of this token.
+	 * 
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The page request.
+	 */
+	public PageRequest toRequest(final int limit) {
+		return PageRequest.createBuilder().offset(this.offset).limit(limit).sortProperty(this.sortProperty)
+				.ascending(this.ascending).filter(this.filter).build();
+	}
+}
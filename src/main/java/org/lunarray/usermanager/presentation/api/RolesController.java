@@ -0,0 +1,469 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.AuthorizationException;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.exceptions.JsonSyntaxException;
+import org.lunarray.usermanager.support.json.JsonReader;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Exposes roles and their members as JSON. Listings are streamed page by page
+ * and bulk writes are applied element by element while the request body is
+ * read.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class RolesController {
+
+	/** The role fields selected by default, members are only listed on request. */
+	private static final List<String> DEFAULT_FIELDS = Arrays.asList("identifier", "displayName");
+	/** The role fields. */
+	private static final List<String> FIELDS = Arrays.asList("identifier", "displayName", "users");
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(RolesController.class);
+	/** The number of roles fetched at a time. */
+	private transient int fetchSize = 100;
+	/** The maximum number of roles per response. */
+	private transient int maxLimit = 1000;
+	/** The role service. */
+	private transient RoleService roleService;
+
+	/**
+	 * Default constructor.
+	 */
+	public RolesController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Applies a number of creates, updates and deletes. The body is an array
+	 * of role objects with an action member, either create, update or delete.
+	 * Updates leave the members untouched, those are changed through the
+	 * members of a role. Every element is answered with its own status,
+	 * failures do not stop later elements.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/roles/bulk", method = RequestMethod.POST)
+	public void bulk(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		final JsonReader reader = JsonBodyUtils.createReader(request);
+		final JsonWriter writer = JsonBodyUtils.createWriter(response);
+		try {
+			reader.beginArray();
+			writer.beginArray();
+			while (reader.hasNext()) {
+				final Map<String, Object> properties = JsonBodyUtils.readProperties(reader);
+				this.apply(writer, properties);
+				writer.flush();
+			}
+			reader.endArray();
+			writer.endArray();
+			writer.flush();
+		} catch (final JsonSyntaxException e) {
+			RolesController.LOGGER.warn("Could not read bulk request.", e);
+			if (response.isCommitted()) {
+				writer.beginObject().property("status", "error").property("message", e.getMessage()).endObject();
+				writer.endArray();
+				writer.flush();
+			} else {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Gets a role.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @param fields
+	 *            The comma separated fields to return, may be blank.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/roles/{identifier:.+}", method = RequestMethod.GET)
+	public void getRole(@PathVariable("identifier") final String identifier,
+			@RequestParam(value = "fields", required = false) final String fields, final HttpServletResponse response)
+			throws IOException {
+		final FieldSelection selection;
+		try {
+			selection = this.createSelection(fields);
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			final Role role = this.roleService.getRole(identifier);
+			final JsonWriter writer = JsonBodyUtils.createWriter(response);
+			RolesController.writeRole(writer, role, selection);
+			writer.flush();
+		} catch (final ServiceException e) {
+			RolesController.LOGGER.warn("Could not get role: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			RolesController.LOGGER.warn("Not permitted to get role: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Lists roles. Also mapped below /ui for the session of the user interface,
+	 * which refreshes its tables from it.
+	 * 
+	 * @param pageToken
+	 *            The token of a previous response to continue from, may be
+	 *            null. Takes precedence over sort, order and filter.
+	 * @param limit
+	 *            The maximum number of roles.
+	 * @param sort
+	 *            The sort property, may be null.
+	 * @param order
+	 *            The sort order, either asc or desc.
+	 * @param filter
+	 *            The filter text, may be null.
+	 * @param fields
+	 *            The comma separated fields to return, may be blank.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = { "/roles", "/ui/roles" }, method = RequestMethod.GET)
+	public void getRoles(@RequestParam(value = "pageToken", required = false) final String pageToken,
+			@RequestParam(value = "limit", defaultValue = "100") final int limit,
+			@RequestParam(value = "sort", required = false) final String sort,
+			@RequestParam(value = "order", defaultValue = "asc") final String order,
+			@RequestParam(value = "filter", required = false) final String filter,
+			@RequestParam(value = "fields", required = false) final String fields, final HttpServletResponse response)
+			throws IOException {
+		final FieldSelection selection;
+		final PageToken token;
+		try {
+			selection = this.createSelection(fields);
+			if (StringUtils.isBlank(pageToken)) {
+				token = new PageToken(0, sort, !"desc".equalsIgnoreCase(order), filter);
+			} else {
+				token = PageToken.decode(pageToken);
+			}
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			final PageStreamer<Role> streamer = new RolesStreamer(selection);
+			streamer.stream(JsonBodyUtils.createWriter(response), token, Math.max(1, Math.min(limit, this.maxLimit)));
+		} catch (final ServiceException e) {
+			RolesController.LOGGER.warn("Could not list roles.", e);
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} catch (final AuthorizationException e) {
+			RolesController.LOGGER.warn("Not permitted to list roles.", e);
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			}
+		}
+	}
+
+	/**
+	 * Gets the members of a role.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/roles/{identifier:.+}/users", method = RequestMethod.GET)
+	public void getRoleUsers(@PathVariable("identifier") final String identifier, final HttpServletResponse response)
+			throws IOException {
+		try {
+			final List<String> users = this.roleService.getRoleUsers(identifier);
+			final JsonWriter writer = JsonBodyUtils.createWriter(response);
+			JsonBodyUtils.writeStrings(writer, users);
+			writer.flush();
+		} catch (final ServiceException e) {
+			RolesController.LOGGER.warn("Could not get users of role: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			RolesController.LOGGER.warn("Not permitted to get users of role: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Adds and removes members of a role. The body is an object with an add
+	 * and a remove array of user identifiers, other members are left
+	 * untouched.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/roles/{identifier:.+}/users", method = RequestMethod.POST)
+	public void modifyRoleUsers(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		final List<String> added;
+		final List<String> removed;
+		try {
+			final Map<String, Object> properties = JsonBodyUtils.readProperties(JsonBodyUtils.createReader(request));
+			added = JsonBodyUtils.asStrings(properties.get("add"));
+			removed = JsonBodyUtils.asStrings(properties.get("remove"));
+		} catch (final JsonSyntaxException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			this.roleService.modifyRoleUsers(identifier, added, removed);
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} catch (final ServiceException e) {
+			RolesController.LOGGER.warn("Could not modify users of role: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			RolesController.LOGGER.warn("Not permitted to modify users of role: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Sets a new value for the fetchSize field.
+	 * 
+	 * @param fetchSize
+	 *            The new value for the fetchSize field.
+	 */
+	public void setFetchSize(final int fetchSize) {
+		Validate.isTrue(fetchSize > 0, "Fetch size must be positive.");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets a new value for the maxLimit field.
+	 * 
+	 * @param maxLimit
+	 *            The new value for the maxLimit field.
+	 */
+	public void setMaxLimit(final int maxLimit) {
+		Validate.isTrue(maxLimit > 0, "Maximum limit must be positive.");
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets a new value for the roleService field.
+	 * 
+	 * @param roleService
+	 *            The new value for the roleService field.
+	 */
+	public void setRoleService(final RoleService roleService) {
+		this.roleService = roleService;
+	}
+
+	/**
+	 * Converts a member value to a string.
+	 * 
+	 * @param value
+	 *            The value, may be null.
+	 * @return The string, or null if the value isn't a string.
+	 */
+	private static String asString(final Object value) {
+		if (value instanceof String) {
+			return (String) value;
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a role.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param role
+	 *            The role.
+	 * @param selection
+	 *            The fields to write.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private static void writeRole(final JsonWriter writer, final Role role, final FieldSelection selection)
+			throws IOException {
+		writer.beginObject();
+		if (selection.contains("identifier")) {
+			writer.property("identifier", role.getIdentifier());
+		}
+		if (selection.contains("displayName")) {
+			writer.property("displayName", role.getDisplayName());
+		}
+		if (selection.contains("users")) {
+			writer.name("users");
+			final List<String> users = role.getUsers();
+			if (CheckUtil.isNull(users)) {
+				writer.nullValue();
+			} else {
+				JsonBodyUtils.writeStrings(writer, users);
+			}
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Applies a single element of a bulk request and writes its status.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param properties
+	 *            The element.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private void apply(final JsonWriter writer, final Map<String, Object> properties) throws IOException {
+		final String action = RolesController.asString(properties.get("action"));
+		final String identifier = RolesController.asString(properties.get("identifier"));
+		writer.beginObject();
+		writer.property("identifier", identifier);
+		writer.property("action", action);
+		try {
+			Validate.notNull(identifier, "Identifier may not be null.");
+			if ("create".equals(action)) {
+				final List<String> users = new ArrayList<String>(JsonBodyUtils.asStrings(properties.get("users")));
+				if (users.isEmpty()) {
+					users.add(SecurityUtils.getSubject().getPrincipal().toString());
+				}
+				this.roleService.createRole(Role.createBuilder().identifier(identifier)
+						.displayName(RolesController.asString(properties.get("displayName"))).users(users).build());
+			} else if ("update".equals(action)) {
+				final Role role = this.roleService.getRole(identifier);
+				if (properties.containsKey("displayName")) {
+					role.setDisplayName(RolesController.asString(properties.get("displayName")));
+				}
+				this.roleService.updateRole(role);
+			} else if ("delete".equals(action)) {
+				this.roleService.deleteRole(identifier);
+			} else {
+				throw new IllegalArgumentException(String.format("Unknown action: %s", action));
+			}
+			writer.property("status", "ok");
+		} catch (final ServiceException e) {
+			RolesController.LOGGER.warn("Could not {} role: {}", action, identifier, e);
+			writer.property("status", "error").property("message", e.getMessage());
+		} catch (final AuthorizationException e) {
+			RolesController.LOGGER.warn("Not permitted to {} role: {}", action, identifier, e);
+			writer.property("status", "forbidden").property("message", e.getMessage());
+		} catch (final IllegalArgumentException e) {
+			writer.property("status", "error").property("message", e.getMessage());
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Creates the field selection of a request.
+	 * 
+	 * @param fields
+	 *            The requested fields, may be blank.
+	 * @return The selection.
+	 */
+	private FieldSelection createSelection(final String fields) {
+		return new FieldSelection(fields, RolesController.FIELDS, RolesController.DEFAULT_FIELDS);
+	}
+
+	/**
+	 * Streams pages of roles.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class RolesStreamer
+			extends PageStreamer<Role> {
+
+		/** The fields to write. */
+		private final FieldSelection selection;
+
+		/**
+		 * Constructs the streamer.
+		 * 
+		 * @param selection
+		 *            The fields to write.
+		 */
+		public RolesStreamer(final FieldSelection selection) {
+			super(RolesController.this.fetchSize);
+			this.selection = selection;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<String> loadIdentifiers(final PageRequest request) throws ServiceException {
+			return RolesController.this.roleService.getRoleIdentifiers(request);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<Role> loadItems(final List<String> identifiers) throws ServiceException {
+			return RolesController.this.roleService.getRoles(identifiers);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected void write(final JsonWriter writer, final Role role) throws IOException {
+			RolesController.writeRole(writer, role, this.selection);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Answers incremental searches for users and roles with small JSON arrays,
+ * intended to be called on every keystroke of a search field.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class SearchController {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SearchController.class);
+	/** The maximum number of results a client may ask for. */
+	private transient int maxLimit = 50;
+	/** The role service. */
+	private transient RoleService roleService;
+	/** The user service. */
+	private transient UserService userService;
+
+	/**
+	 * Default constructor.
+	 */
+	public SearchController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Searches roles.
+	 * 
+	 * @param text
+	 *            The text to search for.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/search/roles", method = RequestMethod.GET)
+	public void searchRoles(@RequestParam(value = "q", defaultValue = "") final String text,
+			@RequestParam(value = "limit", defaultValue = "10") final int limit, final HttpServletResponse response) throws IOException {
+		try {
+			final List<Role> roles = this.roleService.searchRoles(text, this.toLimit(limit));
+			final JsonWriter writer = this.createWriter(response);
+			writer.beginArray();
+			for (final Role role : roles) {
+				writer.beginObject();
+				writer.property("identifier", role.getIdentifier());
+				writer.property("displayName", role.getDisplayName());
+				writer.endObject();
+			}
+			writer.endArray();
+			writer.flush();
+		} catch (final ServiceException e) {
+			SearchController.LOGGER.warn("Could not search roles.", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	/**
+	 * Searches users.
+	 * 
+	 * @param text
+	 *            The text to search for.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/search/users", method = RequestMethod.GET)
+	public void searchUsers(@RequestParam(value = "q", defaultValue = "") final String text,
+			@RequestParam(value = "limit", defaultValue = "10") final int limit, final HttpServletResponse response) throws IOException {
+		try {
+			final List<User> users = this.userService.searchUsers(text, this.toLimit(limit));
+			final JsonWriter writer = this.createWriter(response);
+			writer.beginArray();
+			for (final User user : users) {
+				writer.beginObject();
+				writer.property("identifier", user.getIdentifier());
+				writer.property("displayName", user.getDisplayName());
+				writer.property("mail", user.getMail());
+				writer.endObject();
+			}
+			writer.endArray();
+			writer.flush();
+		} catch (final ServiceException e) {
+			SearchController.LOGGER.warn("Could not search users.", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	/**
+	 * Sets a new value for the maxLimit field.
+	 * 
+	 * @param maxLimit
+	 *            The new value for the maxLimit field.
+	 */
+	public void setMaxLimit(final int maxLimit) {
+		Validate.isTrue(maxLimit > 0, "Maximum limit must be positive.");
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets a new value for the roleService field.
+	 * 
+	 * @param roleService
+	 *            The new value for the roleService field.
+	 */
+	public void setRoleService(final RoleService roleService) {
+		this.roleService = roleService;
+	}
+
+	/**
+	 * Sets a new value for the userService field.
+	 * 
+	 * @param userService
+	 *            The new value for the userService field.
+	 */
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+
+	/**
+	 * Prepares the response for a result.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @return The writer to write the result with.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	private JsonWriter createWriter(final HttpServletResponse response) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "private, max-age=5");
+		return new JsonWriter(response.getWriter());
+	}
+
+	/**
+	 * Bounds a requested limit.
+	 * 
+	 * @param limit
+	 *            The requested limit.
+	 * @return The limit to use.
+	 */
+	private int toLimit(final int limit) {
+		return Math.max(1, Math.min(limit, this.maxLimit));
+	}
+}
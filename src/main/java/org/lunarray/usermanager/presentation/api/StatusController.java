@@ -0,0 +1,161 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.lunarray.usermanager.support.OrphanMemberSweeper;
+import org.lunarray.usermanager.support.ServiceExecutor;
+import org.lunarray.usermanager.support.hash.HashingExecutor;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.lunarray.usermanager.support.shiro.DynamicLdapContextFactory;
+import org.lunarray.usermanager.support.shiro.TenantStatistics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Reports the statistics of the directory connection pools, of password
+ * hashing, of the service threads and of the orphan member sweeps, for
+ * monitoring.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class StatusController {
+
+	/** The LDAP context factory. */
+	private transient DynamicLdapContextFactory contextFactory;
+	/** The password hashing executor. */
+	private transient HashingExecutor hashingExecutor;
+	/** The orphan member sweeper. */
+	private transient OrphanMemberSweeper orphanMemberSweeper;
+	/** The service executor. */
+	private transient ServiceExecutor serviceExecutor;
+
+	/**
+	 * Default constructor.
+	 */
+	public StatusController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Gets the status.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/status", method = RequestMethod.GET)
+	public void getStatus(final HttpServletResponse response) throws IOException {
+		final JsonWriter writer = JsonBodyUtils.createWriter(response);
+		writer.beginObject();
+		writer.name("directories");
+		writer.beginArray();
+		for (final Map.Entry<String, TenantStatistics> entry : this.contextFactory.getStatistics().entrySet()) {
+			final TenantStatistics statistics = entry.getValue();
+			writer.beginObject();
+			writer.property("url", entry.getKey());
+			writer.name("active").value(statistics.getActive());
+			writer.name("background").value(statistics.getBackground());
+			writer.name("created").value(statistics.getCreated());
+			writer.name("failures").value(statistics.getFailures());
+			writer.name("rejected").value(statistics.getRejected());
+			writer.name("averageLatency").value(statistics.getAverageLatency());
+			writer.name("maxLatency").value(statistics.getMaxLatency());
+			writer.endObject();
+		}
+		writer.endArray();
+		writer.name("hashing");
+		writer.beginObject();
+		writer.name("active").value(this.hashingExecutor.getActiveCount());
+		writer.name("completed").value(this.hashingExecutor.getCompletedCount());
+		writer.name("queued").value(this.hashingExecutor.getQueueDepth());
+		writer.name("rejected").value(this.hashingExecutor.getRejectedCount());
+		writer.endObject();
+		writer.name("services");
+		writer.beginObject();
+		writer.name("active").value(this.serviceExecutor.getActiveCount());
+		writer.name("completed").value(this.serviceExecutor.getCompletedCount());
+		writer.name("queued").value(this.serviceExecutor.getQueueDepth());
+		writer.name("rejected").value(this.serviceExecutor.getRejectedCount());
+		writer.name("averageWait").value(this.serviceExecutor.getAverageWait());
+		writer.endObject();
+		final OrphanMemberSweeper.Statistics sweeps = this.orphanMemberSweeper.getStatistics();
+		writer.name("orphanSweeps");
+		writer.beginObject();
+		writer.name("running").value(sweeps.isRunning());
+		writer.name("sweeps").value(sweeps.getSweeps());
+		writer.name("failures").value(sweeps.getFailures());
+		writer.name("lastStart").value(sweeps.getLastStart());
+		writer.name("lastDuration").value(sweeps.getLastDuration());
+		writer.name("roles").value(sweeps.getRoles());
+		writer.name("rolesSwept").value(sweeps.getRolesSwept());
+		writer.name("membersChecked").value(sweeps.getMembersChecked());
+		writer.name("orphansFound").value(sweeps.getOrphansFound());
+		writer.name("orphansRemoved").value(sweeps.getOrphansRemoved());
+		writer.endObject();
+		writer.endObject();
+		writer.flush();
+	}
+
+	/**
+	 * Sets a new value for the contextFactory field.
+	 * 
+	 * @param contextFactory
+	 *            The new value for the contextFactory field.
+	 */
+	public void setContextFactory(final DynamicLdapContextFactory contextFactory) {
+		this.contextFactory = contextFactory;
+	}
+
+	/**
+	 * Sets a new value for the hashingExecutor field.
+	 * 
+	 * @param hashingExecutor
+	 *            The new value for the hashingExecutor field.
+	 */
+	public void setHashingExecutor(final HashingExecutor hashingExecutor) {
+		this.hashingExecutor = hashingExecutor;
+	}
+
+	/**
+	 * Sets a new value for the orphanMemberSweeper field.
+	 * 
+	 * @param orphanMemberSweeper
+	 *            The new value for the orphanMemberSweeper field.
+	 */
+	public void setOrphanMemberSweeper(final OrphanMemberSweeper orphanMemberSweeper) {
+		this.orphanMemberSweeper = orphanMemberSweeper;
+	}
+
+	/**
+	 * Sets a new value for the serviceExecutor field.
+	 * 
+	 * @param serviceExecutor
+	 *            The new value for the serviceExecutor field.
+	 */
+	public void setServiceExecutor(final ServiceExecutor serviceExecutor) {
+		this.serviceExecutor = serviceExecutor;
+	}
+}
@@ -0,0 +1,286 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.lunarray.usermanager.domain.ImportProgress;
+import org.lunarray.usermanager.domain.ImportRequest;
+import org.lunarray.usermanager.service.ImportListener;
+import org.lunarray.usermanager.service.TransferService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.lunarray.usermanager.support.transfer.TransferFormat;
+import org.lunarray.usermanager.support.transfer.UserRecordReader;
+import org.lunarray.usermanager.support.transfer.UserRecordWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Imports and exports users as CSV or LDIF. Both directions stream, an
+ * import reports failed records and progress as newline delimited JSON while
+ * it runs.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class TransferController {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransferController.class);
+	/** The model support. */
+	private transient ModelLdapSupport modelLdapSupport;
+	/** The transfer service. */
+	private transient TransferService transferService;
+
+	/**
+	 * Default constructor.
+	 */
+	public TransferController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Exports all users.
+	 * 
+	 * @param format
+	 *            The format, csv or ldif.
+	 * @param roles
+	 *            Whether to export role memberships.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/users/export", method = RequestMethod.GET)
+	public void exportUsers(@RequestParam(value = "format", defaultValue = "csv") final String format,
+			@RequestParam(value = "roles", defaultValue = "false") final boolean roles,
+			final HttpServletResponse response) throws IOException {
+		final TransferFormat transferFormat;
+		try {
+			transferFormat = TransferFormat.forName(format);
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format.");
+			return;
+		}
+		response.setContentType(transferFormat.getContentType());
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		response.setHeader("Content-Disposition",
+				String.format("attachment; filename=\"users.%s\"", transferFormat.name().toLowerCase(Locale.ENGLISH)));
+		final UserRecordWriter writer = transferFormat.createWriter(response.getWriter(), this.modelLdapSupport, roles);
+		try {
+			this.transferService.exportUsers(writer, roles);
+		} catch (final ServiceException e) {
+			TransferController.LOGGER.warn("Could not export users.", e);
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+
+	/**
+	 * Imports users from the request body.
+	 * 
+	 * @param format
+	 *            The format, csv or ldif.
+	 * @param existing
+	 *            What to do with existing users, fail, skip or update.
+	 * @param resumeAfter
+	 *            The checkpoint of an earlier import to resume after.
+	 * @param maxFailures
+	 *            The number of failed records after which to stop.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/users/import", method = RequestMethod.POST)
+	public void importUsers(@RequestParam(value = "format", defaultValue = "csv") final String format,
+			@RequestParam(value = "existing", defaultValue = "fail") final String existing,
+			@RequestParam(value = "resumeAfter", defaultValue = "0") final long resumeAfter,
+			@RequestParam(value = "maxFailures", defaultValue = "1000") final int maxFailures,
+			final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		final TransferFormat transferFormat;
+		final ImportRequest importRequest;
+		try {
+			transferFormat = TransferFormat.forName(format);
+			importRequest = ImportRequest.createBuilder().existing(ImportRequest.Existing.valueOf(existing.toUpperCase(Locale.ENGLISH)))
+					.resumeAfter(resumeAfter).maxFailures(maxFailures).build();
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (request.getCharacterEncoding() == null) {
+			request.setCharacterEncoding("UTF-8");
+		}
+		response.setContentType("application/x-ndjson");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		// Not the print writer, it would swallow the failure of a client that went away.
+		final Writer output = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+		final ProgressListener listener = new ProgressListener(output);
+		final UserRecordReader reader = transferFormat.createReader(request.getReader(), this.modelLdapSupport);
+		try {
+			this.transferService.importUsers(reader, importRequest, listener);
+		} catch (final ServiceException e) {
+			TransferController.LOGGER.warn("Could not import users.", e);
+			listener.error(e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Sets a new value for the modelLdapSupport field.
+	 * 
+	 * @param modelLdapSupport
+	 *            The new value for the modelLdapSupport field.
+	 */
+	public void setModelLdapSupport(final ModelLdapSupport modelLdapSupport) {
+		this.modelLdapSupport = modelLdapSupport;
+	}
+
+	/**
+	 * Sets a new value for the transferService field.
+	 * 
+	 * @param transferService
+	 *            The new value for the transferService field.
+	 */
+	public void setTransferService(final TransferService transferService) {
+		this.transferService = transferService;
+	}
+
+	/**
+	 * Writes import events as lines of JSON. Once the client is gone the
+	 * import is cancelled.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class ProgressListener
+			implements ImportListener {
+
+		/** Whether the import is cancelled. */
+		private volatile boolean cancelled;
+		/** The JSON writer. */
+		private final JsonWriter json;
+		/** The output. */
+		private final Writer output;
+
+		/**
+		 * Constructs the listener.
+		 * 
+		 * @param output
+		 *            The output.
+		 */
+		public ProgressListener(final Writer output) {
+			this.output = output;
+			this.json = new JsonWriter(output);
+		}
+
+		/**
+		 * Reports the import failed.
+		 * 
+		 * @param message
+		 *            The message.
+		 */
+		public synchronized void error(final String message) {
+			try {
+				this.json.beginObject().property("event", "error").property("message", message).endObject();
+				this.endLine();
+			} catch (final IOException e) {
+				this.cancel(e);
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void failed(final long number, final String identifier, final String message) {
+			try {
+				this.json.beginObject().property("event", "failure");
+				this.json.name("record").value(number);
+				this.json.property("identifier", identifier).property("message", message).endObject();
+				this.endLine();
+			} catch (final IOException e) {
+				this.cancel(e);
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void progress(final ImportProgress progress) {
+			try {
+				this.json.beginObject().property("event", "progress");
+				this.json.name("processed").value(progress.getProcessed());
+				this.json.name("created").value(progress.getCreated());
+				this.json.name("updated").value(progress.getUpdated());
+				this.json.name("skipped").value(progress.getSkipped());
+				this.json.name("failed").value(progress.getFailed());
+				this.json.name("checkpoint").value(progress.getCheckpoint());
+				this.json.name("rate").value(Math.round(progress.getRate()));
+				this.json.name("finished").value(progress.isFinished());
+				this.json.endObject();
+				this.endLine();
+			} catch (final IOException e) {
+				this.cancel(e);
+			}
+		}
+
+		/**
+		 * Cancels the import.
+		 * 
+		 * @param cause
+		 *            The cause.
+		 */
+		private void cancel(final IOException cause) {
+			TransferController.LOGGER.info("Client went away, cancelling import.", cause);
+			this.cancelled = true;
+		}
+
+		/**
+		 * Ends an event line.
+		 * 
+		 * @throws IOException
+		 *             Thrown if the output failed.
+		 */
+		private void endLine() throws IOException {
+			this.output.write('\n');
+			this.json.flush();
+		}
+	}
+}
@@ -0,0 +1,509 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.authz.AuthorizationException;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.exceptions.JsonSyntaxException;
+import org.lunarray.usermanager.support.json.JsonReader;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Exposes users and their roles as JSON. Listings are streamed page by page
+ * and bulk writes are applied element by element while the request body is
+ * read, so neither is held in memory as a whole.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class UsersController {
+
+	/** The user fields. */
+	private static final List<String> FIELDS = Arrays.asList("identifier", "displayName", "firstName", "lastName", "mail");
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(UsersController.class);
+	/** The number of users fetched at a time. */
+	private transient int fetchSize = 100;
+	/** The maximum number of users per response. */
+	private transient int maxLimit = 1000;
+	/** The user service. */
+	private transient UserService userService;
+
+	/**
+	 * Default constructor.
+	 */
+	public UsersController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Applies a number of creates, updates and deletes. The body is an array
+	 * of user objects with an action member, either create, update or delete,
+	 * and optionally a password and, for create, roles. Every element is
+	 * answered with its own status, failures do not stop later elements. A
+	 * create that fails setting the password or roles after the user was
+	 * created is answered as partial.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/users/bulk", method = RequestMethod.POST)
+	public void bulk(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		final JsonReader reader = JsonBodyUtils.createReader(request);
+		final JsonWriter writer = JsonBodyUtils.createWriter(response);
+		try {
+			reader.beginArray();
+			writer.beginArray();
+			while (reader.hasNext()) {
+				final Map<String, Object> properties = JsonBodyUtils.readProperties(reader);
+				this.apply(writer, properties);
+				writer.flush();
+			}
+			reader.endArray();
+			writer.endArray();
+			writer.flush();
+		} catch (final JsonSyntaxException e) {
+			UsersController.LOGGER.warn("Could not read bulk request.", e);
+			if (response.isCommitted()) {
+				writer.beginObject().property("status", "error").property("message", e.getMessage()).endObject();
+				writer.endArray();
+				writer.flush();
+			} else {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Gets a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param fields
+	 *            The comma separated fields to return, may be blank.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/users/{identifier:.+}", method = RequestMethod.GET)
+	public void getUser(@PathVariable("identifier") final String identifier,
+			@RequestParam(value = "fields", required = false) final String fields, final HttpServletResponse response)
+			throws IOException {
+		final FieldSelection selection;
+		try {
+			selection = this.createSelection(fields);
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			final User user = this.userService.getUser(identifier);
+			final JsonWriter writer = JsonBodyUtils.createWriter(response);
+			UsersController.writeUser(writer, user, selection);
+			writer.flush();
+		} catch (final ServiceException e) {
+			UsersController.LOGGER.warn("Could not get user: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			UsersController.LOGGER.warn("Not permitted to get user: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Gets the roles of a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/users/{identifier:.+}/roles", method = RequestMethod.GET)
+	public void getUserRoles(@PathVariable("identifier") final String identifier, final HttpServletResponse response)
+			throws IOException {
+		try {
+			final List<String> roles = this.userService.getUserRoles(identifier);
+			final JsonWriter writer = JsonBodyUtils.createWriter(response);
+			JsonBodyUtils.writeStrings(writer, roles);
+			writer.flush();
+		} catch (final ServiceException e) {
+			UsersController.LOGGER.warn("Could not get roles of user: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			UsersController.LOGGER.warn("Not permitted to get roles of user: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Lists users. Also mapped below /ui for the session of the user interface,
+	 * which refreshes its tables from it.
+	 * 
+	 * @param pageToken
+	 *            The token of a previous response to continue from, may be
+	 *            null. Takes precedence over sort, order and filter.
+	 * @param limit
+	 *            The maximum number of users.
+	 * @param sort
+	 *            The sort property, may be null.
+	 * @param order
+	 *            The sort order, either asc or desc.
+	 * @param filter
+	 *            The filter text, may be null.
+	 * @param fields
+	 *            The comma separated fields to return, may be blank.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = { "/users", "/ui/users" }, method = RequestMethod.GET)
+	public void getUsers(@RequestParam(value = "pageToken", required = false) final String pageToken,
+			@RequestParam(value = "limit", defaultValue = "100") final int limit,
+			@RequestParam(value = "sort", required = false) final String sort,
+			@RequestParam(value = "order", defaultValue = "asc") final String order,
+			@RequestParam(value = "filter", required = false) final String filter,
+			@RequestParam(value = "fields", required = false) final String fields, final HttpServletResponse response)
+			throws IOException {
+		final FieldSelection selection;
+		final PageToken token;
+		try {
+			selection = this.createSelection(fields);
+			if (StringUtils.isBlank(pageToken)) {
+				token = new PageToken(0, sort, !"desc".equalsIgnoreCase(order), filter);
+			} else {
+				token = PageToken.decode(pageToken);
+			}
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			final PageStreamer<User> streamer = new UsersStreamer(selection);
+			streamer.stream(JsonBodyUtils.createWriter(response), token, Math.max(1, Math.min(limit, this.maxLimit)));
+		} catch (final ServiceException e) {
+			UsersController.LOGGER.warn("Could not list users.", e);
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} catch (final AuthorizationException e) {
+			UsersController.LOGGER.warn("Not permitted to list users.", e);
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+				response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			}
+		}
+	}
+
+	/**
+	 * Adds and removes roles of a user. The body is an object with an add and
+	 * a remove array of role identifiers, other roles are left untouched.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/users/{identifier:.+}/roles", method = RequestMethod.POST)
+	public void modifyUserRoles(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		final List<String> added;
+		final List<String> removed;
+		try {
+			final Map<String, Object> properties = JsonBodyUtils.readProperties(JsonBodyUtils.createReader(request));
+			added = JsonBodyUtils.asStrings(properties.get("add"));
+			removed = JsonBodyUtils.asStrings(properties.get("remove"));
+		} catch (final JsonSyntaxException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			this.userService.modifyUserRoles(identifier, added, removed);
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} catch (final ServiceException e) {
+			UsersController.LOGGER.warn("Could not modify roles of user: {}", identifier, e);
+			response.sendError(JsonBodyUtils.getStatus(e));
+		} catch (final AuthorizationException e) {
+			UsersController.LOGGER.warn("Not permitted to modify roles of user: {}", identifier, e);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+		}
+	}
+
+	/**
+	 * Sets a new value for the fetchSize field.
+	 * 
+	 * @param fetchSize
+	 *            The new value for the fetchSize field.
+	 */
+	public void setFetchSize(final int fetchSize) {
+		Validate.isTrue(fetchSize > 0, "Fetch size must be positive.");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets a new value for the maxLimit field.
+	 * 
+	 * @param maxLimit
+	 *            The new value for the maxLimit field.
+	 */
+	public void setMaxLimit(final int maxLimit) {
+		Validate.isTrue(maxLimit > 0, "Maximum limit must be positive.");
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets a new value for the userService field.
+	 * 
+	 * @param userService
+	 *            The new value for the userService field.
+	 */
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+
+	/**
+	 * Applies the given values to a user.
+	 * 
+	 * @param user
+	 *            The user.
+	 * @param properties
+	 *            The values, only given members are applied.
+	 */
+	private static void applyProperties(final User user, final Map<String, Object> properties) {
+		if (properties.containsKey("displayName")) {
+			user.setDisplayName(UsersController.asString(properties.get("displayName")));
+		}
+		if (properties.containsKey("firstName")) {
+			user.setFirstName(UsersController.asString(properties.get("firstName")));
+		}
+		if (properties.containsKey("lastName")) {
+			user.setLastName(UsersController.asString(properties.get("lastName")));
+		}
+		if (properties.containsKey("mail")) {
+			user.setMail(UsersController.asString(properties.get("mail")));
+		}
+	}
+
+	/**
+	 * Converts a member value to a string.
+	 * 
+	 * @param value
+	 *            The value, may be null.
+	 * @return The string, or null if the value isn't a string.
+	 */
+	private static String asString(final Object value) {
+		if (value instanceof String) {
+			return (String) value;
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a user.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param user
+	 *            The user.
+	 * @param selection
+	 *            The fields to write.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private static void writeUser(final JsonWriter writer, final User user, final FieldSelection selection)
+			throws IOException {
+		writer.beginObject();
+		if (selection.contains("identifier")) {
+			writer.property("identifier", user.getIdentifier());
+		}
+		if (selection.contains("displayName")) {
+			writer.property("displayName", user.getDisplayName());
+		}
+		if (selection.contains("firstName")) {
+			writer.property("firstName", user.getFirstName());
+		}
+		if (selection.contains("lastName")) {
+			writer.property("lastName", user.getLastName());
+		}
+		if (selection.contains("mail")) {
+			writer.property("mail", user.getMail());
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Applies a single element of a bulk request and writes its status.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param properties
+	 *            The element.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private void apply(final JsonWriter writer, final Map<String, Object> properties) throws IOException {
+		final String action = UsersController.asString(properties.get("action"));
+		final String identifier = UsersController.asString(properties.get("identifier"));
+		boolean created = false;
+		writer.beginObject();
+		writer.property("identifier", identifier);
+		writer.property("action", action);
+		try {
+			Validate.notNull(identifier, "Identifier may not be null.");
+			if ("create".equals(action)) {
+				final List<String> roles = JsonBodyUtils.asStrings(properties.get("roles"));
+				final User user = User.createBuilder().identifier(identifier).build();
+				UsersController.applyProperties(user, properties);
+				this.userService.createUser(user);
+				created = true;
+				this.applyPassword(identifier, properties);
+				if (!roles.isEmpty()) {
+					this.userService.modifyUserRoles(identifier, roles, Collections.<String> emptyList());
+				}
+			} else if ("update".equals(action)) {
+				final User user = this.userService.getUser(identifier);
+				UsersController.applyProperties(user, properties);
+				this.userService.updateUser(user);
+				this.applyPassword(identifier, properties);
+			} else if ("delete".equals(action)) {
+				this.userService.deleteUser(identifier);
+			} else {
+				throw new IllegalArgumentException(String.format("Unknown action: %s", action));
+			}
+			writer.property("status", "ok");
+		} catch (final ServiceException e) {
+			UsersController.LOGGER.warn("Could not {} user: {}", action, identifier, e);
+			writer.property("status", created ? "partial" : "error").property("message", e.getMessage());
+		} catch (final AuthorizationException e) {
+			UsersController.LOGGER.warn("Not permitted to {} user: {}", action, identifier, e);
+			writer.property("status", created ? "partial" : "forbidden").property("message", e.getMessage());
+		} catch (final IllegalArgumentException e) {
+			writer.property("status", created ? "partial" : "error").property("message", e.getMessage());
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Updates the password of a user, if one is given.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param properties
+	 *            The values.
+	 * @throws ServiceException
+	 *             Thrown if the password could not be updated.
+	 */
+	private void applyPassword(final String identifier, final Map<String, Object> properties) throws ServiceException {
+		final String password = UsersController.asString(properties.get("password"));
+		if (!CheckUtil.isNull(password)) {
+			this.userService.updatePassword(identifier, password);
+		}
+	}
+
+	/**
+	 * Creates the field selection of a request.
+	 * 
+	 * @param fields
+	 *            The requested fields, may be blank.
+	 * @return The selection.
+	 */
+	private FieldSelection createSelection(final String fields) {
+		return new FieldSelection(fields, UsersController.FIELDS, UsersController.FIELDS);
+	}
+
+	/**
+	 * Streams pages of users.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class UsersStreamer
+			extends PageStreamer<User> {
+
+		/** The fields to write. */
+		private final FieldSelection selection;
+
+		/**
+		 * Constructs the streamer.
+		 * 
+		 * @param selection
+		 *            The fields to write.
+		 */
+		public UsersStreamer(final FieldSelection selection) {
+			super(UsersController.this.fetchSize);
+			this.selection = selection;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<String> loadIdentifiers(final PageRequest request) throws ServiceException {
+			return UsersController.this.userService.getUserIdentifiers(request);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<User> loadItems(final List<String> identifiers) throws ServiceException {
+			return UsersController.this.userService.getUsers(identifiers);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected void write(final JsonWriter writer, final User user) throws IOException {
+			UsersController.writeUser(writer, user, this.selection);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.presentation.api.JsonBodyUtils;
+import org.lunarray.usermanager.support.exceptions.JsonSyntaxException;
+import org.lunarray.usermanager.support.json.JsonReader;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SCIM bulk request. Operations are read and applied one at a time while
+ * the request body is read, and answered in the same order. Resources
+ * created earlier in the request may be referred to by their bulk
+ * identifier.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ScimBulkRequest {
+
+	/** The bulk identifier reference prefix. */
+	private static final String BULK_ID_PREFIX = "bulkId:";
+	/** The bulk request schema. */
+	private static final String BULK_REQUEST_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:BulkRequest";
+	/** The bulk response schema. */
+	private static final String BULK_RESPONSE_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:BulkResponse";
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScimBulkRequest.class);
+	/** The identifiers of resources created in this request, by bulk identifier. */
+	private final Map<String, String> bulkIds = new HashMap<String, String>();
+	/** The maximum number of operations. */
+	private final int maxOperations;
+	/** The operations to apply resources with. */
+	private final ScimOperations operations;
+	/** The request. */
+	private final HttpServletRequest request;
+
+	/**
+	 * Constructs the bulk request.
+	 * 
+	 * @param operations
+	 *            The operations to apply resources with.
+	 * @param maxOperations
+	 *            The maximum number of operations, further operations are
+	 *            skipped.
+	 * @param request
+	 *            The request.
+	 */
+	public ScimBulkRequest(final ScimOperations operations, final int maxOperations, final HttpServletRequest request) {
+		this.operations = operations;
+		this.maxOperations = maxOperations;
+		this.request = request;
+	}
+
+	/**
+	 * Applies the operations and writes the bulk response.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	public void apply(final HttpServletResponse response) throws IOException {
+		final JsonReader reader = JsonBodyUtils.createReader(this.request);
+		final JsonWriter writer = ScimResponses.createWriter(response, HttpServletResponse.SC_OK);
+		long failOnErrors = Long.MAX_VALUE;
+		int errors = 0;
+		int count = 0;
+		try {
+			reader.beginObject();
+			writer.beginObject();
+			writer.name("schemas");
+			JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimBulkRequest.BULK_RESPONSE_SCHEMA));
+			writer.name("Operations");
+			writer.beginArray();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				if ("failOnErrors".equals(name)) {
+					failOnErrors = reader.nextLong();
+				} else if ("Operations".equals(name)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						if ((errors >= failOnErrors) || (count >= this.maxOperations)) {
+							reader.skipValue();
+						} else {
+							final Object operation = JsonBodyUtils.readValue(reader);
+							count++;
+							if (!this.applyOperation(writer, operation)) {
+								errors++;
+							}
+							writer.flush();
+						}
+					}
+					reader.endArray();
+				} else if ("schemas".equals(name)) {
+					final Object schemas = JsonBodyUtils.readValue(reader);
+					if (!(schemas instanceof List) || !((List<?>) schemas).contains(ScimBulkRequest.BULK_REQUEST_SCHEMA)) {
+						ScimBulkRequest.LOGGER.debug("Bulk request without bulk request schema.");
+					}
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			writer.endArray();
+			writer.endObject();
+			writer.flush();
+		} catch (final JsonSyntaxException e) {
+			ScimBulkRequest.LOGGER.warn("Could not read bulk request.", e);
+			if (response.isCommitted()) {
+				writer.endArray();
+				writer.endObject();
+				writer.flush();
+			} else {
+				response.resetBuffer();
+				ScimResponses.writeError(response, new ScimException(HttpServletResponse.SC_BAD_REQUEST,
+						"invalidSyntax", e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Applies a single bulk operation and writes its result.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param value
+	 *            The operation.
+	 * @return True if and only if the operation succeeded.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private boolean applyOperation(final JsonWriter writer, final Object value) throws IOException {
+		String method = null;
+		String bulkId = null;
+		String location = null;
+		int status;
+		ScimException error = null;
+		try {
+			if (!(value instanceof Map)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", "Operation must be an object.");
+			}
+			final Map<?, ?> operation = (Map<?, ?>) value;
+			method = StringUtils.upperCase(ScimResources.asString(ScimResources.get(operation, "method")));
+			bulkId = ScimResources.asString(ScimResources.get(operation, "bulkId"));
+			final String path = this.resolveBulkIds(ScimResources.asString(ScimResources.get(operation, "path")));
+			final Object data = this.resolveBulkIds(ScimResources.get(operation, "data"));
+			if (StringUtils.isBlank(path) || !path.startsWith("/")) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Operation needs a path.");
+			}
+			final String[] segments = StringUtils.split(path.substring(1), "/", 2);
+			final String type = segments[0];
+			final String identifier = (segments.length > 1) ? segments[1] : null;
+			final boolean users = "Users".equals(type);
+			if (!users && !"Groups".equals(type)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Unknown resource type.");
+			}
+			String resultIdentifier = identifier;
+			if ("POST".equals(method) && CheckUtil.isNull(identifier)) {
+				final Map<?, ?> resource = ScimResources.toResource(data);
+				resultIdentifier = users ? this.operations.createUser(resource).getIdentifier() : this.operations
+						.createRole(resource).getIdentifier();
+				if (!CheckUtil.isNull(bulkId)) {
+					this.bulkIds.put(bulkId, resultIdentifier);
+				}
+				status = HttpServletResponse.SC_CREATED;
+			} else if (CheckUtil.isNull(identifier)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Operation needs an identifier.");
+			} else if ("PUT".equals(method)) {
+				if (users) {
+					this.operations.replaceUser(identifier, ScimResources.toResource(data));
+				} else {
+					this.operations.replaceRole(identifier, ScimResources.toResource(data));
+				}
+				status = HttpServletResponse.SC_OK;
+			} else if ("PATCH".equals(method)) {
+				if (users) {
+					this.operations.patchUser(identifier, ScimResources.toResource(data));
+				} else {
+					this.operations.patchRole(identifier, ScimResources.toResource(data));
+				}
+				status = HttpServletResponse.SC_OK;
+			} else if ("DELETE".equals(method)) {
+				if (users) {
+					this.operations.deleteUser(identifier);
+				} else {
+					this.operations.deleteRole(identifier);
+				}
+				status = HttpServletResponse.SC_NO_CONTENT;
+			} else {
+				throw new ScimException(HttpServletResponse.SC_METHOD_NOT_ALLOWED, null, "Unsupported method.");
+			}
+			location = ScimResources.toLocation(this.request, type, resultIdentifier);
+		} catch (final ScimException e) {
+			error = e;
+			status = e.getStatus();
+		}
+		writer.beginObject();
+		writer.property("method", method);
+		if (!CheckUtil.isNull(bulkId)) {
+			writer.property("bulkId", bulkId);
+		}
+		if (!CheckUtil.isNull(location)) {
+			writer.property("location", location);
+		}
+		writer.property("status", String.valueOf(status));
+		if (!CheckUtil.isNull(error)) {
+			writer.name("response");
+			ScimResponses.writeErrorBody(writer, error);
+		}
+		writer.endObject();
+		return CheckUtil.isNull(error);
+	}
+
+	/**
+	 * Replaces references to resources created earlier in this request by
+	 * their identifiers.
+	 * 
+	 * @param value
+	 *            The value, may be a map, list or string.
+	 * @param <V>
+	 *            The value type.
+	 * @return The value with references replaced.
+	 * @throws ScimException
+	 *             Thrown if a reference is unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> V resolveBulkIds(final V value) throws ScimException {
+		if (value instanceof String) {
+			final String text = (String) value;
+			final int index = text.indexOf(ScimBulkRequest.BULK_ID_PREFIX);
+			if (index < 0) {
+				return value;
+			}
+			final String bulkId = text.substring(index + ScimBulkRequest.BULK_ID_PREFIX.length());
+			if (!this.bulkIds.containsKey(bulkId)) {
+				throw new ScimException(HttpServletResponse.SC_CONFLICT, "invalidValue", String.format(
+						"Unknown bulkId %s.", bulkId));
+			}
+			return (V) (text.substring(0, index) + this.bulkIds.get(bulkId));
+		} else if (value instanceof Map) {
+			final Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+			for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				result.put(entry.getKey(), this.resolveBulkIds(entry.getValue()));
+			}
+			return (V) result;
+		} else if (value instanceof List) {
+			final List<Object> result = new ArrayList<Object>();
+			for (final Object element : (List<?>) value) {
+				result.add(this.resolveBulkIds(element));
+			}
+			return (V) result;
+		}
+		return value;
+	}
+}
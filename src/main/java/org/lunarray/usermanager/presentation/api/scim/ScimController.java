@@ -0,0 +1,824 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.SecurityUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Criterion;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.presentation.api.JsonBodyUtils;
+import org.lunarray.usermanager.presentation.api.PageStreamer;
+import org.lunarray.usermanager.presentation.api.PageToken;
+import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.exceptions.JsonSyntaxException;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * A SCIM 2.0 endpoint for users and groups, the latter being roles. Filters
+ * are translated to directory filters and listings are streamed page by page
+ * from a snapshot of the sorted identifiers, so paging through a listing
+ * searches the directory once. Resources are applied by the SCIM operations.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+@Controller
+public final class ScimController {
+
+	/** The list response schema. */
+	private static final String LIST_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:ListResponse";
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScimController.class);
+	/** The service provider configuration schema. */
+	private static final String SERVICE_PROVIDER_CONFIG_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig";
+	/** The number of entities fetched at a time. */
+	private transient int fetchSize = 100;
+	/** The maximum number of operations per bulk request. */
+	private transient int maxOperations = 1000;
+	/** The maximum number of resources per response. */
+	private transient int maxResults = 1000;
+	/** The operations to apply resources with. */
+	private transient ScimOperations operations;
+	/** The role service. */
+	private transient RoleService roleService;
+	/** The listing snapshots. */
+	private transient ScimSnapshots snapshots;
+	/** The user service. */
+	private transient UserService userService;
+
+	/**
+	 * Default constructor.
+	 */
+	public ScimController() {
+		// Default constructor.
+	}
+
+	/**
+	 * Applies a bulk request. Operations are read and applied one at a time
+	 * while the request body is read, and answered in the same order.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Bulk", method = RequestMethod.POST)
+	public void bulk(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		new ScimBulkRequest(this.operations, this.maxOperations, request).apply(response);
+	}
+
+	/**
+	 * Creates a group.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups", method = RequestMethod.POST)
+	public void createGroup(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		try {
+			final Role role = this.operations.createRole(this.readResource(request));
+			this.writeGroup(request, response, HttpServletResponse.SC_CREATED, role);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Creates a user.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users", method = RequestMethod.POST)
+	public void createUser(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		try {
+			final User user = this.operations.createUser(this.readResource(request));
+			this.writeUser(request, response, HttpServletResponse.SC_CREATED, user);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Deletes a group.
+	 * 
+	 * @param identifier
+	 *            The group identifier.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups/{identifier:.+}", method = RequestMethod.DELETE)
+	public void deleteGroup(@PathVariable("identifier") final String identifier, final HttpServletResponse response)
+			throws IOException {
+		try {
+			this.operations.deleteRole(identifier);
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Deletes a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users/{identifier:.+}", method = RequestMethod.DELETE)
+	public void deleteUser(@PathVariable("identifier") final String identifier, final HttpServletResponse response)
+			throws IOException {
+		try {
+			this.operations.deleteUser(identifier);
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Gets a group.
+	 * 
+	 * @param identifier
+	 *            The group identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups/{identifier:.+}", method = RequestMethod.GET)
+	public void getGroup(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			this.writeGroup(request, response, HttpServletResponse.SC_OK, this.operations.getRole(identifier));
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Lists groups. A listing starting at the first index takes a new
+	 * snapshot of the matching groups, later pages of the same listing are
+	 * read from that snapshot while it lasts.
+	 * 
+	 * @param filter
+	 *            The SCIM filter, may be null.
+	 * @param startIndex
+	 *            The one based index of the first group.
+	 * @param count
+	 *            The maximum number of groups.
+	 * @param sortBy
+	 *            The attribute to sort by, may be null.
+	 * @param sortOrder
+	 *            The sort order, ascending or descending.
+	 * @param excludedAttributes
+	 *            The attributes to leave out, may be null. Excluding members
+	 *            only leaves them out of the response, which keeps it small
+	 *            for large groups; the members are still read.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups", method = RequestMethod.GET)
+	public void getGroups(@RequestParam(value = "filter", required = false) final String filter,
+			@RequestParam(value = "startIndex", defaultValue = "1") final int startIndex,
+			@RequestParam(value = "count", defaultValue = "100") final int count,
+			@RequestParam(value = "sortBy", required = false) final String sortBy,
+			@RequestParam(value = "sortOrder", defaultValue = "ascending") final String sortOrder,
+			@RequestParam(value = "excludedAttributes", required = false) final String excludedAttributes,
+			final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		try {
+			final Criterion criterion = ScimFilters.parseFilter(ScimFilters.GROUP_ATTRIBUTES, ScimResources.GROUP_SCHEMA,
+					filter);
+			final PageToken token = ScimFilters.createToken(ScimFilters.GROUP_ATTRIBUTES, startIndex, sortBy, sortOrder);
+			final boolean members = !StringUtils.containsIgnoreCase(StringUtils.defaultString(excludedAttributes),
+					ScimResources.MEMBERS);
+			this.stream(response, new GroupsStreamer(request, filter, criterion, startIndex, members), token, count);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Describes the supported features.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/ServiceProviderConfig", method = RequestMethod.GET)
+	public void getServiceProviderConfig(final HttpServletResponse response) throws IOException {
+		final JsonWriter writer = ScimResponses.createWriter(response, HttpServletResponse.SC_OK);
+		writer.beginObject();
+		writer.name("schemas");
+		JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimController.SERVICE_PROVIDER_CONFIG_SCHEMA));
+		writer.name("patch").beginObject().name("supported").value(true).endObject();
+		writer.name("bulk").beginObject().name("supported").value(true).name("maxOperations").value(this.maxOperations)
+				.name("maxPayloadSize").value(Integer.MAX_VALUE).endObject();
+		writer.name("filter").beginObject().name("supported").value(true).name("maxResults").value(this.maxResults)
+				.endObject();
+		writer.name("changePassword").beginObject().name("supported").value(true).endObject();
+		writer.name("sort").beginObject().name("supported").value(true).endObject();
+		writer.name("etag").beginObject().name("supported").value(false).endObject();
+		writer.name("authenticationSchemes");
+		writer.beginArray();
+		writer.beginObject().property("type", "oauthbearertoken").property("name", "Bearer token")
+				.property("description", "An access token issued by the token endpoint.").endObject();
+		writer.endArray();
+		writer.endObject();
+		writer.flush();
+	}
+
+	/**
+	 * Gets a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users/{identifier:.+}", method = RequestMethod.GET)
+	public void getUser(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			this.writeUser(request, response, HttpServletResponse.SC_OK, this.operations.getUser(identifier));
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Lists users. A listing starting at the first index takes a new
+	 * snapshot of the matching users, later pages of the same listing are
+	 * read from that snapshot while it lasts.
+	 * 
+	 * @param filter
+	 *            The SCIM filter, may be null.
+	 * @param startIndex
+	 *            The one based index of the first user.
+	 * @param count
+	 *            The maximum number of users.
+	 * @param sortBy
+	 *            The attribute to sort by, may be null.
+	 * @param sortOrder
+	 *            The sort order, ascending or descending.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users", method = RequestMethod.GET)
+	public void getUsers(@RequestParam(value = "filter", required = false) final String filter,
+			@RequestParam(value = "startIndex", defaultValue = "1") final int startIndex,
+			@RequestParam(value = "count", defaultValue = "100") final int count,
+			@RequestParam(value = "sortBy", required = false) final String sortBy,
+			@RequestParam(value = "sortOrder", defaultValue = "ascending") final String sortOrder,
+			final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		try {
+			final Criterion criterion = ScimFilters.parseFilter(ScimFilters.USER_ATTRIBUTES, ScimResources.USER_SCHEMA,
+					filter);
+			final PageToken token = ScimFilters.createToken(ScimFilters.USER_ATTRIBUTES, startIndex, sortBy, sortOrder);
+			this.stream(response, new UsersStreamer(request, filter, criterion, startIndex), token, count);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Modifies a group. Member additions and removals are applied as a
+	 * single incremental membership modification.
+	 * 
+	 * @param identifier
+	 *            The group identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups/{identifier:.+}", method = RequestMethod.PATCH)
+	public void patchGroup(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			final Role role = this.operations.patchRole(identifier, this.readResource(request));
+			this.writeGroup(request, response, HttpServletResponse.SC_OK, role);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Modifies a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users/{identifier:.+}", method = RequestMethod.PATCH)
+	public void patchUser(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			final User user = this.operations.patchUser(identifier, this.readResource(request));
+			this.writeUser(request, response, HttpServletResponse.SC_OK, user);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Replaces a group. The members are changed by the difference with the
+	 * current members only.
+	 * 
+	 * @param identifier
+	 *            The group identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Groups/{identifier:.+}", method = RequestMethod.PUT)
+	public void replaceGroup(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			final Role role = this.operations.replaceRole(identifier, this.readResource(request));
+			this.writeGroup(request, response, HttpServletResponse.SC_OK, role);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Replaces a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @throws IOException
+	 *             Thrown if the body could not be read or the response could
+	 *             not be written.
+	 */
+	@RequestMapping(value = "/scim/v2/Users/{identifier:.+}", method = RequestMethod.PUT)
+	public void replaceUser(@PathVariable("identifier") final String identifier, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		try {
+			final User user = this.operations.replaceUser(identifier, this.readResource(request));
+			this.writeUser(request, response, HttpServletResponse.SC_OK, user);
+		} catch (final ScimException e) {
+			ScimResponses.writeError(response, e);
+		}
+	}
+
+	/**
+	 * Sets a new value for the fetchSize field.
+	 * 
+	 * @param fetchSize
+	 *            The new value for the fetchSize field.
+	 */
+	public void setFetchSize(final int fetchSize) {
+		Validate.isTrue(fetchSize > 0, "Fetch size must be positive.");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets a new value for the maxOperations field.
+	 * 
+	 * @param maxOperations
+	 *            The new value for the maxOperations field.
+	 */
+	public void setMaxOperations(final int maxOperations) {
+		Validate.isTrue(maxOperations > 0, "Maximum operations must be positive.");
+		this.maxOperations = maxOperations;
+	}
+
+	/**
+	 * Sets a new value for the maxResults field.
+	 * 
+	 * @param maxResults
+	 *            The new value for the maxResults field.
+	 */
+	public void setMaxResults(final int maxResults) {
+		Validate.isTrue(maxResults > 0, "Maximum results must be positive.");
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Sets a new value for the operations field.
+	 * 
+	 * @param operations
+	 *            The new value for the operations field.
+	 */
+	public void setOperations(final ScimOperations operations) {
+		this.operations = operations;
+	}
+
+	/**
+	 * Sets a new value for the roleService field.
+	 * 
+	 * @param roleService
+	 *            The new value for the roleService field.
+	 */
+	public void setRoleService(final RoleService roleService) {
+		this.roleService = roleService;
+	}
+
+	/**
+	 * Sets a new value for the snapshots field.
+	 * 
+	 * @param snapshots
+	 *            The new value for the snapshots field.
+	 */
+	public void setSnapshots(final ScimSnapshots snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Sets a new value for the userService field.
+	 * 
+	 * @param userService
+	 *            The new value for the userService field.
+	 */
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+
+	/**
+	 * Reads the resource in the body of a request.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @return The resource.
+	 * @throws IOException
+	 *             Thrown if the body could not be read.
+	 * @throws ScimException
+	 *             Thrown if the body is malformed.
+	 */
+	private Map<?, ?> readResource(final HttpServletRequest request) throws IOException, ScimException {
+		try {
+			return ScimResources.toResource(JsonBodyUtils.readValue(JsonBodyUtils.createReader(request)));
+		} catch (final JsonSyntaxException e) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", e.getMessage());
+		}
+	}
+
+	/**
+	 * Streams a listing.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @param streamer
+	 *            The streamer.
+	 * @param token
+	 *            The token of the first element.
+	 * @param count
+	 *            The requested number of elements.
+	 * @param <E>
+	 *            The element type.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 * @throws ScimException
+	 *             Thrown if the listing could not be started.
+	 */
+	private <E> void stream(final HttpServletResponse response, final ScimStreamer<E> streamer, final PageToken token,
+			final int count) throws IOException, ScimException {
+		try {
+			if (count <= 0) {
+				final int total = streamer.loadIdentifiers(token.toRequest(1)).size();
+				final JsonWriter writer = ScimResponses.createWriter(response, HttpServletResponse.SC_OK);
+				streamer.writeStart(writer, total);
+				writer.beginArray().endArray();
+				streamer.writeEnd(writer, total, 0, null);
+				writer.flush();
+			} else {
+				streamer.stream(ScimResponses.createWriter(response, HttpServletResponse.SC_OK), token, Math.min(count,
+						this.maxResults));
+			}
+		} catch (final ServiceException e) {
+			if (response.isCommitted()) {
+				ScimController.LOGGER.warn("Could not complete listing.", e);
+			} else {
+				response.resetBuffer();
+				throw new ScimException(e);
+			}
+		} catch (final IllegalArgumentException e) {
+			response.resetBuffer();
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidFilter", e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a group.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @param status
+	 *            The HTTP status.
+	 * @param role
+	 *            The role.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	private void writeGroup(final HttpServletRequest request, final HttpServletResponse response, final int status,
+			final Role role) throws IOException {
+		final String location = ScimResources.toLocation(request, "Groups", role.getIdentifier());
+		response.setHeader("Location", location);
+		final JsonWriter writer = ScimResponses.createWriter(response, status);
+		ScimResources.writeGroup(writer, role, location, true);
+		writer.flush();
+	}
+
+	/**
+	 * Writes a user.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param response
+	 *            The response.
+	 * @param status
+	 *            The HTTP status.
+	 * @param user
+	 *            The user.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	private void writeUser(final HttpServletRequest request, final HttpServletResponse response, final int status,
+			final User user) throws IOException {
+		final String location = ScimResources.toLocation(request, "Users", user.getIdentifier());
+		response.setHeader("Location", location);
+		final JsonWriter writer = ScimResponses.createWriter(response, status);
+		ScimResources.writeUser(writer, user, location);
+		writer.flush();
+	}
+
+	/**
+	 * Streams pages of groups.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class GroupsStreamer
+			extends ScimStreamer<Role> {
+
+		/** Whether to write the members. */
+		private final boolean members;
+		/** The request. */
+		private final HttpServletRequest request;
+
+		/**
+		 * Constructs the streamer.
+		 * 
+		 * @param request
+		 *            The request.
+		 * @param filter
+		 *            The SCIM filter, may be null.
+		 * @param criterion
+		 *            The criterion, may be null.
+		 * @param startIndex
+		 *            The one based index of the first group.
+		 * @param members
+		 *            Whether to write the members.
+		 */
+		public GroupsStreamer(final HttpServletRequest request, final String filter, final Criterion criterion,
+				final int startIndex, final boolean members) {
+			super("Groups", filter, criterion, startIndex);
+			this.request = request;
+			this.members = members;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<String> loadCriterion(final PageRequest request) throws ServiceException {
+			return ScimController.this.roleService.getRoleIdentifiers(request);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<Role> loadItems(final List<String> identifiers) throws ServiceException {
+			return ScimController.this.roleService.getRoles(identifiers);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected void write(final JsonWriter writer, final Role role) throws IOException {
+			ScimResources.writeGroup(writer, role, ScimResources.toLocation(this.request, "Groups", role.getIdentifier()),
+					this.members);
+		}
+	}
+
+	/**
+	 * Streams pages of resources as a SCIM list response, passing the filter
+	 * criterion on to the services. The identifiers are read from the
+	 * snapshot of the listing unless the listing starts at the first index,
+	 * in which case a new snapshot is taken.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 * @param <E>
+	 *            The element type.
+	 */
+	private abstract class ScimStreamer<E>
+			extends PageStreamer<E> {
+
+		/** The criterion, may be null. */
+		private final Criterion criterion;
+		/** The SCIM filter, may be null. */
+		private final String filter;
+		/** The one based index of the first resource. */
+		private final int startIndex;
+		/** The resource type. */
+		private final String type;
+
+		/**
+		 * Constructs the streamer.
+		 * 
+		 * @param type
+		 *            The resource type.
+		 * @param filter
+		 *            The SCIM filter, may be null.
+		 * @param criterion
+		 *            The criterion, may be null.
+		 * @param startIndex
+		 *            The one based index of the first resource.
+		 */
+		public ScimStreamer(final String type, final String filter, final Criterion criterion, final int startIndex) {
+			super(ScimController.this.fetchSize);
+			this.type = type;
+			this.filter = filter;
+			this.criterion = criterion;
+			this.startIndex = Math.max(1, startIndex);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected final List<String> loadIdentifiers(final PageRequest request) throws ServiceException {
+			final String key = StringUtils.join(new Object[] { this.type, SecurityUtils.getSubject().getPrincipal(),
+					request.getSortProperty(), Boolean.valueOf(request.isAscending()), this.filter }, '\n');
+			List<String> result = null;
+			if (this.startIndex > 1) {
+				result = ScimController.this.snapshots.get(key);
+			}
+			if (CheckUtil.isNull(result)) {
+				result = ScimController.this.snapshots.put(key, this.loadCriterion(PageRequest.createBuilder()
+						.offset(request.getOffset()).limit(request.getLimit()).sortProperty(request.getSortProperty())
+						.ascending(request.isAscending()).criterion(this.criterion).build()));
+			}
+			return result;
+		}
+
+		/**
+		 * Searches the sorted identifiers of the resources.
+		 * 
+		 * @param request
+		 *            The page request, including the criterion.
+		 * @return The identifiers.
+		 * @throws ServiceException
+		 *             Thrown if the identifiers could not be searched.
+		 */
+		protected abstract List<String> loadCriterion(PageRequest request) throws ServiceException;
+
+		/** {@inheritDoc} */
+		@Override
+		protected final void writeEnd(final JsonWriter writer, final int total, final int count, final PageToken next)
+				throws IOException {
+			writer.name("itemsPerPage").value(count);
+			writer.endObject();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected final void writeStart(final JsonWriter writer, final int total) throws IOException {
+			writer.beginObject();
+			writer.name("schemas");
+			JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimController.LIST_SCHEMA));
+			writer.name("totalResults").value(total);
+			writer.name("startIndex").value(this.startIndex);
+			writer.name("Resources");
+		}
+	}
+
+	/**
+	 * Streams pages of users.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class UsersStreamer
+			extends ScimStreamer<User> {
+
+		/** The request. */
+		private final HttpServletRequest request;
+
+		/**
+		 * Constructs the streamer.
+		 * 
+		 * @param request
+		 *            The request.
+		 * @param filter
+		 *            The SCIM filter, may be null.
+		 * @param criterion
+		 *            The criterion, may be null.
+		 * @param startIndex
+		 *            The one based index of the first user.
+		 */
+		public UsersStreamer(final HttpServletRequest request, final String filter, final Criterion criterion,
+				final int startIndex) {
+			super("Users", filter, criterion, startIndex);
+			this.request = request;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<String> loadCriterion(final PageRequest request) throws ServiceException {
+			return ScimController.this.userService.getUserIdentifiers(request);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected List<User> loadItems(final List<String> identifiers) throws ServiceException {
+			return ScimController.this.userService.getUsers(identifiers);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected void write(final JsonWriter writer, final User user) throws IOException {
+			ScimResources.writeUser(writer, user, ScimResources.toLocation(this.request, "Users", user.getIdentifier()));
+		}
+	}
+}
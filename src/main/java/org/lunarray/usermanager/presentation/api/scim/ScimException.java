@@ -0,0 +1,94 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
+import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+
+/**
+ * A SCIM error, carrying the HTTP status and SCIM error type to answer with.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public class ScimException
+		extends Exception {
+
+	/** Serial id. */
+	private static final long serialVersionUID = 5237417480265939047L;
+	/** The SCIM error type, may be null. */
+	private final String scimType;
+	/** The HTTP status. */
+	private final int status;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param status
+	 *            The HTTP status.
+	 * @param scimType
+	 *            The SCIM error type, may be null.
+	 * @param message
+	 *            The exception message.
+	 */
+	public ScimException(final int status, final String scimType, final String message) {
+		super(message);
+		this.status = status;
+		this.scimType = scimType;
+	}
+
+	/**
+	 * Constructs the exception for a failed service call.
+	 * 
+	 * @param cause
+	 *            The exception cause.
+	 */
+	public ScimException(final ServiceException cause) {
+		super(cause.getMessage(), cause);
+		if (cause.getCause() instanceof EntityNotFoundException) {
+			this.status = HttpServletResponse.SC_NOT_FOUND;
+			this.scimType = null;
+		} else if (cause.getCause() instanceof EntityAlreadyExistsException) {
+			this.status = HttpServletResponse.SC_CONFLICT;
+			this.scimType = "uniqueness";
+		} else {
+			this.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+			this.scimType = null;
+		}
+	}
+
+	/**
+	 * Gets the value for the scimType field.
+	 * 
+	 * @return The value for the scimType field.
+	 */
+	public final String getScimType() {
+		return this.scimType;
+	}
+
+	/**
+	 * Gets the value for the status field.
+	 * 
+	 * @return The value for the status field.
+	 */
+	public final int getStatus() {
+		return this.status;
+	}
+}
@@ -0,0 +1,314 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Criterion;
+import org.lunarray.usermanager.domain.Criterion.Operator;
+
+/**
+ * Parses a SCIM filter expression into a criterion on domain properties, so
+ * the filter can be evaluated by the directory instead of in memory.
+ * Attribute paths are matched case insensitively and may carry the schema
+ * URN. Complex attribute filters, such as emails[type eq "work"], are not
+ * supported.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ScimFilterParser {
+
+	/** The SCIM attribute paths, in lower case, and their domain properties. */
+	private final Map<String, String> attributes;
+	/** The position in the expression. */
+	private transient int position;
+	/** The schema URN attribute paths may be prefixed with. */
+	private final String schema;
+	/** The filter expression. */
+	private final String text;
+
+	/**
+	 * Constructs the parser.
+	 * 
+	 * @param attributes
+	 *            The SCIM attribute paths, in lower case, and their domain
+	 *            properties. May not be null.
+	 * @param schema
+	 *            The schema URN attribute paths may be prefixed with. May not
+	 *            be null.
+	 * @param text
+	 *            The filter expression. May not be null.
+	 */
+	public ScimFilterParser(final Map<String, String> attributes, final String schema, final String text) {
+		Validate.notNull(attributes, "Attributes may not be null.");
+		Validate.notNull(schema, "Schema may not be null.");
+		Validate.notNull(text, "Text may not be null.");
+		this.attributes = attributes;
+		this.schema = schema.toLowerCase(Locale.ENGLISH);
+		this.text = text;
+	}
+
+	/**
+	 * Parses the expression.
+	 * 
+	 * @return The criterion.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the expression is malformed or uses an
+	 *             unsupported attribute or operator.
+	 */
+	public Criterion parse() {
+		this.position = 0;
+		final Criterion result = this.parseOr();
+		this.skipWhitespace();
+		Validate.isTrue(this.position == this.text.length(), this.error("Unexpected input"));
+		return result;
+	}
+
+	/**
+	 * Describes an error at the current position.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @return The description.
+	 */
+	private String error(final String message) {
+		return String.format("%s at position %s of filter.", message, this.position);
+	}
+
+	/**
+	 * Reads an expected character.
+	 * 
+	 * @param expected
+	 *            The character.
+	 */
+	private void expect(final char expected) {
+		this.skipWhitespace();
+		Validate.isTrue((this.position < this.text.length()) && (this.text.charAt(this.position) == expected),
+				this.error(String.format("Expected %s", expected)));
+		this.position++;
+	}
+
+	/**
+	 * Tests whether a character may be part of a word.
+	 * 
+	 * @param c
+	 *            The character.
+	 * @return True if and only if the character may be part of a word.
+	 */
+	private boolean isWordCharacter(final char c) {
+		return Character.isLetterOrDigit(c) || (c == '.') || (c == ':') || (c == '-') || (c == '_') || (c == '$')
+				|| (c == '+');
+	}
+
+	/**
+	 * Parses a conjunction.
+	 * 
+	 * @return The criterion.
+	 */
+	private Criterion parseAnd() {
+		Criterion result = this.parseUnary();
+		while (this.readKeyword("and")) {
+			result = Criterion.and(result, this.parseUnary());
+		}
+		return result;
+	}
+
+	/**
+	 * Parses an attribute expression.
+	 * 
+	 * @return The criterion.
+	 */
+	private Criterion parseAttribute() {
+		final String path = this.readWord();
+		Validate.isTrue(path.length() > 0, this.error("Expected an attribute"));
+		this.skipWhitespace();
+		Validate.isTrue((this.position >= this.text.length()) || (this.text.charAt(this.position) != '['),
+				this.error("Complex attribute filters are not supported"));
+		String key = path.toLowerCase(Locale.ENGLISH);
+		if (key.startsWith(this.schema + ":")) {
+			key = key.substring(this.schema.length() + 1);
+		}
+		final String property = this.attributes.get(key);
+		Validate.notNull(property, String.format("Unsupported attribute %s in filter.", path));
+		final String operator = this.readWord().toLowerCase(Locale.ENGLISH);
+		if ("pr".equals(operator)) {
+			return Criterion.present(property);
+		}
+		final String value = this.readValue();
+		if (CheckUtil.isNull(value)) {
+			if ("eq".equals(operator)) {
+				return Criterion.not(Criterion.present(property));
+			}
+			Validate.isTrue("ne".equals(operator), this.error("Only eq and ne may compare with null"));
+			return Criterion.present(property);
+		}
+		return Criterion.compare(property, this.toOperator(operator), value);
+	}
+
+	/**
+	 * Parses a disjunction.
+	 * 
+	 * @return The criterion.
+	 */
+	private Criterion parseOr() {
+		Criterion result = this.parseAnd();
+		while (this.readKeyword("or")) {
+			result = Criterion.or(result, this.parseAnd());
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a negation, a grouping or an attribute expression.
+	 * 
+	 * @return The criterion.
+	 */
+	private Criterion parseUnary() {
+		this.skipWhitespace();
+		if (this.readKeyword("not")) {
+			this.expect('(');
+			final Criterion result = Criterion.not(this.parseOr());
+			this.expect(')');
+			return result;
+		} else if ((this.position < this.text.length()) && (this.text.charAt(this.position) == '(')) {
+			this.position++;
+			final Criterion result = this.parseOr();
+			this.expect(')');
+			return result;
+		}
+		return this.parseAttribute();
+	}
+
+	/**
+	 * Reads a keyword, if it is next.
+	 * 
+	 * @param keyword
+	 *            The keyword, in lower case.
+	 * @return True if and only if the keyword was read.
+	 */
+	private boolean readKeyword(final String keyword) {
+		this.skipWhitespace();
+		final int end = this.position + keyword.length();
+		if ((end <= this.text.length()) && this.text.substring(this.position, end).equalsIgnoreCase(keyword)
+				&& ((end == this.text.length()) || !this.isWordCharacter(this.text.charAt(end)))) {
+			this.position = end;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a comparison value.
+	 * 
+	 * @return The value as text, null for the null literal.
+	 */
+	private String readValue() {
+		this.skipWhitespace();
+		Validate.isTrue(this.position < this.text.length(), this.error("Expected a value"));
+		if (this.text.charAt(this.position) != '"') {
+			final String literal = this.readWord();
+			Validate.isTrue(literal.length() > 0, this.error("Expected a value"));
+			return "null".equals(literal) ? null : literal;
+		}
+		this.position++;
+		final StringBuilder builder = new StringBuilder();
+		while (true) {
+			Validate.isTrue(this.position < this.text.length(), this.error("Unterminated string"));
+			final char c = this.text.charAt(this.position++);
+			if (c == '"') {
+				return builder.toString();
+			} else if (c == '\\') {
+				Validate.isTrue(this.position < this.text.length(), this.error("Unterminated escape"));
+				final char escaped = this.text.charAt(this.position++);
+				if (escaped == 'u') {
+					Validate.isTrue(this.position + 4 <= this.text.length(), this.error("Unterminated escape"));
+					try {
+						builder.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+					} catch (final NumberFormatException e) {
+						throw new IllegalArgumentException(this.error("Invalid unicode escape"), e);
+					}
+					this.position += 4;
+				} else if (escaped == 'n') {
+					builder.append('\n');
+				} else if (escaped == 't') {
+					builder.append('\t');
+				} else {
+					builder.append(escaped);
+				}
+			} else {
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads a word, that is an attribute path, an operator or a literal.
+	 * 
+	 * @return The word, empty if there is none.
+	 */
+	private String readWord() {
+		this.skipWhitespace();
+		final int start = this.position;
+		while ((this.position < this.text.length()) && this.isWordCharacter(this.text.charAt(this.position))) {
+			this.position++;
+		}
+		return this.text.substring(start, this.position);
+	}
+
+	/**
+	 * Skips white space.
+	 */
+	private void skipWhitespace() {
+		while ((this.position < this.text.length()) && Character.isWhitespace(this.text.charAt(this.position))) {
+			this.position++;
+		}
+	}
+
+	/**
+	 * Converts a SCIM comparison operator.
+	 * 
+	 * @param operator
+	 *            The operator, in lower case.
+	 * @return The criterion operator.
+	 */
+	private Operator toOperator(final String operator) {
+		if ("eq".equals(operator)) {
+			return Operator.EQUALS;
+		} else if ("ne".equals(operator)) {
+			return Operator.NOT_EQUALS;
+		} else if ("co".equals(operator)) {
+			return Operator.CONTAINS;
+		} else if ("sw".equals(operator)) {
+			return Operator.STARTS_WITH;
+		} else if ("ew".equals(operator)) {
+			return Operator.ENDS_WITH;
+		} else if ("gt".equals(operator)) {
+			return Operator.GREATER;
+		} else if ("ge".equals(operator)) {
+			return Operator.GREATER_OR_EQUAL;
+		} else if ("lt".equals(operator)) {
+			return Operator.LESS;
+		} else if ("le".equals(operator)) {
+			return Operator.LESS_OR_EQUAL;
+		}
+		throw new IllegalArgumentException(this.error(String.format("Unsupported operator %s", operator)));
+	}
+}
@@ -0,0 +1,142 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Criterion;
+import org.lunarray.usermanager.presentation.api.PageToken;
+
+/**
+ * Translates SCIM filters, member paths and sort parameters to criteria and
+ * page tokens.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum ScimFilters {
+	/** The util instance. */
+	INSTANCE;
+
+	/** The filterable group attributes and their role properties. */
+	public static final Map<String, String> GROUP_ATTRIBUTES;
+	/** The filterable user attributes and their user properties. */
+	public static final Map<String, String> USER_ATTRIBUTES;
+
+	static {
+		final Map<String, String> users = new HashMap<String, String>();
+		users.put("id", "identifier");
+		users.put("username", "identifier");
+		users.put("displayname", "displayName");
+		users.put("name.givenname", "firstName");
+		users.put("name.familyname", "lastName");
+		users.put("emails", "mail");
+		users.put("emails.value", "mail");
+		USER_ATTRIBUTES = Collections.unmodifiableMap(users);
+		final Map<String, String> groups = new HashMap<String, String>();
+		groups.put("id", "identifier");
+		groups.put("displayname", "displayName");
+		GROUP_ATTRIBUTES = Collections.unmodifiableMap(groups);
+	}
+
+	/**
+	 * Creates the token of the first element of a listing.
+	 * 
+	 * @param attributes
+	 *            The sortable attributes.
+	 * @param startIndex
+	 *            The one based index of the first element.
+	 * @param sortBy
+	 *            The attribute to sort by, may be null.
+	 * @param sortOrder
+	 *            The sort order.
+	 * @return The token.
+	 * @throws ScimException
+	 *             Thrown if the attribute can not be sorted by.
+	 */
+	public static PageToken createToken(final Map<String, String> attributes, final int startIndex, final String sortBy,
+			final String sortOrder) throws ScimException {
+		String sortProperty = null;
+		if (!StringUtils.isBlank(sortBy)) {
+			sortProperty = attributes.get(sortBy.toLowerCase(Locale.ENGLISH));
+			if (CheckUtil.isNull(sortProperty)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "Unsupported sortBy attribute.");
+			}
+		}
+		return new PageToken(Math.max(0, startIndex - 1), sortProperty, !"descending".equalsIgnoreCase(sortOrder), null);
+	}
+
+	/**
+	 * Parses a filter.
+	 * 
+	 * @param attributes
+	 *            The filterable attributes.
+	 * @param schema
+	 *            The resource schema.
+	 * @param filter
+	 *            The filter, may be blank.
+	 * @return The criterion, null for a blank filter.
+	 * @throws ScimException
+	 *             Thrown if the filter is malformed or unsupported.
+	 */
+	public static Criterion parseFilter(final Map<String, String> attributes, final String schema, final String filter)
+			throws ScimException {
+		if (StringUtils.isBlank(filter)) {
+			return null;
+		}
+		try {
+			return new ScimFilterParser(attributes, schema, filter).parse();
+		} catch (final IllegalArgumentException e) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidFilter", e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the value of a members[value eq "..."] path.
+	 * 
+	 * @param path
+	 *            The path.
+	 * @return The member identifier.
+	 * @throws ScimException
+	 *             Thrown if the path is unsupported.
+	 */
+	public static String toMemberFilterValue(final String path) throws ScimException {
+		final int open = path.indexOf('[');
+		final int close = path.lastIndexOf(']');
+		if ((open < 0) || (close < open)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Unsupported members path.");
+		}
+		final Map<String, String> attributes = Collections.singletonMap("value", "value");
+		try {
+			final Criterion criterion = new ScimFilterParser(attributes, ScimResources.GROUP_SCHEMA, path.substring(
+					open + 1, close)).parse();
+			if (criterion.getOperator() == Criterion.Operator.EQUALS) {
+				return criterion.getValue();
+			}
+		} catch (final IllegalArgumentException e) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidFilter", e.getMessage());
+		}
+		throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidFilter", "Only value eq is supported.");
+	}
+}
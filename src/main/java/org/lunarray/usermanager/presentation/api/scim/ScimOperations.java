@@ -0,0 +1,468 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.AuthorizationException;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies SCIM resources and patch requests to users and roles. Group member
+ * changes are applied as incremental membership modifications, so a group is
+ * never rewritten as a whole.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ScimOperations {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScimOperations.class);
+	/** The patch operation schema. */
+	private static final String PATCH_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
+	/** The role service. */
+	private transient RoleService roleService;
+	/** The user service. */
+	private transient UserService userService;
+
+	/**
+	 * Default constructor.
+	 */
+	public ScimOperations() {
+		// Default constructor.
+	}
+
+	/**
+	 * Creates a role from a group resource.
+	 * 
+	 * @param resource
+	 *            The resource.
+	 * @return The created role.
+	 * @throws ScimException
+	 *             Thrown if the role could not be created.
+	 */
+	public Role createRole(final Map<?, ?> resource) throws ScimException {
+		final String identifier = ScimResources.asString(ScimResources.get(resource, "displayName"));
+		if (StringUtils.isBlank(identifier)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "A group needs a displayName.");
+		}
+		final List<String> members = ScimResources.toMembers(ScimResources.get(resource, ScimResources.MEMBERS));
+		if (members.isEmpty()) {
+			members.add(SecurityUtils.getSubject().getPrincipal().toString());
+		}
+		final Role role = Role.createBuilder().identifier(identifier).displayName(identifier).users(members).build();
+		try {
+			this.roleService.createRole(role);
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return role;
+	}
+
+	/**
+	 * Creates a user from a user resource.
+	 * 
+	 * @param resource
+	 *            The resource.
+	 * @return The created user.
+	 * @throws ScimException
+	 *             Thrown if the user could not be created.
+	 */
+	public User createUser(final Map<?, ?> resource) throws ScimException {
+		final String identifier = ScimResources.asString(ScimResources.get(resource, "userName"));
+		if (StringUtils.isBlank(identifier)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "A user needs a userName.");
+		}
+		final Map<String, String> changes = new HashMap<String, String>();
+		ScimResources.collectUserChanges(changes, resource, true);
+		final User user = User.createBuilder().identifier(identifier).build();
+		ScimResources.applyUserChanges(user, changes);
+		try {
+			this.userService.createUser(user);
+			if (!CheckUtil.isNull(changes.get(ScimResources.PASSWORD))) {
+				this.userService.updatePassword(identifier, changes.get(ScimResources.PASSWORD));
+			}
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return user;
+	}
+
+	/**
+	 * Deletes a role.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @throws ScimException
+	 *             Thrown if the role could not be deleted.
+	 */
+	public void deleteRole(final String identifier) throws ScimException {
+		try {
+			this.roleService.deleteRole(identifier);
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+	}
+
+	/**
+	 * Deletes a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @throws ScimException
+	 *             Thrown if the user could not be deleted.
+	 */
+	public void deleteUser(final String identifier) throws ScimException {
+		try {
+			this.userService.deleteUser(identifier);
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+	}
+
+	/**
+	 * Gets a role.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @return The role.
+	 * @throws ScimException
+	 *             Thrown if the role could not be read.
+	 */
+	public Role getRole(final String identifier) throws ScimException {
+		try {
+			return this.roleService.getRole(identifier);
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+	}
+
+	/**
+	 * Gets a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @return The user.
+	 * @throws ScimException
+	 *             Thrown if the user could not be read.
+	 */
+	public User getUser(final String identifier) throws ScimException {
+		try {
+			return this.userService.getUser(identifier);
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+	}
+
+	/**
+	 * Applies a patch request to a role. All member additions and removals
+	 * are collected and applied in one incremental modification.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @param patch
+	 *            The patch request.
+	 * @return The modified role.
+	 * @throws ScimException
+	 *             Thrown if the patch could not be applied.
+	 */
+	public Role patchRole(final String identifier, final Map<?, ?> patch) throws ScimException {
+		final Role role = this.getRole(identifier);
+		final Set<String> added = new LinkedHashSet<String>();
+		final Set<String> removed = new LinkedHashSet<String>();
+		boolean renamed = false;
+		for (final Map<?, ?> operation : this.toOperations(patch)) {
+			final String op = StringUtils.lowerCase(ScimResources.asString(ScimResources.get(operation, "op")));
+			final String path = StringUtils.trimToEmpty(ScimResources.asString(ScimResources.get(operation, "path")));
+			final Object value = ScimResources.get(operation, "value");
+			final Map<?, ?> values;
+			if (path.length() == 0) {
+				values = ScimResources.toResource(value);
+			} else if ("displayname".equalsIgnoreCase(path)) {
+				values = Collections.singletonMap("displayName", value);
+			} else if (path.toLowerCase(Locale.ENGLISH).startsWith(ScimResources.MEMBERS)) {
+				values = Collections.singletonMap(ScimResources.MEMBERS, value);
+				if ("remove".equals(op) && (path.length() > ScimResources.MEMBERS.length())) {
+					removed.add(ScimFilters.toMemberFilterValue(path));
+					added.removeAll(removed);
+					continue;
+				}
+			} else {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Unsupported path.");
+			}
+			if (ScimResources.has(values, "displayName")) {
+				if ("remove".equals(op)) {
+					role.setDisplayName(null);
+				} else {
+					role.setDisplayName(ScimResources.asString(ScimResources.get(values, "displayName")));
+				}
+				renamed = true;
+			}
+			if (ScimResources.has(values, ScimResources.MEMBERS)) {
+				final List<String> members = ScimResources.toMembers(ScimResources.get(values, ScimResources.MEMBERS));
+				if ("add".equals(op)) {
+					added.addAll(members);
+					removed.removeAll(members);
+				} else if ("remove".equals(op)) {
+					removed.addAll(members.isEmpty() ? ScimResources.currentMembers(role) : members);
+					added.removeAll(removed);
+				} else if ("replace".equals(op)) {
+					final Set<String> current = new LinkedHashSet<String>(ScimResources.currentMembers(role));
+					current.addAll(added);
+					current.removeAll(removed);
+					added.clear();
+					removed.clear();
+					for (final String member : members) {
+						if (!current.remove(member)) {
+							added.add(member);
+						}
+					}
+					removed.addAll(current);
+				} else {
+					throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", "Unsupported op.");
+				}
+			}
+		}
+		try {
+			if (renamed) {
+				this.roleService.updateRole(role);
+			}
+			if (!added.isEmpty() || !removed.isEmpty()) {
+				this.roleService.modifyRoleUsers(identifier, added, removed);
+			}
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return this.getRole(identifier);
+	}
+
+	/**
+	 * Applies a patch request to a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param patch
+	 *            The patch request.
+	 * @return The modified user.
+	 * @throws ScimException
+	 *             Thrown if the patch could not be applied.
+	 */
+	public User patchUser(final String identifier, final Map<?, ?> patch) throws ScimException {
+		final User user = this.getUser(identifier);
+		final Map<String, String> changes = new HashMap<String, String>();
+		for (final Map<?, ?> operation : this.toOperations(patch)) {
+			final String op = StringUtils.lowerCase(ScimResources.asString(ScimResources.get(operation, "op")));
+			final String path = StringUtils.trimToEmpty(ScimResources.asString(ScimResources.get(operation, "path")));
+			final Object value = "remove".equals(op) ? null : ScimResources.get(operation, "value");
+			if (!"add".equals(op) && !"replace".equals(op) && !"remove".equals(op)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", "Unsupported op.");
+			}
+			if (path.length() == 0) {
+				ScimResources.collectUserChanges(changes, ScimResources.toResource(value), false);
+			} else {
+				final String key = path.toLowerCase(Locale.ENGLISH);
+				final Map<String, Object> resource = new LinkedHashMap<String, Object>();
+				if (key.startsWith("name.")) {
+					resource.put("name", Collections.singletonMap(path.substring("name.".length()), value));
+				} else if (key.startsWith("emails")) {
+					resource.put("emails", "emails.value".equals(key) ? Collections.singletonMap("value", value) : value);
+				} else if ("name".equals(key) && CheckUtil.isNull(value)) {
+					resource.put("name", new HashMap<String, Object>());
+					changes.put("firstName", null);
+					changes.put("lastName", null);
+				} else if ("displayname".equals(key) || "name".equals(key) || ScimResources.PASSWORD.equals(key)) {
+					resource.put(path, value);
+				} else {
+					throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidPath", "Unsupported path.");
+				}
+				ScimResources.collectUserChanges(changes, resource, false);
+			}
+		}
+		ScimResources.applyUserChanges(user, changes);
+		try {
+			this.userService.updateUser(user);
+			if (!CheckUtil.isNull(changes.get(ScimResources.PASSWORD))) {
+				this.userService.updatePassword(identifier, changes.get(ScimResources.PASSWORD));
+			}
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return user;
+	}
+
+	/**
+	 * Replaces a role by a group resource. Only the difference in members is
+	 * written.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @param resource
+	 *            The resource.
+	 * @return The replaced role.
+	 * @throws ScimException
+	 *             Thrown if the role could not be replaced.
+	 */
+	public Role replaceRole(final String identifier, final Map<?, ?> resource) throws ScimException {
+		final Role role = this.getRole(identifier);
+		final Set<String> removed = new LinkedHashSet<String>(ScimResources.currentMembers(role));
+		final Set<String> added = new LinkedHashSet<String>();
+		for (final String member : ScimResources.toMembers(ScimResources.get(resource, ScimResources.MEMBERS))) {
+			if (!removed.remove(member)) {
+				added.add(member);
+			}
+		}
+		try {
+			if (ScimResources.has(resource, "displayName")) {
+				role.setDisplayName(ScimResources.asString(ScimResources.get(resource, "displayName")));
+				this.roleService.updateRole(role);
+			}
+			if (!added.isEmpty() || !removed.isEmpty()) {
+				this.roleService.modifyRoleUsers(identifier, added, removed);
+			}
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return this.getRole(identifier);
+	}
+
+	/**
+	 * Replaces a user by a user resource.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @param resource
+	 *            The resource.
+	 * @return The replaced user.
+	 * @throws ScimException
+	 *             Thrown if the user could not be replaced.
+	 */
+	public User replaceUser(final String identifier, final Map<?, ?> resource) throws ScimException {
+		final String userName = ScimResources.asString(ScimResources.get(resource, "userName"));
+		if (!CheckUtil.isNull(userName) && !identifier.equals(userName)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "mutability", "The userName can not be changed.");
+		}
+		final User user = this.getUser(identifier);
+		final Map<String, String> changes = new HashMap<String, String>();
+		ScimResources.collectUserChanges(changes, resource, true);
+		ScimResources.applyUserChanges(user, changes);
+		try {
+			this.userService.updateUser(user);
+			if (!CheckUtil.isNull(changes.get(ScimResources.PASSWORD))) {
+				this.userService.updatePassword(identifier, changes.get(ScimResources.PASSWORD));
+			}
+		} catch (final ServiceException e) {
+			throw new ScimException(e);
+		} catch (final AuthorizationException e) {
+			throw this.forbidden(e);
+		}
+		return user;
+	}
+
+	/**
+	 * Sets a new value for the roleService field.
+	 * 
+	 * @param roleService
+	 *            The new value for the roleService field.
+	 */
+	public void setRoleService(final RoleService roleService) {
+		this.roleService = roleService;
+	}
+
+	/**
+	 * Sets a new value for the userService field.
+	 * 
+	 * @param userService
+	 *            The new value for the userService field.
+	 */
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+
+	/**
+	 * Creates the error for a denied operation.
+	 * 
+	 * @param cause
+	 *            The cause.
+	 * @return The error.
+	 */
+	private ScimException forbidden(final AuthorizationException cause) {
+		ScimOperations.LOGGER.warn("Denied SCIM operation.", cause);
+		return new ScimException(HttpServletResponse.SC_FORBIDDEN, null, "Not permitted.");
+	}
+
+	/**
+	 * Gets the operations of a patch request.
+	 * 
+	 * @param patch
+	 *            The patch request.
+	 * @return The operations.
+	 * @throws ScimException
+	 *             Thrown if the request is malformed.
+	 */
+	private List<Map<?, ?>> toOperations(final Map<?, ?> patch) throws ScimException {
+		final Object schemas = ScimResources.get(patch, "schemas");
+		final Object operations = ScimResources.get(patch, "Operations");
+		if (!(schemas instanceof Collection) || !((Collection<?>) schemas).contains(ScimOperations.PATCH_SCHEMA)
+				|| !(operations instanceof List)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", "Expected a patch request.");
+		}
+		final List<Map<?, ?>> result = new ArrayList<Map<?, ?>>();
+		for (final Object operation : (List<?>) operations) {
+			result.add(ScimResources.toResource(operation));
+		}
+		return result;
+	}
+}
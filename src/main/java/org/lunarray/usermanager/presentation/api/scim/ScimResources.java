@@ -0,0 +1,327 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.presentation.api.JsonBodyUtils;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Maps SCIM user and group resources to and from users and roles.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum ScimResources {
+	/** The util instance. */
+	INSTANCE;
+
+	/** The group schema. */
+	public static final String GROUP_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:Group";
+	/** The members attribute. */
+	public static final String MEMBERS = "members";
+	/** The password pseudo property. */
+	public static final String PASSWORD = "password";
+	/** The user schema. */
+	public static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+
+	/**
+	 * Applies property changes to a user.
+	 * 
+	 * @param user
+	 *            The user.
+	 * @param changes
+	 *            The changes.
+	 */
+	public static void applyUserChanges(final User user, final Map<String, String> changes) {
+		if (changes.containsKey("displayName")) {
+			user.setDisplayName(changes.get("displayName"));
+		}
+		if (changes.containsKey("firstName")) {
+			user.setFirstName(changes.get("firstName"));
+		}
+		if (changes.containsKey("lastName")) {
+			user.setLastName(changes.get("lastName"));
+		}
+		if (changes.containsKey("mail")) {
+			user.setMail(changes.get("mail"));
+		}
+	}
+
+	/**
+	 * Converts a value to a string.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The string, null if the value is null.
+	 * @throws ScimException
+	 *             Thrown if the value isn't a string.
+	 */
+	public static String asString(final Object value) throws ScimException {
+		if (CheckUtil.isNull(value) || (value instanceof String)) {
+			return (String) value;
+		}
+		throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "Expected a string value.");
+	}
+
+	/**
+	 * Applies the members of a SCIM user resource to user properties.
+	 * 
+	 * @param changes
+	 *            The property changes to add to, the password is added as
+	 *            the password property.
+	 * @param resource
+	 *            The resource.
+	 * @param replace
+	 *            Whether absent members are to be cleared.
+	 * @throws ScimException
+	 *             Thrown if the resource is malformed.
+	 */
+	public static void collectUserChanges(final Map<String, String> changes, final Map<?, ?> resource,
+			final boolean replace) throws ScimException {
+		if (replace || ScimResources.has(resource, "displayName")) {
+			changes.put("displayName", ScimResources.asString(ScimResources.get(resource, "displayName")));
+		}
+		final Object name = ScimResources.get(resource, "name");
+		if (replace || (name instanceof Map)) {
+			final Map<?, ?> names = (name instanceof Map) ? (Map<?, ?>) name : Collections.emptyMap();
+			if (replace || ScimResources.has(names, "givenName")) {
+				changes.put("firstName", ScimResources.asString(ScimResources.get(names, "givenName")));
+			}
+			if (replace || ScimResources.has(names, "familyName")) {
+				changes.put("lastName", ScimResources.asString(ScimResources.get(names, "familyName")));
+			}
+		}
+		if (replace || ScimResources.has(resource, "emails")) {
+			changes.put("mail", ScimResources.toMail(ScimResources.get(resource, "emails")));
+		}
+		if (ScimResources.has(resource, ScimResources.PASSWORD)) {
+			changes.put(ScimResources.PASSWORD, ScimResources.asString(ScimResources.get(resource,
+					ScimResources.PASSWORD)));
+		}
+	}
+
+	/**
+	 * Gets the current members of a role.
+	 * 
+	 * @param role
+	 *            The role.
+	 * @return The member identifiers.
+	 */
+	public static List<String> currentMembers(final Role role) {
+		return CheckUtil.isNull(role.getUsers()) ? Collections.<String> emptyList() : role.getUsers();
+	}
+
+	/**
+	 * Gets a member of a resource, ignoring case as SCIM attribute names are
+	 * case insensitive.
+	 * 
+	 * @param resource
+	 *            The resource.
+	 * @param name
+	 *            The member name.
+	 * @return The value, may be null.
+	 */
+	public static Object get(final Map<?, ?> resource, final String name) {
+		for (final Map.Entry<?, ?> entry : resource.entrySet()) {
+			if (name.equalsIgnoreCase(String.valueOf(entry.getKey()))) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tests whether a resource has a member, ignoring case.
+	 * 
+	 * @param resource
+	 *            The resource.
+	 * @param name
+	 *            The member name.
+	 * @return True if and only if the member is present.
+	 */
+	public static boolean has(final Map<?, ?> resource, final String name) {
+		for (final Object key : resource.keySet()) {
+			if (name.equalsIgnoreCase(String.valueOf(key))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the location of a resource.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param type
+	 *            The resource type, Users or Groups.
+	 * @param identifier
+	 *            The identifier.
+	 * @return The location.
+	 */
+	public static String toLocation(final HttpServletRequest request, final String type, final String identifier) {
+		return ServletUriComponentsBuilder.fromServletMapping(request).pathSegment("scim", "v2", type, identifier).build()
+				.encode().toUriString();
+	}
+
+	/**
+	 * Selects the mail address of an emails value.
+	 * 
+	 * @param value
+	 *            The value, a list of email objects, a single one or null.
+	 * @return The primary address, or the first if none is primary.
+	 * @throws ScimException
+	 *             Thrown if the value is malformed.
+	 */
+	public static String toMail(final Object value) throws ScimException {
+		if (CheckUtil.isNull(value)) {
+			return null;
+		}
+		final List<?> emails = (value instanceof List) ? (List<?>) value : Collections.singletonList(value);
+		String result = null;
+		for (final Object email : emails) {
+			if (!(email instanceof Map)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "Emails must be objects.");
+			}
+			final String address = ScimResources.asString(ScimResources.get((Map<?, ?>) email, "value"));
+			if (Boolean.TRUE.equals(ScimResources.get((Map<?, ?>) email, "primary"))) {
+				return address;
+			} else if (CheckUtil.isNull(result)) {
+				result = address;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the member identifiers of a members value.
+	 * 
+	 * @param value
+	 *            The value, a list of member objects or a single one.
+	 * @return The identifiers.
+	 * @throws ScimException
+	 *             Thrown if the value is malformed.
+	 */
+	public static List<String> toMembers(final Object value) throws ScimException {
+		final List<String> result = new ArrayList<String>();
+		if (CheckUtil.isNull(value)) {
+			return result;
+		}
+		final List<?> members = (value instanceof List) ? (List<?>) value : Collections.singletonList(value);
+		for (final Object member : members) {
+			if (!(member instanceof Map) || !(ScimResources.get((Map<?, ?>) member, "value") instanceof String)) {
+				throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidValue", "Members must have a value.");
+			}
+			result.add((String) ScimResources.get((Map<?, ?>) member, "value"));
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a value to a resource.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The resource.
+	 * @throws ScimException
+	 *             Thrown if the value isn't an object.
+	 */
+	public static Map<?, ?> toResource(final Object value) throws ScimException {
+		if (!(value instanceof Map)) {
+			throw new ScimException(HttpServletResponse.SC_BAD_REQUEST, "invalidSyntax", "Expected an object.");
+		}
+		return (Map<?, ?>) value;
+	}
+
+	/**
+	 * Writes a group resource.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param role
+	 *            The role.
+	 * @param location
+	 *            The location of the group.
+	 * @param members
+	 *            Whether to write the members.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public static void writeGroup(final JsonWriter writer, final Role role, final String location,
+			final boolean members) throws IOException {
+		writer.beginObject();
+		writer.name("schemas");
+		JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimResources.GROUP_SCHEMA));
+		writer.property("id", role.getIdentifier());
+		writer.property("displayName", StringUtils.defaultIfEmpty(role.getDisplayName(), role.getIdentifier()));
+		if (members) {
+			writer.name(ScimResources.MEMBERS);
+			writer.beginArray();
+			for (final String member : ScimResources.currentMembers(role)) {
+				writer.beginObject().property("value", member).property("type", "User").endObject();
+			}
+			writer.endArray();
+		}
+		writer.name("meta").beginObject().property("resourceType", "Group").property("location", location).endObject();
+		writer.endObject();
+	}
+
+	/**
+	 * Writes a user resource.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param user
+	 *            The user.
+	 * @param location
+	 *            The location of the user.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public static void writeUser(final JsonWriter writer, final User user, final String location) throws IOException {
+		writer.beginObject();
+		writer.name("schemas");
+		JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimResources.USER_SCHEMA));
+		writer.property("id", user.getIdentifier());
+		writer.property("userName", user.getIdentifier());
+		writer.property("displayName", user.getDisplayName());
+		writer.name("name").beginObject().property("givenName", user.getFirstName())
+				.property("familyName", user.getLastName()).endObject();
+		writer.name("emails");
+		writer.beginArray();
+		if (!StringUtils.isBlank(user.getMail())) {
+			writer.beginObject().property("value", user.getMail()).name("primary").value(true).endObject();
+		}
+		writer.endArray();
+		writer.name("meta").beginObject().property("resourceType", "User").property("location", location).endObject();
+		writer.endObject();
+	}
+}
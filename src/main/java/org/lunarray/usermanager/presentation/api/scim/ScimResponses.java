@@ -0,0 +1,106 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.presentation.api.JsonBodyUtils;
+import org.lunarray.usermanager.support.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares SCIM responses and writes SCIM errors.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum ScimResponses {
+	/** The util instance. */
+	INSTANCE;
+
+	/** The response content type. */
+	private static final String CONTENT_TYPE = "application/scim+json";
+	/** The error schema. */
+	private static final String ERROR_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:Error";
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScimResponses.class);
+
+	/**
+	 * Prepares the response for a SCIM result.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @param status
+	 *            The HTTP status.
+	 * @return The writer to write the result with.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	public static JsonWriter createWriter(final HttpServletResponse response, final int status) throws IOException {
+		response.setStatus(status);
+		response.setContentType(ScimResponses.CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		return new JsonWriter(response.getWriter());
+	}
+
+	/**
+	 * Writes an error response.
+	 * 
+	 * @param response
+	 *            The response.
+	 * @param error
+	 *            The error.
+	 * @throws IOException
+	 *             Thrown if the response could not be written.
+	 */
+	public static void writeError(final HttpServletResponse response, final ScimException error) throws IOException {
+		if (error.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+			ScimResponses.LOGGER.warn("Could not perform SCIM request.", error);
+		}
+		final JsonWriter writer = ScimResponses.createWriter(response, error.getStatus());
+		ScimResponses.writeErrorBody(writer, error);
+		writer.flush();
+	}
+
+	/**
+	 * Writes an error object.
+	 * 
+	 * @param writer
+	 *            The writer.
+	 * @param error
+	 *            The error.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public static void writeErrorBody(final JsonWriter writer, final ScimException error) throws IOException {
+		writer.beginObject();
+		writer.name("schemas");
+		JsonBodyUtils.writeStrings(writer, Collections.singletonList(ScimResponses.ERROR_SCHEMA));
+		writer.property("status", String.valueOf(error.getStatus()));
+		if (!CheckUtil.isNull(error.getScimType())) {
+			writer.property("scimType", error.getScimType());
+		}
+		writer.property("detail", error.getMessage());
+		writer.endObject();
+	}
+}
@@ -0,0 +1,146 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.api.scim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+
+/**
+ * Remembers the sorted identifiers of recent SCIM listings. A client paging
+ * through a listing by startIndex then reads every page from one snapshot,
+ * rather than having the whole directory searched and sorted again for each
+ * page. Snapshots expire after a while, so a listing that is started anew
+ * reflects changes made since. The number of snapshots is bounded and the
+ * least recently used one is evicted first.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ScimSnapshots {
+
+	/** The maximum number of snapshots. */
+	private transient int maxSnapshots = 16;
+	/** The snapshots by key, least recently used first. */
+	private final transient Map<String, Snapshot> snapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+	/** The time a snapshot is used for in milliseconds. */
+	private transient long timeToLive = 10 * 60 * 1000;
+
+	/**
+	 * Default constructor.
+	 */
+	public ScimSnapshots() {
+		// Default constructor.
+	}
+
+	/**
+	 * Gets a snapshot.
+	 * 
+	 * @param key
+	 *            The key of the listing.
+	 * @return The identifiers, null if there is no current snapshot.
+	 */
+	public List<String> get(final String key) {
+		synchronized (this.snapshots) {
+			final Snapshot snapshot = this.snapshots.get(key);
+			if (CheckUtil.isNull(snapshot)) {
+				return null;
+			}
+			if (snapshot.expires < System.currentTimeMillis()) {
+				this.snapshots.remove(key);
+				return null;
+			}
+			return snapshot.identifiers;
+		}
+	}
+
+	/**
+	 * Remembers a snapshot, replacing any earlier one of the same listing.
+	 * 
+	 * @param key
+	 *            The key of the listing.
+	 * @param identifiers
+	 *            The sorted identifiers.
+	 * @return The remembered identifiers.
+	 */
+	public List<String> put(final String key, final List<String> identifiers) {
+		final List<String> copy = Collections.unmodifiableList(new ArrayList<String>(identifiers));
+		final Snapshot snapshot = new Snapshot(copy, System.currentTimeMillis() + this.timeToLive);
+		synchronized (this.snapshots) {
+			this.snapshots.put(key, snapshot);
+			final Iterator<Snapshot> iterator = this.snapshots.values().iterator();
+			while (this.snapshots.size() > this.maxSnapshots) {
+				iterator.next();
+				iterator.remove();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Sets a new value for the maxSnapshots field.
+	 * 
+	 * @param maxSnapshots
+	 *            The new value for the maxSnapshots field.
+	 */
+	public void setMaxSnapshots(final int maxSnapshots) {
+		Validate.isTrue(maxSnapshots >= 0, "Maximum snapshots may not be negative.");
+		this.maxSnapshots = maxSnapshots;
+	}
+
+	/**
+	 * Sets a new value for the timeToLive field.
+	 * 
+	 * @param timeToLive
+	 *            The new value for the timeToLive field.
+	 */
+	public void setTimeToLive(final long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * A snapshot of a listing.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Snapshot {
+
+		/** The expiry time. */
+		private final long expires;
+		/** The sorted identifiers. */
+		private final List<String> identifiers;
+
+		/**
+		 * Constructs the snapshot.
+		 * 
+		 * @param identifiers
+		 *            The sorted identifiers.
+		 * @param expires
+		 *            The expiry time.
+		 */
+		public Snapshot(final List<String> identifiers, final long expires) {
+			this.identifiers = identifiers;
+			this.expires = expires;
+		}
+	}
+}
@@ -54,6 +54,9 @@ public final class PresentationRole
 	@QualifierPresentationHint(hint = @PresentationHint(immutable = BooleanInherit.FALSE, order = 0), name = Create.class)
 	@Size(min = PresentationRole.NAME_MIN_LENGTH)
 	private String identifier;
+	/** The entry version, null if unknown. */
+	@PresentationHint(visible = BooleanInherit.FALSE)
+	private String version;
 
 	/**
 	 * Default constructor.
@@ -95,6 +98,15 @@ public final class PresentationRole
 		return this.identifier;
 	}
 
+	/**
+	 * Gets the value for the version field.
+	 * 
+	 * @return The value for the version field.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
@@ -121,6 +133,16 @@ public final class PresentationRole
 		this.identifier = identifier;
 	}
 
+	/**
+	 * Sets a new value for the version field.
+	 * 
+	 * @param version
+	 *            The new value for the version field.
+	 */
+	public void setVersion(final String version) {
+		this.version = version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -138,6 +160,8 @@ public final class PresentationRole
 		private transient String displayNameBuilder;
 		/** The role identifier. */
 		private transient String identifierBuilder;
+		/** The entry version. */
+		private transient String versionBuilder;
 
 		/**
 		 * Default constructor.
@@ -154,6 +178,7 @@ public final class PresentationRole
 		public PresentationRole build() {
 			final PresentationRole result = new PresentationRole();
 			result.setIdentifier(this.identifierBuilder);
+			result.setVersion(this.versionBuilder);
 			result.setDisplayName(this.displayNameBuilder);
 			return result;
 		}
@@ -181,5 +206,17 @@ public final class PresentationRole
 			this.identifierBuilder = identifier;
 			return this;
 		}
+
+		/**
+		 * Sets a new value for the version field.
+		 * 
+		 * @param version
+		 *            The new value for the version field.
+		 * @return The builder.
+		 */
+		public Builder version(final String version) {
+			this.versionBuilder = version;
+			return this;
+		}
 	}
 }
@@ -66,6 +66,9 @@ public final class PresentationUser
 	@PresentationHint(order = 18)
 	@Size(min = PresentationUser.NAME_MIN_LENGTH)
 	private String mail;
+	/** The entry version, null if unknown. */
+	@PresentationHint(visible = BooleanInherit.FALSE)
+	private String version;
 
 	/**
 	 * Default constructor.
@@ -134,6 +137,15 @@ public final class PresentationUser
 		return this.mail;
 	}
 
+	/**
+	 * Gets the value for the version field.
+	 * 
+	 * @return The value for the version field.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
@@ -190,6 +202,16 @@ public final class PresentationUser
 		this.mail = mail;
 	}
 
+	/**
+	 * Sets a new value for the version field.
+	 * 
+	 * @param version
+	 *            The new value for the version field.
+	 */
+	public void setVersion(final String version) {
+		this.version = version;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -212,6 +234,8 @@ public final class PresentationUser
 		private transient String lastNameBuilder;
 		/** The users email address. */
 		private transient String mailBuilder;
+		/** The entry version. */
+		private transient String versionBuilder;
 
 		/**
 		 * Default constructor.
@@ -232,6 +256,7 @@ public final class PresentationUser
 			user.setIdentifier(this.identifierBuilder);
 			user.setLastName(this.lastNameBuilder);
 			user.setMail(this.mailBuilder);
+			user.setVersion(this.versionBuilder);
 			return user;
 		}
 
@@ -294,5 +319,17 @@ public final class PresentationUser
 			this.mailBuilder = mail;
 			return this;
 		}
+
+		/**
+		 * Sets a new value for the version field.
+		 * 
+		 * @param version
+		 *            The new value for the version field.
+		 * @return The builder.
+		 */
+		public Builder version(final String version) {
+			this.versionBuilder = version;
+			return this;
+		}
 	}
 }
@@ -49,7 +49,7 @@ public final class PresentationRoleAdapter
 	 */
 	public PresentationRole toPresentationRole(final Role value) {
 		final PresentationRole.Builder builder = PresentationRole.createBuilder();
-		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName());
+		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName()).version(value.getVersion());
 		return builder.build();
 	}
 
@@ -62,7 +62,7 @@ public final class PresentationRoleAdapter
 	 */
 	public Role toRole(final PresentationRole value) {
 		final Role.Builder builder = Role.createBuilder();
-		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName());
+		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName()).version(value.getVersion());
 		return builder.build();
 	}
 }
@@ -50,7 +50,7 @@ public final class PresentationUserAdapter
 	public PresentationUser toPresentationUser(final User value) {
 		final PresentationUser.Builder builder = PresentationUser.createBuilder();
 		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName()).mail(value.getMail());
-		builder.firstName(value.getFirstName()).lastName(value.getLastName());
+		builder.firstName(value.getFirstName()).lastName(value.getLastName()).version(value.getVersion());
 		return builder.build();
 	}
 
@@ -64,7 +64,7 @@ public final class PresentationUserAdapter
 	public User toUser(final PresentationUser value) {
 		final User.Builder builder = User.createBuilder();
 		builder.identifier(value.getIdentifier()).displayName(value.getDisplayName()).mail(value.getMail());
-		builder.firstName(value.getFirstName()).lastName(value.getLastName());
+		builder.firstName(value.getFirstName()).lastName(value.getLastName()).version(value.getVersion());
 		return builder.build();
 	}
 }
@@ -0,0 +1,195 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.presentation.parameter.TableParameter;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.jsf.MessageUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A table model that loads only the current page. Paging, sorting and
+ * filtering are taken from the table parameters and passed on to the loader,
+ * so the model never holds more than a page of elements.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ * @param <E>
+ *            The element type.
+ */
+public abstract class LazyDataModel<E>
+		implements Serializable {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(LazyDataModel.class);
+	/** Serial id. */
+	private static final long serialVersionUID = 8420316546124395473L;
+	/** The loaded page. */
+	private Page<E> page;
+	/** The page size. */
+	private final int pageSize;
+	/** The table parameters. */
+	private final TableParameter parameter;
+
+	/**
+	 * Constructs the model.
+	 * 
+	 * @param parameter
+	 *            The table parameters. May not be null.
+	 * @param pageSize
+	 *            The page size. Must be positive.
+	 */
+	public LazyDataModel(final TableParameter parameter, final int pageSize) {
+		Validate.notNull(parameter, "Parameter may not be null.");
+		Validate.isTrue(pageSize > 0, "Page size must be positive.");
+		this.parameter = parameter;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Gets the number of the next page.
+	 * 
+	 * @return The next page number.
+	 */
+	public final int getNextPageNumber() {
+		return (int) Math.min(Integer.MAX_VALUE, this.getPageNumber() + 1L);
+	}
+
+	/**
+	 * Gets the offset of the first element of the current page. A page number
+	 * beyond the range of an offset gives the largest offset, which simply
+	 * yields an empty page.
+	 * 
+	 * @return The offset.
+	 */
+	public final int getOffset() {
+		return (int) Math.min(Integer.MAX_VALUE, (this.getPageNumber() - 1L) * this.pageSize);
+	}
+
+	/**
+	 * Gets the page count.
+	 * 
+	 * @return The number of pages, at least 1.
+	 */
+	public final int getPageCount() {
+		return Math.max(1, ((this.getTotal() + this.pageSize) - 1) / this.pageSize);
+	}
+
+	/**
+	 * Gets the current page number.
+	 * 
+	 * @return The page number, starting at 1.
+	 */
+	public final int getPageNumber() {
+		return this.parameter.getPage();
+	}
+
+	/**
+	 * Gets the value for the pageSize field.
+	 * 
+	 * @return The value for the pageSize field.
+	 */
+	public final int getPageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Gets the number of the previous page.
+	 * 
+	 * @return The previous page number.
+	 */
+	public final int getPreviousPageNumber() {
+		return Math.max(1, this.getPageNumber() - 1);
+	}
+
+	/**
+	 * Gets the elements of the current page.
+	 * 
+	 * @return The elements.
+	 */
+	public final List<E> getRows() {
+		return this.loadPage().getItems();
+	}
+
+	/**
+	 * Gets the total number of matching elements.
+	 * 
+	 * @return The total.
+	 */
+	public final int getTotal() {
+		return this.loadPage().getTotal();
+	}
+
+	/**
+	 * Tests whether there is a next page.
+	 * 
+	 * @return True if there is a next page.
+	 */
+	public final boolean isNextAvailable() {
+		return this.loadPage().hasNext();
+	}
+
+	/**
+	 * Tests whether there is a previous page.
+	 * 
+	 * @return True if there is a previous page.
+	 */
+	public final boolean isPreviousAvailable() {
+		return this.loadPage().hasPrevious();
+	}
+
+	/**
+	 * Loads a page.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 * @throws ServiceException
+	 *             Thrown if the page could not be loaded.
+	 */
+	protected abstract Page<E> load(PageRequest request) throws ServiceException;
+
+	/**
+	 * Loads the current page, once.
+	 * 
+	 * @return The page.
+	 */
+	private Page<E> loadPage() {
+		if (CheckUtil.isNull(this.page)) {
+			final PageRequest request = PageRequest.createBuilder().offset(this.getOffset())
+					.limit(this.pageSize).sortProperty(this.parameter.getSort()).ascending(this.parameter.isAscending())
+					.filter(this.parameter.getFilter()).build();
+			try {
+				this.page = this.load(request);
+			} catch (final ServiceException e) {
+				LazyDataModel.LOGGER.warn("Could not load page.", e);
+				MessageUtils.addExceptionMessage(e);
+				this.page = new Page<E>(request, Collections.<E> emptyList(), 0);
+			}
+		}
+		return this.page;
+	}
+}
@@ -36,6 +36,10 @@ public final class LayoutPage {
 	private int count = -1;
 	/** The layout session. */
 	private transient LayoutSession layoutSession;
+	/** The current user, once resolved for this request. */
+	private PresentationUser user;
+	/** Whether the current user was resolved. */
+	private boolean userResolved;
 
 	/**
 	 * Default constructor.
@@ -72,19 +76,21 @@ public final class LayoutPage {
 	}
 
 	/**
-	 * The current logged in user.
+	 * The current logged in user, resolved once per request.
 	 * 
 	 * @return The user.
 	 */
 	public PresentationUser getUser() {
-		PresentationUser result = null;
-		try {
-			result = this.layoutSession.getUser(this.getIdentifier());
-		} catch (final ServiceException e) {
-			final FacesMessage msg = new FacesMessage(FacesMessage.SEVERITY_ERROR, e.getMessage(), e.getMessage());
-			FacesContext.getCurrentInstance().addMessage(null, msg);
+		if (!this.userResolved) {
+			this.userResolved = true;
+			try {
+				this.user = this.layoutSession.getUser(this.getIdentifier());
+			} catch (final ServiceException e) {
+				final FacesMessage msg = new FacesMessage(FacesMessage.SEVERITY_ERROR, e.getMessage(), e.getMessage());
+				FacesContext.getCurrentInstance().addMessage(null, msg);
+			}
 		}
-		return result;
+		return this.user;
 	}
 
 	/**
@@ -18,18 +18,18 @@
 package org.lunarray.usermanager.presentation.page.role;
 
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.List;
 
 import org.lunarray.common.check.CheckUtil;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
+import org.lunarray.usermanager.presentation.model.LazyDataModel;
+import org.lunarray.usermanager.presentation.parameter.TableParameter;
 import org.lunarray.usermanager.presentation.session.RolesSession;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
-import org.lunarray.usermanager.support.jsf.MessageUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * The roles overview page.
@@ -39,16 +39,18 @@ import org.slf4j.LoggerFactory;
 public final class RolesPage
 		implements Serializable {
 
-	/** The logger. */
-	private static final Logger LOGGER = LoggerFactory.getLogger(RolesPage.class);
 	/** Serial id. */
 	private static final long serialVersionUID = -880713138029214651L;
+	/** The roles model. */
+	private LazyDataModel<PresentationRole> model;
+	/** The page size. */
+	private int pageSize = 25;
 	/** The model. */
 	private transient Model<Object> presentationModel;
-	/** The roles. */
-	private List<PresentationRole> roles;
 	/** The roles session. */
 	private transient RolesSession rolesSession;
+	/** The table parameters. */
+	private TableParameter tableParameter;
 
 	/**
 	 * Default constructor.
@@ -58,21 +60,24 @@ public final class RolesPage
 	}
 
 	/**
-	 * Gets the list of roles.
+	 * Gets the roles model.
+	 * 
+	 * @return The roles model.
+	 */
+	public LazyDataModel<PresentationRole> getModel() {
+		if (CheckUtil.isNull(this.model)) {
+			this.model = new RolesModel(this.tableParameter, this.pageSize);
+		}
+		return this.model;
+	}
+
+	/**
+	 * Gets the roles on the current page.
 	 * 
 	 * @return The roles.
 	 */
 	public List<PresentationRole> getRoles() {
-		if (CheckUtil.isNull(this.roles)) {
-			try {
-				this.roles = this.rolesSession.getRoles();
-			} catch (final ServiceException e) {
-				this.roles = Collections.emptyList();
-				RolesPage.LOGGER.warn("Could not get roles.", e);
-				MessageUtils.addExceptionMessage(e);
-			}
-		}
-		return this.roles;
+		return this.getModel().getRows();
 	}
 
 	/**
@@ -84,6 +89,25 @@ public final class RolesPage
 		return this.presentationModel.getEntity(PresentationRole.class);
 	}
 
+	/**
+	 * Gets the value for the tableParameter field.
+	 * 
+	 * @return The value for the tableParameter field.
+	 */
+	public TableParameter getTableParameter() {
+		return this.tableParameter;
+	}
+
+	/**
+	 * Sets a new value for the pageSize field.
+	 * 
+	 * @param pageSize
+	 *            The new value for the pageSize field.
+	 */
+	public void setPageSize(final int pageSize) {
+		this.pageSize = pageSize;
+	}
+
 	/**
 	 * Sets a new value for the presentationModel field.
 	 * 
@@ -103,4 +127,44 @@ public final class RolesPage
 	public void setRolesSession(final RolesSession rolesSession) {
 		this.rolesSession = rolesSession;
 	}
+
+	/**
+	 * Sets a new value for the tableParameter field.
+	 * 
+	 * @param tableParameter
+	 *            The new value for the tableParameter field.
+	 */
+	public void setTableParameter(final TableParameter tableParameter) {
+		this.tableParameter = tableParameter;
+	}
+
+	/**
+	 * Loads pages of roles from the session.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class RolesModel
+			extends LazyDataModel<PresentationRole> {
+
+		/** Serial id. */
+		private static final long serialVersionUID = -3186734310934523166L;
+
+		/**
+		 * Constructs the model.
+		 * 
+		 * @param parameter
+		 *            The table parameters.
+		 * @param pageSize
+		 *            The page size.
+		 */
+		public RolesModel(final TableParameter parameter, final int pageSize) {
+			super(parameter, pageSize);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected Page<PresentationRole> load(final PageRequest request) throws ServiceException {
+			return RolesPage.this.rolesSession.getRoles(request);
+		}
+	}
 }
@@ -25,6 +25,7 @@ import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
 import org.lunarray.usermanager.presentation.parameter.RoleParameter;
 import org.lunarray.usermanager.presentation.session.RolesSession;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 import org.lunarray.usermanager.support.jsf.MessageUtils;
 import org.slf4j.Logger;
@@ -172,6 +173,12 @@ public final class UpdateRolePage
 			this.rolesSession.updateRole(this.selectedRole);
 			MessageUtils.addInfoMessage("Updated role", String.format("Updated role '%s'.", this.selectedRole.getDisplayName()));
 			result = "pretty:roles";
+		} catch (final ConcurrentUpdateException e) {
+			this.selectedRole.setVersion(e.getCurrentVersion());
+			MessageUtils.addWarnMessage("Role changed", String.format(
+					"Role '%s' was changed by someone else. Review the values and update again to overwrite those changes.",
+					this.selectedRole.getIdentifier()));
+			UpdateRolePage.LOGGER.debug("Could not update role, it was changed concurrently.", e);
 		} catch (final ServiceException e) {
 			MessageUtils.addExceptionMessage(e);
 			UpdateRolePage.LOGGER.warn("Could not update role.", e);
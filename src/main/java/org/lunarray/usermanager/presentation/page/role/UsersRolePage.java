@@ -18,23 +18,39 @@
 package org.lunarray.usermanager.presentation.page.role;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang.StringUtils;
 import org.lunarray.common.check.CheckUtil;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
+import org.lunarray.usermanager.presentation.model.LazyDataModel;
 import org.lunarray.usermanager.presentation.parameter.RoleParameter;
+import org.lunarray.usermanager.presentation.parameter.TableParameter;
 import org.lunarray.usermanager.presentation.session.RolesSession;
+import org.lunarray.usermanager.presentation.session.UsersSession;
+import org.lunarray.usermanager.service.ServiceFutures;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 import org.lunarray.usermanager.support.jsf.MessageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The page to edit the users in a role.
+ * The page to edit the users in a role. Users are picked a page at a time;
+ * the users that were assigned when the page was rendered are posted back
+ * with the selection, so only the difference is written. The shown users
+ * are posted back as well; nothing is written when they no longer match the
+ * page, and users that were not shown are never removed.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
@@ -43,20 +59,32 @@ public final class UsersRolePage
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(UsersRolePage.class);
+	/** The separator of the assigned identifiers. */
+	private static final char SEPARATOR = ',';
 	/** Serial id. */
 	private static final long serialVersionUID = 1062340121374910207L;
+	/** The identifiers of the shown users that were assigned when rendered. */
+	private String assigned;
+	/** The users model. */
+	private transient LazyDataModel<PresentationUser> model;
+	/** The page size. */
+	private int pageSize = 25;
 	/** The model. */
 	private transient Model<Object> presentationModel;
 	/** The parameter. */
 	private transient RoleParameter roleParameter;
 	/** The session bean. */
 	private transient RolesSession rolesSession;
-	/** Role users. */
+	/** The selected users of the shown users. */
 	private transient List<PresentationUser> roleUsers;
 	/** The selected role. */
 	private PresentationRole selectedRole;
-	/** The users list. */
-	private transient List<PresentationUser> users;
+	/** The identifiers of the shown users when rendered. */
+	private String shown;
+	/** The table parameters. */
+	private transient TableParameter tableParameter;
+	/** The users session. */
+	private transient UsersSession usersSession;
 
 	/**
 	 * Default constructor.
@@ -65,6 +93,34 @@ public final class UsersRolePage
 		this.selectedRole = new PresentationRole();
 	}
 
+	/**
+	 * Gets the identifiers of the shown users that are assigned.
+	 * 
+	 * @return The identifiers.
+	 */
+	public String getAssigned() {
+		if (CheckUtil.isNull(this.assigned)) {
+			final List<String> identifiers = new ArrayList<String>();
+			for (final PresentationUser user : this.getRoleUsers()) {
+				identifiers.add(user.getIdentifier());
+			}
+			this.assigned = StringUtils.join(identifiers, UsersRolePage.SEPARATOR);
+		}
+		return this.assigned;
+	}
+
+	/**
+	 * Gets the users model.
+	 * 
+	 * @return The users model.
+	 */
+	public LazyDataModel<PresentationUser> getModel() {
+		if (CheckUtil.isNull(this.model)) {
+			this.model = new UsersModel(this.tableParameter, this.pageSize);
+		}
+		return this.model;
+	}
+
 	/**
 	 * Gets the value for the presentationModel field.
 	 * 
@@ -93,16 +149,24 @@ public final class UsersRolePage
 	}
 
 	/**
-	 * Gets the value for the roleUsers field.
+	 * Gets the shown users that are in the role. The members of the role are
+	 * fetched while the page of users loads.
 	 * 
-	 * @return The value for the roleUsers field.
+	 * @return The users.
 	 */
 	public List<PresentationUser> getRoleUsers() {
 		if (CheckUtil.isNull(this.roleUsers)) {
+			this.roleUsers = new ArrayList<PresentationUser>();
 			try {
-				this.roleUsers = this.rolesSession.getUsers(this.roleParameter.getRoleId());
+				final Future<List<String>> fetched = this.rolesSession.fetchUserIdentifiers(this.roleParameter.getRoleId());
+				final List<PresentationUser> users = this.getUsers();
+				final Set<String> members = new HashSet<String>(ServiceFutures.await(fetched));
+				for (final PresentationUser user : users) {
+					if (members.contains(user.getIdentifier())) {
+						this.roleUsers.add(user);
+					}
+				}
 			} catch (final ServiceException e) {
-				this.roleUsers = Collections.emptyList();
 				MessageUtils.addExceptionMessage(e);
 				UsersRolePage.LOGGER.warn("Could not get users.", e);
 			}
@@ -120,21 +184,37 @@ public final class UsersRolePage
 	}
 
 	/**
-	 * Gets the value for the users field.
+	 * Gets the identifiers of the shown users.
 	 * 
-	 * @return The value for the users field.
+	 * @return The identifiers.
 	 */
-	public List<PresentationUser> getUsers() {
-		if (CheckUtil.isNull(this.users)) {
-			try {
-				this.users = this.rolesSession.getUsers();
-			} catch (final ServiceException e) {
-				this.users = Collections.emptyList();
-				MessageUtils.addExceptionMessage(e);
-				UsersRolePage.LOGGER.warn("Could not get users.", e);
+	public String getShown() {
+		if (CheckUtil.isNull(this.shown)) {
+			final List<String> identifiers = new ArrayList<String>();
+			for (final PresentationUser user : this.getUsers()) {
+				identifiers.add(user.getIdentifier());
 			}
+			this.shown = StringUtils.join(identifiers, UsersRolePage.SEPARATOR);
 		}
-		return this.users;
+		return this.shown;
+	}
+
+	/**
+	 * Gets the value for the tableParameter field.
+	 * 
+	 * @return The value for the tableParameter field.
+	 */
+	public TableParameter getTableParameter() {
+		return this.tableParameter;
+	}
+
+	/**
+	 * Gets the users on the current page.
+	 * 
+	 * @return The users.
+	 */
+	public List<PresentationUser> getUsers() {
+		return this.getModel().getRows();
 	}
 
 	/**
@@ -146,6 +226,26 @@ public final class UsersRolePage
 		return this.presentationModel.getEntity(PresentationUser.class);
 	}
 
+	/**
+	 * Sets a new value for the assigned field.
+	 * 
+	 * @param assigned
+	 *            The new value for the assigned field.
+	 */
+	public void setAssigned(final String assigned) {
+		this.assigned = assigned;
+	}
+
+	/**
+	 * Sets a new value for the pageSize field.
+	 * 
+	 * @param pageSize
+	 *            The new value for the pageSize field.
+	 */
+	public void setPageSize(final int pageSize) {
+		this.pageSize = pageSize;
+	}
+
 	/**
 	 * Sets a new value for the presentationModel field.
 	 * 
@@ -197,24 +297,98 @@ public final class UsersRolePage
 	}
 
 	/**
-	 * Sets a new value for the users field.
+	 * Sets a new value for the shown field.
 	 * 
-	 * @param users
-	 *            The new value for the users field.
+	 * @param shown
+	 *            The new value for the shown field.
 	 */
-	public void setUsers(final List<PresentationUser> users) {
-		this.users = users;
+	public void setShown(final String shown) {
+		this.shown = shown;
 	}
 
 	/**
-	 * Updates the role.
+	 * Sets a new value for the tableParameter field.
+	 * 
+	 * @param tableParameter
+	 *            The new value for the tableParameter field.
+	 */
+	public void setTableParameter(final TableParameter tableParameter) {
+		this.tableParameter = tableParameter;
+	}
+
+	/**
+	 * Sets a new value for the usersSession field.
+	 * 
+	 * @param usersSession
+	 *            The new value for the usersSession field.
+	 */
+	public void setUsersSession(final UsersSession usersSession) {
+		this.usersSession = usersSession;
+	}
+
+	/**
+	 * Updates the role with the users added and removed on this page.
 	 * 
 	 * @return The navigation rule.
 	 */
 	public String update() {
+		final Set<String> shownIdentifiers = UsersRolePage.split(this.shown);
+		final Set<String> postedIdentifiers = new HashSet<String>();
+		for (final PresentationUser user : this.getUsers()) {
+			postedIdentifiers.add(user.getIdentifier());
+		}
+		String result = null;
+		if (shownIdentifiers.equals(postedIdentifiers)) {
+			result = this.write(shownIdentifiers);
+		} else {
+			MessageUtils.addWarnMessage("Users changed",
+					"The shown users changed before the selection was saved, review the selection and save again.");
+			this.assigned = null;
+			this.shown = null;
+			this.roleUsers = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Splits posted identifiers.
+	 * 
+	 * @param identifiers
+	 *            The separated identifiers, may be empty.
+	 * @return The identifiers.
+	 */
+	private static Set<String> split(final String identifiers) {
+		final Set<String> result = new LinkedHashSet<String>();
+		if (!StringUtils.isEmpty(identifiers)) {
+			Collections.addAll(result, StringUtils.split(identifiers, UsersRolePage.SEPARATOR));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the difference between the assigned and the selected users,
+	 * both taken within the shown users only.
+	 * 
+	 * @param shownIdentifiers
+	 *            The identifiers of the shown users.
+	 * @return The navigation rule.
+	 */
+	private String write(final Set<String> shownIdentifiers) {
+		final Set<String> original = UsersRolePage.split(this.assigned);
+		original.retainAll(shownIdentifiers);
+		final Set<String> added = new LinkedHashSet<String>();
+		if (!CheckUtil.isNull(this.roleUsers)) {
+			for (final PresentationUser user : this.roleUsers) {
+				added.add(user.getIdentifier());
+			}
+		}
+		added.retainAll(shownIdentifiers);
+		final Set<String> removed = new LinkedHashSet<String>(original);
+		removed.removeAll(added);
+		added.removeAll(original);
 		String result = null;
 		try {
-			this.rolesSession.setUsers(this.roleParameter.getRoleId(), this.roleUsers);
+			this.rolesSession.modifyUsers(this.roleParameter.getRoleId(), added, removed);
 			MessageUtils.addInfoMessage("Updated roles users",
 					String.format("Updated roles '%s' users.", this.selectedRole.getDisplayName()));
 			result = "pretty:roles";
@@ -224,4 +398,34 @@ public final class UsersRolePage
 		}
 		return result;
 	}
+
+	/**
+	 * The users model.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class UsersModel
+			extends LazyDataModel<PresentationUser> {
+
+		/** Serial id. */
+		private static final long serialVersionUID = -3590419263571730812L;
+
+		/**
+		 * Constructs the model.
+		 * 
+		 * @param parameter
+		 *            The table parameters.
+		 * @param pageSize
+		 *            The page size.
+		 */
+		public UsersModel(final TableParameter parameter, final int pageSize) {
+			super(parameter, pageSize);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected Page<PresentationUser> load(final PageRequest request) throws ServiceException {
+			return UsersRolePage.this.usersSession.getUsers(request);
+		}
+	}
 }
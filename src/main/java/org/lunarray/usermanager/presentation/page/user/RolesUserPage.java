@@ -18,22 +18,39 @@
 package org.lunarray.usermanager.presentation.page.user;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang.StringUtils;
+import org.lunarray.common.check.CheckUtil;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
+import org.lunarray.usermanager.presentation.model.LazyDataModel;
+import org.lunarray.usermanager.presentation.parameter.TableParameter;
 import org.lunarray.usermanager.presentation.parameter.UserParameter;
+import org.lunarray.usermanager.presentation.session.RolesSession;
 import org.lunarray.usermanager.presentation.session.UsersSession;
+import org.lunarray.usermanager.service.ServiceFutures;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 import org.lunarray.usermanager.support.jsf.MessageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The user roles page.
+ * The user roles page. Roles are picked a page at a time; the roles that were
+ * assigned when the page was rendered are posted back with the selection, so
+ * only the difference is written. The shown roles are posted back as well;
+ * nothing is written when they no longer match the page, and roles that were
+ * not shown are never removed.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
@@ -42,17 +59,29 @@ public final class RolesUserPage
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(RolesUserPage.class);
+	/** The separator of the assigned identifiers. */
+	private static final char SEPARATOR = ',';
 	/** Serial id. */
 	private static final long serialVersionUID = 1062340121374910207L;
+	/** The identifiers of the shown roles that were assigned when rendered. */
+	private String assigned;
+	/** The roles model. */
+	private transient LazyDataModel<PresentationRole> model;
+	/** The page size. */
+	private int pageSize = 25;
 	/** The model. */
 	private transient Model<Object> presentationModel;
-	/** The user roles. */
-	private List<PresentationRole> roles;
+	/** The roles session. */
+	private transient RolesSession rolesSession;
 	/** The currently selected user. */
 	private PresentationUser selectedUser;
+	/** The identifiers of the shown roles when rendered. */
+	private String shown;
+	/** The table parameters. */
+	private transient TableParameter tableParameter;
 	/** The user parameter. */
 	private transient UserParameter userParameter;
-	/** The user roles. */
+	/** The selected roles of the shown roles. */
 	private List<PresentationRole> userRoles;
 	/** The user session. */
 	private transient UsersSession usersSession;
@@ -64,6 +93,34 @@ public final class RolesUserPage
 		this.selectedUser = new PresentationUser();
 	}
 
+	/**
+	 * Gets the identifiers of the shown roles that are assigned.
+	 * 
+	 * @return The identifiers.
+	 */
+	public String getAssigned() {
+		if (CheckUtil.isNull(this.assigned)) {
+			final List<String> identifiers = new ArrayList<String>();
+			for (final PresentationRole role : this.getUserRoles()) {
+				identifiers.add(role.getIdentifier());
+			}
+			this.assigned = StringUtils.join(identifiers, RolesUserPage.SEPARATOR);
+		}
+		return this.assigned;
+	}
+
+	/**
+	 * Gets the roles model.
+	 * 
+	 * @return The roles model.
+	 */
+	public LazyDataModel<PresentationRole> getModel() {
+		if (CheckUtil.isNull(this.model)) {
+			this.model = new RolesModel(this.tableParameter, this.pageSize);
+		}
+		return this.model;
+	}
+
 	/**
 	 * Gets the value for the presentationModel field.
 	 * 
@@ -74,21 +131,12 @@ public final class RolesUserPage
 	}
 
 	/**
-	 * Gets the value for the roles field.
+	 * Gets the roles on the current page.
 	 * 
-	 * @return The value for the roles field.
+	 * @return The roles.
 	 */
 	public List<PresentationRole> getRoles() {
-		if (this.roles == null) {
-			try {
-				this.roles = this.usersSession.getRoles();
-			} catch (final ServiceException e) {
-				this.roles = Collections.emptyList();
-				MessageUtils.addExceptionMessage(e);
-				RolesUserPage.LOGGER.warn("Could not get roles.", e);
-			}
-		}
-		return this.roles;
+		return this.getModel().getRows();
 	}
 
 	/**
@@ -109,6 +157,31 @@ public final class RolesUserPage
 		return this.selectedUser;
 	}
 
+	/**
+	 * Gets the identifiers of the shown roles.
+	 * 
+	 * @return The identifiers.
+	 */
+	public String getShown() {
+		if (CheckUtil.isNull(this.shown)) {
+			final List<String> identifiers = new ArrayList<String>();
+			for (final PresentationRole role : this.getRoles()) {
+				identifiers.add(role.getIdentifier());
+			}
+			this.shown = StringUtils.join(identifiers, RolesUserPage.SEPARATOR);
+		}
+		return this.shown;
+	}
+
+	/**
+	 * Gets the value for the tableParameter field.
+	 * 
+	 * @return The value for the tableParameter field.
+	 */
+	public TableParameter getTableParameter() {
+		return this.tableParameter;
+	}
+
 	/**
 	 * Gets the value for the userParameter field.
 	 * 
@@ -119,16 +192,24 @@ public final class RolesUserPage
 	}
 
 	/**
-	 * Gets the value for the userRoles field.
+	 * Gets the shown roles the user is in. The memberships of the user are
+	 * fetched while the page of roles loads.
 	 * 
-	 * @return The value for the userRoles field.
+	 * @return The roles.
 	 */
 	public List<PresentationRole> getUserRoles() {
 		if (this.userRoles == null) {
+			this.userRoles = new ArrayList<PresentationRole>();
 			try {
-				this.userRoles = this.usersSession.getRoles(this.userParameter.getUserId());
+				final Future<List<String>> fetched = this.usersSession.fetchRoleIdentifiers(this.userParameter.getUserId());
+				final List<PresentationRole> roles = this.getRoles();
+				final Set<String> memberships = new HashSet<String>(ServiceFutures.await(fetched));
+				for (final PresentationRole role : roles) {
+					if (memberships.contains(role.getIdentifier())) {
+						this.userRoles.add(role);
+					}
+				}
 			} catch (final ServiceException e) {
-				this.userRoles = Collections.emptyList();
 				MessageUtils.addExceptionMessage(e);
 				RolesUserPage.LOGGER.warn("Could not get roles.", e);
 			}
@@ -145,6 +226,26 @@ public final class RolesUserPage
 		return this.usersSession;
 	}
 
+	/**
+	 * Sets a new value for the assigned field.
+	 * 
+	 * @param assigned
+	 *            The new value for the assigned field.
+	 */
+	public void setAssigned(final String assigned) {
+		this.assigned = assigned;
+	}
+
+	/**
+	 * Sets a new value for the pageSize field.
+	 * 
+	 * @param pageSize
+	 *            The new value for the pageSize field.
+	 */
+	public void setPageSize(final int pageSize) {
+		this.pageSize = pageSize;
+	}
+
 	/**
 	 * Sets a new value for the presentationModel field.
 	 * 
@@ -156,13 +257,13 @@ public final class RolesUserPage
 	}
 
 	/**
-	 * Sets a new value for the roles field.
+	 * Sets a new value for the rolesSession field.
 	 * 
-	 * @param roles
-	 *            The new value for the roles field.
+	 * @param rolesSession
+	 *            The new value for the rolesSession field.
 	 */
-	public void setRoles(final List<PresentationRole> roles) {
-		this.roles = roles;
+	public void setRolesSession(final RolesSession rolesSession) {
+		this.rolesSession = rolesSession;
 	}
 
 	/**
@@ -175,6 +276,26 @@ public final class RolesUserPage
 		this.selectedUser = selectedUser;
 	}
 
+	/**
+	 * Sets a new value for the shown field.
+	 * 
+	 * @param shown
+	 *            The new value for the shown field.
+	 */
+	public void setShown(final String shown) {
+		this.shown = shown;
+	}
+
+	/**
+	 * Sets a new value for the tableParameter field.
+	 * 
+	 * @param tableParameter
+	 *            The new value for the tableParameter field.
+	 */
+	public void setTableParameter(final TableParameter tableParameter) {
+		this.tableParameter = tableParameter;
+	}
+
 	/**
 	 * Sets a new value for the userParameter field.
 	 * 
@@ -206,14 +327,69 @@ public final class RolesUserPage
 	}
 
 	/**
-	 * Update the roles for a user.
+	 * Update the roles for a user with the roles added and removed on this
+	 * page.
 	 * 
 	 * @return The navigation rule.
 	 */
 	public String update() {
+		final Set<String> shownIdentifiers = RolesUserPage.split(this.shown);
+		final Set<String> postedIdentifiers = new HashSet<String>();
+		for (final PresentationRole role : this.getRoles()) {
+			postedIdentifiers.add(role.getIdentifier());
+		}
+		String result = null;
+		if (shownIdentifiers.equals(postedIdentifiers)) {
+			result = this.write(shownIdentifiers);
+		} else {
+			MessageUtils.addWarnMessage("Roles changed",
+					"The shown roles changed before the selection was saved, review the selection and save again.");
+			this.assigned = null;
+			this.shown = null;
+			this.userRoles = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Splits posted identifiers.
+	 * 
+	 * @param identifiers
+	 *            The separated identifiers, may be empty.
+	 * @return The identifiers.
+	 */
+	private static Set<String> split(final String identifiers) {
+		final Set<String> result = new LinkedHashSet<String>();
+		if (!StringUtils.isEmpty(identifiers)) {
+			Collections.addAll(result, StringUtils.split(identifiers, RolesUserPage.SEPARATOR));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the difference between the assigned and the selected roles,
+	 * both taken within the shown roles only.
+	 * 
+	 * @param shownIdentifiers
+	 *            The identifiers of the shown roles.
+	 * @return The navigation rule.
+	 */
+	private String write(final Set<String> shownIdentifiers) {
+		final Set<String> original = RolesUserPage.split(this.assigned);
+		original.retainAll(shownIdentifiers);
+		final Set<String> added = new LinkedHashSet<String>();
+		if (!CheckUtil.isNull(this.userRoles)) {
+			for (final PresentationRole role : this.userRoles) {
+				added.add(role.getIdentifier());
+			}
+		}
+		added.retainAll(shownIdentifiers);
+		final Set<String> removed = new LinkedHashSet<String>(original);
+		removed.removeAll(added);
+		added.removeAll(original);
 		String result = null;
 		try {
-			this.usersSession.setRoles(this.userParameter.getUserId(), this.userRoles);
+			this.usersSession.modifyRoles(this.userParameter.getUserId(), added, removed);
 			MessageUtils.addInfoMessage("Updated users roles",
 					String.format("Updated user '%s' roles.", this.usersSession.getUser(this.userParameter.getUserId()).getDisplayName()));
 			result = "pretty:users";
@@ -223,4 +399,34 @@ public final class RolesUserPage
 		}
 		return result;
 	}
+
+	/**
+	 * The roles model.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class RolesModel
+			extends LazyDataModel<PresentationRole> {
+
+		/** Serial id. */
+		private static final long serialVersionUID = 6051327406738120495L;
+
+		/**
+		 * Constructs the model.
+		 * 
+		 * @param parameter
+		 *            The table parameters.
+		 * @param pageSize
+		 *            The page size.
+		 */
+		public RolesModel(final TableParameter parameter, final int pageSize) {
+			super(parameter, pageSize);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected Page<PresentationRole> load(final PageRequest request) throws ServiceException {
+			return RolesUserPage.this.rolesSession.getRoles(request);
+		}
+	}
 }
@@ -25,6 +25,7 @@ import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
 import org.lunarray.usermanager.presentation.parameter.UserParameter;
 import org.lunarray.usermanager.presentation.session.UsersSession;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 import org.lunarray.usermanager.support.jsf.MessageUtils;
 import org.slf4j.Logger;
@@ -179,6 +180,12 @@ public final class UpdateUserPage
 			this.usersSession.updateUser(this.selectedUser);
 			MessageUtils.addInfoMessage("Updated user", String.format("Updated user '%s'.", this.selectedUser.getDisplayName()));
 			result = "pretty:users";
+		} catch (final ConcurrentUpdateException e) {
+			this.selectedUser.setVersion(e.getCurrentVersion());
+			MessageUtils.addWarnMessage("User changed", String.format(
+					"User '%s' was changed by someone else. Review the values and update again to overwrite those changes.",
+					this.selectedUser.getIdentifier()));
+			UpdateUserPage.LOGGER.debug("Could not update user, it was changed concurrently.", e);
 		} catch (final ServiceException e) {
 			MessageUtils.addExceptionMessage(e);
 			UpdateUserPage.LOGGER.warn("Could not update user.", e);
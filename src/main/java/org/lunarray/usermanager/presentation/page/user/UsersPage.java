@@ -18,15 +18,18 @@
 package org.lunarray.usermanager.presentation.page.user;
 
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.List;
 
+import org.lunarray.common.check.CheckUtil;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.model.entity.EntityDescriptor;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
+import org.lunarray.usermanager.presentation.model.LazyDataModel;
+import org.lunarray.usermanager.presentation.parameter.TableParameter;
 import org.lunarray.usermanager.presentation.session.UsersSession;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
-import org.lunarray.usermanager.support.jsf.MessageUtils;
 
 /**
  * The users overview page.
@@ -38,28 +41,45 @@ public final class UsersPage
 
 	/** Serial id. */
 	private static final long serialVersionUID = -880713138029214651L;
+	/** The users model. */
+	private LazyDataModel<PresentationUser> model;
+	/** The page size. */
+	private int pageSize = 25;
 	/** The model. */
 	private Model<Object> presentationModel;
-	/** The users. */
-	private List<PresentationUser> users;
+	/** The table parameters. */
+	private TableParameter tableParameter;
 	/** The user session. */
 	private UsersSession usersSession;
 
 	/**
-	 * Gets all users.
+	 * Gets the users model.
+	 * 
+	 * @return The users model.
+	 */
+	public LazyDataModel<PresentationUser> getModel() {
+		if (CheckUtil.isNull(this.model)) {
+			this.model = new UsersModel(this.tableParameter, this.pageSize);
+		}
+		return this.model;
+	}
+
+	/**
+	 * Gets the value for the tableParameter field.
+	 * 
+	 * @return The value for the tableParameter field.
+	 */
+	public TableParameter getTableParameter() {
+		return this.tableParameter;
+	}
+
+	/**
+	 * Gets the users on the current page.
 	 * 
 	 * @return The users.
 	 */
 	public List<PresentationUser> getUsers() {
-		if (this.users == null) {
-			try {
-				this.users = this.usersSession.getUsers();
-			} catch (final ServiceException e) {
-				this.users = Collections.emptyList();
-				MessageUtils.addExceptionMessage(e);
-			}
-		}
-		return this.users;
+		return this.getModel().getRows();
 	}
 
 	/**
@@ -71,6 +91,16 @@ public final class UsersPage
 		return this.presentationModel.getEntity(PresentationUser.class);
 	}
 
+	/**
+	 * Sets a new value for the pageSize field.
+	 * 
+	 * @param pageSize
+	 *            The new value for the pageSize field.
+	 */
+	public void setPageSize(final int pageSize) {
+		this.pageSize = pageSize;
+	}
+
 	/**
 	 * Sets a new value for the presentationModel field.
 	 * 
@@ -81,6 +111,16 @@ public final class UsersPage
 		this.presentationModel = presentationModel;
 	}
 
+	/**
+	 * Sets a new value for the tableParameter field.
+	 * 
+	 * @param tableParameter
+	 *            The new value for the tableParameter field.
+	 */
+	public void setTableParameter(final TableParameter tableParameter) {
+		this.tableParameter = tableParameter;
+	}
+
 	/**
 	 * Sets a new value for the usersSession field.
 	 * 
@@ -90,4 +130,34 @@ public final class UsersPage
 	public void setUsersSession(final UsersSession usersSession) {
 		this.usersSession = usersSession;
 	}
+
+	/**
+	 * Loads pages of users from the session.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class UsersModel
+			extends LazyDataModel<PresentationUser> {
+
+		/** Serial id. */
+		private static final long serialVersionUID = 2979021950377580512L;
+
+		/**
+		 * Constructs the model.
+		 * 
+		 * @param parameter
+		 *            The table parameters.
+		 * @param pageSize
+		 *            The page size.
+		 */
+		public UsersModel(final TableParameter parameter, final int pageSize) {
+			super(parameter, pageSize);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected Page<PresentationUser> load(final PageRequest request) throws ServiceException {
+			return UsersPage.this.usersSession.getUsers(request);
+		}
+	}
 }
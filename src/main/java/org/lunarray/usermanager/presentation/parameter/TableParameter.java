@@ -0,0 +1,132 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.presentation.parameter;
+
+import java.io.Serializable;
+
+/**
+ * The paging, sorting and filtering parameters of an overview table.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class TableParameter
+		implements Serializable {
+
+	/** Serial id. */
+	private static final long serialVersionUID = -4215795372165034878L;
+	/** The filter text. */
+	private String filter;
+	/** The sort order, either asc or desc. */
+	private String order;
+	/** The page number, starting at 1. */
+	private int page = 1;
+	/** The sort property. */
+	private String sort;
+
+	/**
+	 * Default constructor.
+	 */
+	public TableParameter() {
+		// Default constructor.
+	}
+
+	/**
+	 * Gets the value for the filter field.
+	 * 
+	 * @return The value for the filter field.
+	 */
+	public String getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Gets the value for the order field.
+	 * 
+	 * @return The value for the order field.
+	 */
+	public String getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Gets the value for the page field.
+	 * 
+	 * @return The value for the page field.
+	 */
+	public int getPage() {
+		return this.page;
+	}
+
+	/**
+	 * Gets the value for the sort field.
+	 * 
+	 * @return The value for the sort field.
+	 */
+	public String getSort() {
+		return this.sort;
+	}
+
+	/**
+	 * Tests whether the sort order is ascending.
+	 * 
+	 * @return True unless descending order was requested.
+	 */
+	public boolean isAscending() {
+		return !"desc".equals(this.order);
+	}
+
+	/**
+	 * Sets a new value for the filter field.
+	 * 
+	 * @param filter
+	 *            The new value for the filter field.
+	 */
+	public void setFilter(final String filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Sets a new value for the order field.
+	 * 
+	 * @param order
+	 *            The new value for the order field.
+	 */
+	public void setOrder(final String order) {
+		this.order = order;
+	}
+
+	/**
+	 * Sets a new value for the page field.
+	 * 
+	 * @param page
+	 *            The new value for the page field.
+	 */
+	public void setPage(final int page) {
+		this.page = Math.max(1, page);
+	}
+
+	/**
+	 * Sets a new value for the sort field.
+	 * 
+	 * @param sort
+	 *            The new value for the sort field.
+	 */
+	public void setSort(final String sort) {
+		this.sort = sort;
+	}
+}
@@ -19,13 +19,15 @@ package org.lunarray.usermanager.presentation.session;
 
 import java.io.Serializable;
 
+import org.lunarray.common.check.CheckUtil;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
 import org.lunarray.usermanager.presentation.domain.adapters.PresentationUserAdapter;
 import org.lunarray.usermanager.service.UserService;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 
 /**
- * The session bean for the users part of the application.
+ * The session bean for the layout. The logged in user is kept for a short
+ * time, so rendering the header does not read the directory on every page.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
@@ -33,8 +35,16 @@ public final class LayoutSession
 		implements Serializable {
 	/** Serial id. */
 	private static final long serialVersionUID = 3185784857276666282L;
+	/** The identifier of the cached user. */
+	private String cachedIdentifier;
+	/** The time the cached user was read, in milliseconds. */
+	private long cachedTime;
+	/** The cached user. */
+	private PresentationUser cachedUser;
 	/** The user adapter. */
 	private transient PresentationUserAdapter presentationUserAdapter;
+	/** The time to keep the cached user, in milliseconds. */
+	private long timeToLive = 60000;
 	/** The user service. */
 	private transient UserService userService;
 
@@ -46,7 +56,7 @@ public final class LayoutSession
 	}
 
 	/**
-	 * Gets a user.
+	 * Gets a user, served from the cache while it is fresh.
 	 * 
 	 * @param identifier
 	 *            The user identifier.
@@ -54,8 +64,28 @@ public final class LayoutSession
 	 * @throws ServiceException
 	 *             Thrown if the operation could not be completed.
 	 */
-	public PresentationUser getUser(final String identifier) throws ServiceException {
-		return this.presentationUserAdapter.toPresentationUser(this.userService.getUser(identifier));
+	public synchronized PresentationUser getUser(final String identifier) throws ServiceException {
+		final long now = System.currentTimeMillis();
+		if (CheckUtil.isNull(this.cachedUser) || !identifier.equals(this.cachedIdentifier)
+				|| ((now - this.cachedTime) > this.timeToLive)) {
+			this.cachedUser = this.presentationUserAdapter.toPresentationUser(this.userService.getUser(identifier));
+			this.cachedIdentifier = identifier;
+			this.cachedTime = now;
+		}
+		return this.cachedUser;
+	}
+
+	/**
+	 * Drops the cached user if it is the given user.
+	 * 
+	 * @param identifier
+	 *            The identifier of the changed user.
+	 */
+	public synchronized void invalidate(final String identifier) {
+		if (!CheckUtil.isNull(identifier) && identifier.equals(this.cachedIdentifier)) {
+			this.cachedUser = null;
+			this.cachedIdentifier = null;
+		}
 	}
 
 	/**
@@ -68,6 +98,16 @@ public final class LayoutSession
 		this.presentationUserAdapter = presentationUserAdapter;
 	}
 
+	/**
+	 * Sets a new value for the timeToLive field.
+	 * 
+	 * @param timeToLive
+	 *            The new value for the timeToLive field.
+	 */
+	public void setTimeToLive(final long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
 	/**
 	 * Sets a new value for the userService field.
 	 * 
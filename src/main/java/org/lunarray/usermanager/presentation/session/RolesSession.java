@@ -19,20 +19,25 @@ package org.lunarray.usermanager.presentation.session;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.shiro.SecurityUtils;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
 import org.lunarray.usermanager.presentation.domain.adapters.PresentationRoleAdapter;
 import org.lunarray.usermanager.presentation.domain.adapters.PresentationUserAdapter;
+import org.lunarray.usermanager.service.AsyncRoleService;
 import org.lunarray.usermanager.service.RoleService;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.springframework.util.concurrent.ListenableFuture;
 
 /**
  * The session bean for the roles part of the application.
@@ -43,6 +48,8 @@ public final class RolesSession
 		implements Serializable {
 	/** Serial id. */
 	private static final long serialVersionUID = -5097098800166997546L;
+	/** The asynchronous role service. */
+	private transient AsyncRoleService asyncRoleService;
 	/** The role adapter. */
 	private transient PresentationRoleAdapter presentationRoleAdapter;
 	/** The user adapter. */
@@ -83,6 +90,18 @@ public final class RolesSession
 		this.roleService.deleteRole(identifier);
 	}
 
+	/**
+	 * Starts getting the identifiers of the users in a role, without waiting for
+	 * them.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @return The user identifiers.
+	 */
+	public ListenableFuture<List<String>> fetchUserIdentifiers(final String roleIdentifier) {
+		return this.asyncRoleService.getRoleUsers(roleIdentifier);
+	}
+
 	/**
 	 * Gets a role.
 	 * 
@@ -112,6 +131,24 @@ public final class RolesSession
 		return new ArrayList<PresentationRole>(result.values());
 	}
 
+	/**
+	 * Gets a page of roles.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public Page<PresentationRole> getRoles(final PageRequest request) throws ServiceException {
+		final Page<Role> page = this.roleService.getRoles(request);
+		final List<PresentationRole> result = new ArrayList<PresentationRole>(page.getItems().size());
+		for (final Role role : page.getItems()) {
+			result.add(this.presentationRoleAdapter.toPresentationRole(role));
+		}
+		return new Page<PresentationRole>(request, result, page.getTotal());
+	}
+
 	/**
 	 * Gets a user.
 	 * 
@@ -125,6 +162,19 @@ public final class RolesSession
 		return this.presentationUserAdapter.toPresentationUser(this.roleService.getUser(identifier));
 	}
 
+	/**
+	 * Gets the identifiers of the users in a role.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @return The user identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public List<String> getUserIdentifiers(final String roleIdentifier) throws ServiceException {
+		return this.roleService.getRoleUsers(roleIdentifier);
+	}
+
 	/**
 	 * Gets the users.
 	 * 
@@ -152,14 +202,40 @@ public final class RolesSession
 	 */
 	public List<PresentationUser> getUsers(final String roleIdentifier) throws ServiceException {
 		final Map<String, PresentationUser> result = new TreeMap<String, PresentationUser>();
-		final List<String> serviceResults = this.roleService.getRoleUsers(roleIdentifier);
-		for (final String userString : serviceResults) {
-			final PresentationUser user = this.getUser(userString);
-			result.put(user.getIdentifier(), user);
+		final List<User> serviceResults = this.roleService.getUsers(this.roleService.getRoleUsers(roleIdentifier));
+		for (final User user : serviceResults) {
+			result.put(user.getIdentifier(), this.presentationUserAdapter.toPresentationUser(user));
 		}
 		return new ArrayList<PresentationUser>(result.values());
 	}
 
+	/**
+	 * Adds and removes users of a role.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @param addedUsers
+	 *            The user identifiers to add.
+	 * @param removedUsers
+	 *            The user identifiers to remove.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public void modifyUsers(final String roleIdentifier, final Collection<String> addedUsers, final Collection<String> removedUsers)
+			throws ServiceException {
+		this.roleService.modifyRoleUsers(roleIdentifier, addedUsers, removedUsers);
+	}
+
+	/**
+	 * Sets a new value for the asyncRoleService field.
+	 * 
+	 * @param asyncRoleService
+	 *            The new value for the asyncRoleService field.
+	 */
+	public void setAsyncRoleService(final AsyncRoleService asyncRoleService) {
+		this.asyncRoleService = asyncRoleService;
+	}
+
 	/**
 	 * Sets a new value for the presentationRoleAdapter field.
 	 * 
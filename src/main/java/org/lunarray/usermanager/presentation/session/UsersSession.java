@@ -19,18 +19,23 @@ package org.lunarray.usermanager.presentation.session;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.presentation.domain.PresentationRole;
 import org.lunarray.usermanager.presentation.domain.PresentationUser;
 import org.lunarray.usermanager.presentation.domain.adapters.PresentationRoleAdapter;
 import org.lunarray.usermanager.presentation.domain.adapters.PresentationUserAdapter;
+import org.lunarray.usermanager.service.AsyncUserService;
 import org.lunarray.usermanager.service.UserService;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.springframework.util.concurrent.ListenableFuture;
 
 /**
  * The session bean for the users part of the application.
@@ -41,6 +46,10 @@ public final class UsersSession
 		implements Serializable {
 	/** Serial id. */
 	private static final long serialVersionUID = 3185784857276666282L;
+	/** The asynchronous user service. */
+	private transient AsyncUserService asyncUserService;
+	/** The layout session. */
+	private transient LayoutSession layoutSession;
 	/** The role adapter. */
 	private transient PresentationRoleAdapter presentationRoleAdapter;
 	/** The user adapter. */
@@ -79,6 +88,18 @@ public final class UsersSession
 		this.userService.deleteUser(identifier);
 	}
 
+	/**
+	 * Starts getting the identifiers of the roles of a user, without waiting for
+	 * them.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers.
+	 */
+	public ListenableFuture<List<String>> fetchRoleIdentifiers(final String userIdentifier) {
+		return this.asyncUserService.getUserRoles(userIdentifier);
+	}
+
 	/**
 	 * Gets a role.
 	 * 
@@ -92,6 +113,19 @@ public final class UsersSession
 		return this.presentationRoleAdapter.toPresentationRole(this.userService.getRole(identifier));
 	}
 
+	/**
+	 * Gets the identifiers of the roles of a user.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public List<String> getRoleIdentifiers(final String userIdentifier) throws ServiceException {
+		return this.userService.getUserRoles(userIdentifier);
+	}
+
 	/**
 	 * Gets all roles.
 	 * 
@@ -119,10 +153,9 @@ public final class UsersSession
 	 */
 	public List<PresentationRole> getRoles(final String userIdentifier) throws ServiceException {
 		final Map<String, PresentationRole> result = new TreeMap<String, PresentationRole>();
-		final List<String> roles = this.userService.getUserRoles(userIdentifier);
-		for (final String roleString : roles) {
-			final PresentationRole role = this.getRole(roleString);
-			result.put(role.getIdentifier(), role);
+		final List<Role> roles = this.userService.getRoles(this.userService.getUserRoles(userIdentifier));
+		for (final Role role : roles) {
+			result.put(role.getIdentifier(), this.presentationRoleAdapter.toPresentationRole(role));
 		}
 		return new ArrayList<PresentationRole>(result.values());
 	}
@@ -156,6 +189,61 @@ public final class UsersSession
 		return new ArrayList<PresentationUser>(result.values());
 	}
 
+	/**
+	 * Gets a page of users.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public Page<PresentationUser> getUsers(final PageRequest request) throws ServiceException {
+		final Page<User> page = this.userService.getUsers(request);
+		final List<PresentationUser> result = new ArrayList<PresentationUser>(page.getItems().size());
+		for (final User user : page.getItems()) {
+			result.add(this.presentationUserAdapter.toPresentationUser(user));
+		}
+		return new Page<PresentationUser>(request, result, page.getTotal());
+	}
+
+	/**
+	 * Adds and removes roles of a user.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @param addedRoles
+	 *            The role identifiers to add.
+	 * @param removedRoles
+	 *            The role identifiers to remove.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	public void modifyRoles(final String userIdentifier, final Collection<String> addedRoles, final Collection<String> removedRoles)
+			throws ServiceException {
+		this.userService.modifyUserRoles(userIdentifier, addedRoles, removedRoles);
+	}
+
+	/**
+	 * Sets a new value for the asyncUserService field.
+	 * 
+	 * @param asyncUserService
+	 *            The new value for the asyncUserService field.
+	 */
+	public void setAsyncUserService(final AsyncUserService asyncUserService) {
+		this.asyncUserService = asyncUserService;
+	}
+
+	/**
+	 * Sets a new value for the layoutSession field.
+	 * 
+	 * @param layoutSession
+	 *            The new value for the layoutSession field.
+	 */
+	public void setLayoutSession(final LayoutSession layoutSession) {
+		this.layoutSession = layoutSession;
+	}
+
 	/**
 	 * Sets a new value for the presentationRoleAdapter field.
 	 * 
@@ -216,6 +304,7 @@ public final class UsersSession
 	 */
 	public void updatePassword(final String identifier, final String password) throws ServiceException {
 		this.userService.updatePassword(identifier, password);
+		this.layoutSession.invalidate(identifier);
 	}
 
 	/**
@@ -228,5 +317,6 @@ public final class UsersSession
 	 */
 	public void updateUser(final PresentationUser user) throws ServiceException {
 		this.userService.updateUser(this.presentationUserAdapter.toUser(user));
+		this.layoutSession.invalidate(user.getIdentifier());
 	}
 }
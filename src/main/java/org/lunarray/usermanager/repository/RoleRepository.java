@@ -17,8 +17,11 @@
  */
 package org.lunarray.usermanager.repository;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 
@@ -49,6 +52,18 @@ public interface RoleRepository {
 	 */
 	void deleteRole(String identifier) throws BaseRepositoryException;
 
+	/**
+	 * Gets the roles a user has, directly or through nested roles. These are
+	 * the roles that apply for authorization; they can not all be edited.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers of a user.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getEffectiveRolesForUser(String userIdentifier) throws BaseRepositoryException;
+
 	/**
 	 * Gets a role with the given identifier.
 	 * 
@@ -69,6 +84,20 @@ public interface RoleRepository {
 	 */
 	List<String> getRoleIdentifiers() throws BaseRepositoryException;
 
+	/**
+	 * Gets the identifiers of the readable roles matching the criterion and
+	 * filter of a page request, sorted as requested. The offset and limit of
+	 * the request are ignored, so a listing can be read in slices with a
+	 * single search.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The sorted identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getRoleIdentifiers(PageRequest request) throws BaseRepositoryException;
+
 	/**
 	 * Gets all role identifiers.
 	 * 
@@ -79,7 +108,32 @@ public interface RoleRepository {
 	List<Role> getRoles() throws BaseRepositoryException;
 
 	/**
-	 * Gets the roles for a user.
+	 * Retrieves a number of roles in as few directory round trips as
+	 * possible. Roles that do not exist or may not be read are left out.
+	 * 
+	 * @param identifiers
+	 *            The role identifiers. May not be null.
+	 * @return The roles, in the order of the given identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<Role> getRoles(Collection<String> identifiers) throws BaseRepositoryException;
+
+	/**
+	 * Retrieves a page of readable roles. Filtering and sorting are applied
+	 * before slicing, and only the roles on the page are read.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The page.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	Page<Role> getRoles(PageRequest request) throws BaseRepositoryException;
+
+	/**
+	 * Gets the roles directly containing a user. These are the memberships
+	 * that can be edited.
 	 * 
 	 * @param userIdentifier
 	 *            The user identifier.
@@ -89,6 +143,67 @@ public interface RoleRepository {
 	 */
 	List<String> getRolesForUser(String userIdentifier) throws BaseRepositoryException;
 
+	/**
+	 * Adds and removes users of a role in a single modification, leaving
+	 * other members untouched. Adding a present or removing an absent member
+	 * is not an error.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @param addedUsers
+	 *            The user identifiers to add.
+	 * @param removedUsers
+	 *            The user identifiers to remove.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	void modifyRoleUsers(String roleIdentifier, Collection<String> addedUsers, Collection<String> removedUsers)
+			throws BaseRepositoryException;
+
+	/**
+	 * Adds and removes roles of a user, leaving other memberships untouched.
+	 * Adding a present or removing an absent membership is not an error.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @param addedRoles
+	 *            The role identifiers to add the user to.
+	 * @param removedRoles
+	 *            The role identifiers to remove the user from.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	void modifyRolesForUser(String userIdentifier, Collection<String> addedRoles, Collection<String> removedRoles)
+			throws BaseRepositoryException;
+
+	/**
+	 * Removes a user from every role that directly contains it, such as after
+	 * the user was deleted. Roles are modified regardless of whether the
+	 * subject may write them, a role that cannot be modified is logged and
+	 * left for later cleanup.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The identifiers of the roles the user was removed from.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the roles could not be found.
+	 */
+	List<String> removeUserFromRoles(String userIdentifier) throws BaseRepositoryException;
+
+	/**
+	 * Searches readable roles by text, for incremental search. The text is
+	 * matched against the start of words and as a substring.
+	 * 
+	 * @param text
+	 *            The text to search for. May not be null.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The identifiers, best matches first.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> searchRoleIdentifiers(String text, int limit) throws BaseRepositoryException;
+
 	/**
 	 * Sets the roles for a given user.
 	 * 
@@ -102,7 +217,8 @@ public interface RoleRepository {
 	void setRolesForUser(String userIdentifier, List<String> roles) throws BaseRepositoryException;
 
 	/**
-	 * Updates a role.
+	 * Updates a role. If the role carries a version, the update only
+	 * succeeds if the entry is still at that version.
 	 * 
 	 * @param role
 	 *            The role to update.
@@ -112,7 +228,8 @@ public interface RoleRepository {
 	void updateRole(Role role) throws BaseRepositoryException;
 
 	/**
-	 * Updates a role, excluding users.
+	 * Updates a role, excluding users. If the role carries a version, the
+	 * update only succeeds if the entry is still at that version.
 	 * 
 	 * @param role
 	 *            The role to update.
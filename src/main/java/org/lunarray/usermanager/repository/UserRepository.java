@@ -17,8 +17,12 @@
  */
 package org.lunarray.usermanager.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 
@@ -40,6 +44,17 @@ public interface UserRepository {
 	 */
 	boolean containsUser(String identifier) throws BaseRepositoryException;
 
+	/**
+	 * Tests which of a number of users exist.
+	 * 
+	 * @param identifiers
+	 *            The user identifiers.
+	 * @return The given identifiers of the users that exist.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	Set<String> containsUsers(Collection<String> identifiers) throws BaseRepositoryException;
+
 	/**
 	 * Creates a user.
 	 * 
@@ -80,6 +95,20 @@ public interface UserRepository {
 	 */
 	List<String> getUserIdentifiers() throws BaseRepositoryException;
 
+	/**
+	 * Gets the identifiers of the readable users matching the criterion and
+	 * filter of a page request, sorted as requested. The offset and limit of
+	 * the request are ignored, so a listing can be read in slices with a
+	 * single search.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The sorted identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getUserIdentifiers(PageRequest request) throws BaseRepositoryException;
+
 	/**
 	 * Retrieves all users.
 	 * 
@@ -89,6 +118,30 @@ public interface UserRepository {
 	 */
 	List<User> getUsers() throws BaseRepositoryException;
 
+	/**
+	 * Retrieves a number of users in as few directory round trips as
+	 * possible. Users that do not exist or may not be read are left out.
+	 * 
+	 * @param identifiers
+	 *            The user identifiers. May not be null.
+	 * @return The users, in the order of the given identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<User> getUsers(Collection<String> identifiers) throws BaseRepositoryException;
+
+	/**
+	 * Retrieves a page of readable users. Filtering and sorting are applied
+	 * before slicing, and only the users on the page are read.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The page.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	Page<User> getUsers(PageRequest request) throws BaseRepositoryException;
+
 	/**
 	 * Gets a user without testing security. Should only be used in integrating
 	 * services!
@@ -102,7 +155,22 @@ public interface UserRepository {
 	User getUserUnsecured(String identifier) throws BaseRepositoryException;
 
 	/**
-	 * Updates a user.
+	 * Searches readable users by text, for incremental search. The text is
+	 * matched against the start of words and as a substring.
+	 * 
+	 * @param text
+	 *            The text to search for. May not be null.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The identifiers, best matches first.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> searchUserIdentifiers(String text, int limit) throws BaseRepositoryException;
+
+	/**
+	 * Updates a user. If the user carries a version, the update only
+	 * succeeds if the entry is still at that version.
 	 * 
 	 * @param user
 	 *            The user to update.
@@ -117,11 +185,10 @@ public interface UserRepository {
 	 * @param identifier
 	 *            The user identifier.
 	 * @param passwordHash
-	 *            The password hash as bytes.
-	 * @param algorithm
-	 *            The algorithm used to hash the password.
+	 *            The password hash, tagged with its scheme, such as
+	 *            <code>{SSHA}...</code>.
 	 * @throws BaseRepositoryException
 	 *             Thrown if the operation could not be completed.
 	 */
-	void updateUserPassword(String identifier, byte[] passwordHash, String algorithm) throws BaseRepositoryException;
+	void updateUserPassword(String identifier, String passwordHash) throws BaseRepositoryException;
 }
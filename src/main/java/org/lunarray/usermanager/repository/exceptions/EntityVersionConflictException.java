@@ -0,0 +1,69 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.repository.exceptions;
+
+/**
+ * Indicates an entity was modified since the version that was read.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public class EntityVersionConflictException
+		extends BaseRepositoryException {
+
+	/** Serial id. */
+	private static final long serialVersionUID = 4411367920317486215L;
+	/** The current version, may be null if unknown. */
+	private final String currentVersion;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @param currentVersion
+	 *            The current version, may be null if unknown.
+	 */
+	public EntityVersionConflictException(final String message, final String currentVersion) {
+		super(message);
+		this.currentVersion = currentVersion;
+	}
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @param currentVersion
+	 *            The current version, may be null if unknown.
+	 * @param cause
+	 *            The original cause.
+	 */
+	public EntityVersionConflictException(final String message, final String currentVersion, final Exception cause) {
+		super(message, cause);
+		this.currentVersion = currentVersion;
+	}
+
+	/**
+	 * Gets the value for the currentVersion field.
+	 * 
+	 * @return The value for the currentVersion field.
+	 */
+	public String getCurrentVersion() {
+		return this.currentVersion;
+	}
+}
@@ -0,0 +1,235 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.repository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.repository.exceptions.EntityVersionConflictException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads entry versions and makes modifications conditional on them. The
+ * version is an operational attribute maintained by the directory, such as
+ * {@code modifyTimestamp} or {@code entryCSN}. A modification carries an
+ * assertion control (RFC 4528) on the version, so the directory rejects it
+ * atomically if the entry changed. Directories without the control are
+ * detected on first use, after which the version is compared just before
+ * modifying, which narrows but does not close the window for lost updates.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class EntryVersionSupport {
+
+	/** The result code of a failed assertion. */
+	private static final String ASSERTION_FAILED = "error code 122";
+	/** The assertion control OID. */
+	private static final String ASSERTION_OID = "1.3.6.1.1.12";
+	/** BER equality match filter tag. */
+	private static final int EQUALITY_MATCH = 0xA3;
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(EntryVersionSupport.class);
+	/** Conflict message. */
+	private static final String MODIFIED = "Entity was modified.";
+	/** BER octet string tag. */
+	private static final int OCTET_STRING = 0x04;
+	/** The charset of filter values. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Whether the directory supports the assertion control. */
+	private transient volatile boolean assertionSupported = true;
+	/** The version attribute. */
+	private transient String versionAttribute = "modifyTimestamp";
+
+	/**
+	 * Default constructor.
+	 */
+	public EntryVersionSupport() {
+		// Default constructor.
+	}
+
+	/**
+	 * Gets the version from attributes read with {@link #read}.
+	 * 
+	 * @param attributes
+	 *            The attributes.
+	 * @return The version, or null if the directory does not provide it.
+	 * @throws NamingException
+	 *             Thrown if the version could not be read.
+	 */
+	public String getVersion(final Attributes attributes) throws NamingException {
+		final Attribute attribute = attributes.get(this.versionAttribute);
+		String result = null;
+		if (!CheckUtil.isNull(attribute) && (attribute.size() > 0)) {
+			result = ObjectUtils.toString(attribute.get(), null);
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces attributes of an entry, if it is still at a version.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @param attributes
+	 *            The replacement attributes.
+	 * @param version
+	 *            The expected version, if null the entry is replaced
+	 *            unconditionally.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be modified.
+	 * @throws EntityVersionConflictException
+	 *             Thrown if the entry is at another version.
+	 */
+	public void modify(final LdapContext ctx, final String name, final Attributes attributes, final String version)
+			throws NamingException, EntityVersionConflictException {
+		if (StringUtils.isEmpty(version)) {
+			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+			return;
+		}
+		if (this.assertionSupported) {
+			final LdapContext conditional = ctx.newInstance(new Control[] { new BasicControl(EntryVersionSupport.ASSERTION_OID, true,
+					EntryVersionSupport.encodeEquality(this.versionAttribute, version)) });
+			try {
+				conditional.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+				return;
+			} catch (final OperationNotSupportedException e) {
+				EntryVersionSupport.LOGGER.info("Directory does not support assertions, comparing versions before writing.", e);
+				this.assertionSupported = false;
+			} catch (final NamingException e) {
+				if (StringUtils.contains(e.getMessage(), EntryVersionSupport.ASSERTION_FAILED)) {
+					throw new EntityVersionConflictException(EntryVersionSupport.MODIFIED, this.readVersion(ctx, name), e);
+				}
+				throw e;
+			} finally {
+				conditional.close();
+			}
+		}
+		final String current = this.readVersion(ctx, name);
+		if (!version.equals(current)) {
+			throw new EntityVersionConflictException(EntryVersionSupport.MODIFIED, current);
+		}
+		ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+	}
+
+	/**
+	 * Reads the attributes of an entry, including its version.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @return The attributes.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be read.
+	 */
+	public Attributes read(final LdapContext ctx, final String name) throws NamingException {
+		return ctx.getAttributes(name, new String[] { "*", this.versionAttribute });
+	}
+
+	/**
+	 * Sets a new value for the versionAttribute field.
+	 * 
+	 * @param versionAttribute
+	 *            The new value for the versionAttribute field.
+	 */
+	public void setVersionAttribute(final String versionAttribute) {
+		Validate.notEmpty(versionAttribute, "Version attribute may not be empty.");
+		this.versionAttribute = versionAttribute;
+	}
+
+	/**
+	 * Encodes an equality filter.
+	 * 
+	 * @param attribute
+	 *            The attribute.
+	 * @param value
+	 *            The value.
+	 * @return The BER encoded filter.
+	 */
+	private static byte[] encodeEquality(final String attribute, final String value) {
+		final ByteArrayOutputStream assertion = new ByteArrayOutputStream();
+		EntryVersionSupport.writeElement(assertion, EntryVersionSupport.OCTET_STRING, attribute.getBytes(EntryVersionSupport.UTF8));
+		EntryVersionSupport.writeElement(assertion, EntryVersionSupport.OCTET_STRING, value.getBytes(EntryVersionSupport.UTF8));
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		EntryVersionSupport.writeElement(result, EntryVersionSupport.EQUALITY_MATCH, assertion.toByteArray());
+		return result.toByteArray();
+	}
+
+	/**
+	 * Writes a BER element.
+	 * 
+	 * @param out
+	 *            The output.
+	 * @param tag
+	 *            The tag.
+	 * @param content
+	 *            The content.
+	 */
+	private static void writeElement(final ByteArrayOutputStream out, final int tag, final byte[] content) {
+		out.write(tag);
+		final int length = content.length;
+		if (length < 0x80) {
+			out.write(length);
+		} else if (length < 0x100) {
+			out.write(0x81);
+			out.write(length);
+		} else if (length < 0x10000) {
+			out.write(0x82);
+			out.write(length >>> 8);
+			out.write(length);
+		} else {
+			out.write(0x84);
+			out.write(length >>> 24);
+			out.write(length >>> 16);
+			out.write(length >>> 8);
+			out.write(length);
+		}
+		out.write(content, 0, length);
+	}
+
+	/**
+	 * Reads the version of an entry.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @return The version, or null if the directory does not provide it.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be read.
+	 */
+	private String readVersion(final LdapContext ctx, final String name) throws NamingException {
+		return this.getVersion(ctx.getAttributes(name, new String[] { this.versionAttribute }));
+	}
+}
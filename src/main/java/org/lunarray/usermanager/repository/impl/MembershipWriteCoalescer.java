@@ -0,0 +1,445 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.repository.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.NoSuchAttributeException;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.BackgroundWork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * Collects membership changes per role for a short window and writes them as
+ * one modification, adding and removing all collected members at once. A
+ * role is written early once a batch is full. If the combined modification
+ * fails, for instance because one member was already present, the changes
+ * are written one by one, so every change gets its own result. Changes of the
+ * same member within a window are written in order, in separate
+ * modifications. Coalescing is opt-in; when disabled, callers write directly.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class MembershipWriteCoalescer {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(MembershipWriteCoalescer.class);
+	/** The open batches per qualified role name. */
+	private final transient Map<String, Batch> batches = new HashMap<String, Batch>();
+	/** Whether coalescing is enabled. */
+	private transient boolean enabled;
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The maximum number of changes per batch. */
+	private transient int maxBatchSize = 100;
+	/** The flush scheduler. */
+	private transient ScheduledExecutorService scheduler;
+	/** The number of flush threads. */
+	private transient int threads = 2;
+	/** The window in milliseconds. */
+	private transient long window = 50;
+
+	/**
+	 * Default constructor.
+	 */
+	public MembershipWriteCoalescer() {
+		// Default constructor.
+	}
+
+	/**
+	 * Writes the open batches and stops the flush threads.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.scheduler)) {
+			final List<Batch> open;
+			synchronized (this) {
+				open = new ArrayList<Batch>(this.batches.values());
+			}
+			for (final Batch batch : open) {
+				this.flush(batch);
+			}
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Starts the flush threads, if enabled.
+	 */
+	public void init() {
+		if (this.enabled) {
+			final AtomicInteger counter = new AtomicInteger();
+			this.scheduler = Executors.newScheduledThreadPool(this.threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(BackgroundWork.wrap(runnable),
+							"membership-coalescer-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gets the value for the enabled field.
+	 * 
+	 * @return The value for the enabled field.
+	 */
+	public boolean isEnabled() {
+		return this.enabled && !CheckUtil.isNull(this.scheduler);
+	}
+
+	/**
+	 * Sets a new value for the enabled field.
+	 * 
+	 * @param enabled
+	 *            The new value for the enabled field.
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the maxBatchSize field.
+	 * 
+	 * @param maxBatchSize
+	 *            The new value for the maxBatchSize field.
+	 */
+	public void setMaxBatchSize(final int maxBatchSize) {
+		Validate.isTrue(maxBatchSize > 0, "Batch size must be positive.");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Sets a new value for the threads field.
+	 * 
+	 * @param threads
+	 *            The new value for the threads field.
+	 */
+	public void setThreads(final int threads) {
+		Validate.isTrue(threads > 0, "Threads must be positive.");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets a new value for the window field.
+	 * 
+	 * @param window
+	 *            The new value for the window field.
+	 */
+	public void setWindow(final long window) {
+		Validate.isTrue(window >= 0, "Window may not be negative.");
+		this.window = window;
+	}
+
+	/**
+	 * Submits a membership change.
+	 * 
+	 * @param roleName
+	 *            The qualified role name. May not be null.
+	 * @param item
+	 *            The change, adding or removing a single member. May not be
+	 *            null.
+	 * @return The result of the change, failing with the
+	 *         {@link NamingException} of the write.
+	 */
+	public ListenableFuture<Void> submit(final String roleName, final ModificationItem item) {
+		Validate.notNull(roleName, "Role name may not be null.");
+		Validate.notNull(item, "Item may not be null.");
+		Validate.isTrue(item.getAttribute().size() == 1, "Item must change a single member.");
+		Validate.isTrue(this.isEnabled(), "Coalescer must be enabled.");
+		final Delta delta = new Delta(item);
+		Batch full = null;
+		synchronized (this) {
+			Batch batch = this.batches.get(roleName);
+			if (CheckUtil.isNull(batch)) {
+				batch = new Batch(roleName);
+				this.batches.put(roleName, batch);
+				this.schedule(batch, this.window);
+			}
+			batch.deltas.add(delta);
+			if (batch.deltas.size() >= this.maxBatchSize) {
+				full = batch;
+			}
+		}
+		if (!CheckUtil.isNull(full)) {
+			this.schedule(full, 0);
+		}
+		return delta.result;
+	}
+
+	/**
+	 * Gets the key of the member a change is about.
+	 * 
+	 * @param delta
+	 *            The change.
+	 * @return The member key.
+	 * @throws NamingException
+	 *             Thrown if the member could not be read.
+	 */
+	private static String memberKey(final Delta delta) throws NamingException {
+		return String.valueOf(delta.item.getAttribute().get()).toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Writes changes of distinct members as one modification, or one by one
+	 * if that fails.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param deltas
+	 *            The changes.
+	 */
+	private static void writeCombined(final LdapContext ctx, final String roleName, final List<Delta> deltas) {
+		if (deltas.size() > 1) {
+			Attribute added = null;
+			Attribute removed = null;
+			for (final Delta delta : deltas) {
+				final Attribute attribute = delta.item.getAttribute();
+				try {
+					if (delta.item.getModificationOp() == DirContext.ADD_ATTRIBUTE) {
+						if (CheckUtil.isNull(added)) {
+							added = new BasicAttribute(attribute.getID());
+						}
+						added.add(attribute.get());
+					} else {
+						if (CheckUtil.isNull(removed)) {
+							removed = new BasicAttribute(attribute.getID());
+						}
+						removed.add(attribute.get());
+					}
+				} catch (final NamingException e) {
+					delta.result.setException(e);
+				}
+			}
+			final List<ModificationItem> items = new ArrayList<ModificationItem>(2);
+			if (!CheckUtil.isNull(added)) {
+				items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, added));
+			}
+			if (!CheckUtil.isNull(removed)) {
+				items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, removed));
+			}
+			try {
+				ctx.modifyAttributes(roleName, items.toArray(new ModificationItem[items.size()]));
+				for (final Delta delta : deltas) {
+					delta.result.set(null);
+				}
+				return;
+			} catch (final NamingException e) {
+				MembershipWriteCoalescer.LOGGER.debug("Could not write {} changes of {} at once, writing one by one.", deltas.size(),
+						roleName, e);
+			}
+		}
+		MembershipWriteCoalescer.writeEach(ctx, roleName, deltas);
+	}
+
+	/**
+	 * Writes changes one by one.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param deltas
+	 *            The changes.
+	 */
+	private static void writeEach(final LdapContext ctx, final String roleName, final List<Delta> deltas) {
+		for (final Delta delta : deltas) {
+			try {
+				ctx.modifyAttributes(roleName, new ModificationItem[] { delta.item });
+				delta.result.set(null);
+			} catch (final AttributeInUseException e) {
+				MembershipWriteCoalescer.LOGGER.debug("Member already present in {}.", roleName, e);
+				delta.result.set(null);
+			} catch (final NoSuchAttributeException e) {
+				MembershipWriteCoalescer.LOGGER.debug("Member already absent from {}.", roleName, e);
+				delta.result.set(null);
+			} catch (final NamingException e) {
+				delta.result.setException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch, unless it was already written.
+	 * 
+	 * @param batch
+	 *            The batch.
+	 */
+	private void flush(final Batch batch) {
+		if (!this.take(batch)) {
+			return;
+		}
+		final List<Delta> deltas = batch.deltas;
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			int start = 0;
+			int writes = 0;
+			while (start < deltas.size()) {
+				final Set<String> members = new HashSet<String>();
+				int end = start;
+				while ((end < deltas.size()) && members.add(MembershipWriteCoalescer.memberKey(deltas.get(end)))) {
+					end++;
+				}
+				MembershipWriteCoalescer.writeCombined(ctx, batch.roleName, deltas.subList(start, end));
+				writes++;
+				start = end;
+			}
+			MembershipWriteCoalescer.LOGGER.debug("Wrote {} membership changes of {} in {} modifications.", deltas.size(),
+					batch.roleName, writes);
+		} catch (final NamingException e) {
+			for (final Delta delta : deltas) {
+				delta.result.setException(e);
+			}
+		} catch (final RuntimeException e) {
+			for (final Delta delta : deltas) {
+				delta.result.setException(e);
+			}
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					MembershipWriteCoalescer.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedules a batch to be written.
+	 * 
+	 * @param batch
+	 *            The batch.
+	 * @param delay
+	 *            The delay in milliseconds.
+	 */
+	private void schedule(final Batch batch, final long delay) {
+		this.scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				MembershipWriteCoalescer.this.flush(batch);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes a batch for new changes.
+	 * 
+	 * @param batch
+	 *            The batch.
+	 * @return True if the batch is to be written by the caller, false if it
+	 *         was already taken.
+	 */
+	private synchronized boolean take(final Batch batch) {
+		if (batch.taken) {
+			return false;
+		}
+		batch.taken = true;
+		if (this.batches.get(batch.roleName) == batch) {
+			this.batches.remove(batch.roleName);
+		}
+		return true;
+	}
+
+	/**
+	 * The changes of a role within a window.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Batch {
+
+		/** The changes, in order of submission. */
+		private final List<Delta> deltas = new ArrayList<Delta>();
+		/** The qualified role name. */
+		private final String roleName;
+		/** Whether the batch was taken for writing. */
+		private boolean taken;
+
+		/**
+		 * Constructs the batch.
+		 * 
+		 * @param roleName
+		 *            The qualified role name.
+		 */
+		public Batch(final String roleName) {
+			this.roleName = roleName;
+		}
+	}
+
+	/**
+	 * A single change and its result.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Delta {
+
+		/** The change. */
+		private final ModificationItem item;
+		/** The result. */
+		private final SettableListenableFuture<Void> result = new SettableListenableFuture<Void>();
+
+		/**
+		 * Constructs the change.
+		 * 
+		 * @param item
+		 *            The change.
+		 */
+		public Delta(final ModificationItem item) {
+			this.item = item;
+		}
+	}
+}
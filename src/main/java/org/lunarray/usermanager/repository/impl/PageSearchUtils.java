@@ -0,0 +1,192 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.lang.StringUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+
+/**
+ * Searches the identifiers of a page request. Only the sort attribute is
+ * returned by the directory, so entities themselves are only read for the
+ * requested page.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum PageSearchUtils {
+	/** The util instance. */
+	INSTANCE;
+
+	/** The property holding the identifier. */
+	private static final String IDENTIFIER = "identifier";
+
+	/**
+	 * Searches the filtered identifiers of a type, sorted as requested.
+	 * 
+	 * @param ctx
+	 *            The context to search with.
+	 * @param support
+	 *            The model support.
+	 * @param type
+	 *            The entity type.
+	 * @param request
+	 *            The page request.
+	 * @param filterProperties
+	 *            The properties the filter text is matched against.
+	 * @return The sorted identifiers.
+	 * @throws NamingException
+	 *             Thrown if the search failed.
+	 * @throws ModelSupportException
+	 *             Thrown if a name could not be mapped.
+	 */
+	public static List<String> searchIdentifiers(final LdapContext ctx, final ModelLdapSupport support, final Class<?> type,
+			final PageRequest request, final Collection<String> filterProperties) throws NamingException, ModelSupportException {
+		String sortAttribute = null;
+		final String sortProperty = request.getSortProperty();
+		if (!StringUtils.isBlank(sortProperty) && !PageSearchUtils.IDENTIFIER.equals(sortProperty)
+				&& support.isMapped(type, sortProperty)) {
+			sortAttribute = support.resolveAttribute(type, sortProperty);
+		}
+		final SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+		if (CheckUtil.isNull(sortAttribute)) {
+			controls.setReturningAttributes(new String[0]);
+		} else {
+			controls.setReturningAttributes(new String[] { sortAttribute });
+		}
+		final List<Object> arguments = new ArrayList<Object>();
+		final StringBuilder filter = new StringBuilder("(&");
+		if (!StringUtils.isBlank(request.getFilter())) {
+			final String substringFilter = support.toSubstringFilter(type, filterProperties);
+			if (!CheckUtil.isNull(substringFilter)) {
+				arguments.add(request.getFilter().trim());
+				filter.append(substringFilter);
+			}
+		}
+		if (!CheckUtil.isNull(request.getCriterion())) {
+			filter.append(support.toCriterionFilter(type, request.getCriterion(), arguments));
+		}
+		final NamingEnumeration<SearchResult> results;
+		if (filter.length() == 2) {
+			results = ctx.search(support.getSubTree(type), "(objectClass=*)", controls);
+		} else {
+			results = ctx.search(support.getSubTree(type), filter.append(')').toString(), arguments.toArray(), controls);
+		}
+		final List<SortKey> keys = new ArrayList<SortKey>();
+		while (results.hasMore()) {
+			final SearchResult result = results.next();
+			final String identifier = support.toShortName(result.getNameInNamespace(), type);
+			String value = identifier;
+			if (!CheckUtil.isNull(sortAttribute)) {
+				final Attribute attribute = result.getAttributes().get(sortAttribute);
+				value = CheckUtil.isNull(attribute) ? null : String.valueOf(attribute.get());
+			}
+			keys.add(new SortKey(identifier, value));
+		}
+		Collections.sort(keys, new SortKeyComparator(request.isAscending()));
+		final List<String> identifiers = new ArrayList<String>(keys.size());
+		for (final SortKey key : keys) {
+			identifiers.add(key.identifier);
+		}
+		return identifiers;
+	}
+
+	/**
+	 * An identifier with its sort value.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class SortKey {
+
+		/** The identifier. */
+		private final String identifier;
+		/** The sort value, may be null. */
+		private final String value;
+
+		/**
+		 * Constructs the key.
+		 * 
+		 * @param identifier
+		 *            The identifier.
+		 * @param value
+		 *            The sort value.
+		 */
+		public SortKey(final String identifier, final String value) {
+			this.identifier = identifier;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Orders sort keys by value, case insensitive, with missing values last
+	 * and the identifier as tie breaker.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class SortKeyComparator
+			implements Comparator<SortKey> {
+
+		/** Whether to sort ascending. */
+		private final boolean ascending;
+
+		/**
+		 * Constructs the comparator.
+		 * 
+		 * @param ascending
+		 *            Whether to sort ascending.
+		 */
+		public SortKeyComparator(final boolean ascending) {
+			this.ascending = ascending;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int compare(final SortKey first, final SortKey second) {
+			int result;
+			if (CheckUtil.isNull(first.value)) {
+				result = CheckUtil.isNull(second.value) ? 0 : 1;
+			} else if (CheckUtil.isNull(second.value)) {
+				result = -1;
+			} else {
+				result = String.CASE_INSENSITIVE_ORDER.compare(first.value, second.value);
+				if (!this.ascending) {
+					result = -result;
+				}
+			}
+			if (result == 0) {
+				result = first.identifier.compareTo(second.identifier);
+			}
+			return result;
+		}
+	}
+}
@@ -17,22 +17,39 @@
  */
 package org.lunarray.usermanager.repository.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import javax.naming.InterruptedNamingException;
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameClassPair;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.AttributeInUseException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.NoSuchAttributeException;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapContext;
 
@@ -40,6 +57,8 @@ import org.apache.commons.lang.Validate;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.realm.ldap.LdapContextFactory;
 import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.repository.RoleRepository;
@@ -47,7 +66,12 @@ import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
 import org.lunarray.usermanager.repository.exceptions.EntityInvalidException;
 import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.repository.exceptions.EntityVersionConflictException;
 import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.RoleMembershipIndex;
+import org.lunarray.usermanager.support.SearchIndex;
+import org.lunarray.usermanager.support.change.ChangeEvent;
+import org.lunarray.usermanager.support.change.ChangeTracker;
 import org.lunarray.usermanager.support.exceptions.ModelSupportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,10 +92,26 @@ public final class RoleRepositoryImpl
 	private static final String ROLE_NULL = "Role may not be null.";
 	/** Validation message. */
 	private static final String USER_IDENTIFIER_NULL = "User identifier may not be null.";
+	/** The maximum number of identifiers per search. */
+	private int batchSize = 100;
+	/** The change tracker, if changes are tracked. */
+	private ChangeTracker changeTracker;
+	/** The entry version support, if updates are conditional. */
+	private EntryVersionSupport entryVersionSupport;
 	/** The context factory. */
 	private LdapContextFactory factory;
+	/** The coalescer membership writes are shared through, if any. */
+	private MembershipWriteCoalescer membershipCoalescer;
+	/** The executor membership modifications run on in parallel, if any. */
+	private ExecutorService membershipExecutor;
+	/** The properties the filter text of a page request is matched against. */
+	private List<String> filterProperties = Collections.singletonList("identifier");
 	/** The model support. */
 	private ModelLdapSupport modelLdapSupport;
+	/** The role membership index, if nested roles are resolved. */
+	private RoleMembershipIndex roleMembershipIndex;
+	/** The search index, if searches are served from memory. */
+	private SearchIndex searchIndex;
 
 	/** {@inheritDoc} */
 	@Override
@@ -86,6 +126,10 @@ public final class RoleRepositoryImpl
 			final Attributes attributes = this.modelLdapSupport.map(role);
 			attributes.put(this.modelLdapSupport.mapObjectType(Role.class));
 			ctx.bind(name, null, attributes);
+			this.refreshIndex(name);
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.update(role.getIdentifier(), attributes);
+			}
 		} catch (final NameAlreadyBoundException e) {
 			throw new EntityAlreadyExistsException("Entity already exists.", e);
 		} catch (final NamingException e) {
@@ -101,6 +145,7 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.CREATED, Collections.singleton(role.getIdentifier()));
 		RoleRepositoryImpl.LOGGER.debug("Created role: {}", role);
 	}
 
@@ -115,6 +160,12 @@ public final class RoleRepositoryImpl
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, Role.class);
 			ctx.unbind(name);
+			if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+				this.roleMembershipIndex.removeRole(name);
+			}
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.remove(identifier);
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -130,9 +181,37 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.DELETED, Collections.singleton(identifier));
 		RoleRepositoryImpl.LOGGER.debug("Deleted role: {}", identifier);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getEffectiveRolesForUser(final String userIdentifier) throws BaseRepositoryException {
+		Validate.notNull(userIdentifier, RoleRepositoryImpl.USER_IDENTIFIER_NULL);
+		RoleRepositoryImpl.LOGGER.debug("Getting effective roles for user: {}", userIdentifier);
+		SecurityUtils.getSubject().checkPermission(String.format("user:%s:read", userIdentifier));
+		final List<String> result = new LinkedList<String>();
+		try {
+			final String userName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
+			final Collection<String> roles;
+			if (!this.isIndexAvailable()) {
+				roles = this.searchEffectiveRoles(userName);
+			} else {
+				roles = this.roleMembershipIndex.getEffectiveRoles(userName);
+			}
+			for (final String role : roles) {
+				if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", role))) {
+					result.add(role);
+				}
+			}
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		}
+		RoleRepositoryImpl.LOGGER.debug("Got effective roles for user {}: {}", userIdentifier, result);
+		return result;
+	}
+
 	/**
 	 * Gets the value for the factory field.
 	 * 
@@ -162,7 +241,13 @@ public final class RoleRepositoryImpl
 		try {
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, Role.class);
-			result = this.modelLdapSupport.map(Role.class, ctx.getAttributes(name));
+			if (CheckUtil.isNull(this.entryVersionSupport)) {
+				result = this.modelLdapSupport.map(Role.class, ctx.getAttributes(name));
+			} else {
+				final Attributes attributes = this.entryVersionSupport.read(ctx, name);
+				result = this.modelLdapSupport.map(Role.class, attributes);
+				result.setVersion(this.entryVersionSupport.getVersion(attributes));
+			}
 			final Iterator<String> usersIt = result.getUsers().iterator();
 			while (usersIt.hasNext()) {
 				if (!SecurityUtils.getSubject().isPermitted(String.format("user:%s:read", usersIt.next()))) {
@@ -188,6 +273,15 @@ public final class RoleRepositoryImpl
 		return result;
 	}
 
+	/**
+	 * Gets the value for the roleMembershipIndex field.
+	 * 
+	 * @return The value for the roleMembershipIndex field.
+	 */
+	public RoleMembershipIndex getRoleMembershipIndex() {
+		return this.roleMembershipIndex;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<String> getRoleIdentifiers() throws BaseRepositoryException {
@@ -220,6 +314,38 @@ public final class RoleRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getRoleIdentifiers(final PageRequest request) throws BaseRepositoryException {
+		Validate.notNull(request, "Request may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Getting role identifiers: {}", request);
+		final List<String> identifiers = new ArrayList<String>();
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			for (final String identifier : PageSearchUtils.searchIdentifiers(ctx, this.modelLdapSupport, Role.class, request,
+					this.filterProperties)) {
+				if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", identifier))) {
+					identifiers.add(identifier);
+				}
+			}
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		RoleRepositoryImpl.LOGGER.debug("Got role identifiers {}: {}", request, identifiers.size());
+		return identifiers;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<Role> getRoles() throws BaseRepositoryException {
@@ -253,26 +379,136 @@ public final class RoleRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<Role> getRoles(final Collection<String> identifiers) throws BaseRepositoryException {
+		Validate.notNull(identifiers, "Identifiers may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Getting roles: {}", identifiers);
+		final List<String> permitted = new ArrayList<String>(identifiers.size());
+		for (final String identifier : new LinkedHashSet<String>(identifiers)) {
+			if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", identifier))) {
+				permitted.add(identifier);
+			}
+		}
+		// Keyed in lower case, since the directory names entries case insensitively.
+		final Map<String, Role> found = new HashMap<String, Role>();
+		LdapContext ctx = null;
+		try {
+			if (!permitted.isEmpty()) {
+				ctx = this.factory.getSystemLdapContext();
+				final String subTree = this.modelLdapSupport.getSubTree(Role.class);
+				final SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+				for (int i = 0; i < permitted.size(); i += this.batchSize) {
+					final List<String> batch = permitted.subList(i, Math.min(i + this.batchSize, permitted.size()));
+					final String filter = this.modelLdapSupport.toKeyFilter(Role.class, batch.size());
+					final NamingEnumeration<SearchResult> results = ctx.search(subTree, filter, batch.toArray(), controls);
+					while (results.hasMore()) {
+						final Role role = this.modelLdapSupport.map(Role.class, results.next().getAttributes());
+						final Iterator<String> usersIt = role.getUsers().iterator();
+						while (usersIt.hasNext()) {
+							if (!SecurityUtils.getSubject().isPermitted(String.format("user:%s:read", usersIt.next()))) {
+								usersIt.remove();
+							}
+						}
+						found.put(role.getIdentifier().toLowerCase(Locale.ENGLISH), role);
+					}
+				}
+			}
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		final List<Role> result = new ArrayList<Role>(found.size());
+		for (final String identifier : permitted) {
+			final Role role = found.get(identifier.toLowerCase(Locale.ENGLISH));
+			if (!CheckUtil.isNull(role)) {
+				result.add(role);
+			}
+		}
+		RoleRepositoryImpl.LOGGER.debug("Got roles {}: {}", identifiers, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Page<Role> getRoles(final PageRequest request) throws BaseRepositoryException {
+		Validate.notNull(request, "Request may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Getting role page: {}", request);
+		final List<String> identifiers = this.getRoleIdentifiers(request);
+		final int from = Math.min(request.getOffset(), identifiers.size());
+		final int to = Math.min(from + request.getLimit(), identifiers.size());
+		final Page<Role> result = new Page<Role>(request, this.getRoles(identifiers.subList(from, to)), identifiers.size());
+		RoleRepositoryImpl.LOGGER.debug("Got role page {}: {}", request, result);
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<String> getRolesForUser(final String userIdentifier) throws BaseRepositoryException {
 		Validate.notNull(userIdentifier, RoleRepositoryImpl.USER_IDENTIFIER_NULL);
 		RoleRepositoryImpl.LOGGER.debug("Getting all roles for user: {}", userIdentifier);
 		SecurityUtils.getSubject().checkPermission(String.format("user:%s:read", userIdentifier));
-		final List<String> result = new LinkedList<String>();
+		final List<String> result = new LinkedList<String>(this.getDirectRolesForUser(userIdentifier));
+		RoleRepositoryImpl.LOGGER.debug("Got all roles for user {}: {}", userIdentifier, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void modifyRoleUsers(final String roleIdentifier, final Collection<String> addedUsers,
+			final Collection<String> removedUsers) throws BaseRepositoryException {
+		Validate.notNull(roleIdentifier, RoleRepositoryImpl.IDENTIFIER_NULL);
+		Validate.notNull(addedUsers, "Added users may not be null.");
+		Validate.notNull(removedUsers, "Removed users may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Modifying users of role {}, adding {} and removing {}", roleIdentifier, addedUsers,
+				removedUsers);
+		SecurityUtils.getSubject().checkPermission(String.format("role:%s:write", roleIdentifier));
+		if (addedUsers.isEmpty() && removedUsers.isEmpty()) {
+			return;
+		}
 		LdapContext ctx = null;
 		try {
 			ctx = this.factory.getSystemLdapContext();
-			final BasicAttributes matchingAttributes = new BasicAttributes();
-			final String qualifierName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
+			final String roleName = this.modelLdapSupport.toQualifiedName(roleIdentifier, Role.class);
 			final String attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
-			matchingAttributes.put(new BasicAttribute(attributeName, qualifierName));
-			final NamingEnumeration<SearchResult> searchResults = ctx.search(this.modelLdapSupport.getSubTree(Role.class),
-					matchingAttributes);
-			while (searchResults.hasMore()) {
-				final String shortName = this.modelLdapSupport.toShortName(searchResults.next().getName(), Role.class);
-				if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", shortName))) {
-					result.add(shortName);
+			final List<String> addedNames = new ArrayList<String>(addedUsers.size());
+			final List<String> removedNames = new ArrayList<String>(removedUsers.size());
+			final List<ModificationItem> items = new ArrayList<ModificationItem>(addedUsers.size() + removedUsers.size());
+			for (final String addedUser : addedUsers) {
+				final String userName = this.modelLdapSupport.toQualifiedName(addedUser, User.class);
+				addedNames.add(userName);
+				items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute(attributeName, userName)));
+			}
+			for (final String removedUser : removedUsers) {
+				final String userName = this.modelLdapSupport.toQualifiedName(removedUser, User.class);
+				removedNames.add(userName);
+				items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, new BasicAttribute(attributeName, userName)));
+			}
+			try {
+				ctx.modifyAttributes(roleName, items.toArray(new ModificationItem[items.size()]));
+			} catch (final AttributeInUseException e) {
+				RoleRepositoryImpl.LOGGER.debug("Membership changed concurrently, applying one by one.", e);
+				this.modifyMembers(ctx, roleName, items);
+			} catch (final NoSuchAttributeException e) {
+				RoleRepositoryImpl.LOGGER.debug("Membership changed concurrently, applying one by one.", e);
+				this.modifyMembers(ctx, roleName, items);
+			}
+			if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+				for (final String userName : addedNames) {
+					this.roleMembershipIndex.addMember(roleName, userName);
+				}
+				for (final String userName : removedNames) {
+					this.roleMembershipIndex.removeMember(roleName, userName);
 				}
 			}
 		} catch (final NameNotFoundException e) {
@@ -290,10 +526,181 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
-		RoleRepositoryImpl.LOGGER.debug("Got all roles for user {}: {}", userIdentifier, result);
+		this.fireChanged(ChangeEvent.Kind.UPDATED, Collections.singleton(roleIdentifier));
+		RoleRepositoryImpl.LOGGER.debug("Modified users of role {}", roleIdentifier);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void modifyRolesForUser(final String userIdentifier, final Collection<String> addedRoles,
+			final Collection<String> removedRoles) throws BaseRepositoryException {
+		Validate.notNull(userIdentifier, RoleRepositoryImpl.USER_IDENTIFIER_NULL);
+		Validate.notNull(addedRoles, "Added roles may not be null.");
+		Validate.notNull(removedRoles, "Removed roles may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Modifying roles for user {}, adding {} and removing {}", userIdentifier, addedRoles,
+				removedRoles);
+		SecurityUtils.getSubject().checkPermission(String.format("user:%s:write", userIdentifier));
+		for (final String addedRole : addedRoles) {
+			SecurityUtils.getSubject().checkPermission(String.format("role:%s:write", addedRole));
+		}
+		for (final String removedRole : removedRoles) {
+			SecurityUtils.getSubject().checkPermission(String.format("role:%s:write", removedRole));
+		}
+		LdapContext ctx = null;
+		try {
+			final String userName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
+			final String attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
+			if (!CheckUtil.isNull(this.membershipCoalescer) && this.membershipCoalescer.isEnabled()) {
+				this.coalesceRolesForUser(userName, attributeName, addedRoles, removedRoles);
+			} else {
+				ctx = this.factory.getSystemLdapContext();
+				this.writeRolesForUser(ctx, userName, attributeName, addedRoles, removedRoles);
+			}
+		} catch (final NameNotFoundException e) {
+			throw new EntityNotFoundException("Entity does not exist.", e);
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		final Set<String> changedRoles = new LinkedHashSet<String>(addedRoles);
+		changedRoles.addAll(removedRoles);
+		this.fireChanged(ChangeEvent.Kind.UPDATED, changedRoles);
+		RoleRepositoryImpl.LOGGER.debug("Modified roles for user {}", userIdentifier);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<String> removeUserFromRoles(final String userIdentifier) throws BaseRepositoryException {
+		Validate.notNull(userIdentifier, RoleRepositoryImpl.USER_IDENTIFIER_NULL);
+		RoleRepositoryImpl.LOGGER.debug("Removing user from all roles: {}", userIdentifier);
+		SecurityUtils.getSubject().checkPermission(String.format("user:%s:write", userIdentifier));
+		final String userName;
+		final String attributeName;
+		try {
+			userName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
+			attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		}
+		final Collection<String> roles;
+		if (!this.isIndexAvailable()) {
+			roles = this.searchRolesWithMember(userName);
+		} else {
+			roles = this.roleMembershipIndex.getDirectRoles(userName);
+		}
+		final Map<String, FutureTask<String>> removals = new LinkedHashMap<String, FutureTask<String>>();
+		for (final String role : roles) {
+			final FutureTask<String> removal = new FutureTask<String>(new MemberRemoval(role, userName, attributeName));
+			removals.put(role, removal);
+			if (CheckUtil.isNull(this.membershipExecutor)) {
+				removal.run();
+			} else {
+				this.membershipExecutor.execute(removal);
+			}
+		}
+		final List<String> result = new ArrayList<String>(removals.size());
+		final List<String> failed = new LinkedList<String>();
+		for (final Map.Entry<String, FutureTask<String>> removal : removals.entrySet()) {
+			try {
+				result.add(removal.getValue().get());
+			} catch (final ExecutionException e) {
+				RoleRepositoryImpl.LOGGER.warn("Could not remove user {} from role {}.", userIdentifier, removal.getKey(), e.getCause());
+				failed.add(removal.getKey());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BaseRepositoryException("Interrupted.", e);
+			}
+		}
+		if (!failed.isEmpty()) {
+			RoleRepositoryImpl.LOGGER.warn("User {} is left in roles: {}", userIdentifier, failed);
+		}
+		this.fireChanged(ChangeEvent.Kind.UPDATED, result);
+		RoleRepositoryImpl.LOGGER.debug("Removed user {} from roles: {}", userIdentifier, result);
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> searchRoleIdentifiers(final String text, final int limit) throws BaseRepositoryException {
+		Validate.notNull(text, "Text may not be null.");
+		RoleRepositoryImpl.LOGGER.debug("Searching roles: {}", text);
+		List<String> candidates = null;
+		if (!CheckUtil.isNull(this.searchIndex)) {
+			candidates = this.searchIndex.search(text);
+		}
+		if (CheckUtil.isNull(candidates)) {
+			LdapContext ctx = null;
+			try {
+				ctx = this.factory.getSystemLdapContext();
+				candidates = PageSearchUtils.searchIdentifiers(ctx, this.modelLdapSupport, Role.class, PageRequest.createBuilder()
+						.filter(text).build(), this.filterProperties);
+			} catch (final NamingException e) {
+				throw new BaseRepositoryException("Could not process.", e);
+			} catch (final ModelSupportException e) {
+				throw new EntityInvalidException("Could not map entity.", e);
+			} finally {
+				if (!CheckUtil.isNull(ctx)) {
+					try {
+						ctx.close();
+					} catch (final NamingException e) {
+						RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+					}
+				}
+			}
+		}
+		final List<String> result = new LinkedList<String>();
+		for (final String identifier : candidates) {
+			if (result.size() >= limit) {
+				break;
+			}
+			if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", identifier))) {
+				result.add(identifier);
+			}
+		}
+		RoleRepositoryImpl.LOGGER.debug("Searched roles {}: {}", text, result);
+		return result;
+	}
+
+	/**
+	 * Sets a new value for the batchSize field.
+	 * 
+	 * @param batchSize
+	 *            The new value for the batchSize field.
+	 */
+	public void setBatchSize(final int batchSize) {
+		Validate.isTrue(batchSize > 0, "Batch size must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the entryVersionSupport field.
+	 * 
+	 * @param entryVersionSupport
+	 *            The new value for the entryVersionSupport field.
+	 */
+	public void setEntryVersionSupport(final EntryVersionSupport entryVersionSupport) {
+		this.entryVersionSupport = entryVersionSupport;
+	}
+
 	/**
 	 * Sets a new value for the factory field.
 	 * 
@@ -304,6 +711,36 @@ public final class RoleRepositoryImpl
 		this.factory = factory;
 	}
 
+	/**
+	 * Sets a new value for the filterProperties field.
+	 * 
+	 * @param filterProperties
+	 *            The new value for the filterProperties field.
+	 */
+	public void setFilterProperties(final List<String> filterProperties) {
+		this.filterProperties = filterProperties;
+	}
+
+	/**
+	 * Sets a new value for the membershipCoalescer field.
+	 * 
+	 * @param membershipCoalescer
+	 *            The new value for the membershipCoalescer field.
+	 */
+	public void setMembershipCoalescer(final MembershipWriteCoalescer membershipCoalescer) {
+		this.membershipCoalescer = membershipCoalescer;
+	}
+
+	/**
+	 * Sets a new value for the membershipExecutor field.
+	 * 
+	 * @param membershipExecutor
+	 *            The new value for the membershipExecutor field.
+	 */
+	public void setMembershipExecutor(final ExecutorService membershipExecutor) {
+		this.membershipExecutor = membershipExecutor;
+	}
+
 	/**
 	 * Sets a new value for the modelLdapSupport field.
 	 * 
@@ -314,6 +751,16 @@ public final class RoleRepositoryImpl
 		this.modelLdapSupport = modelLdapSupport;
 	}
 
+	/**
+	 * Sets a new value for the roleMembershipIndex field.
+	 * 
+	 * @param roleMembershipIndex
+	 *            The new value for the roleMembershipIndex field.
+	 */
+	public void setRoleMembershipIndex(final RoleMembershipIndex roleMembershipIndex) {
+		this.roleMembershipIndex = roleMembershipIndex;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void setRolesForUser(final String userIdentifier, final List<String> roles) throws BaseRepositoryException {
@@ -321,49 +768,24 @@ public final class RoleRepositoryImpl
 		Validate.notNull(roles, "Roles may not be null.");
 		RoleRepositoryImpl.LOGGER.debug("Setting roles for user {}: {}", userIdentifier, roles);
 		SecurityUtils.getSubject().checkPermission(String.format("user:%s:write", userIdentifier));
-		final Set<String> currentRoles = new HashSet<String>(this.getRolesForUser(userIdentifier));
+		final Set<String> currentRoles = this.getDirectRolesForUser(userIdentifier);
 		final Set<String> futureRoles = new HashSet<String>(roles);
 		futureRoles.removeAll(currentRoles);
 		currentRoles.removeAll(roles);
-		for (final String futureRole : futureRoles) {
-			SecurityUtils.getSubject().checkPermission(String.format("role:%s:write", futureRole));
-		}
-		for (final String currentRole : currentRoles) {
-			SecurityUtils.getSubject().checkPermission(String.format("role:%s:write", currentRole));
-		}
-		LdapContext ctx = null;
-		try {
-			ctx = this.factory.getSystemLdapContext();
-			final String userName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
-			final String attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
-			for (final String futureRole : futureRoles) {
-				RoleRepositoryImpl.LOGGER.debug("Added role {} to user {}", futureRole, userIdentifier);
-				final String roleName = this.modelLdapSupport.toQualifiedName(futureRole, Role.class);
-				ctx.modifyAttributes(roleName, DirContext.ADD_ATTRIBUTE, this.createAttribute(userName, attributeName));
-			}
-			for (final String currentRole : currentRoles) {
-				RoleRepositoryImpl.LOGGER.debug("Removed role {} to user {}", currentRole, userIdentifier);
-				final String roleName = this.modelLdapSupport.toQualifiedName(currentRole, Role.class);
-				ctx.modifyAttributes(roleName, DirContext.REMOVE_ATTRIBUTE, this.createAttribute(userName, attributeName));
-			}
-		} catch (final NameNotFoundException e) {
-			throw new EntityNotFoundException("Entity does not exist.", e);
-		} catch (final NamingException e) {
-			throw new BaseRepositoryException("Could not process.", e);
-		} catch (final ModelSupportException e) {
-			throw new EntityInvalidException("Could not map entity.", e);
-		} finally {
-			if (!CheckUtil.isNull(ctx)) {
-				try {
-					ctx.close();
-				} catch (final NamingException e) {
-					RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
-				}
-			}
-		}
+		this.modifyRolesForUser(userIdentifier, futureRoles, currentRoles);
 		RoleRepositoryImpl.LOGGER.debug("Set roles for user {}: {}", userIdentifier, roles);
 	}
 
+	/**
+	 * Sets a new value for the searchIndex field.
+	 * 
+	 * @param searchIndex
+	 *            The new value for the searchIndex field.
+	 */
+	public void setSearchIndex(final SearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void updateRole(final Role role) throws BaseRepositoryException {
@@ -376,7 +798,11 @@ public final class RoleRepositoryImpl
 			final String name = this.modelLdapSupport.toQualifiedName(role);
 			final Attributes attributes = this.modelLdapSupport.map(role);
 			attributes.put(this.modelLdapSupport.mapObjectType(Role.class));
-			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+			this.replaceAttributes(ctx, name, attributes, role.getVersion());
+			this.refreshIndex(name);
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.update(role.getIdentifier(), attributes);
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -392,6 +818,7 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.UPDATED, Collections.singleton(role.getIdentifier()));
 		RoleRepositoryImpl.LOGGER.debug("Updated role: {}", role);
 	}
 
@@ -407,7 +834,10 @@ public final class RoleRepositoryImpl
 			final String name = this.modelLdapSupport.toQualifiedName(role);
 			final Attributes attributes = this.modelLdapSupport.mapWith(role, false, Collections.singleton("users"));
 			attributes.put(this.modelLdapSupport.mapObjectType(Role.class));
-			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+			this.replaceAttributes(ctx, name, attributes, role.getVersion());
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.update(role.getIdentifier(), attributes);
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -423,6 +853,7 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.UPDATED, Collections.singleton(role.getIdentifier()));
 		RoleRepositoryImpl.LOGGER.debug("Updated role (without users): {}", role);
 	}
 
@@ -439,6 +870,7 @@ public final class RoleRepositoryImpl
 			final Attributes attributes = this.modelLdapSupport.mapWith(role, true, Collections.singleton("users"));
 			attributes.put(this.modelLdapSupport.mapObjectType(Role.class));
 			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+			this.refreshIndex(name);
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -454,19 +886,416 @@ public final class RoleRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.UPDATED, Collections.singleton(role.getIdentifier()));
 		RoleRepositoryImpl.LOGGER.debug("Updated role (just users): {}", role);
 	}
 
 	/**
-	 * Creates a basic attribute.
+	 * Waits for a coalesced membership change.
+	 * 
+	 * @param result
+	 *            The result of the change.
+	 * @throws NamingException
+	 *             Thrown if the change failed or waiting was interrupted.
+	 */
+	private void awaitMembership(final Future<Void> result) throws NamingException {
+		try {
+			result.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			final InterruptedNamingException interrupted = new InterruptedNamingException("Interrupted.");
+			interrupted.setRootCause(e);
+			throw interrupted;
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof NamingException) {
+				throw (NamingException) e.getCause();
+			}
+			throw new IllegalStateException("Could not modify membership.", e.getCause());
+		}
+	}
+
+	/**
+	 * Modifies the roles of a user through the membership coalescer. All
+	 * changes are submitted before waiting, so they can share writes with
+	 * those of other users.
+	 * 
+	 * @param userName
+	 *            The qualified user name.
+	 * @param attributeName
+	 *            The member attribute.
+	 * @param addedRoles
+	 *            The roles to add the user to.
+	 * @param removedRoles
+	 *            The roles to remove the user from.
+	 * @throws NamingException
+	 *             Thrown if a change failed, after all changes completed.
+	 * @throws ModelSupportException
+	 *             Thrown if a role could not be mapped.
+	 */
+	private void coalesceRolesForUser(final String userName, final String attributeName, final Collection<String> addedRoles,
+			final Collection<String> removedRoles) throws NamingException, ModelSupportException {
+		final Map<String, Future<Void>> additions = new LinkedHashMap<String, Future<Void>>();
+		for (final String addedRole : addedRoles) {
+			final String roleName = this.modelLdapSupport.toQualifiedName(addedRole, Role.class);
+			additions.put(roleName, this.membershipCoalescer.submit(roleName, new ModificationItem(DirContext.ADD_ATTRIBUTE,
+					new BasicAttribute(attributeName, userName))));
+		}
+		final Map<String, Future<Void>> removals = new LinkedHashMap<String, Future<Void>>();
+		for (final String removedRole : removedRoles) {
+			final String roleName = this.modelLdapSupport.toQualifiedName(removedRole, Role.class);
+			removals.put(roleName, this.membershipCoalescer.submit(roleName, new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
+					new BasicAttribute(attributeName, userName))));
+		}
+		NamingException failure = null;
+		for (final Map.Entry<String, Future<Void>> addition : additions.entrySet()) {
+			try {
+				this.awaitMembership(addition.getValue());
+				RoleRepositoryImpl.LOGGER.debug("Added role {} to user {}", addition.getKey(), userName);
+				if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+					this.roleMembershipIndex.addMember(addition.getKey(), userName);
+				}
+			} catch (final NamingException e) {
+				if (CheckUtil.isNull(failure)) {
+					failure = e;
+				}
+			}
+		}
+		for (final Map.Entry<String, Future<Void>> removal : removals.entrySet()) {
+			try {
+				this.awaitMembership(removal.getValue());
+				RoleRepositoryImpl.LOGGER.debug("Removed role {} from user {}", removal.getKey(), userName);
+				if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+					this.roleMembershipIndex.removeMember(removal.getKey(), userName);
+				}
+			} catch (final NamingException e) {
+				if (CheckUtil.isNull(failure)) {
+					failure = e;
+				}
+			}
+		}
+		if (!CheckUtil.isNull(failure)) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Records a change of the roles, if changes are tracked.
+	 * 
+	 * @param kind
+	 *            The kind of change.
+	 * @param identifiers
+	 *            The identifiers of the changed roles.
+	 */
+	private void fireChanged(final ChangeEvent.Kind kind, final Collection<String> identifiers) {
+		if (!CheckUtil.isNull(this.changeTracker)) {
+			this.changeTracker.changed(Role.class, kind, identifiers);
+		}
+	}
+
+	/**
+	 * Gets the readable roles directly containing a user.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the roles could not be resolved.
+	 */
+	private Set<String> getDirectRolesForUser(final String userIdentifier) throws BaseRepositoryException {
+		if (!this.isIndexAvailable()) {
+			return new HashSet<String>(this.searchRolesForUser(userIdentifier));
+		}
+		final Set<String> result = new HashSet<String>();
+		try {
+			final String qualifierName = this.modelLdapSupport.toQualifiedName(userIdentifier, User.class);
+			for (final String role : this.roleMembershipIndex.getDirectRoles(qualifierName)) {
+				if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", role))) {
+					result.add(role);
+				}
+			}
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Tests whether memberships can be looked up in the role index.
+	 * 
+	 * @return True if the index is wired and has been read.
+	 */
+	private boolean isIndexAvailable() {
+		return !CheckUtil.isNull(this.roleMembershipIndex) && this.roleMembershipIndex.isAvailable();
+	}
+
+	/**
+	 * Applies a membership modification, ignoring values that were already
+	 * added or removed.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param item
+	 *            The modification.
+	 * @throws NamingException
+	 *             Thrown if the modification failed otherwise.
+	 */
+	private void modifyMember(final LdapContext ctx, final String roleName, final ModificationItem item) throws NamingException {
+		try {
+			ctx.modifyAttributes(roleName, new ModificationItem[] { item });
+		} catch (final AttributeInUseException e) {
+			RoleRepositoryImpl.LOGGER.debug("Member already present in {}.", roleName, e);
+		} catch (final NoSuchAttributeException e) {
+			RoleRepositoryImpl.LOGGER.debug("Member already absent from {}.", roleName, e);
+		}
+	}
+
+	/**
+	 * Applies membership modifications one by one.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param items
+	 *            The modifications.
+	 * @throws NamingException
+	 *             Thrown if a modification failed otherwise.
+	 */
+	private void modifyMembers(final LdapContext ctx, final String roleName, final List<ModificationItem> items)
+			throws NamingException {
+		for (final ModificationItem item : items) {
+			this.modifyMember(ctx, roleName, item);
+		}
+	}
+
+	/**
+	 * Re-reads a role into the membership index, if any.
+	 * 
+	 * @param name
+	 *            The qualified role name.
+	 */
+	private void refreshIndex(final String name) {
+		if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+			try {
+				this.roleMembershipIndex.refreshRole(name);
+			} catch (final IllegalStateException e) {
+				RoleRepositoryImpl.LOGGER.warn("Could not refresh role membership index.", e);
+			}
+		}
+	}
+
+	/**
+	 * Replaces attributes of an entry, conditional on its version if versions
+	 * are supported.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @param attributes
+	 *            The replacement attributes.
+	 * @param version
+	 *            The expected version, may be null.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be modified.
+	 * @throws EntityVersionConflictException
+	 *             Thrown if the entry is at another version.
+	 */
+	private void replaceAttributes(final LdapContext ctx, final String name, final Attributes attributes, final String version)
+			throws NamingException, EntityVersionConflictException {
+		if (CheckUtil.isNull(this.entryVersionSupport)) {
+			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+		} else {
+			this.entryVersionSupport.modify(ctx, name, attributes, version);
+		}
+	}
+
+	/**
+	 * Searches all roles containing a member, directly or through nested
+	 * roles, regardless of whether they are readable.
+	 * 
+	 * @param memberName
+	 *            The qualified member name.
+	 * @return The role identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the roles could not be searched.
+	 * @throws ModelSupportException
+	 *             Thrown if a role could not be mapped.
+	 */
+	private Set<String> searchEffectiveRoles(final String memberName) throws BaseRepositoryException, ModelSupportException {
+		final Set<String> result = new HashSet<String>();
+		final LinkedList<String> pending = new LinkedList<String>();
+		pending.add(memberName);
+		while (!pending.isEmpty()) {
+			for (final String role : this.searchRolesWithMember(pending.removeFirst())) {
+				if (result.add(role)) {
+					pending.add(this.modelLdapSupport.toQualifiedName(role, Role.class));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Searches the readable roles directly containing a user.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the roles could not be searched.
+	 */
+	private List<String> searchRolesForUser(final String userIdentifier) throws BaseRepositoryException {
+		final List<String> result = new LinkedList<String>();
+		try {
+			for (final String role : this.searchRolesWithMember(this.modelLdapSupport.toQualifiedName(userIdentifier, User.class))) {
+				if (SecurityUtils.getSubject().isPermitted(String.format("role:%s:read", role))) {
+					result.add(role);
+				}
+			}
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Searches all roles directly containing a member, regardless of whether
+	 * they are readable.
+	 * 
+	 * @param memberName
+	 *            The qualified member name.
+	 * @return The role identifiers.
+	 * @throws BaseRepositoryException
+	 *             Thrown if the roles could not be searched.
+	 */
+	private List<String> searchRolesWithMember(final String memberName) throws BaseRepositoryException {
+		final List<String> result = new LinkedList<String>();
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			final BasicAttributes matchingAttributes = new BasicAttributes();
+			final String attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
+			matchingAttributes.put(new BasicAttribute(attributeName, memberName));
+			final NamingEnumeration<SearchResult> searchResults = ctx.search(this.modelLdapSupport.getSubTree(Role.class),
+					matchingAttributes, new String[0]);
+			while (searchResults.hasMore()) {
+				result.add(this.modelLdapSupport.toShortName(searchResults.next().getName(), Role.class));
+			}
+		} catch (final NameNotFoundException e) {
+			throw new EntityNotFoundException("Entity does not exist.", e);
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Modifies the roles of a user, one write per role.
 	 * 
+	 * @param ctx
+	 *            The context.
 	 * @param userName
-	 *            The user name.
+	 *            The qualified user name.
 	 * @param attributeName
-	 *            The user name attribute.
-	 * @return The attribute.
+	 *            The member attribute.
+	 * @param addedRoles
+	 *            The roles to add the user to.
+	 * @param removedRoles
+	 *            The roles to remove the user from.
+	 * @throws NamingException
+	 *             Thrown if a change failed.
+	 * @throws ModelSupportException
+	 *             Thrown if a role could not be mapped.
 	 */
-	private BasicAttributes createAttribute(final String userName, final String attributeName) {
-		return new BasicAttributes(attributeName, userName);
+	private void writeRolesForUser(final LdapContext ctx, final String userName, final String attributeName,
+			final Collection<String> addedRoles, final Collection<String> removedRoles) throws NamingException,
+			ModelSupportException {
+		for (final String addedRole : addedRoles) {
+			RoleRepositoryImpl.LOGGER.debug("Added role {} to user {}", addedRole, userName);
+			final String roleName = this.modelLdapSupport.toQualifiedName(addedRole, Role.class);
+			this.modifyMember(ctx, roleName, new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute(attributeName,
+					userName)));
+			if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+				this.roleMembershipIndex.addMember(roleName, userName);
+			}
+		}
+		for (final String removedRole : removedRoles) {
+			RoleRepositoryImpl.LOGGER.debug("Removed role {} from user {}", removedRole, userName);
+			final String roleName = this.modelLdapSupport.toQualifiedName(removedRole, Role.class);
+			this.modifyMember(ctx, roleName, new ModificationItem(DirContext.REMOVE_ATTRIBUTE, new BasicAttribute(
+					attributeName, userName)));
+			if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+				this.roleMembershipIndex.removeMember(roleName, userName);
+			}
+		}
+	}
+
+	/**
+	 * Removes a member from a single role, on a context of its own.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class MemberRemoval
+			implements Callable<String> {
+
+		/** The member attribute. */
+		private final String attributeName;
+		/** The member name. */
+		private final String memberName;
+		/** The role identifier. */
+		private final String role;
+
+		/**
+		 * Constructs the removal.
+		 * 
+		 * @param role
+		 *            The role identifier.
+		 * @param memberName
+		 *            The qualified member name.
+		 * @param attributeName
+		 *            The member attribute.
+		 */
+		public MemberRemoval(final String role, final String memberName, final String attributeName) {
+			this.role = role;
+			this.memberName = memberName;
+			this.attributeName = attributeName;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String call() throws NamingException, ModelSupportException {
+			LdapContext ctx = null;
+			try {
+				ctx = RoleRepositoryImpl.this.factory.getSystemLdapContext();
+				final String roleName = RoleRepositoryImpl.this.modelLdapSupport.toQualifiedName(this.role, Role.class);
+				RoleRepositoryImpl.this.modifyMember(ctx, roleName, new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
+						new BasicAttribute(this.attributeName, this.memberName)));
+				if (!CheckUtil.isNull(RoleRepositoryImpl.this.roleMembershipIndex)) {
+					RoleRepositoryImpl.this.roleMembershipIndex.removeMember(roleName, this.memberName);
+				}
+			} finally {
+				if (!CheckUtil.isNull(ctx)) {
+					try {
+						ctx.close();
+					} catch (final NamingException e) {
+						RoleRepositoryImpl.LOGGER.warn("Could not close context.", e);
+					}
+				}
+			}
+			return this.role;
+		}
 	}
 }
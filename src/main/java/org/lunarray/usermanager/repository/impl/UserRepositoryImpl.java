@@ -17,9 +17,18 @@
  */
 package org.lunarray.usermanager.repository.impl;
 
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameClassPair;
@@ -30,20 +39,28 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapContext;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.Validate;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.realm.ldap.LdapContextFactory;
 import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.repository.UserRepository;
 import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
 import org.lunarray.usermanager.repository.exceptions.EntityInvalidException;
 import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.repository.exceptions.EntityVersionConflictException;
+import org.lunarray.usermanager.support.IdentifierFilter;
 import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.SearchIndex;
+import org.lunarray.usermanager.support.change.ChangeEvent;
+import org.lunarray.usermanager.support.change.ChangeTracker;
 import org.lunarray.usermanager.support.exceptions.ModelSupportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,10 +79,22 @@ public final class UserRepositoryImpl
 	private static final Logger LOGGER = LoggerFactory.getLogger(UserRepositoryImpl.class);
 	/** Validation message. */
 	private static final String USER_NULL = "User may not be null.";
+	/** The maximum number of identifiers per search. */
+	private int batchSize = 100;
+	/** The change tracker, if changes are tracked. */
+	private ChangeTracker changeTracker;
+	/** The entry version support, if updates are conditional. */
+	private EntryVersionSupport entryVersionSupport;
 	/** The context factory. */
 	private LdapContextFactory factory;
+	/** The properties the filter text of a page request is matched against. */
+	private List<String> filterProperties = Arrays.asList("identifier", "displayName", "firstName", "lastName", "mail");
+	/** The identifier filter, if negative tests are answered from memory. */
+	private IdentifierFilter identifierFilter;
 	/** The model support. */
 	private ModelLdapSupport modelLdapSupport;
+	/** The search index, if searches are served from memory. */
+	private SearchIndex searchIndex;
 
 	/**
 	 * Default constructor.
@@ -79,12 +108,16 @@ public final class UserRepositoryImpl
 	public boolean containsUser(final String identifier) throws BaseRepositoryException {
 		UserRepositoryImpl.LOGGER.debug("Testing contains user: {}", identifier);
 		Validate.notNull(identifier, UserRepositoryImpl.IDENTIFIER_NULL);
+		if (!CheckUtil.isNull(this.identifierFilter) && !this.identifierFilter.mightContain(identifier)) {
+			UserRepositoryImpl.LOGGER.debug("Tested contains user {} from filter: false", identifier);
+			return false;
+		}
 		boolean result = false;
 		LdapContext ctx = null;
 		try {
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, User.class);
-			ctx.getAttributes(name);
+			ctx.getAttributes(name, new String[0]);
 			result = true;
 		} catch (final NameNotFoundException e) {
 			result = false;
@@ -105,6 +138,59 @@ public final class UserRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> containsUsers(final Collection<String> identifiers) throws BaseRepositoryException {
+		Validate.notNull(identifiers, "Identifiers may not be null.");
+		UserRepositoryImpl.LOGGER.debug("Testing contains users: {}", identifiers);
+		final Map<String, String> candidates = new LinkedHashMap<String, String>();
+		for (final String identifier : identifiers) {
+			Validate.notNull(identifier, UserRepositoryImpl.IDENTIFIER_NULL);
+			if (CheckUtil.isNull(this.identifierFilter) || this.identifierFilter.mightContain(identifier)) {
+				candidates.put(identifier.toLowerCase(Locale.ENGLISH), identifier);
+			}
+		}
+		final Set<String> result = new LinkedHashSet<String>();
+		LdapContext ctx = null;
+		try {
+			if (!candidates.isEmpty()) {
+				ctx = this.factory.getSystemLdapContext();
+				final String subTree = this.modelLdapSupport.getSubTree(User.class);
+				final SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+				controls.setReturningAttributes(new String[0]);
+				final List<String> keys = new ArrayList<String>(candidates.values());
+				for (int i = 0; i < keys.size(); i += this.batchSize) {
+					final List<String> batch = keys.subList(i, Math.min(i + this.batchSize, keys.size()));
+					final String filter = this.modelLdapSupport.toKeyFilter(User.class, batch.size());
+					final NamingEnumeration<SearchResult> results = ctx.search(subTree, filter, batch.toArray(), controls);
+					while (results.hasMore()) {
+						final String shortName = this.modelLdapSupport.toShortName(results.next().getNameInNamespace(), User.class);
+						final String identifier = candidates.get(shortName.toLowerCase(Locale.ENGLISH));
+						if (!CheckUtil.isNull(identifier)) {
+							result.add(identifier);
+						}
+					}
+				}
+			}
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					UserRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		UserRepositoryImpl.LOGGER.debug("Tested contains {} users, {} candidates, {} exist.", identifiers.size(), candidates.size(),
+				result.size());
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void createUser(final User user) throws BaseRepositoryException {
@@ -118,6 +204,9 @@ public final class UserRepositoryImpl
 			final Attributes attributes = this.modelLdapSupport.map(user);
 			attributes.put(this.modelLdapSupport.mapObjectType(User.class));
 			ctx.bind(name, null, attributes);
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.update(user.getIdentifier(), attributes);
+			}
 		} catch (final NameAlreadyBoundException e) {
 			throw new EntityAlreadyExistsException("Entity already exists.", e);
 		} catch (final NamingException e) {
@@ -133,6 +222,7 @@ public final class UserRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.CREATED, Collections.singleton(user.getIdentifier()));
 		UserRepositoryImpl.LOGGER.debug("Created user: {}", user);
 	}
 
@@ -146,6 +236,9 @@ public final class UserRepositoryImpl
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, User.class);
 			ctx.unbind(name);
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.remove(identifier);
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -161,6 +254,7 @@ public final class UserRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.DELETED, Collections.singleton(identifier));
 	}
 
 	/**
@@ -192,7 +286,13 @@ public final class UserRepositoryImpl
 		try {
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, User.class);
-			result = this.modelLdapSupport.map(User.class, ctx.getAttributes(name));
+			if (CheckUtil.isNull(this.entryVersionSupport)) {
+				result = this.modelLdapSupport.map(User.class, ctx.getAttributes(name));
+			} else {
+				final Attributes attributes = this.entryVersionSupport.read(ctx, name);
+				result = this.modelLdapSupport.map(User.class, attributes);
+				result.setVersion(this.entryVersionSupport.getVersion(attributes));
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -244,6 +344,38 @@ public final class UserRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getUserIdentifiers(final PageRequest request) throws BaseRepositoryException {
+		Validate.notNull(request, "Request may not be null.");
+		UserRepositoryImpl.LOGGER.debug("Getting user identifiers: {}", request);
+		final List<String> identifiers = new ArrayList<String>();
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			for (final String identifier : PageSearchUtils.searchIdentifiers(ctx, this.modelLdapSupport, User.class, request,
+					this.filterProperties)) {
+				if (SecurityUtils.getSubject().isPermitted(String.format("user:%s:read", identifier))) {
+					identifiers.add(identifier);
+				}
+			}
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					UserRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		UserRepositoryImpl.LOGGER.debug("Got user identifiers {}: {}", request, identifiers.size());
+		return identifiers;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<User> getUsers() throws BaseRepositoryException {
@@ -277,6 +409,73 @@ public final class UserRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<User> getUsers(final Collection<String> identifiers) throws BaseRepositoryException {
+		Validate.notNull(identifiers, "Identifiers may not be null.");
+		UserRepositoryImpl.LOGGER.debug("Getting users: {}", identifiers);
+		final List<String> permitted = new ArrayList<String>(identifiers.size());
+		for (final String identifier : new LinkedHashSet<String>(identifiers)) {
+			if (SecurityUtils.getSubject().isPermitted(String.format("user:%s:read", identifier))) {
+				permitted.add(identifier);
+			}
+		}
+		// Keyed in lower case, since the directory names entries case insensitively.
+		final Map<String, User> found = new HashMap<String, User>();
+		LdapContext ctx = null;
+		try {
+			if (!permitted.isEmpty()) {
+				ctx = this.factory.getSystemLdapContext();
+				final String subTree = this.modelLdapSupport.getSubTree(User.class);
+				final SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+				for (int i = 0; i < permitted.size(); i += this.batchSize) {
+					final List<String> batch = permitted.subList(i, Math.min(i + this.batchSize, permitted.size()));
+					final String filter = this.modelLdapSupport.toKeyFilter(User.class, batch.size());
+					final NamingEnumeration<SearchResult> results = ctx.search(subTree, filter, batch.toArray(), controls);
+					while (results.hasMore()) {
+						final User user = this.modelLdapSupport.map(User.class, results.next().getAttributes());
+						found.put(user.getIdentifier().toLowerCase(Locale.ENGLISH), user);
+					}
+				}
+			}
+		} catch (final NamingException e) {
+			throw new BaseRepositoryException("Could not process.", e);
+		} catch (final ModelSupportException e) {
+			throw new EntityInvalidException("Could not map entity.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					UserRepositoryImpl.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		final List<User> result = new ArrayList<User>(found.size());
+		for (final String identifier : permitted) {
+			final User user = found.get(identifier.toLowerCase(Locale.ENGLISH));
+			if (!CheckUtil.isNull(user)) {
+				result.add(user);
+			}
+		}
+		UserRepositoryImpl.LOGGER.debug("Got users {}: {}", identifiers, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Page<User> getUsers(final PageRequest request) throws BaseRepositoryException {
+		Validate.notNull(request, "Request may not be null.");
+		UserRepositoryImpl.LOGGER.debug("Getting user page: {}", request);
+		final List<String> identifiers = this.getUserIdentifiers(request);
+		final int from = Math.min(request.getOffset(), identifiers.size());
+		final int to = Math.min(from + request.getLimit(), identifiers.size());
+		final Page<User> result = new Page<User>(request, this.getUsers(identifiers.subList(from, to)), identifiers.size());
+		UserRepositoryImpl.LOGGER.debug("Got user page {}: {}", request, result);
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public User getUserUnsecured(final String identifier) throws BaseRepositoryException {
@@ -287,7 +486,13 @@ public final class UserRepositoryImpl
 		try {
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, User.class);
-			result = this.modelLdapSupport.map(User.class, ctx.getAttributes(name));
+			if (CheckUtil.isNull(this.entryVersionSupport)) {
+				result = this.modelLdapSupport.map(User.class, ctx.getAttributes(name));
+			} else {
+				final Attributes attributes = this.entryVersionSupport.read(ctx, name);
+				result = this.modelLdapSupport.map(User.class, attributes);
+				result.setVersion(this.entryVersionSupport.getVersion(attributes));
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -307,6 +512,79 @@ public final class UserRepositoryImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> searchUserIdentifiers(final String text, final int limit) throws BaseRepositoryException {
+		Validate.notNull(text, "Text may not be null.");
+		UserRepositoryImpl.LOGGER.debug("Searching users: {}", text);
+		List<String> candidates = null;
+		if (!CheckUtil.isNull(this.searchIndex)) {
+			candidates = this.searchIndex.search(text);
+		}
+		if (CheckUtil.isNull(candidates)) {
+			LdapContext ctx = null;
+			try {
+				ctx = this.factory.getSystemLdapContext();
+				candidates = PageSearchUtils.searchIdentifiers(ctx, this.modelLdapSupport, User.class, PageRequest.createBuilder()
+						.filter(text).build(), this.filterProperties);
+			} catch (final NamingException e) {
+				throw new BaseRepositoryException("Could not process.", e);
+			} catch (final ModelSupportException e) {
+				throw new EntityInvalidException("Could not map entity.", e);
+			} finally {
+				if (!CheckUtil.isNull(ctx)) {
+					try {
+						ctx.close();
+					} catch (final NamingException e) {
+						UserRepositoryImpl.LOGGER.warn("Could not close context.", e);
+					}
+				}
+			}
+		}
+		final List<String> result = new LinkedList<String>();
+		for (final String identifier : candidates) {
+			if (result.size() >= limit) {
+				break;
+			}
+			if (SecurityUtils.getSubject().isPermitted(String.format("user:%s:read", identifier))) {
+				result.add(identifier);
+			}
+		}
+		UserRepositoryImpl.LOGGER.debug("Searched users {}: {}", text, result);
+		return result;
+	}
+
+	/**
+	 * Sets a new value for the batchSize field.
+	 * 
+	 * @param batchSize
+	 *            The new value for the batchSize field.
+	 */
+	public void setBatchSize(final int batchSize) {
+		Validate.isTrue(batchSize > 0, "Batch size must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the entryVersionSupport field.
+	 * 
+	 * @param entryVersionSupport
+	 *            The new value for the entryVersionSupport field.
+	 */
+	public void setEntryVersionSupport(final EntryVersionSupport entryVersionSupport) {
+		this.entryVersionSupport = entryVersionSupport;
+	}
+
 	/**
 	 * Sets a new value for the factory field.
 	 * 
@@ -317,6 +595,26 @@ public final class UserRepositoryImpl
 		this.factory = factory;
 	}
 
+	/**
+	 * Sets a new value for the filterProperties field.
+	 * 
+	 * @param filterProperties
+	 *            The new value for the filterProperties field.
+	 */
+	public void setFilterProperties(final List<String> filterProperties) {
+		this.filterProperties = filterProperties;
+	}
+
+	/**
+	 * Sets a new value for the identifierFilter field.
+	 * 
+	 * @param identifierFilter
+	 *            The new value for the identifierFilter field.
+	 */
+	public void setIdentifierFilter(final IdentifierFilter identifierFilter) {
+		this.identifierFilter = identifierFilter;
+	}
+
 	/**
 	 * Sets a new value for the modelLdapSupport field.
 	 * 
@@ -327,6 +625,16 @@ public final class UserRepositoryImpl
 		this.modelLdapSupport = modelLdapSupport;
 	}
 
+	/**
+	 * Sets a new value for the searchIndex field.
+	 * 
+	 * @param searchIndex
+	 *            The new value for the searchIndex field.
+	 */
+	public void setSearchIndex(final SearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void updateUser(final User user) throws BaseRepositoryException {
@@ -339,7 +647,10 @@ public final class UserRepositoryImpl
 			final String name = this.modelLdapSupport.toQualifiedName(user);
 			final Attributes attributes = this.modelLdapSupport.map(user);
 			attributes.put(this.modelLdapSupport.mapObjectType(User.class));
-			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+			this.replaceAttributes(ctx, name, attributes, user.getVersion());
+			if (!CheckUtil.isNull(this.searchIndex)) {
+				this.searchIndex.update(user.getIdentifier(), attributes);
+			}
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
 		} catch (final NamingException e) {
@@ -355,16 +666,15 @@ public final class UserRepositoryImpl
 				}
 			}
 		}
+		this.fireChanged(ChangeEvent.Kind.UPDATED, Collections.singleton(user.getIdentifier()));
 		UserRepositoryImpl.LOGGER.debug("Updated user: {}", user);
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public void updateUserPassword(final String identifier, final byte[] passwordHash, final String algorithm)
-			throws BaseRepositoryException {
+	public void updateUserPassword(final String identifier, final String passwordHash) throws BaseRepositoryException {
 		Validate.notNull(identifier, UserRepositoryImpl.IDENTIFIER_NULL);
 		Validate.notNull(passwordHash, "Hash may not be null.");
-		Validate.notNull(algorithm, "Algorithm may not be null.");
 		UserRepositoryImpl.LOGGER.debug("Updating password for user: {}", identifier);
 		SecurityUtils.getSubject().checkPermission(String.format("password:%s:modify", identifier));
 		LdapContext ctx = null;
@@ -372,9 +682,7 @@ public final class UserRepositoryImpl
 			ctx = this.factory.getSystemLdapContext();
 			final String name = this.modelLdapSupport.toQualifiedName(identifier, User.class);
 			final Attributes attributes = new BasicAttributes();
-			final StringBuilder builder = new StringBuilder().append('{').append(algorithm).append('}');
-			builder.append(new String(Base64.encodeBase64(passwordHash), Charset.forName("ASCII")));
-			attributes.put(new BasicAttribute(this.modelLdapSupport.resolveAttribute(User.class, "password"), builder.toString()));
+			attributes.put(new BasicAttribute(this.modelLdapSupport.resolveAttribute(User.class, "password"), passwordHash));
 			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
 		} catch (final NameNotFoundException e) {
 			throw new EntityNotFoundException("Entity does not exist.", e);
@@ -393,4 +701,44 @@ public final class UserRepositoryImpl
 		}
 		UserRepositoryImpl.LOGGER.debug("Updated password for user: {}", identifier);
 	}
+
+	/**
+	 * Records a change of the users, if changes are tracked.
+	 * 
+	 * @param kind
+	 *            The kind of change.
+	 * @param identifiers
+	 *            The identifiers of the changed users.
+	 */
+	private void fireChanged(final ChangeEvent.Kind kind, final Collection<String> identifiers) {
+		if (!CheckUtil.isNull(this.changeTracker)) {
+			this.changeTracker.changed(User.class, kind, identifiers);
+		}
+	}
+
+	/**
+	 * Replaces attributes of an entry, conditional on its version if versions
+	 * are supported.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @param attributes
+	 *            The replacement attributes.
+	 * @param version
+	 *            The expected version, may be null.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be modified.
+	 * @throws EntityVersionConflictException
+	 *             Thrown if the entry is at another version.
+	 */
+	private void replaceAttributes(final LdapContext ctx, final String name, final Attributes attributes, final String version)
+			throws NamingException, EntityVersionConflictException {
+		if (CheckUtil.isNull(this.entryVersionSupport)) {
+			ctx.modifyAttributes(name, DirContext.REPLACE_ATTRIBUTE, attributes);
+		} else {
+			this.entryVersionSupport.modify(ctx, name, attributes, version);
+		}
+	}
 }
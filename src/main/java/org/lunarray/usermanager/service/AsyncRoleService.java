@@ -0,0 +1,102 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * The reading operations of the {@link RoleService}, run without blocking
+ * the calling thread. A result fails with a
+ * {@link org.lunarray.usermanager.service.exceptions.ServiceException} if the
+ * operation could not be completed, or could not be started because too many
+ * are in progress.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface AsyncRoleService {
+
+	/**
+	 * Gets a role.
+	 * 
+	 * @param identifier
+	 *            The role identifier.
+	 * @return The role with the given identifier.
+	 */
+	ListenableFuture<Role> getRole(String identifier);
+
+	/**
+	 * Get all roles.
+	 * 
+	 * @return All roles.
+	 */
+	ListenableFuture<List<Role>> getRoles();
+
+	/**
+	 * Gets a page of roles.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 */
+	ListenableFuture<Page<Role>> getRoles(PageRequest request);
+
+	/**
+	 * Gets all users with a role.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @return The user identifiers.
+	 */
+	ListenableFuture<List<String>> getRoleUsers(String roleIdentifier);
+
+	/**
+	 * Gets a user.
+	 * 
+	 * @param identifier
+	 *            The user identifier.
+	 * @return The user.
+	 */
+	ListenableFuture<User> getUser(String identifier);
+
+	/**
+	 * Gets a number of users at once.
+	 * 
+	 * @param identifiers
+	 *            The user identifiers.
+	 * @return The users, in the order of the given identifiers.
+	 */
+	ListenableFuture<List<User>> getUsers(Collection<String> identifiers);
+
+	/**
+	 * Searches roles by text, for incremental search.
+	 * 
+	 * @param text
+	 *            The text to search for.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The roles, best matches first.
+	 */
+	ListenableFuture<List<Role>> searchRoles(String text, int limit);
+}
@@ -0,0 +1,56 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service;
+
+import org.lunarray.usermanager.domain.ImportProgress;
+
+/**
+ * Follows an import. Calls are never made concurrently.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface ImportListener {
+
+	/**
+	 * Called if a record could not be imported.
+	 * 
+	 * @param number
+	 *            The one based record number.
+	 * @param identifier
+	 *            The user identifier, null if the record could not be read.
+	 * @param message
+	 *            The reason.
+	 */
+	void failed(long number, String identifier, String message);
+
+	/**
+	 * Tests whether the import is to stop, for instance because the client
+	 * went away.
+	 * 
+	 * @return True if and only if no more records are to be imported.
+	 */
+	boolean isCancelled();
+
+	/**
+	 * Called after every batch of records and when the import ends.
+	 * 
+	 * @param progress
+	 *            The progress.
+	 */
+	void progress(ImportProgress progress);
+}
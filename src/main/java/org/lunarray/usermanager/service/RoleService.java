@@ -17,10 +17,14 @@
  */
 package org.lunarray.usermanager.service;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 
 /**
@@ -61,6 +65,20 @@ public interface RoleService {
 	 */
 	Role getRole(String identifier) throws ServiceException;
 
+	/**
+	 * Gets the identifiers of the readable roles matching the criterion and
+	 * filter of a page request, sorted as requested. The offset and limit of
+	 * the request are ignored, so a listing can be read in slices with a
+	 * single search.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The sorted identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getRoleIdentifiers(PageRequest request) throws ServiceException;
+
 	/**
 	 * Get all roles.
 	 * 
@@ -70,6 +88,28 @@ public interface RoleService {
 	 */
 	List<Role> getRoles() throws ServiceException;
 
+	/**
+	 * Gets a number of roles at once.
+	 * 
+	 * @param identifiers
+	 *            The role identifiers.
+	 * @return The roles, in the order of the given identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<Role> getRoles(Collection<String> identifiers) throws ServiceException;
+
+	/**
+	 * Gets a page of roles.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	Page<Role> getRoles(PageRequest request) throws ServiceException;
+
 	/**
 	 * Gets all users with a role.
 	 * 
@@ -110,6 +150,45 @@ public interface RoleService {
 	 */
 	List<User> getUsers() throws ServiceException;
 
+	/**
+	 * Gets a number of users at once.
+	 * 
+	 * @param identifiers
+	 *            The user identifiers.
+	 * @return The users, in the order of the given identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<User> getUsers(Collection<String> identifiers) throws ServiceException;
+
+	/**
+	 * Adds and removes users of a role, leaving other members untouched.
+	 * 
+	 * @param roleIdentifier
+	 *            The role identifier.
+	 * @param addedUsers
+	 *            The user identifiers to add.
+	 * @param removedUsers
+	 *            The user identifiers to remove.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	void modifyRoleUsers(String roleIdentifier, Collection<String> addedUsers, Collection<String> removedUsers)
+			throws ServiceException;
+
+	/**
+	 * Searches roles by text, for incremental search.
+	 * 
+	 * @param text
+	 *            The text to search for.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The roles, best matches first.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<Role> searchRoles(String text, int limit) throws ServiceException;
+
 	/**
 	 * Updates the users of a role.
 	 * 
@@ -127,6 +206,8 @@ public interface RoleService {
 	 * 
 	 * @param role
 	 *            The role to update.
+	 * @throws ConcurrentUpdateException
+	 *             Thrown if the role was changed since its version was read.
 	 * @throws ServiceException
 	 *             Thrown if the operation could not be completed.
 	 */
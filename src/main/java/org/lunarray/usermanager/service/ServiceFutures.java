@@ -0,0 +1,60 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+
+/**
+ * The utilities for results of the asynchronous services.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum ServiceFutures {
+	/** The util instance. */
+	INSTANCE;
+
+	/**
+	 * Waits for a result.
+	 * 
+	 * @param future
+	 *            The result.
+	 * @return The value.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed, or waiting
+	 *             was interrupted.
+	 * @param <V>
+	 *            The value type.
+	 */
+	public static <V> V await(final Future<V> future) throws ServiceException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted.", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof ServiceException) {
+				throw (ServiceException) e.getCause();
+			}
+			throw new ServiceException("Could not perform.", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service;
+
+import org.lunarray.usermanager.domain.ImportProgress;
+import org.lunarray.usermanager.domain.ImportRequest;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.transfer.UserRecordReader;
+import org.lunarray.usermanager.support.transfer.UserRecordWriter;
+
+/**
+ * A service for importing and exporting users in bulk.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface TransferService {
+
+	/**
+	 * Export all readable users. Users are read and written a page at a
+	 * time.
+	 * 
+	 * @param writer
+	 *            The writer to write the users to.
+	 * @param roles
+	 *            Whether to export the roles of every user, costing a lookup
+	 *            per user.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	void exportUsers(UserRecordWriter writer, boolean roles) throws ServiceException;
+
+	/**
+	 * Import users. Records are read one at a time and written concurrently,
+	 * with a bounded number of writes in flight. A failed record does not
+	 * stop the import, unless too many fail.
+	 * 
+	 * @param reader
+	 *            The reader to read the users from.
+	 * @param request
+	 *            How to import.
+	 * @param listener
+	 *            The listener following the import.
+	 * @return The final progress. Its checkpoint is the point to resume after
+	 *         if the import did not finish.
+	 * @throws ServiceException
+	 *             Thrown if the input could not be read. The listener was
+	 *             given the progress up to that point.
+	 */
+	ImportProgress importUsers(UserRecordReader reader, ImportRequest request, ImportListener listener)
+			throws ServiceException;
+}
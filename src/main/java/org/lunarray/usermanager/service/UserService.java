@@ -17,10 +17,14 @@
  */
 package org.lunarray.usermanager.service;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 
 /**
@@ -41,14 +45,27 @@ public interface UserService {
 	void createUser(User user) throws ServiceException;
 
 	/**
-	 * Deletes a user.
+	 * Deletes a user and removes it from the roles it was a member of.
 	 * 
 	 * @param identifier
 	 *            The user identifier.
+	 * @return The identifiers of the roles the user was removed from.
 	 * @throws ServiceException
 	 *             Thrown if the operation could not be completed.
 	 */
-	void deleteUser(String identifier) throws ServiceException;
+	List<String> deleteUser(String identifier) throws ServiceException;
+
+	/**
+	 * Gets the roles a user has, directly or through nested roles, for
+	 * authorization and display.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @return The role identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getEffectiveUserRoles(String userIdentifier) throws ServiceException;
 
 	/**
 	 * Gets a role.
@@ -79,6 +96,17 @@ public interface UserService {
 	 */
 	List<Role> getRoles() throws ServiceException;
 
+	/**
+	 * Gets a number of roles at once.
+	 * 
+	 * @param identifiers
+	 *            The role identifiers.
+	 * @return The roles, in the order of the given identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<Role> getRoles(Collection<String> identifiers) throws ServiceException;
+
 	/**
 	 * Get a user.
 	 * 
@@ -91,7 +119,22 @@ public interface UserService {
 	User getUser(String identifier) throws ServiceException;
 
 	/**
-	 * Gets a users roles.
+	 * Gets the identifiers of the readable users matching the criterion and
+	 * filter of a page request, sorted as requested. The offset and limit of
+	 * the request are ignored, so a listing can be read in slices with a
+	 * single search.
+	 * 
+	 * @param request
+	 *            The page request. May not be null.
+	 * @return The sorted identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<String> getUserIdentifiers(PageRequest request) throws ServiceException;
+
+	/**
+	 * Gets the roles directly containing a user. These are the memberships
+	 * that can be edited.
 	 * 
 	 * @param userIdentifier
 	 *            The user identifier.
@@ -110,6 +153,56 @@ public interface UserService {
 	 */
 	List<User> getUsers() throws ServiceException;
 
+	/**
+	 * Gets a number of users at once.
+	 * 
+	 * @param identifiers
+	 *            The user identifiers.
+	 * @return The users, in the order of the given identifiers.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<User> getUsers(Collection<String> identifiers) throws ServiceException;
+
+	/**
+	 * Gets a page of users.
+	 * 
+	 * @param request
+	 *            The page request.
+	 * @return The page.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	Page<User> getUsers(PageRequest request) throws ServiceException;
+
+	/**
+	 * Adds and removes roles of a user, leaving other roles untouched.
+	 * 
+	 * @param userIdentifier
+	 *            The user identifier.
+	 * @param addedRoles
+	 *            The role identifiers to add.
+	 * @param removedRoles
+	 *            The role identifiers to remove.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	void modifyUserRoles(String userIdentifier, Collection<String> addedRoles, Collection<String> removedRoles)
+			throws ServiceException;
+
+	/**
+	 * Searches users by text, for incremental search.
+	 * 
+	 * @param text
+	 *            The text to search for.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The users, best matches first.
+	 * @throws ServiceException
+	 *             Thrown if the operation could not be completed.
+	 */
+	List<User> searchUsers(String text, int limit) throws ServiceException;
+
 	/**
 	 * Sets the roles for a user.
 	 * 
@@ -139,6 +232,8 @@ public interface UserService {
 	 * 
 	 * @param user
 	 *            The user to update.
+	 * @throws ConcurrentUpdateException
+	 *             Thrown if the user was changed since its version was read.
 	 * @throws ServiceException
 	 *             Thrown if the operation could not be completed.
 	 */
@@ -0,0 +1,174 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.shiro.SecurityUtils;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.service.AsyncRoleService;
+import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.ServiceExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * Implements the {@link AsyncRoleService} by running the {@link RoleService}
+ * on a {@link ServiceExecutor}. Calls run as the subject that started them, so
+ * the usual permission checks apply.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class AsyncRoleServiceImpl
+		implements AsyncRoleService {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRoleServiceImpl.class);
+	/** The executor. */
+	private transient ServiceExecutor executor;
+	/** The role service. */
+	private transient RoleService roleService;
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Role> getRole(final String identifier) {
+		return this.submit(new Callable<Role>() {
+			@Override
+			public Role call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getRole(identifier);
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<Role>> getRoles() {
+		return this.submit(new Callable<List<Role>>() {
+			@Override
+			public List<Role> call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getRoles();
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Page<Role>> getRoles(final PageRequest request) {
+		return this.submit(new Callable<Page<Role>>() {
+			@Override
+			public Page<Role> call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getRoles(request);
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<String>> getRoleUsers(final String roleIdentifier) {
+		return this.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getRoleUsers(roleIdentifier);
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<User> getUser(final String identifier) {
+		return this.submit(new Callable<User>() {
+			@Override
+			public User call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getUser(identifier);
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<User>> getUsers(final Collection<String> identifiers) {
+		return this.submit(new Callable<List<User>>() {
+			@Override
+			public List<User> call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.getUsers(identifiers);
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<Role>> searchRoles(final String text, final int limit) {
+		return this.submit(new Callable<List<Role>>() {
+			@Override
+			public List<Role> call() throws ServiceException {
+				return AsyncRoleServiceImpl.this.roleService.searchRoles(text, limit);
+			}
+		});
+	}
+
+	/**
+	 * Sets a new value for the executor field.
+	 * 
+	 * @param executor
+	 *            The new value for the executor field.
+	 */
+	public void setExecutor(final ServiceExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets a new value for the roleService field.
+	 * 
+	 * @param roleService
+	 *            The new value for the roleService field.
+	 */
+	public void setRoleService(final RoleService roleService) {
+		this.roleService = roleService;
+	}
+
+	/**
+	 * Submits a call as the current subject.
+	 * 
+	 * @param task
+	 *            The call.
+	 * @return The result, failed if the call could not be started.
+	 * @param <V>
+	 *            The result type.
+	 */
+	private <V> ListenableFuture<V> submit(final Callable<V> task) {
+		ListenableFuture<V> result;
+		try {
+			result = this.executor.submit(SecurityUtils.getSubject().associateWith(task));
+		} catch (final RejectedExecutionException e) {
+			AsyncRoleServiceImpl.LOGGER.warn("Could not start role service call.", e);
+			final SettableListenableFuture<V> failed = new SettableListenableFuture<V>();
+			failed.setException(new ServiceException("Too many requests are in progress.", e));
+			result = failed;
+		}
+		return result;
+	}
+}
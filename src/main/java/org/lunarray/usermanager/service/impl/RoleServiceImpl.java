@@ -17,8 +17,11 @@
  */
 package org.lunarray.usermanager.service.impl;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.repository.RoleRepository;
@@ -26,7 +29,9 @@ import org.lunarray.usermanager.repository.UserRepository;
 import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
 import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.repository.exceptions.EntityVersionConflictException;
 import org.lunarray.usermanager.service.RoleService;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,6 +101,21 @@ public final class RoleServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getRoleIdentifiers(final PageRequest request) throws ServiceException {
+		List<String> result;
+		RoleServiceImpl.LOGGER.debug("Getting role identifiers: {}", request);
+		try {
+			result = this.roleRepository.getRoleIdentifiers(request);
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not get role identifiers.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		RoleServiceImpl.LOGGER.debug("Got {} role identifiers.", result.size());
+		return result;
+	}
+
 	/**
 	 * Gets the value for the roleRepository field.
 	 * 
@@ -120,6 +140,36 @@ public final class RoleServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<Role> getRoles(final Collection<String> identifiers) throws ServiceException {
+		List<Role> result;
+		RoleServiceImpl.LOGGER.debug("Getting roles: {}", identifiers);
+		try {
+			result = this.roleRepository.getRoles(identifiers);
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not get roles.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		RoleServiceImpl.LOGGER.debug("Got roles {}: {}", identifiers, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Page<Role> getRoles(final PageRequest request) throws ServiceException {
+		Page<Role> result;
+		RoleServiceImpl.LOGGER.debug("Getting roles page: {}", request);
+		try {
+			result = this.roleRepository.getRoles(request);
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not get roles.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		RoleServiceImpl.LOGGER.debug("Got roles page: {}", result);
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<String> getRoleUsers(final String roleIdentifier) throws ServiceException {
@@ -195,6 +245,53 @@ public final class RoleServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<User> getUsers(final Collection<String> identifiers) throws ServiceException {
+		List<User> result;
+		RoleServiceImpl.LOGGER.debug("Getting users: {}", identifiers);
+		try {
+			result = this.userRepository.getUsers(identifiers);
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not get users.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		RoleServiceImpl.LOGGER.debug("Got users {}: {}", identifiers, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void modifyRoleUsers(final String roleIdentifier, final Collection<String> addedUsers,
+			final Collection<String> removedUsers) throws ServiceException {
+		RoleServiceImpl.LOGGER.debug("Modifying role users {}, adding {} and removing {}", roleIdentifier, addedUsers, removedUsers);
+		try {
+			this.roleRepository.modifyRoleUsers(roleIdentifier, addedUsers, removedUsers);
+			RoleServiceImpl.LOGGER.debug("Modified role users: {}", roleIdentifier);
+		} catch (final EntityNotFoundException e) {
+			RoleServiceImpl.LOGGER.warn("Could not modify role users, role or user not found.", e);
+			throw new ServiceException("Role or user not found.", e);
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not modify role users.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Role> searchRoles(final String text, final int limit) throws ServiceException {
+		List<Role> result;
+		RoleServiceImpl.LOGGER.debug("Searching roles: {}", text);
+		try {
+			result = this.roleRepository.getRoles(this.roleRepository.searchRoleIdentifiers(text, limit));
+		} catch (final BaseRepositoryException e) {
+			RoleServiceImpl.LOGGER.warn("Could not search roles.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		RoleServiceImpl.LOGGER.debug("Searched roles {}: {}", text, result);
+		return result;
+	}
+
 	/**
 	 * Sets a new value for the roleRepository field.
 	 * 
@@ -239,6 +336,9 @@ public final class RoleServiceImpl
 		try {
 			this.roleRepository.updateRoleNoUsers(role);
 			RoleServiceImpl.LOGGER.debug("Updated role: {}", role);
+		} catch (final EntityVersionConflictException e) {
+			RoleServiceImpl.LOGGER.debug("Could not update role, it was changed concurrently.", e);
+			throw new ConcurrentUpdateException("Role was changed by someone else.", e.getCurrentVersion(), e);
 		} catch (final EntityNotFoundException e) {
 			RoleServiceImpl.LOGGER.warn("Could not update role, it doesn't exist.", e);
 			throw new ServiceException("Role not found.", e);
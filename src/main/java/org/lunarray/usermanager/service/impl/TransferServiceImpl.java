@@ -0,0 +1,531 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.ImportProgress;
+import org.lunarray.usermanager.domain.ImportRequest;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.repository.RoleRepository;
+import org.lunarray.usermanager.repository.UserRepository;
+import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
+import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
+import org.lunarray.usermanager.service.ImportListener;
+import org.lunarray.usermanager.service.TransferService;
+import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.BackgroundWork;
+import org.lunarray.usermanager.support.BoundedExecutor;
+import org.lunarray.usermanager.support.exceptions.RecordInvalidException;
+import org.lunarray.usermanager.support.transfer.UserRecord;
+import org.lunarray.usermanager.support.transfer.UserRecordReader;
+import org.lunarray.usermanager.support.transfer.UserRecordWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements the {@link TransferService}. Imports share one pool of writer
+ * threads, each import being bounded to a number of writes in flight.
+ * Writes run as the subject that started the import, so every record is
+ * subject to the usual permission checks.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public class TransferServiceImpl
+		implements TransferService {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransferServiceImpl.class);
+	/** The number of records between progress reports. */
+	private transient int batchSize = 500;
+	/** The number of writer threads. */
+	private transient int concurrency = 4;
+	/** The writer threads. */
+	private transient ExecutorService executor;
+	/** The number of records tested for existing users at a time. */
+	private transient int lookupSize = 100;
+	/** The number of users read at a time while exporting. */
+	private transient int pageSize = 500;
+	/** The role repository. */
+	private transient RoleRepository roleRepository;
+	/** The user repository. */
+	private transient UserRepository userRepository;
+
+	/**
+	 * Stops the writer threads.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.executor)) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void exportUsers(final UserRecordWriter writer, final boolean roles) throws ServiceException {
+		TransferServiceImpl.LOGGER.debug("Exporting users.");
+		final long start = System.currentTimeMillis();
+		int count = 0;
+		try {
+			final List<String> identifiers = new ArrayList<String>(this.userRepository.getUserIdentifiers());
+			Collections.sort(identifiers);
+			for (int offset = 0; offset < identifiers.size(); offset += this.pageSize) {
+				final List<String> slice = identifiers.subList(offset, Math.min(identifiers.size(), offset + this.pageSize));
+				for (final User user : this.userRepository.getUsers(slice)) {
+					List<String> userRoles = null;
+					if (roles) {
+						userRoles = this.roleRepository.getRolesForUser(user.getIdentifier());
+					}
+					writer.write(user, userRoles);
+					count++;
+				}
+				writer.flush();
+			}
+		} catch (final BaseRepositoryException e) {
+			TransferServiceImpl.LOGGER.warn("Could not export users.", e);
+			throw new ServiceException("Could not perform.", e);
+		} catch (final IOException e) {
+			TransferServiceImpl.LOGGER.warn("Could not write users.", e);
+			throw new ServiceException("Could not write.", e);
+		}
+		TransferServiceImpl.LOGGER.info("Exported {} users in {} ms.", count, System.currentTimeMillis() - start);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ImportProgress importUsers(final UserRecordReader reader, final ImportRequest request,
+			final ImportListener listener) throws ServiceException {
+		Validate.notNull(this.executor, "Service must be initialized.");
+		TransferServiceImpl.LOGGER.debug("Importing users: {}", request);
+		final Subject subject = SecurityUtils.getSubject();
+		final BoundedExecutor bounded = new BoundedExecutor(this.executor, this.concurrency * 2);
+		final ImportRun run = new ImportRun(request, listener);
+		final List<UserRecord> pending = new ArrayList<UserRecord>(this.lookupSize);
+		ServiceException failure = null;
+		try {
+			while (!run.isStopped()) {
+				UserRecord record = null;
+				try {
+					record = reader.read();
+				} catch (final RecordInvalidException e) {
+					if (e.getNumber() > request.getResumeAfter()) {
+						run.complete(e.getNumber(), Outcome.FAILED, null, e.getMessage());
+					}
+					continue;
+				}
+				if (CheckUtil.isNull(record)) {
+					break;
+				}
+				if (record.getNumber() > request.getResumeAfter()) {
+					pending.add(record);
+				}
+				if (pending.size() >= this.lookupSize) {
+					this.submit(bounded, subject, pending, request.getExisting(), run);
+					pending.clear();
+				}
+			}
+			if (!run.isStopped()) {
+				this.submit(bounded, subject, pending, request.getExisting(), run);
+			}
+		} catch (final IOException e) {
+			TransferServiceImpl.LOGGER.warn("Could not read users.", e);
+			failure = new ServiceException("Could not read.", e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = new ServiceException("Interrupted.", e);
+		}
+		try {
+			bounded.drain();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final ImportProgress progress = run.finish(CheckUtil.isNull(failure));
+		TransferServiceImpl.LOGGER.info("Imported users: {}, {} records per second.", progress, progress.getRate());
+		if (!CheckUtil.isNull(failure)) {
+			throw failure;
+		}
+		return progress;
+	}
+
+	/**
+	 * Starts the writer threads.
+	 */
+	public void init() {
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(this.concurrency, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(BackgroundWork.wrap(runnable), "user-import-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sets a new value for the batchSize field.
+	 * 
+	 * @param batchSize
+	 *            The new value for the batchSize field.
+	 */
+	public void setBatchSize(final int batchSize) {
+		Validate.isTrue(batchSize > 0, "Batch size must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets a new value for the concurrency field.
+	 * 
+	 * @param concurrency
+	 *            The new value for the concurrency field.
+	 */
+	public void setConcurrency(final int concurrency) {
+		Validate.isTrue(concurrency > 0, "Concurrency must be positive.");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Sets a new value for the lookupSize field.
+	 * 
+	 * @param lookupSize
+	 *            The new value for the lookupSize field.
+	 */
+	public void setLookupSize(final int lookupSize) {
+		Validate.isTrue(lookupSize > 0, "Lookup size must be positive.");
+		this.lookupSize = lookupSize;
+	}
+
+	/**
+	 * Sets a new value for the pageSize field.
+	 * 
+	 * @param pageSize
+	 *            The new value for the pageSize field.
+	 */
+	public void setPageSize(final int pageSize) {
+		Validate.isTrue(pageSize > 0, "Page size must be positive.");
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Sets a new value for the roleRepository field.
+	 * 
+	 * @param roleRepository
+	 *            The new value for the roleRepository field.
+	 */
+	public void setRoleRepository(final RoleRepository roleRepository) {
+		this.roleRepository = roleRepository;
+	}
+
+	/**
+	 * Sets a new value for the userRepository field.
+	 * 
+	 * @param userRepository
+	 *            The new value for the userRepository field.
+	 */
+	public void setUserRepository(final UserRepository userRepository) {
+		this.userRepository = userRepository;
+	}
+
+	/**
+	 * Tests which users of a number of records exist and submits the records.
+	 * If the test fails, every record is written as a new user.
+	 * 
+	 * @param bounded
+	 *            The executor.
+	 * @param subject
+	 *            The subject to write as.
+	 * @param records
+	 *            The records.
+	 * @param existing
+	 *            What to do with an existing user.
+	 * @param run
+	 *            The run.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting for the executor.
+	 */
+	private void submit(final BoundedExecutor bounded, final Subject subject, final List<UserRecord> records,
+			final ImportRequest.Existing existing, final ImportRun run) throws InterruptedException {
+		if (records.isEmpty()) {
+			return;
+		}
+		final List<String> identifiers = new ArrayList<String>(records.size());
+		for (final UserRecord record : records) {
+			identifiers.add(record.getUser().getIdentifier());
+		}
+		Set<String> found = Collections.emptySet();
+		try {
+			found = this.userRepository.containsUsers(identifiers);
+		} catch (final BaseRepositoryException e) {
+			TransferServiceImpl.LOGGER.debug("Could not test for existing users.", e);
+		}
+		for (final UserRecord record : records) {
+			final boolean exists = found.contains(record.getUser().getIdentifier());
+			bounded.submit(subject.associateWith(new ImportTask(record, existing, exists, run)));
+		}
+	}
+
+	/**
+	 * The outcome of a record.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private enum Outcome {
+		/** The user was created. */
+		CREATED,
+		/** The record failed. */
+		FAILED,
+		/** The user existed and was left alone. */
+		SKIPPED,
+		/** The user existed and was updated. */
+		UPDATED;
+	}
+
+	/**
+	 * Keeps the counts and the checkpoint of an import. Records complete out
+	 * of order, so the checkpoint only moves past a record once every record
+	 * before it is done.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class ImportRun {
+
+		/** The checkpoint. */
+		private long checkpoint;
+		/** The completed records past the checkpoint. */
+		private final Set<Long> completed = new HashSet<Long>();
+		/** The number of created users. */
+		private long created;
+		/** The number of failed records. */
+		private long failed;
+		/** The listener. */
+		private final ImportListener listener;
+		/** The number of failed records after which the import stops. */
+		private final int maxFailures;
+		/** The number of skipped users. */
+		private long skipped;
+		/** The start time. */
+		private final long start = System.currentTimeMillis();
+		/** Whether too many records failed. */
+		private volatile boolean tooManyFailures;
+		/** The number of updated users. */
+		private long updated;
+
+		/**
+		 * Constructs the run.
+		 * 
+		 * @param request
+		 *            The import request.
+		 * @param listener
+		 *            The listener.
+		 */
+		public ImportRun(final ImportRequest request, final ImportListener listener) {
+			this.checkpoint = request.getResumeAfter();
+			this.maxFailures = request.getMaxFailures();
+			this.listener = listener;
+		}
+
+		/**
+		 * Records the outcome of a record.
+		 * 
+		 * @param number
+		 *            The record number.
+		 * @param outcome
+		 *            The outcome.
+		 * @param identifier
+		 *            The user identifier, may be null.
+		 * @param message
+		 *            The failure reason, may be null.
+		 */
+		public synchronized void complete(final long number, final Outcome outcome, final String identifier,
+				final String message) {
+			switch (outcome) {
+			case CREATED:
+				this.created++;
+				break;
+			case UPDATED:
+				this.updated++;
+				break;
+			case SKIPPED:
+				this.skipped++;
+				break;
+			default:
+				this.failed++;
+				this.listener.failed(number, identifier, message);
+				if (this.failed > this.maxFailures) {
+					this.tooManyFailures = true;
+				}
+				break;
+			}
+			this.completed.add(number);
+			while (this.completed.remove(this.checkpoint + 1)) {
+				this.checkpoint++;
+			}
+			if (((this.created + this.updated + this.skipped + this.failed) % TransferServiceImpl.this.batchSize) == 0) {
+				this.listener.progress(this.toProgress(false));
+			}
+		}
+
+		/**
+		 * Ends the run and reports the final progress.
+		 * 
+		 * @param finished
+		 *            Whether all records were read.
+		 * @return The final progress.
+		 */
+		public synchronized ImportProgress finish(final boolean finished) {
+			final ImportProgress progress = this.toProgress(finished && !this.isStopped());
+			this.listener.progress(progress);
+			return progress;
+		}
+
+		/**
+		 * Tests whether reading is to stop.
+		 * 
+		 * @return True if and only if too many records failed or the
+		 *         listener cancelled.
+		 */
+		public boolean isStopped() {
+			return this.tooManyFailures || this.listener.isCancelled();
+		}
+
+		/**
+		 * Gets the current progress.
+		 * 
+		 * @param finished
+		 *            Whether the import is finished.
+		 * @return The progress.
+		 */
+		private ImportProgress toProgress(final boolean finished) {
+			return ImportProgress.createBuilder().checkpoint(this.checkpoint).created(this.created)
+					.updated(this.updated).skipped(this.skipped).failed(this.failed).finished(finished)
+					.elapsed(System.currentTimeMillis() - this.start).build();
+		}
+	}
+
+	/**
+	 * Writes a single record.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private final class ImportTask
+			implements Callable<Void> {
+
+		/** What to do with an existing user. */
+		private final ImportRequest.Existing existing;
+		/** Whether the user is known to exist. */
+		private final boolean exists;
+		/** The record. */
+		private final UserRecord record;
+		/** The run. */
+		private final ImportRun run;
+
+		/**
+		 * Constructs the task.
+		 * 
+		 * @param record
+		 *            The record.
+		 * @param existing
+		 *            What to do with an existing user.
+		 * @param exists
+		 *            Whether the user is known to exist.
+		 * @param run
+		 *            The run.
+		 */
+		public ImportTask(final UserRecord record, final ImportRequest.Existing existing, final boolean exists,
+				final ImportRun run) {
+			this.record = record;
+			this.existing = existing;
+			this.exists = exists;
+			this.run = run;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Void call() {
+			final User user = this.record.getUser();
+			Outcome outcome = Outcome.CREATED;
+			String message = null;
+			try {
+				if (this.exists) {
+					outcome = this.writeExisting(user);
+				} else {
+					try {
+						TransferServiceImpl.this.userRepository.createUser(user);
+					} catch (final EntityAlreadyExistsException e) {
+						outcome = this.writeExisting(user);
+					}
+				}
+				if ((outcome != Outcome.SKIPPED) && !CheckUtil.isNull(this.record.getRoles())) {
+					TransferServiceImpl.this.roleRepository.setRolesForUser(user.getIdentifier(), this.record.getRoles());
+				}
+			} catch (final EntityAlreadyExistsException e) {
+				outcome = Outcome.FAILED;
+				message = "User already exists.";
+			} catch (final BaseRepositoryException e) {
+				TransferServiceImpl.LOGGER.debug("Could not import user.", e);
+				outcome = Outcome.FAILED;
+				message = e.getMessage();
+			} catch (final AuthorizationException e) {
+				outcome = Outcome.FAILED;
+				message = "Not permitted.";
+			} catch (final RuntimeException e) {
+				TransferServiceImpl.LOGGER.warn("Could not import user.", e);
+				outcome = Outcome.FAILED;
+				message = "Could not perform.";
+			}
+			this.run.complete(this.record.getNumber(), outcome, user.getIdentifier(), message);
+			return null;
+		}
+
+		/**
+		 * Writes a user that already exists.
+		 * 
+		 * @param user
+		 *            The user.
+		 * @return The outcome.
+		 * @throws BaseRepositoryException
+		 *             Thrown if the user could not be written, or if existing
+		 *             users are not to be written.
+		 */
+		private Outcome writeExisting(final User user) throws BaseRepositoryException {
+			if (this.existing == ImportRequest.Existing.SKIP) {
+				return Outcome.SKIPPED;
+			} else if (this.existing == ImportRequest.Existing.UPDATE) {
+				TransferServiceImpl.this.userRepository.updateUser(user);
+				return Outcome.UPDATED;
+			}
+			throw new EntityAlreadyExistsException("Entity already exists.");
+		}
+	}
+}
@@ -17,9 +17,14 @@
  */
 package org.lunarray.usermanager.service.impl;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
-import org.apache.shiro.crypto.hash.Sha1Hash;
+import org.apache.shiro.SecurityUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Page;
+import org.lunarray.usermanager.domain.PageRequest;
 import org.lunarray.usermanager.domain.Role;
 import org.lunarray.usermanager.domain.User;
 import org.lunarray.usermanager.repository.RoleRepository;
@@ -27,8 +32,13 @@ import org.lunarray.usermanager.repository.UserRepository;
 import org.lunarray.usermanager.repository.exceptions.BaseRepositoryException;
 import org.lunarray.usermanager.repository.exceptions.EntityAlreadyExistsException;
 import org.lunarray.usermanager.repository.exceptions.EntityNotFoundException;
+import org.lunarray.usermanager.repository.exceptions.EntityVersionConflictException;
 import org.lunarray.usermanager.service.UserService;
+import org.lunarray.usermanager.service.exceptions.ConcurrentUpdateException;
 import org.lunarray.usermanager.service.exceptions.ServiceException;
+import org.lunarray.usermanager.support.exceptions.HashingException;
+import org.lunarray.usermanager.support.hash.HashingExecutor;
+import org.lunarray.usermanager.support.shiro.AuthenticationCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +52,10 @@ public class UserServiceImpl
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(UserServiceImpl.class);
+	/** The authentication cache, if any. */
+	private transient AuthenticationCache authenticationCache;
+	/** The password hashing. */
+	private transient HashingExecutor hashingExecutor;
 	/** The role repository. */
 	private transient RoleRepository roleRepository;
 	/** The user repository. */
@@ -65,7 +79,7 @@ public class UserServiceImpl
 
 	/** {@inheritDoc} */
 	@Override
-	public void deleteUser(final String identifier) throws ServiceException {
+	public List<String> deleteUser(final String identifier) throws ServiceException {
 		UserServiceImpl.LOGGER.debug("Deleting user: {}", identifier);
 		try {
 			this.userRepository.deleteUser(identifier);
@@ -77,6 +91,33 @@ public class UserServiceImpl
 			UserServiceImpl.LOGGER.warn("Could not delete user.", e);
 			throw new ServiceException("Could not perform.", e);
 		}
+		// The user is gone either way, so a failed cleanup is only logged.
+		List<String> roles = Collections.emptyList();
+		try {
+			roles = this.roleRepository.removeUserFromRoles(identifier);
+			UserServiceImpl.LOGGER.info("Removed deleted user {} from roles: {}", identifier, roles);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not remove deleted user from roles.", e);
+		}
+		return roles;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getEffectiveUserRoles(final String userIdentifier) throws ServiceException {
+		List<String> result;
+		UserServiceImpl.LOGGER.debug("Getting effective roles for user: {}", userIdentifier);
+		try {
+			result = this.roleRepository.getEffectiveRolesForUser(userIdentifier);
+		} catch (final EntityNotFoundException e) {
+			UserServiceImpl.LOGGER.warn("Could not get effective roles for user, user wasn't found.", e);
+			throw new ServiceException("User not found.", e);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not get effective roles for user.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Got effective roles for user {}: {}", userIdentifier, result);
+		return result;
 	}
 
 	/** {@inheritDoc} */
@@ -127,6 +168,21 @@ public class UserServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<Role> getRoles(final Collection<String> identifiers) throws ServiceException {
+		List<Role> result;
+		UserServiceImpl.LOGGER.debug("Getting roles: {}", identifiers);
+		try {
+			result = this.roleRepository.getRoles(identifiers);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not get roles.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Got roles {}: {}", identifiers, result);
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public User getUser(final String identifier) throws ServiceException {
@@ -145,6 +201,21 @@ public class UserServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<String> getUserIdentifiers(final PageRequest request) throws ServiceException {
+		List<String> result;
+		UserServiceImpl.LOGGER.debug("Getting user identifiers: {}", request);
+		try {
+			result = this.userRepository.getUserIdentifiers(request);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not get user identifiers.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Got {} user identifiers.", result.size());
+		return result;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<String> getUserRoles(final String userIdentifier) throws ServiceException {
@@ -178,6 +249,89 @@ public class UserServiceImpl
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<User> getUsers(final Collection<String> identifiers) throws ServiceException {
+		List<User> result;
+		UserServiceImpl.LOGGER.debug("Getting users: {}", identifiers);
+		try {
+			result = this.userRepository.getUsers(identifiers);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not get users.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Got users {}: {}", identifiers, result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Page<User> getUsers(final PageRequest request) throws ServiceException {
+		Page<User> result;
+		UserServiceImpl.LOGGER.debug("Getting users page: {}", request);
+		try {
+			result = this.userRepository.getUsers(request);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not get users.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Got users page: {}", result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void modifyUserRoles(final String userIdentifier, final Collection<String> addedRoles,
+			final Collection<String> removedRoles) throws ServiceException {
+		UserServiceImpl.LOGGER.debug("Modifying roles for user {}, adding {} and removing {}", userIdentifier, addedRoles,
+				removedRoles);
+		try {
+			this.roleRepository.modifyRolesForUser(userIdentifier, addedRoles, removedRoles);
+		} catch (final EntityNotFoundException e) {
+			UserServiceImpl.LOGGER.warn("Could not modify user roles, user or role not found.", e);
+			throw new ServiceException("User or role not found.", e);
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not modify user roles.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Modified roles for user: {}", userIdentifier);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<User> searchUsers(final String text, final int limit) throws ServiceException {
+		List<User> result;
+		UserServiceImpl.LOGGER.debug("Searching users: {}", text);
+		try {
+			result = this.userRepository.getUsers(this.userRepository.searchUserIdentifiers(text, limit));
+		} catch (final BaseRepositoryException e) {
+			UserServiceImpl.LOGGER.warn("Could not search users.", e);
+			throw new ServiceException("Could not perform.", e);
+		}
+		UserServiceImpl.LOGGER.debug("Searched users {}: {}", text, result);
+		return result;
+	}
+
+	/**
+	 * Sets a new value for the authenticationCache field.
+	 * 
+	 * @param authenticationCache
+	 *            The new value for the authenticationCache field.
+	 */
+	public void setAuthenticationCache(final AuthenticationCache authenticationCache) {
+		this.authenticationCache = authenticationCache;
+	}
+
+	/**
+	 * Sets a new value for the hashingExecutor field.
+	 * 
+	 * @param hashingExecutor
+	 *            The new value for the hashingExecutor field.
+	 */
+	public void setHashingExecutor(final HashingExecutor hashingExecutor) {
+		this.hashingExecutor = hashingExecutor;
+	}
+
 	/**
 	 * Sets a new value for the roleRepository field.
 	 * 
@@ -217,10 +371,21 @@ public class UserServiceImpl
 	/** {@inheritDoc} */
 	@Override
 	public void updatePassword(final String identifier, final String password) throws ServiceException {
-		final byte[] bytes = new Sha1Hash(password).getBytes();
 		UserServiceImpl.LOGGER.debug("Updating password for user: {}", identifier);
+		// Checked before hashing as well, hashing is deliberately expensive.
+		SecurityUtils.getSubject().checkPermission(String.format("password:%s:modify", identifier));
+		final String hash;
+		try {
+			hash = this.hashingExecutor.hash(password);
+		} catch (final HashingException e) {
+			UserServiceImpl.LOGGER.warn("Could not hash password for user.", e);
+			throw new ServiceException("Could not hash password.", e);
+		}
 		try {
-			this.userRepository.updateUserPassword(identifier, bytes, "SHA");
+			this.userRepository.updateUserPassword(identifier, hash);
+			if (!CheckUtil.isNull(this.authenticationCache)) {
+				this.authenticationCache.invalidate(identifier);
+			}
 		} catch (final EntityNotFoundException e) {
 			UserServiceImpl.LOGGER.warn("Could not update password for user, user not found.", e);
 			throw new ServiceException("User not found.", e);
@@ -237,6 +402,9 @@ public class UserServiceImpl
 		UserServiceImpl.LOGGER.debug("Updating user: {}", user);
 		try {
 			this.userRepository.updateUser(user);
+		} catch (final EntityVersionConflictException e) {
+			UserServiceImpl.LOGGER.debug("Could not update user, it was changed concurrently.", e);
+			throw new ConcurrentUpdateException("User was changed by someone else.", e.getCurrentVersion(), e);
 		} catch (final EntityNotFoundException e) {
 			UserServiceImpl.LOGGER.debug("Could not updated user, user wasn't found.", e);
 			throw new ServiceException("User not found.", e);
@@ -0,0 +1,66 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+/**
+ * Marks threads doing work on behalf of the application itself rather than
+ * of a user waiting for an answer, such as index rebuilds, sweeps, change
+ * polling and imports. Directory contexts opened by such threads are drawn
+ * from a smaller share of the connection permits, so background work can
+ * not starve interactive requests.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum BackgroundWork {
+	/** The util instance. */
+	INSTANCE;
+
+	/** Whether the current thread does background work. */
+	private static final ThreadLocal<Boolean> BACKGROUND = new ThreadLocal<Boolean>();
+
+	/**
+	 * Tests whether the current thread does background work.
+	 * 
+	 * @return True if and only if the current thread was marked.
+	 */
+	public static boolean isBackground() {
+		return Boolean.TRUE.equals(BackgroundWork.BACKGROUND.get());
+	}
+
+	/**
+	 * Marks a runnable as background work, typically the runnable of a
+	 * thread created by the thread factory of a background job.
+	 * 
+	 * @param runnable
+	 *            The runnable.
+	 * @return The runnable that runs the given one as background work.
+	 */
+	public static Runnable wrap(final Runnable runnable) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				BackgroundWork.BACKGROUND.set(Boolean.TRUE);
+				try {
+					runnable.run();
+				} finally {
+					BackgroundWork.BACKGROUND.remove();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,103 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Limits the number of tasks a producer has running or queued on a shared
+ * executor. Submitting blocks while the limit is reached, so a fast producer
+ * is slowed down to the pace of the executor instead of queueing without
+ * bound.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class BoundedExecutor {
+
+	/** The maximum number of running or queued tasks. */
+	private final int bound;
+	/** The executor. */
+	private final ExecutorService executor;
+	/** The available permits. */
+	private final Semaphore permits;
+
+	/**
+	 * Constructs the executor.
+	 * 
+	 * @param executor
+	 *            The executor to run tasks on. May not be null.
+	 * @param bound
+	 *            The maximum number of running or queued tasks. Must be
+	 *            positive.
+	 */
+	public BoundedExecutor(final ExecutorService executor, final int bound) {
+		Validate.notNull(executor, "Executor may not be null.");
+		Validate.isTrue(bound > 0, "Bound must be positive.");
+		this.executor = executor;
+		this.bound = bound;
+		this.permits = new Semaphore(bound);
+	}
+
+	/**
+	 * Waits until all submitted tasks are done.
+	 * 
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting.
+	 */
+	public void drain() throws InterruptedException {
+		this.permits.acquire(this.bound);
+		this.permits.release(this.bound);
+	}
+
+	/**
+	 * Submits a task, waiting while the bound is reached.
+	 * 
+	 * @param task
+	 *            The task. May not be null.
+	 * @return The result of the task.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting.
+	 * @param <V>
+	 *            The result type.
+	 */
+	public <V> Future<V> submit(final Callable<V> task) throws InterruptedException {
+		Validate.notNull(task, "Task may not be null.");
+		this.permits.acquire();
+		try {
+			return this.executor.submit(new Callable<V>() {
+				@Override
+				public V call() throws Exception {
+					try {
+						return task.call();
+					} finally {
+						BoundedExecutor.this.permits.release();
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+}
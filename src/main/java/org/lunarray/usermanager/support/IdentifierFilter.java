@@ -0,0 +1,482 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.change.ChangeEvent;
+import org.lunarray.usermanager.support.change.ChangeListener;
+import org.lunarray.usermanager.support.change.ChangeTracker;
+import org.lunarray.usermanager.support.change.DirectoryChangeDetector;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a Bloom filter of the identifiers of an entity type, so that most
+ * tests for identifiers that do not exist are answered without a directory
+ * request. The filter is read once, extended on created and updated entities
+ * and read again after changes that could not be attributed, or periodically.
+ * Deleted identifiers stay in the filter until it is read again, which only
+ * costs a directory request. Identifiers are compared case insensitively.
+ * <p>
+ * Entries created directly in the directory are only noticed by the change
+ * detector's next poll. Once the detector has polled since the filter was
+ * read, a miss is therefore not trusted and a read is scheduled, so that the
+ * directory is asked until the filter is current again.
+ * </p>
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class IdentifierFilter
+		implements ChangeListener {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(IdentifierFilter.class);
+	/** The minimal number of identifiers a filter is sized for. */
+	private static final int MINIMAL_CAPACITY = 1024;
+	/** The identifiers added while reading, null if not reading. */
+	private transient Set<String> additions;
+	/** The change detector, if the directory is polled for changes. */
+	private transient DirectoryChangeDetector changeDetector;
+	/** The change tracker, if changes are tracked. */
+	private transient ChangeTracker changeTracker;
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The false positive rate the filter is sized for. */
+	private transient double falsePositiveRate = 0.01;
+	/** The current filter, null until read. */
+	private transient volatile Bloom filter;
+	/** The generation, increased on changes that could not be attributed. */
+	private final transient AtomicLong generation = new AtomicLong();
+	/** The model support. */
+	private transient ModelLdapSupport modelLdapSupport;
+	/** The refresh interval in seconds, zero disables refreshing. */
+	private transient long refreshInterval;
+	/** Whether a read is scheduled. */
+	private final transient AtomicBoolean scheduled = new AtomicBoolean();
+	/** The refresh scheduler. */
+	private transient ScheduledExecutorService scheduler;
+	/** The filtered type. */
+	private transient Class<?> type;
+
+	/**
+	 * Default constructor.
+	 */
+	public IdentifierFilter() {
+		// Default constructor.
+	}
+
+	/**
+	 * Adds an identifier.
+	 * 
+	 * @param identifier
+	 *            The identifier. May not be null.
+	 */
+	public synchronized void add(final String identifier) {
+		Validate.notNull(identifier, "Identifier may not be null.");
+		final String key = IdentifierFilter.normalize(identifier);
+		if (!CheckUtil.isNull(this.filter)) {
+			this.filter.put(key);
+		}
+		if (!CheckUtil.isNull(this.additions)) {
+			this.additions.add(key);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void changed(final ChangeEvent event) {
+		if (!this.type.equals(event.getType())) {
+			return;
+		}
+		if (event.getIdentifiers().isEmpty()) {
+			this.invalidate();
+		} else if (event.getKind() != ChangeEvent.Kind.DELETED) {
+			for (final String identifier : event.getIdentifiers()) {
+				this.add(identifier);
+			}
+		}
+	}
+
+	/**
+	 * Stops listening and refreshing.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.changeTracker)) {
+			this.changeTracker.removeListener(this);
+		}
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Starts listening, reads the filter and starts the refresh schedule.
+	 */
+	public void init() {
+		Validate.notNull(this.type, "Type may not be null.");
+		if (!CheckUtil.isNull(this.changeTracker)) {
+			this.changeTracker.addListener(this);
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(BackgroundWork.wrap(runnable),
+						"identifier-filter-".concat(IdentifierFilter.this.type.getSimpleName()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.schedule();
+		if (this.refreshInterval > 0) {
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					IdentifierFilter.this.schedule();
+				}
+			}, this.refreshInterval, this.refreshInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Tests whether the filter has been read since the last poll of the
+	 * change detector.
+	 * 
+	 * @return True if negative answers can be trusted.
+	 */
+	public boolean isAvailable() {
+		return !CheckUtil.isNull(this.current());
+	}
+
+	/**
+	 * Tests whether an identifier may exist. A false result means the
+	 * identifier did not exist as of the last change seen, and the directory
+	 * has not been polled for changes since the filter was read.
+	 * 
+	 * @param identifier
+	 *            The identifier. May not be null.
+	 * @return False if the identifier surely does not exist, true if it may
+	 *         exist or if the filter is not available.
+	 */
+	public boolean mightContain(final String identifier) {
+		Validate.notNull(identifier, "Identifier may not be null.");
+		final Bloom current = this.current();
+		return CheckUtil.isNull(current) || current.mightContain(IdentifierFilter.normalize(identifier));
+	}
+
+	/**
+	 * Reads all identifiers of the type from the directory.
+	 */
+	public void rebuild() {
+		final long startGeneration = this.generation.get();
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			this.additions = new HashSet<String>();
+		}
+		final Set<String> read = new HashSet<String>();
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			final SearchControls controls = new SearchControls();
+			controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+			controls.setReturningAttributes(new String[0]);
+			final NamingEnumeration<SearchResult> results = ctx.search(
+					this.modelLdapSupport.getSubTree(this.type), "(objectClass=*)", controls);
+			while (results.hasMore()) {
+				read.add(IdentifierFilter.normalize(this.modelLdapSupport.toShortName(results.next().getNameInNamespace(),
+						this.type)));
+			}
+		} catch (final NamingException e) {
+			this.clearAdditions();
+			throw new IllegalStateException("Could not read identifier filter.", e);
+		} catch (final ModelSupportException e) {
+			this.clearAdditions();
+			throw new IllegalStateException("Could not map identifier filter.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					IdentifierFilter.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		final Bloom bloom = new Bloom(Math.max(IdentifierFilter.MINIMAL_CAPACITY, read.size() * 2), this.falsePositiveRate,
+				start);
+		for (final String identifier : read) {
+			bloom.put(identifier);
+		}
+		synchronized (this) {
+			for (final String identifier : this.additions) {
+				bloom.put(identifier);
+			}
+			this.additions = null;
+			if (this.generation.get() == startGeneration) {
+				this.filter = bloom;
+			}
+		}
+		IdentifierFilter.LOGGER.debug("Filtered {} identifiers of {}.", read.size(), this.type);
+	}
+
+	/**
+	 * Sets a new value for the changeDetector field.
+	 * 
+	 * @param changeDetector
+	 *            The new value for the changeDetector field.
+	 */
+	public void setChangeDetector(final DirectoryChangeDetector changeDetector) {
+		this.changeDetector = changeDetector;
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the falsePositiveRate field.
+	 * 
+	 * @param falsePositiveRate
+	 *            The new value for the falsePositiveRate field.
+	 */
+	public void setFalsePositiveRate(final double falsePositiveRate) {
+		Validate.isTrue((falsePositiveRate > 0) && (falsePositiveRate < 1), "Rate must be between 0 and 1.");
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	/**
+	 * Sets a new value for the modelLdapSupport field.
+	 * 
+	 * @param modelLdapSupport
+	 *            The new value for the modelLdapSupport field.
+	 */
+	public void setModelLdapSupport(final ModelLdapSupport modelLdapSupport) {
+		this.modelLdapSupport = modelLdapSupport;
+	}
+
+	/**
+	 * Sets a new value for the refreshInterval field.
+	 * 
+	 * @param refreshInterval
+	 *            The new value for the refreshInterval field.
+	 */
+	public void setRefreshInterval(final long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Sets a new value for the type field.
+	 * 
+	 * @param type
+	 *            The new value for the type field.
+	 */
+	public void setType(final Class<?> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Normalizes an identifier.
+	 * 
+	 * @param identifier
+	 *            The identifier.
+	 * @return The normalized identifier.
+	 */
+	private static String normalize(final String identifier) {
+		return identifier.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Discards the identifiers added while reading.
+	 */
+	private synchronized void clearAdditions() {
+		this.additions = null;
+	}
+
+	/**
+	 * Gets the filter, unless the change detector polled since it was read,
+	 * in which case a read is scheduled.
+	 * 
+	 * @return The filter, or null if it is not available or not current.
+	 */
+	private Bloom current() {
+		final Bloom current = this.filter;
+		if (!CheckUtil.isNull(current) && !CheckUtil.isNull(this.changeDetector)
+				&& (current.readAt < this.changeDetector.getLastPoll(this.type))) {
+			this.schedule();
+			return null;
+		}
+		return current;
+	}
+
+	/**
+	 * Drops the filter until it is read again.
+	 */
+	private void invalidate() {
+		synchronized (this) {
+			this.generation.incrementAndGet();
+			this.filter = null;
+		}
+		IdentifierFilter.LOGGER.debug("Identifier filter of {} invalidated.", this.type);
+		this.schedule();
+	}
+
+	/**
+	 * Schedules a read, unless one is pending.
+	 */
+	private void schedule() {
+		final ScheduledExecutorService current = this.scheduler;
+		if (!CheckUtil.isNull(current) && this.scheduled.compareAndSet(false, true)) {
+			current.execute(new Runnable() {
+				@Override
+				public void run() {
+					IdentifierFilter.this.scheduled.set(false);
+					try {
+						IdentifierFilter.this.rebuild();
+					} catch (final IllegalStateException e) {
+						IdentifierFilter.LOGGER.warn("Could not read identifier filter, testing the directory instead.", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * A Bloom filter over strings.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Bloom {
+
+		/** The bits. */
+		private final AtomicLongArray bits;
+		/** The number of hash functions. */
+		private final int hashes;
+		/** The time the read of the strings started. */
+		private final long readAt;
+		/** The number of bits. */
+		private final int size;
+
+		/**
+		 * Sizes the filter.
+		 * 
+		 * @param capacity
+		 *            The expected number of strings.
+		 * @param falsePositiveRate
+		 *            The false positive rate at that number.
+		 * @param readAt
+		 *            The time the read of the strings started.
+		 */
+		public Bloom(final int capacity, final double falsePositiveRate, final long readAt) {
+			this.readAt = readAt;
+			final double ln2 = Math.log(2);
+			final long bitCount = (long) Math.ceil((-capacity * Math.log(falsePositiveRate)) / (ln2 * ln2));
+			this.size = (int) Math.min(Integer.MAX_VALUE - 64, Math.max(64, bitCount));
+			this.hashes = Math.max(1, (int) Math.round(((double) this.size / capacity) * ln2));
+			this.bits = new AtomicLongArray((this.size + 63) / 64);
+		}
+
+		/**
+		 * Tests whether a string may have been put.
+		 * 
+		 * @param value
+		 *            The string.
+		 * @return False if the string was surely not put.
+		 */
+		public boolean mightContain(final String value) {
+			final int first = value.hashCode();
+			final int second = Bloom.hash(value);
+			for (int i = 0; i < this.hashes; i++) {
+				final int index = ((first + (i * second)) & Integer.MAX_VALUE) % this.size;
+				if ((this.bits.get(index >>> 6) & (1L << index)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Puts a string.
+		 * 
+		 * @param value
+		 *            The string.
+		 */
+		public void put(final String value) {
+			final int first = value.hashCode();
+			final int second = Bloom.hash(value);
+			for (int i = 0; i < this.hashes; i++) {
+				final int index = ((first + (i * second)) & Integer.MAX_VALUE) % this.size;
+				final long mask = 1L << index;
+				long current = this.bits.get(index >>> 6);
+				while (((current & mask) == 0) && !this.bits.compareAndSet(index >>> 6, current, current | mask)) {
+					current = this.bits.get(index >>> 6);
+				}
+			}
+		}
+
+		/**
+		 * A second, independent string hash (FNV-1a).
+		 * 
+		 * @param value
+		 *            The string.
+		 * @return The hash, always odd.
+		 */
+		private static int hash(final String value) {
+			int result = 0x811c9dc5;
+			for (int i = 0; i < value.length(); i++) {
+				result ^= value.charAt(i);
+				result *= 0x01000193;
+			}
+			return result | 1;
+		}
+	}
+}
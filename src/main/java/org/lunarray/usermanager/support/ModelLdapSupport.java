@@ -17,6 +17,7 @@
  */
 package org.lunarray.usermanager.support;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -49,6 +50,8 @@ import org.lunarray.model.descriptor.model.member.Cardinality;
 import org.lunarray.model.descriptor.model.property.CollectionPropertyDescriptor;
 import org.lunarray.model.descriptor.model.property.PropertyDescriptor;
 import org.lunarray.model.descriptor.model.relation.RelationDescriptor;
+import org.lunarray.usermanager.domain.Criterion;
+import org.lunarray.usermanager.domain.Criterion.Operator;
 import org.lunarray.usermanager.support.exceptions.ModelSupportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,6 +83,25 @@ public final class ModelLdapSupport {
 		// Default constructor.
 	}
 
+	/**
+	 * Gets the names of the mapped properties of a type, in model order.
+	 * 
+	 * @param type
+	 *            The type. Entity must be described.
+	 * @return The property names.
+	 */
+	public List<String> getMappedProperties(final Class<?> type) {
+		final EntityDescriptor<?> descriptor = this.model.getEntity(type);
+		Validate.notNull(descriptor, "Entity must be described.");
+		final List<String> result = new ArrayList<String>();
+		for (final PropertyDescriptor<?, ?> property : descriptor.getProperties()) {
+			if (this.propertyAttributeMapping.containsKey(this.resolveKey(descriptor, property))) {
+				result.add(property.getName());
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Gets the subtree for a given type.
 	 * 
@@ -95,6 +117,24 @@ public final class ModelLdapSupport {
 		return new LdapName(this.subTreeMapping.get(descriptor.getName())).toString();
 	}
 
+	/**
+	 * Tests whether a property of a type is mapped to an attribute.
+	 * 
+	 * @param type
+	 *            The type. May not be null.
+	 * @param propertyName
+	 *            The property name. May not be null.
+	 * @return True if the property is mapped.
+	 */
+	public boolean isMapped(final Class<?> type, final String propertyName) {
+		Validate.notNull(type, "Type may not be null.");
+		Validate.notNull(propertyName, "Property name may not be null.");
+		final EntityDescriptor<?> descriptor = this.model.getEntity(type);
+		Validate.notNull(descriptor, "Entity must be described.");
+		final String key = new StringBuilder(descriptor.getName()).append('.').append(propertyName).toString();
+		return this.propertyAttributeMapping.containsKey(key);
+	}
+
 	/**
 	 * Map attributes to an entity.
 	 * 
@@ -578,6 +618,113 @@ public final class ModelLdapSupport {
 		}
 	}
 
+	/**
+	 * Creates a search filter matching a criterion on the properties of a
+	 * type. The compared values are added to the arguments, to be passed as
+	 * filter arguments, so they are escaped by the directory context.
+	 * 
+	 * @param type
+	 *            The type. May not be null.
+	 * @param criterion
+	 *            The criterion. May not be null. Its properties must be
+	 *            mapped.
+	 * @param arguments
+	 *            The filter arguments so far, compared values are appended.
+	 *            May not be null.
+	 * @return The filter expression.
+	 */
+	public String toCriterionFilter(final Class<?> type, final Criterion criterion, final List<Object> arguments) {
+		Validate.notNull(criterion, "Criterion may not be null.");
+		Validate.notNull(arguments, "Arguments may not be null.");
+		final StringBuilder builder = new StringBuilder("(");
+		final Operator operator = criterion.getOperator();
+		if (operator.isComparison() || (operator == Operator.PRESENT)) {
+			Validate.isTrue(this.isMapped(type, criterion.getProperty()), "Property must be mapped.");
+			final String attribute = this.resolveAttribute(type, criterion.getProperty());
+			final String argument = new StringBuilder("{").append(arguments.size()).append('}').toString();
+			if (operator != Operator.PRESENT) {
+				arguments.add(criterion.getValue());
+			}
+			switch (operator) {
+			case CONTAINS:
+				builder.append(attribute).append("=*").append(argument).append('*');
+				break;
+			case ENDS_WITH:
+				builder.append(attribute).append("=*").append(argument);
+				break;
+			case GREATER:
+				builder.append("&(").append(attribute).append(">=").append(argument).append(")(!(").append(attribute)
+						.append('=').append(argument).append("))");
+				break;
+			case GREATER_OR_EQUAL:
+				builder.append(attribute).append(">=").append(argument);
+				break;
+			case LESS:
+				builder.append("&(").append(attribute).append("<=").append(argument).append(")(!(").append(attribute)
+						.append('=').append(argument).append("))");
+				break;
+			case LESS_OR_EQUAL:
+				builder.append(attribute).append("<=").append(argument);
+				break;
+			case NOT_EQUALS:
+				builder.append("!(").append(attribute).append('=').append(argument).append(')');
+				break;
+			case PRESENT:
+				builder.append(attribute).append("=*");
+				break;
+			case STARTS_WITH:
+				builder.append(attribute).append('=').append(argument).append('*');
+				break;
+			default:
+				builder.append(attribute).append('=').append(argument);
+				break;
+			}
+		} else {
+			if (operator == Operator.AND) {
+				builder.append('&');
+			} else if (operator == Operator.OR) {
+				builder.append('|');
+			} else {
+				builder.append('!');
+			}
+			for (final Criterion child : criterion.getCriteria()) {
+				builder.append(this.toCriterionFilter(type, child, arguments));
+			}
+		}
+		final String result = builder.append(')').toString();
+		ModelLdapSupport.LOGGER.debug("Resolved criterion filter {} for type {}", result, type);
+		return result;
+	}
+
+	/**
+	 * Creates a search filter matching any of a number of keys of a type. The
+	 * keys are to be passed as filter arguments, in order.
+	 * 
+	 * @param type
+	 *            The type. May not be null.
+	 * @param count
+	 *            The number of keys. Must be positive.
+	 * @return The filter expression.
+	 */
+	public String toKeyFilter(final Class<?> type, final int count) {
+		Validate.notNull(type, "Type may not be null.");
+		Validate.isTrue(count > 0, "Count must be positive.");
+		final EntityDescriptor<?> descriptor = this.model.getEntity(type);
+		Validate.notNull(descriptor, "Entity must be described.");
+		Validate.isTrue(descriptor.adaptable(KeyedEntityDescriptor.class), "Entity must be keyed.");
+		final KeyedEntityDescriptor<?, ?> keyed = descriptor.adapt(KeyedEntityDescriptor.class);
+		final String propertyKey = this.resolveKey(descriptor, keyed.getKeyProperty());
+		Validate.isTrue(this.propertyAttributeMapping.containsKey(propertyKey), "Key must be mapped.");
+		final String attribute = this.propertyAttributeMapping.get(propertyKey)[0];
+		final StringBuilder builder = new StringBuilder("(|");
+		for (int i = 0; i < count; i++) {
+			builder.append('(').append(attribute).append("={").append(i).append("})");
+		}
+		final String result = builder.append(')').toString();
+		ModelLdapSupport.LOGGER.debug("Resolved key filter {} for type {}", result, type);
+		return result;
+	}
+
 	/**
 	 * Extracts the qualified name from an entity.
 	 * 
@@ -703,4 +850,30 @@ public final class ModelLdapSupport {
 		ModelLdapSupport.LOGGER.debug("Transformed qualified name {} to {} for type {}", qualifiedName, result, type);
 		return result;
 	}
+
+	/**
+	 * Creates a search filter matching entities of which any of the given
+	 * properties contains a text. The text is to be passed as the only filter
+	 * argument. Properties that are not mapped are skipped.
+	 * 
+	 * @param type
+	 *            The type. May not be null.
+	 * @param properties
+	 *            The properties to match. May not be null.
+	 * @return The filter expression, or null if no property is mapped.
+	 */
+	public String toSubstringFilter(final Class<?> type, final Collection<String> properties) {
+		Validate.notNull(properties, "Properties may not be null.");
+		final StringBuilder builder = new StringBuilder("(|");
+		boolean mapped = false;
+		for (final String property : properties) {
+			if (this.isMapped(type, property)) {
+				builder.append('(').append(this.resolveAttribute(type, property)).append("=*{0}*)");
+				mapped = true;
+			}
+		}
+		final String result = mapped ? builder.append(')').toString() : null;
+		ModelLdapSupport.LOGGER.debug("Resolved substring filter {} for type {}", result, type);
+		return result;
+	}
 }
@@ -0,0 +1,649 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SchemaViolationException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.support.change.ChangeEvent;
+import org.lunarray.usermanager.support.change.ChangeTracker;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes members from roles that no longer exist, such as users deleted
+ * outside of this application. A sweep lists the names of all users and roles
+ * once, then walks the roles one at a time with a pause in between. A member
+ * within the user or role subtree that is not in that list is looked up once
+ * more before it is removed, so entries created during the sweep are kept.
+ * Members outside both subtrees are left alone. Removals are rate limited.
+ * Every role is swept with a context of its own, so that the sweep does not
+ * hold a pooled connection for its whole duration.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class OrphanMemberSweeper {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(OrphanMemberSweeper.class);
+	/** The number of roles between progress reports. */
+	private static final int PROGRESS_INTERVAL = 100;
+	/** The change tracker, if changes are tracked. */
+	private transient ChangeTracker changeTracker;
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The delay of the first sweep in seconds. */
+	private transient long initialDelay = 300;
+	/** The interval between sweeps in seconds, zero disables sweeping. */
+	private transient long interval = 86400;
+	/** The time of the last removal, in nanoseconds. */
+	private transient long lastWrite;
+	/** The maximum number of members removed per modification. */
+	private transient int maxValuesPerWrite = 100;
+	/** The model support. */
+	private transient ModelLdapSupport modelLdapSupport;
+	/** The pause between roles in milliseconds. */
+	private transient long rolePause = 100;
+	/** The role membership index, if any. */
+	private transient RoleMembershipIndex roleMembershipIndex;
+	/** The sweep scheduler. */
+	private transient ScheduledExecutorService scheduler;
+	/** The sweep statistics. */
+	private final transient Statistics statistics = new Statistics();
+	/** The maximum number of modifications per second. */
+	private transient double writesPerSecond = 5;
+
+	/**
+	 * Default constructor.
+	 */
+	public OrphanMemberSweeper() {
+		// Default constructor.
+	}
+
+	/**
+	 * Stops sweeping.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Gets the value for the statistics field.
+	 * 
+	 * @return The value for the statistics field.
+	 */
+	public Statistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Starts the sweep schedule.
+	 */
+	public void init() {
+		if (this.interval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(BackgroundWork.wrap(runnable), "orphan-member-sweeper");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					OrphanMemberSweeper.this.sweep();
+				}
+			}, this.initialDelay, this.interval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the initialDelay field.
+	 * 
+	 * @param initialDelay
+	 *            The new value for the initialDelay field.
+	 */
+	public void setInitialDelay(final long initialDelay) {
+		this.initialDelay = initialDelay;
+	}
+
+	/**
+	 * Sets a new value for the interval field.
+	 * 
+	 * @param interval
+	 *            The new value for the interval field.
+	 */
+	public void setInterval(final long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Sets a new value for the maxValuesPerWrite field.
+	 * 
+	 * @param maxValuesPerWrite
+	 *            The new value for the maxValuesPerWrite field.
+	 */
+	public void setMaxValuesPerWrite(final int maxValuesPerWrite) {
+		Validate.isTrue(maxValuesPerWrite > 0, "Values per write must be positive.");
+		this.maxValuesPerWrite = maxValuesPerWrite;
+	}
+
+	/**
+	 * Sets a new value for the modelLdapSupport field.
+	 * 
+	 * @param modelLdapSupport
+	 *            The new value for the modelLdapSupport field.
+	 */
+	public void setModelLdapSupport(final ModelLdapSupport modelLdapSupport) {
+		this.modelLdapSupport = modelLdapSupport;
+	}
+
+	/**
+	 * Sets a new value for the rolePause field.
+	 * 
+	 * @param rolePause
+	 *            The new value for the rolePause field.
+	 */
+	public void setRolePause(final long rolePause) {
+		this.rolePause = rolePause;
+	}
+
+	/**
+	 * Sets a new value for the roleMembershipIndex field.
+	 * 
+	 * @param roleMembershipIndex
+	 *            The new value for the roleMembershipIndex field.
+	 */
+	public void setRoleMembershipIndex(final RoleMembershipIndex roleMembershipIndex) {
+		this.roleMembershipIndex = roleMembershipIndex;
+	}
+
+	/**
+	 * Sets a new value for the writesPerSecond field.
+	 * 
+	 * @param writesPerSecond
+	 *            The new value for the writesPerSecond field.
+	 */
+	public void setWritesPerSecond(final double writesPerSecond) {
+		Validate.isTrue(writesPerSecond > 0, "Writes per second must be positive.");
+		this.writesPerSecond = writesPerSecond;
+	}
+
+	/**
+	 * Sweeps all roles once.
+	 */
+	public synchronized void sweep() {
+		final long start = System.currentTimeMillis();
+		this.statistics.start(start);
+		OrphanMemberSweeper.LOGGER.info("Sweeping orphan role members.");
+		try {
+			final String roleSubTree = this.modelLdapSupport.getSubTree(Role.class);
+			final String userSubTree = this.modelLdapSupport.getSubTree(User.class);
+			final Set<LdapName> roles;
+			final Set<LdapName> existing;
+			LdapContext ctx = null;
+			try {
+				ctx = this.factory.getSystemLdapContext();
+				roles = this.listNames(ctx, roleSubTree);
+				existing = new HashSet<LdapName>(roles);
+				existing.addAll(this.listNames(ctx, userSubTree));
+			} finally {
+				this.closeContext(ctx);
+			}
+			final List<LdapName> subTrees = new ArrayList<LdapName>(2);
+			subTrees.add(new LdapName(roleSubTree));
+			subTrees.add(new LdapName(userSubTree));
+			this.statistics.roles.set(roles.size());
+			final String attributeName = this.modelLdapSupport.resolveAttribute(Role.class, "users");
+			for (final LdapName role : roles) {
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				LdapContext roleCtx = null;
+				try {
+					roleCtx = this.factory.getSystemLdapContext();
+					this.sweepRole(roleCtx, role, attributeName, existing, subTrees);
+				} catch (final NamingException e) {
+					this.statistics.failures.incrementAndGet();
+					OrphanMemberSweeper.LOGGER.warn("Could not sweep role {}.", role, e);
+				} finally {
+					this.closeContext(roleCtx);
+				}
+				if ((this.statistics.rolesSwept.incrementAndGet() % OrphanMemberSweeper.PROGRESS_INTERVAL) == 0) {
+					OrphanMemberSweeper.LOGGER.info("Sweeping orphan role members: {}", this.statistics);
+				}
+				Thread.sleep(this.rolePause);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final NamingException e) {
+			this.statistics.failures.incrementAndGet();
+			OrphanMemberSweeper.LOGGER.warn("Could not sweep orphan role members.", e);
+		} catch (final RuntimeException e) {
+			this.statistics.failures.incrementAndGet();
+			OrphanMemberSweeper.LOGGER.warn("Could not sweep orphan role members.", e);
+		} finally {
+			this.statistics.finish(System.currentTimeMillis() - start);
+		}
+		OrphanMemberSweeper.LOGGER.info("Swept orphan role members: {}", this.statistics);
+	}
+
+	/**
+	 * Closes a context.
+	 * 
+	 * @param ctx
+	 *            The context, may be null.
+	 */
+	private void closeContext(final LdapContext ctx) {
+		if (!CheckUtil.isNull(ctx)) {
+			try {
+				ctx.close();
+			} catch (final NamingException e) {
+				OrphanMemberSweeper.LOGGER.warn("Could not close context.", e);
+			}
+		}
+	}
+
+	/**
+	 * Tests whether an entry is missing.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param name
+	 *            The entry name.
+	 * @return True if and only if the entry does not exist.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be looked up.
+	 */
+	private boolean isMissing(final LdapContext ctx, final LdapName name) throws NamingException {
+		try {
+			ctx.getAttributes(name, new String[0]);
+			return false;
+		} catch (final NameNotFoundException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Lists the names of the entries directly below a subtree.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param subTree
+	 *            The subtree.
+	 * @return The names.
+	 * @throws NamingException
+	 *             Thrown if the entries could not be listed.
+	 */
+	private Set<LdapName> listNames(final LdapContext ctx, final String subTree) throws NamingException {
+		final Set<LdapName> result = new HashSet<LdapName>();
+		final SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+		controls.setReturningAttributes(new String[0]);
+		final NamingEnumeration<SearchResult> results = ctx.search(subTree, "(objectClass=*)", controls);
+		while (results.hasMore()) {
+			result.add(new LdapName(results.next().getNameInNamespace()));
+		}
+		return result;
+	}
+
+	/**
+	 * Removes members from a role, in rate limited chunks.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param role
+	 *            The role name.
+	 * @param attributeName
+	 *            The member attribute.
+	 * @param orphans
+	 *            The member values to remove.
+	 * @throws NamingException
+	 *             Thrown if the role could not be modified.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting to write.
+	 */
+	private void removeOrphans(final LdapContext ctx, final LdapName role, final String attributeName, final List<String> orphans)
+			throws NamingException, InterruptedException {
+		for (int offset = 0; offset < orphans.size(); offset += this.maxValuesPerWrite) {
+			final List<String> chunk = orphans.subList(offset, Math.min(orphans.size(), offset + this.maxValuesPerWrite));
+			final BasicAttribute values = new BasicAttribute(attributeName);
+			for (final String orphan : chunk) {
+				values.add(orphan);
+			}
+			this.throttle();
+			try {
+				ctx.modifyAttributes(role, new ModificationItem[] { new ModificationItem(DirContext.REMOVE_ATTRIBUTE, values) });
+			} catch (final SchemaViolationException e) {
+				// The role would be left without the members its schema requires.
+				OrphanMemberSweeper.LOGGER.warn("Could not remove orphan members of role {}.", role, e);
+				this.statistics.failures.incrementAndGet();
+				return;
+			}
+			this.statistics.orphansRemoved.addAndGet(chunk.size());
+			if (!CheckUtil.isNull(this.roleMembershipIndex)) {
+				for (final String orphan : chunk) {
+					this.roleMembershipIndex.removeMember(role.toString(), orphan);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sweeps a single role.
+	 * 
+	 * @param ctx
+	 *            The context.
+	 * @param role
+	 *            The role name.
+	 * @param attributeName
+	 *            The member attribute.
+	 * @param existing
+	 *            The names of the users and roles at the start of the sweep.
+	 * @param subTrees
+	 *            The user and role subtrees.
+	 * @throws NamingException
+	 *             Thrown if the role could not be read or modified.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting to write.
+	 */
+	private void sweepRole(final LdapContext ctx, final LdapName role, final String attributeName, final Set<LdapName> existing,
+			final List<LdapName> subTrees) throws NamingException, InterruptedException {
+		final Attribute members = ctx.getAttributes(role, new String[] { attributeName }).get(attributeName);
+		if (CheckUtil.isNull(members)) {
+			return;
+		}
+		final List<String> orphans = new ArrayList<String>();
+		final NamingEnumeration<?> values = members.getAll();
+		while (values.hasMore()) {
+			final String value = values.next().toString();
+			this.statistics.membersChecked.incrementAndGet();
+			final LdapName member;
+			try {
+				member = new LdapName(value);
+			} catch (final InvalidNameException e) {
+				OrphanMemberSweeper.LOGGER.debug("Skipping invalid member {} of role {}.", value, role, e);
+				continue;
+			}
+			if (!existing.contains(member) && OrphanMemberSweeper.isBelow(member, subTrees) && this.isMissing(ctx, member)) {
+				orphans.add(value);
+			}
+		}
+		if (orphans.isEmpty()) {
+			return;
+		}
+		this.statistics.orphansFound.addAndGet(orphans.size());
+		OrphanMemberSweeper.LOGGER.debug("Removing {} orphan members from role {}.", orphans.size(), role);
+		this.removeOrphans(ctx, role, attributeName, orphans);
+		if (!CheckUtil.isNull(this.changeTracker)) {
+			try {
+				this.changeTracker.changed(Role.class, ChangeEvent.Kind.UPDATED,
+						Collections.singleton(this.modelLdapSupport.toShortName(role.toString(), Role.class)));
+			} catch (final ModelSupportException e) {
+				OrphanMemberSweeper.LOGGER.debug("Could not resolve role identifier of {}.", role, e);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the next write is allowed.
+	 * 
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting.
+	 */
+	private void throttle() throws InterruptedException {
+		final long spacing = (long) (TimeUnit.SECONDS.toNanos(1) / this.writesPerSecond);
+		final long wait = (this.lastWrite + spacing) - System.nanoTime();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		this.lastWrite = System.nanoTime();
+	}
+
+	/**
+	 * Tests whether a name is below one of the given subtrees.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param subTrees
+	 *            The subtrees.
+	 * @return True if and only if the name is below a subtree.
+	 */
+	private static boolean isBelow(final LdapName name, final List<LdapName> subTrees) {
+		for (final LdapName subTree : subTrees) {
+			if ((name.size() > subTree.size()) && name.startsWith(subTree)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The progress and counts of the sweeps.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public static final class Statistics {
+
+		/** The number of failures. */
+		private final AtomicLong failures = new AtomicLong();
+		/** The duration of the last sweep in milliseconds. */
+		private volatile long lastDuration;
+		/** The start of the last sweep. */
+		private volatile long lastStart;
+		/** The number of checked members in this sweep. */
+		private final AtomicLong membersChecked = new AtomicLong();
+		/** The number of found orphans in this sweep. */
+		private final AtomicLong orphansFound = new AtomicLong();
+		/** The number of removed orphans in this sweep. */
+		private final AtomicLong orphansRemoved = new AtomicLong();
+		/** The number of roles in this sweep. */
+		private final AtomicLong roles = new AtomicLong();
+		/** The number of swept roles in this sweep. */
+		private final AtomicLong rolesSwept = new AtomicLong();
+		/** Whether a sweep is running. */
+		private volatile boolean running;
+		/** The number of completed sweeps. */
+		private final AtomicLong sweeps = new AtomicLong();
+
+		/**
+		 * Default constructor.
+		 */
+		protected Statistics() {
+			// Default constructor.
+		}
+
+		/**
+		 * Gets the number of failures.
+		 * 
+		 * @return The number of failures.
+		 */
+		public long getFailures() {
+			return this.failures.get();
+		}
+
+		/**
+		 * Gets the value for the lastDuration field.
+		 * 
+		 * @return The value for the lastDuration field.
+		 */
+		public long getLastDuration() {
+			return this.lastDuration;
+		}
+
+		/**
+		 * Gets the value for the lastStart field.
+		 * 
+		 * @return The value for the lastStart field.
+		 */
+		public long getLastStart() {
+			return this.lastStart;
+		}
+
+		/**
+		 * Gets the number of checked members.
+		 * 
+		 * @return The number of checked members.
+		 */
+		public long getMembersChecked() {
+			return this.membersChecked.get();
+		}
+
+		/**
+		 * Gets the number of found orphans.
+		 * 
+		 * @return The number of found orphans.
+		 */
+		public long getOrphansFound() {
+			return this.orphansFound.get();
+		}
+
+		/**
+		 * Gets the number of removed orphans.
+		 * 
+		 * @return The number of removed orphans.
+		 */
+		public long getOrphansRemoved() {
+			return this.orphansRemoved.get();
+		}
+
+		/**
+		 * Gets the number of roles.
+		 * 
+		 * @return The number of roles.
+		 */
+		public long getRoles() {
+			return this.roles.get();
+		}
+
+		/**
+		 * Gets the number of swept roles.
+		 * 
+		 * @return The number of swept roles.
+		 */
+		public long getRolesSwept() {
+			return this.rolesSwept.get();
+		}
+
+		/**
+		 * Gets the number of completed sweeps.
+		 * 
+		 * @return The number of completed sweeps.
+		 */
+		public long getSweeps() {
+			return this.sweeps.get();
+		}
+
+		/**
+		 * Gets the value for the running field.
+		 * 
+		 * @return The value for the running field.
+		 */
+		public boolean isRunning() {
+			return this.running;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return ReflectionToStringBuilder.toString(this);
+		}
+
+		/**
+		 * Records the end of a sweep.
+		 * 
+		 * @param duration
+		 *            The duration in milliseconds.
+		 */
+		protected void finish(final long duration) {
+			this.lastDuration = duration;
+			this.sweeps.incrementAndGet();
+			this.running = false;
+		}
+
+		/**
+		 * Records the start of a sweep.
+		 * 
+		 * @param start
+		 *            The start time.
+		 */
+		protected void start(final long start) {
+			this.lastStart = start;
+			this.membersChecked.set(0);
+			this.orphansFound.set(0);
+			this.orphansRemoved.set(0);
+			this.roles.set(0);
+			this.rolesSwept.set(0);
+			this.running = true;
+		}
+	}
+}
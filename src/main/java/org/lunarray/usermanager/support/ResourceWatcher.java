@@ -0,0 +1,162 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Watches a file backed resource and notifies a listener when it changes.
+ * Resources that are not backed by a file are not watched.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ResourceWatcher
+		implements Runnable {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceWatcher.class);
+	/** The watched file name. */
+	private transient Path fileName;
+	/** The listener. */
+	private final transient ResourceChangeListener listener;
+	/** The resource. */
+	private final transient Resource resource;
+	/** The watch thread. */
+	private transient Thread thread;
+	/** The watch service. */
+	private transient WatchService watchService;
+
+	/**
+	 * Constructs the watcher.
+	 * 
+	 * @param resource
+	 *            The resource to watch. May not be null.
+	 * @param listener
+	 *            The listener to notify. May not be null.
+	 */
+	public ResourceWatcher(final Resource resource, final ResourceChangeListener listener) {
+		Validate.notNull(resource, "Resource may not be null.");
+		Validate.notNull(listener, "Listener may not be null.");
+		this.resource = resource;
+		this.listener = listener;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void run() {
+		final WatchService service = this.watchService;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				final WatchKey key = service.take();
+				boolean changed = false;
+				for (final WatchEvent<?> event : key.pollEvents()) {
+					if (this.fileName.equals(event.context())) {
+						changed = true;
+					}
+				}
+				if (changed) {
+					ResourceWatcher.LOGGER.info("Resource changed: {}", this.resource);
+					try {
+						this.listener.resourceChanged(this.resource);
+					} catch (final RuntimeException e) {
+						ResourceWatcher.LOGGER.warn("Could not process change of resource: {}", this.resource, e);
+					}
+				}
+				if (!key.reset()) {
+					ResourceWatcher.LOGGER.warn("Stopped watching resource: {}", this.resource);
+					break;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ClosedWatchServiceException e) {
+			ResourceWatcher.LOGGER.debug("Watch service closed for: {}", this.resource, e);
+		}
+	}
+
+	/**
+	 * Starts watching the resource.
+	 * 
+	 * @return True if the resource is being watched, false if it is not
+	 *         backed by a file.
+	 */
+	public synchronized boolean start() {
+		if (!CheckUtil.isNull(this.thread)) {
+			return true;
+		}
+		final Path path;
+		try {
+			path = this.resource.getFile().toPath().toAbsolutePath();
+		} catch (final IOException e) {
+			ResourceWatcher.LOGGER.debug("Resource is not a file, not watching: {}", this.resource, e);
+			return false;
+		}
+		try {
+			this.fileName = path.getFileName();
+			this.watchService = FileSystems.getDefault().newWatchService();
+			path.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (final IOException e) {
+			ResourceWatcher.LOGGER.warn("Could not watch resource: {}", this.resource, e);
+			this.closeWatchService();
+			return false;
+		}
+		this.thread = new Thread(this, String.format("resource-watcher-%s", this.fileName));
+		this.thread.setDaemon(true);
+		this.thread.start();
+		ResourceWatcher.LOGGER.debug("Watching resource: {}", this.resource);
+		return true;
+	}
+
+	/**
+	 * Stops watching the resource.
+	 */
+	public synchronized void stop() {
+		if (!CheckUtil.isNull(this.thread)) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+		this.closeWatchService();
+	}
+
+	/**
+	 * Closes the watch service.
+	 */
+	private void closeWatchService() {
+		if (!CheckUtil.isNull(this.watchService)) {
+			try {
+				this.watchService.close();
+			} catch (final IOException e) {
+				ResourceWatcher.LOGGER.warn("Could not close watch service.", e);
+			}
+			this.watchService = null;
+		}
+	}
+}
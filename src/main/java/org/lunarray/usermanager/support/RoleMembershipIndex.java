@@ -0,0 +1,651 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the role graph in memory together with its transitive closure, so
+ * that the effective (nested) roles of a member can be looked up without
+ * querying the directory. The graph is read once and updated incrementally
+ * as memberships change. It is optionally re-read periodically to pick up
+ * changes made outside of the application. Changes made while the graph is
+ * being re-read are journaled and replayed on the new graph, so they are not
+ * lost to a snapshot read before they were made.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class RoleMembershipIndex {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(RoleMembershipIndex.class);
+	/** Whether the graph has been read. */
+	private transient volatile boolean available;
+	/** The direct members per role. */
+	private final transient Map<LdapName, Set<LdapName>> children = new HashMap<LdapName, Set<LdapName>>();
+	/** The effective role identifiers per member. */
+	private transient volatile Map<LdapName, Set<String>> closure = new ConcurrentHashMap<LdapName, Set<String>>();
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The changes made during a rebuild, null if no rebuild is running. */
+	private transient List<Update> journal;
+	/** The role member attribute. */
+	private transient String memberAttribute;
+	/** The roles directly containing a member. */
+	private final transient Map<LdapName, Set<LdapName>> parents = new HashMap<LdapName, Set<LdapName>>();
+	/** The refresh interval in seconds, zero disables refreshing. */
+	private transient long refreshInterval;
+	/** The role id attribute. */
+	private transient String roleAttribute;
+	/** Serializes rebuilds. */
+	private final transient Object rebuildLock = new Object();
+	/** The role identifiers per role. */
+	private final transient Map<LdapName, String> roleNames = new HashMap<LdapName, String>();
+	/** The role subtree. */
+	private transient String roleSubTree;
+	/** The refresh scheduler. */
+	private transient ScheduledExecutorService scheduler;
+
+	/**
+	 * Default constructor.
+	 */
+	public RoleMembershipIndex() {
+		// Default constructor.
+	}
+
+	/**
+	 * Adds a direct membership.
+	 * 
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param memberName
+	 *            The qualified member name.
+	 */
+	public synchronized void addMember(final String roleName, final String memberName) {
+		final LdapName role = this.toName(roleName);
+		final LdapName member = this.toName(memberName);
+		this.record(new Update() {
+			@Override
+			public void apply() {
+				RoleMembershipIndex.this.link(role, member);
+			}
+		});
+		this.recompute(member);
+		RoleMembershipIndex.LOGGER.debug("Added member {} to role {}", member, role);
+	}
+
+	/**
+	 * Stops refreshing the index.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Gets the identifiers of the roles directly containing a member.
+	 * 
+	 * @param memberName
+	 *            The qualified member name.
+	 * @return The role identifiers.
+	 */
+	public synchronized Set<String> getDirectRoles(final String memberName) {
+		final Set<String> result = new HashSet<String>();
+		final Set<LdapName> roles = this.parents.get(this.toName(memberName));
+		if (!CheckUtil.isNull(roles)) {
+			for (final LdapName role : roles) {
+				final String roleIdentifier = this.roleNames.get(role);
+				if (!CheckUtil.isNull(roleIdentifier)) {
+					result.add(roleIdentifier);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the identifiers of all roles a member is part of, directly or
+	 * through nested roles.
+	 * 
+	 * @param memberName
+	 *            The qualified member name.
+	 * @return The role identifiers, never null.
+	 */
+	public Set<String> getEffectiveRoles(final String memberName) {
+		Set<String> result = this.closure.get(this.toName(memberName));
+		if (CheckUtil.isNull(result)) {
+			result = Collections.emptySet();
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the graph and starts the refresh schedule.
+	 */
+	public void init() {
+		try {
+			this.rebuild();
+		} catch (final IllegalStateException e) {
+			RoleMembershipIndex.LOGGER.warn("Could not read role graph, searching the directory instead.", e);
+		}
+		if (this.refreshInterval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(BackgroundWork.wrap(runnable), "role-membership-index");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						RoleMembershipIndex.this.rebuild();
+					} catch (final IllegalStateException e) {
+						RoleMembershipIndex.LOGGER.warn("Could not refresh role index, keeping previous graph.", e);
+					}
+				}
+			}, this.refreshInterval, this.refreshInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Tests whether the graph has been read.
+	 * 
+	 * @return True if memberships can be looked up.
+	 */
+	public boolean isAvailable() {
+		return this.available;
+	}
+
+	/**
+	 * Reads the complete role graph from the directory and recomputes the
+	 * closure. Changes made while the graph is read are replayed on the read
+	 * graph before it replaces the current one.
+	 */
+	public void rebuild() {
+		synchronized (this.rebuildLock) {
+			final Map<LdapName, String> readNames = new HashMap<LdapName, String>();
+			final Map<LdapName, Set<LdapName>> readChildren = new HashMap<LdapName, Set<LdapName>>();
+			synchronized (this) {
+				this.journal = new ArrayList<Update>();
+			}
+			LdapContext ctx = null;
+			try {
+				ctx = this.factory.getSystemLdapContext();
+				final SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+				controls.setReturningAttributes(new String[] { this.roleAttribute, this.memberAttribute });
+				final NamingEnumeration<SearchResult> results = ctx.search(this.roleSubTree, "(objectClass=*)", controls);
+				while (results.hasMore()) {
+					final SearchResult result = results.next();
+					final LdapName role = new LdapName(result.getNameInNamespace());
+					this.readRole(role, result.getAttributes(), readNames, readChildren);
+				}
+			} catch (final NamingException e) {
+				synchronized (this) {
+					this.journal = null;
+				}
+				throw new IllegalStateException("Could not read role graph.", e);
+			} finally {
+				this.closeContext(ctx);
+			}
+			synchronized (this) {
+				this.roleNames.clear();
+				this.roleNames.putAll(readNames);
+				this.children.clear();
+				this.parents.clear();
+				for (final Map.Entry<LdapName, Set<LdapName>> entry : readChildren.entrySet()) {
+					this.children.put(entry.getKey(), entry.getValue());
+					for (final LdapName member : entry.getValue()) {
+						this.getSet(this.parents, member).add(entry.getKey());
+					}
+				}
+				for (final Update update : this.journal) {
+					update.apply();
+				}
+				RoleMembershipIndex.LOGGER.debug("Replayed {} changes made during the rebuild.", this.journal.size());
+				this.journal = null;
+				final Map<LdapName, Set<String>> computed = new ConcurrentHashMap<LdapName, Set<String>>();
+				for (final LdapName member : this.parents.keySet()) {
+					computed.put(member, Collections.unmodifiableSet(this.computeClosure(member)));
+				}
+				this.closure = computed;
+				this.available = true;
+			}
+			RoleMembershipIndex.LOGGER.debug("Indexed {} roles.", readNames.size());
+		}
+	}
+
+	/**
+	 * Re-reads a single role after it has been replaced.
+	 * 
+	 * @param roleName
+	 *            The qualified role name.
+	 */
+	public void refreshRole(final String roleName) {
+		final LdapName role = this.toName(roleName);
+		final Map<LdapName, String> readNames = new HashMap<LdapName, String>();
+		final Map<LdapName, Set<LdapName>> readChildren = new HashMap<LdapName, Set<LdapName>>();
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			this.readRole(role, ctx.getAttributes(roleName, new String[] { this.roleAttribute, this.memberAttribute }), readNames,
+					readChildren);
+		} catch (final NameNotFoundException e) {
+			this.removeRole(roleName);
+			return;
+		} catch (final NamingException e) {
+			throw new IllegalStateException("Could not read role.", e);
+		} finally {
+			this.closeContext(ctx);
+		}
+		final String identifier = readNames.get(role);
+		final Set<LdapName> members = readChildren.get(role);
+		synchronized (this) {
+			final Set<LdapName> affected = this.detachRole(role);
+			this.record(new Update() {
+				@Override
+				public void apply() {
+					RoleMembershipIndex.this.attachRole(role, identifier, members);
+				}
+			});
+			affected.addAll(members);
+			affected.add(role);
+			for (final LdapName member : affected) {
+				this.recompute(member);
+			}
+		}
+	}
+
+	/**
+	 * Removes a direct membership.
+	 * 
+	 * @param roleName
+	 *            The qualified role name.
+	 * @param memberName
+	 *            The qualified member name.
+	 */
+	public synchronized void removeMember(final String roleName, final String memberName) {
+		final LdapName role = this.toName(roleName);
+		final LdapName member = this.toName(memberName);
+		this.record(new Update() {
+			@Override
+			public void apply() {
+				RoleMembershipIndex.this.unlink(role, member);
+			}
+		});
+		this.recompute(member);
+		RoleMembershipIndex.LOGGER.debug("Removed member {} from role {}", member, role);
+	}
+
+	/**
+	 * Removes a role and all of its memberships.
+	 * 
+	 * @param roleName
+	 *            The qualified role name.
+	 */
+	public synchronized void removeRole(final String roleName) {
+		final LdapName role = this.toName(roleName);
+		final Set<LdapName> affected = this.detachRole(role);
+		this.record(new Update() {
+			@Override
+			public void apply() {
+				RoleMembershipIndex.this.detachRole(role);
+				RoleMembershipIndex.this.roleNames.remove(role);
+				RoleMembershipIndex.this.children.remove(role);
+			}
+		});
+		affected.add(role);
+		for (final LdapName member : affected) {
+			this.recompute(member);
+		}
+		RoleMembershipIndex.LOGGER.debug("Removed role {}", role);
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the memberAttribute field.
+	 * 
+	 * @param memberAttribute
+	 *            The new value for the memberAttribute field.
+	 */
+	public void setMemberAttribute(final String memberAttribute) {
+		this.memberAttribute = memberAttribute;
+	}
+
+	/**
+	 * Sets a new value for the refreshInterval field.
+	 * 
+	 * @param refreshInterval
+	 *            The new value for the refreshInterval field.
+	 */
+	public void setRefreshInterval(final long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Sets a new value for the roleAttribute field.
+	 * 
+	 * @param roleAttribute
+	 *            The new value for the roleAttribute field.
+	 */
+	public void setRoleAttribute(final String roleAttribute) {
+		this.roleAttribute = roleAttribute;
+	}
+
+	/**
+	 * Sets a new value for the roleSubTree field.
+	 * 
+	 * @param roleSubTree
+	 *            The new value for the roleSubTree field.
+	 */
+	public void setRoleSubTree(final String roleSubTree) {
+		this.roleSubTree = roleSubTree;
+	}
+
+	/**
+	 * Attaches a role to its members, assuming it has been detached.
+	 * 
+	 * @param role
+	 *            The role.
+	 * @param identifier
+	 *            The role identifier, may be null.
+	 * @param members
+	 *            The members.
+	 */
+	private void attachRole(final LdapName role, final String identifier, final Set<LdapName> members) {
+		this.detachRole(role);
+		this.roleNames.put(role, identifier);
+		final Set<LdapName> copy = new HashSet<LdapName>(members);
+		this.children.put(role, copy);
+		for (final LdapName member : copy) {
+			this.getSet(this.parents, member).add(role);
+		}
+	}
+
+	/**
+	 * Closes a context.
+	 * 
+	 * @param ctx
+	 *            The context, may be null.
+	 */
+	private void closeContext(final LdapContext ctx) {
+		if (!CheckUtil.isNull(ctx)) {
+			try {
+				ctx.close();
+			} catch (final NamingException e) {
+				RoleMembershipIndex.LOGGER.warn("Could not close context.", e);
+			}
+		}
+	}
+
+	/**
+	 * Computes the effective roles of a member by walking up the graph.
+	 * 
+	 * @param member
+	 *            The member.
+	 * @return The role identifiers.
+	 */
+	private Set<String> computeClosure(final LdapName member) {
+		final Set<String> result = new HashSet<String>();
+		final Set<LdapName> visited = new HashSet<LdapName>();
+		final LinkedList<LdapName> pending = new LinkedList<LdapName>();
+		pending.add(member);
+		while (!pending.isEmpty()) {
+			final Set<LdapName> roles = this.parents.get(pending.removeFirst());
+			if (!CheckUtil.isNull(roles)) {
+				for (final LdapName role : roles) {
+					if (visited.add(role)) {
+						final String roleIdentifier = this.roleNames.get(role);
+						if (!CheckUtil.isNull(roleIdentifier)) {
+							result.add(roleIdentifier);
+						}
+						pending.add(role);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Detaches a role from its members.
+	 * 
+	 * @param role
+	 *            The role.
+	 * @return The former members.
+	 */
+	private Set<LdapName> detachRole(final LdapName role) {
+		final Set<LdapName> affected = new HashSet<LdapName>();
+		final Set<LdapName> members = this.children.get(role);
+		if (!CheckUtil.isNull(members)) {
+			for (final LdapName member : members) {
+				final Set<LdapName> roles = this.parents.get(member);
+				if (!CheckUtil.isNull(roles)) {
+					roles.remove(role);
+					if (roles.isEmpty()) {
+						this.parents.remove(member);
+					}
+				}
+				affected.add(member);
+			}
+			members.clear();
+		}
+		return affected;
+	}
+
+	/**
+	 * Gets a set from a map, creating it if needed.
+	 * 
+	 * @param map
+	 *            The map.
+	 * @param key
+	 *            The key.
+	 * @return The set.
+	 */
+	private Set<LdapName> getSet(final Map<LdapName, Set<LdapName>> map, final LdapName key) {
+		Set<LdapName> result = map.get(key);
+		if (CheckUtil.isNull(result)) {
+			result = new HashSet<LdapName>();
+			map.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a direct membership to the graph.
+	 * 
+	 * @param role
+	 *            The role.
+	 * @param member
+	 *            The member.
+	 */
+	private void link(final LdapName role, final LdapName member) {
+		this.getSet(this.children, role).add(member);
+		this.getSet(this.parents, member).add(role);
+	}
+
+	/**
+	 * Reads a role entry.
+	 * 
+	 * @param role
+	 *            The role name.
+	 * @param attributes
+	 *            The role attributes.
+	 * @param readNames
+	 *            The role identifiers to add to.
+	 * @param readChildren
+	 *            The members to add to.
+	 * @throws NamingException
+	 *             Thrown if the entry could not be read.
+	 */
+	private void readRole(final LdapName role, final Attributes attributes, final Map<LdapName, String> readNames,
+			final Map<LdapName, Set<LdapName>> readChildren) throws NamingException {
+		final Attribute identifier = attributes.get(this.roleAttribute);
+		if (!CheckUtil.isNull(identifier)) {
+			readNames.put(role, identifier.get().toString());
+		}
+		final Set<LdapName> members = new HashSet<LdapName>();
+		final Attribute memberValues = attributes.get(this.memberAttribute);
+		if (!CheckUtil.isNull(memberValues)) {
+			final NamingEnumeration<?> values = memberValues.getAll();
+			while (values.hasMore()) {
+				try {
+					members.add(new LdapName(values.next().toString()));
+				} catch (final InvalidNameException e) {
+					RoleMembershipIndex.LOGGER.warn("Ignoring invalid member of role {}", role, e);
+				}
+			}
+		}
+		readChildren.put(role, members);
+	}
+
+	/**
+	 * Applies a change to the graph, and journals it if a rebuild is
+	 * running, so it is replayed on the graph being read. Must be called
+	 * holding the lock of the index.
+	 * 
+	 * @param update
+	 *            The change.
+	 */
+	private void record(final Update update) {
+		update.apply();
+		if (!CheckUtil.isNull(this.journal)) {
+			this.journal.add(update);
+		}
+	}
+
+	/**
+	 * Recomputes the closure of a member and everything nested below it.
+	 * 
+	 * @param member
+	 *            The member.
+	 */
+	private void recompute(final LdapName member) {
+		final Set<LdapName> visited = new HashSet<LdapName>();
+		final LinkedList<LdapName> pending = new LinkedList<LdapName>();
+		pending.add(member);
+		while (!pending.isEmpty()) {
+			final LdapName current = pending.removeFirst();
+			if (visited.add(current)) {
+				final Set<String> roles = this.computeClosure(current);
+				if (roles.isEmpty()) {
+					this.closure.remove(current);
+				} else {
+					this.closure.put(current, Collections.unmodifiableSet(roles));
+				}
+				final Collection<LdapName> members = this.children.get(current);
+				if (!CheckUtil.isNull(members)) {
+					pending.addAll(members);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses a name.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @return The parsed name.
+	 */
+	private LdapName toName(final String name) {
+		try {
+			return new LdapName(name);
+		} catch (final InvalidNameException e) {
+			throw new IllegalArgumentException("Invalid name.", e);
+		}
+	}
+
+	/**
+	 * Removes a direct membership from the graph.
+	 * 
+	 * @param role
+	 *            The role.
+	 * @param member
+	 *            The member.
+	 */
+	private void unlink(final LdapName role, final LdapName member) {
+		final Set<LdapName> members = this.children.get(role);
+		if (!CheckUtil.isNull(members)) {
+			members.remove(member);
+		}
+		final Set<LdapName> roles = this.parents.get(member);
+		if (!CheckUtil.isNull(roles)) {
+			roles.remove(role);
+			if (roles.isEmpty()) {
+				this.parents.remove(member);
+			}
+		}
+	}
+
+	/**
+	 * A change to the graph that can be replayed.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private interface Update {
+
+		/**
+		 * Applies the change to the graph.
+		 */
+		void apply();
+	}
+}
@@ -0,0 +1,544 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the searchable properties of an entity type in memory for
+ * incremental search. Texts of three or more characters are looked up through
+ * a trigram index and verified against the stored values, shorter texts
+ * through a sorted index of word prefixes. The index is read once, updated on
+ * writes through the repositories, and optionally re-read periodically to
+ * pick up changes made outside of the application.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class SearchIndex {
+
+	/** The gram length. */
+	private static final int GRAM = 3;
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+	/** Word separators. */
+	private static final String SEPARATORS = "[^\\p{L}\\p{N}]+";
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The model support. */
+	private transient ModelLdapSupport modelLdapSupport;
+	/** The searchable properties, the first being the identifier. */
+	private transient List<String> properties = Collections.singletonList("identifier");
+	/** The refresh interval in seconds, zero disables refreshing. */
+	private transient long refreshInterval;
+	/** The refresh scheduler. */
+	private transient ScheduledExecutorService scheduler;
+	/** The current index, null until read. */
+	private transient volatile Snapshot snapshot;
+	/** The indexed type. */
+	private transient Class<?> type;
+
+	/**
+	 * Default constructor.
+	 */
+	public SearchIndex() {
+		// Default constructor.
+	}
+
+	/**
+	 * Stops refreshing the index.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Gets the value for the properties field.
+	 * 
+	 * @return The value for the properties field.
+	 */
+	public List<String> getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Reads the index and starts the refresh schedule. A failing read leaves
+	 * the index unavailable until the next refresh.
+	 */
+	public void init() {
+		try {
+			this.rebuild();
+		} catch (final IllegalStateException e) {
+			SearchIndex.LOGGER.warn("Could not read search index, searching the directory instead.", e);
+		}
+		if (this.refreshInterval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(BackgroundWork.wrap(runnable),
+							"search-index-".concat(SearchIndex.this.type.getSimpleName()));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						SearchIndex.this.rebuild();
+					} catch (final IllegalStateException e) {
+						SearchIndex.LOGGER.warn("Could not refresh search index, keeping previous index.", e);
+					}
+				}
+			}, this.refreshInterval, this.refreshInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Tests whether the index has been read.
+	 * 
+	 * @return True if the index can be searched.
+	 */
+	public boolean isAvailable() {
+		return !CheckUtil.isNull(this.snapshot);
+	}
+
+	/**
+	 * Reads all entities of the type from the directory.
+	 */
+	public void rebuild() {
+		final Snapshot read = new Snapshot();
+		final List<String> attributeNames = this.resolveAttributes();
+		final List<String> returning = new ArrayList<String>(attributeNames);
+		returning.removeAll(Collections.singleton(null));
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			final SearchControls controls = new SearchControls();
+			controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+			controls.setReturningAttributes(returning.toArray(new String[returning.size()]));
+			final NamingEnumeration<SearchResult> results = ctx.search(this.modelLdapSupport.getSubTree(this.type),
+					"(objectClass=*)", controls);
+			while (results.hasMore()) {
+				final SearchResult result = results.next();
+				final String identifier = this.modelLdapSupport.toShortName(result.getNameInNamespace(), this.type);
+				read.put(identifier, this.readValues(identifier, result.getAttributes(), attributeNames));
+			}
+		} catch (final NamingException e) {
+			throw new IllegalStateException("Could not read search index.", e);
+		} catch (final ModelSupportException e) {
+			throw new IllegalStateException("Could not map search index.", e);
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					SearchIndex.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+		synchronized (this) {
+			this.snapshot = read;
+		}
+		SearchIndex.LOGGER.debug("Indexed {} entities of {}.", read.values.size(), this.type);
+	}
+
+	/**
+	 * Removes an entity.
+	 * 
+	 * @param identifier
+	 *            The identifier.
+	 */
+	public synchronized void remove(final String identifier) {
+		if (!CheckUtil.isNull(this.snapshot)) {
+			this.snapshot.remove(identifier);
+		}
+	}
+
+	/**
+	 * Searches identifiers, best matches first. Identifiers starting with the
+	 * text come first, then entities with a word starting with the text, then
+	 * other matches, each alphabetically.
+	 * 
+	 * @param text
+	 *            The text to search for. May not be null.
+	 * @return The matching identifiers, or null if the index is unavailable.
+	 */
+	public List<String> search(final String text) {
+		Validate.notNull(text, "Text may not be null.");
+		final Snapshot current = this.snapshot;
+		if (CheckUtil.isNull(current)) {
+			return null;
+		}
+		final String query = text.trim().toLowerCase(Locale.ENGLISH);
+		if (query.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final Map<String, Integer> ranks = new LinkedHashMap<String, Integer>();
+		for (final String identifier : current.candidates(query)) {
+			final String[] values = current.values.get(identifier);
+			if (!CheckUtil.isNull(values)) {
+				final int rank = SearchIndex.rank(values, query);
+				if (rank >= 0) {
+					ranks.put(identifier, Integer.valueOf(rank));
+				}
+			}
+		}
+		final List<String> result = new ArrayList<String>(ranks.keySet());
+		Collections.sort(result, new Comparator<String>() {
+			@Override
+			public int compare(final String first, final String second) {
+				final int compared = ranks.get(first).compareTo(ranks.get(second));
+				return compared == 0 ? first.compareTo(second) : compared;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the modelLdapSupport field.
+	 * 
+	 * @param modelLdapSupport
+	 *            The new value for the modelLdapSupport field.
+	 */
+	public void setModelLdapSupport(final ModelLdapSupport modelLdapSupport) {
+		this.modelLdapSupport = modelLdapSupport;
+	}
+
+	/**
+	 * Sets a new value for the properties field.
+	 * 
+	 * @param properties
+	 *            The new value for the properties field.
+	 */
+	public void setProperties(final List<String> properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Sets a new value for the refreshInterval field.
+	 * 
+	 * @param refreshInterval
+	 *            The new value for the refreshInterval field.
+	 */
+	public void setRefreshInterval(final long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Sets a new value for the type field.
+	 * 
+	 * @param type
+	 *            The new value for the type field.
+	 */
+	public void setType(final Class<?> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Replaces the values of an entity after it has been written.
+	 * 
+	 * @param identifier
+	 *            The identifier.
+	 * @param attributes
+	 *            The attributes as written.
+	 */
+	public synchronized void update(final String identifier, final Attributes attributes) {
+		if (!CheckUtil.isNull(this.snapshot)) {
+			final List<String> attributeNames = this.resolveAttributes();
+			try {
+				this.snapshot.put(identifier, this.readValues(identifier, attributes, attributeNames));
+			} catch (final NamingException e) {
+				SearchIndex.LOGGER.warn("Could not update search index, removing entry.", e);
+				this.snapshot.remove(identifier);
+			}
+		}
+	}
+
+	/**
+	 * Ranks a match.
+	 * 
+	 * @param values
+	 *            The lower case values, the first being the identifier.
+	 * @param query
+	 *            The lower case query.
+	 * @return The rank, or -1 if the values do not match.
+	 */
+	private static int rank(final String[] values, final String query) {
+		if (values[0].startsWith(query)) {
+			return 0;
+		}
+		int rank = -1;
+		for (final String value : values) {
+			if (!CheckUtil.isNull(value)) {
+				for (final String word : value.split(SearchIndex.SEPARATORS)) {
+					if (word.startsWith(query)) {
+						return 1;
+					}
+				}
+				if (value.contains(query)) {
+					rank = 2;
+				}
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Reads the values of an entity.
+	 * 
+	 * @param identifier
+	 *            The identifier.
+	 * @param attributes
+	 *            The attributes.
+	 * @param attributeNames
+	 *            The attribute per property, null if unmapped.
+	 * @return The lower case values, the first being the identifier.
+	 * @throws NamingException
+	 *             Thrown if an attribute could not be read.
+	 */
+	private String[] readValues(final String identifier, final Attributes attributes, final List<String> attributeNames)
+			throws NamingException {
+		final String[] values = new String[attributeNames.size()];
+		values[0] = identifier.toLowerCase(Locale.ENGLISH);
+		for (int i = 1; i < values.length; i++) {
+			final String attributeName = attributeNames.get(i);
+			if (!CheckUtil.isNull(attributeName)) {
+				final Attribute attribute = attributes.get(attributeName);
+				if (!CheckUtil.isNull(attribute) && !CheckUtil.isNull(attribute.get())) {
+					values[i] = attribute.get().toString().toLowerCase(Locale.ENGLISH);
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Resolves the attribute of each searchable property.
+	 * 
+	 * @return The attribute per property, null if unmapped.
+	 */
+	private List<String> resolveAttributes() {
+		final List<String> attributeNames = new LinkedList<String>();
+		for (final String property : this.properties) {
+			attributeNames.add(this.modelLdapSupport.isMapped(this.type, property) ? this.modelLdapSupport.resolveAttribute(
+					this.type, property) : null);
+		}
+		return attributeNames;
+	}
+
+	/**
+	 * The index of a point in time.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Snapshot {
+
+		/** The identifiers per trigram. */
+		private final ConcurrentMap<String, Set<String>> grams = new ConcurrentHashMap<String, Set<String>>();
+		/** The values per identifier. */
+		private final ConcurrentMap<String, String[]> values = new ConcurrentHashMap<String, String[]>();
+		/** The identifiers per word. */
+		private final ConcurrentSkipListMap<String, Set<String>> words = new ConcurrentSkipListMap<String, Set<String>>();
+
+		/**
+		 * Default constructor.
+		 */
+		public Snapshot() {
+			// Default constructor.
+		}
+
+		/**
+		 * Collects the candidate identifiers of a query.
+		 * 
+		 * @param query
+		 *            The lower case query.
+		 * @return The candidates, to be verified.
+		 */
+		public Collection<String> candidates(final String query) {
+			final Set<String> result = new HashSet<String>();
+			if (query.length() < SearchIndex.GRAM) {
+				for (final Set<String> identifiers : this.words.subMap(query, query + Character.MAX_VALUE).values()) {
+					result.addAll(identifiers);
+				}
+			} else {
+				Set<String> smallest = null;
+				for (final String gram : Snapshot.grams(query)) {
+					final Set<String> identifiers = this.grams.get(gram);
+					if (CheckUtil.isNull(identifiers)) {
+						return Collections.emptySet();
+					}
+					if (CheckUtil.isNull(smallest) || (identifiers.size() < smallest.size())) {
+						smallest = identifiers;
+					}
+				}
+				result.addAll(smallest);
+			}
+			return result;
+		}
+
+		/**
+		 * Indexes the values of an entity, replacing earlier values.
+		 * 
+		 * @param identifier
+		 *            The identifier.
+		 * @param entityValues
+		 *            The lower case values.
+		 */
+		public void put(final String identifier, final String[] entityValues) {
+			this.remove(identifier);
+			this.values.put(identifier, entityValues);
+			for (final String value : entityValues) {
+				if (!StringUtils.isEmpty(value)) {
+					for (final String gram : Snapshot.grams(value)) {
+						Snapshot.add(this.grams, gram, identifier);
+					}
+					for (final String word : value.split(SearchIndex.SEPARATORS)) {
+						if (!word.isEmpty()) {
+							Snapshot.add(this.words, word, identifier);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Removes an entity.
+		 * 
+		 * @param identifier
+		 *            The identifier.
+		 */
+		public void remove(final String identifier) {
+			final String[] previous = this.values.remove(identifier);
+			if (!CheckUtil.isNull(previous)) {
+				for (final String value : previous) {
+					if (!StringUtils.isEmpty(value)) {
+						for (final String gram : Snapshot.grams(value)) {
+							Snapshot.remove(this.grams, gram, identifier);
+						}
+						for (final String word : value.split(SearchIndex.SEPARATORS)) {
+							Snapshot.remove(this.words, word, identifier);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adds an identifier to a posting.
+		 * 
+		 * @param map
+		 *            The postings.
+		 * @param key
+		 *            The key.
+		 * @param identifier
+		 *            The identifier.
+		 */
+		private static void add(final ConcurrentMap<String, Set<String>> map, final String key, final String identifier) {
+			Set<String> identifiers = map.get(key);
+			if (CheckUtil.isNull(identifiers)) {
+				final Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				identifiers = map.putIfAbsent(key, created);
+				if (CheckUtil.isNull(identifiers)) {
+					identifiers = created;
+				}
+			}
+			identifiers.add(identifier);
+		}
+
+		/**
+		 * Splits a text in trigrams.
+		 * 
+		 * @param text
+		 *            The text.
+		 * @return The distinct trigrams.
+		 */
+		private static Set<String> grams(final String text) {
+			final Set<String> result = new HashSet<String>();
+			for (int i = 0; (i + SearchIndex.GRAM) <= text.length(); i++) {
+				result.add(text.substring(i, i + SearchIndex.GRAM));
+			}
+			return result;
+		}
+
+		/**
+		 * Removes an identifier from a posting.
+		 * 
+		 * @param map
+		 *            The postings.
+		 * @param key
+		 *            The key.
+		 * @param identifier
+		 *            The identifier.
+		 */
+		private static void remove(final ConcurrentMap<String, Set<String>> map, final String key, final String identifier) {
+			final Set<String> identifiers = map.get(key);
+			if (!CheckUtil.isNull(identifiers)) {
+				identifiers.remove(identifier);
+				if (identifiers.isEmpty()) {
+					map.remove(key, identifiers);
+				}
+			}
+		}
+	}
+}
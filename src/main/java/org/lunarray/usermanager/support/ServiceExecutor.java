@@ -0,0 +1,244 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+/**
+ * Runs directory bound calls on a fixed number of threads with a bounded
+ * queue, so request threads can start several calls and wait for them
+ * together. The thread count bounds the load on the directory; once the
+ * queue is full, calls are refused rather than queued without bound. On
+ * runtimes that have them, the threads may be virtual threads.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ServiceExecutor {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ServiceExecutor.class);
+	/** The thread name prefix. */
+	private static final String THREAD_PREFIX = "service-";
+	/** The executor. */
+	private transient ThreadPoolExecutor executor;
+	/** The maximum number of waiting calls. */
+	private transient int queueCapacity = 64;
+	/** The number of refused calls. */
+	private final transient AtomicLong rejected = new AtomicLong();
+	/** The number of started calls. */
+	private final transient AtomicLong started = new AtomicLong();
+	/** The number of threads. */
+	private transient int threads = 8;
+	/** Whether to use virtual threads, if available. */
+	private transient boolean virtualThreads;
+	/** The total time started calls waited in the queue, in nanoseconds. */
+	private final transient AtomicLong waited = new AtomicLong();
+
+	/**
+	 * Default constructor.
+	 */
+	public ServiceExecutor() {
+		// Default constructor.
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.executor)) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Gets the number of running calls.
+	 * 
+	 * @return The number of running calls.
+	 */
+	public int getActiveCount() {
+		return this.executor.getActiveCount();
+	}
+
+	/**
+	 * Gets the average time calls waited in the queue.
+	 * 
+	 * @return The average wait in milliseconds.
+	 */
+	public long getAverageWait() {
+		final long count = this.started.get();
+		long result = 0;
+		if (count > 0) {
+			result = TimeUnit.NANOSECONDS.toMillis(this.waited.get() / count);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of completed calls.
+	 * 
+	 * @return The number of completed calls.
+	 */
+	public long getCompletedCount() {
+		return this.executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Gets the number of waiting calls.
+	 * 
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the number of refused calls.
+	 * 
+	 * @return The number of refused calls.
+	 */
+	public long getRejectedCount() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * Starts the threads.
+	 */
+	public void init() {
+		ThreadFactory threadFactory = null;
+		if (this.virtualThreads) {
+			threadFactory = ServiceExecutor.createVirtualThreadFactory();
+			if (CheckUtil.isNull(threadFactory)) {
+				ServiceExecutor.LOGGER.warn("Virtual threads are not available, using platform threads.");
+			}
+		}
+		if (CheckUtil.isNull(threadFactory)) {
+			final AtomicInteger counter = new AtomicInteger();
+			threadFactory = new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, ServiceExecutor.THREAD_PREFIX + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+		this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(this.queueCapacity), threadFactory);
+		ServiceExecutor.LOGGER.info("Running service calls on {} threads, queueing at most {}.", this.threads, this.queueCapacity);
+	}
+
+	/**
+	 * Sets a new value for the queueCapacity field.
+	 * 
+	 * @param queueCapacity
+	 *            The new value for the queueCapacity field.
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		Validate.isTrue(queueCapacity > 0, "Queue capacity must be positive.");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets a new value for the threads field.
+	 * 
+	 * @param threads
+	 *            The new value for the threads field.
+	 */
+	public void setThreads(final int threads) {
+		Validate.isTrue(threads > 0, "Threads must be positive.");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets a new value for the virtualThreads field.
+	 * 
+	 * @param virtualThreads
+	 *            The new value for the virtualThreads field.
+	 */
+	public void setVirtualThreads(final boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Submits a call.
+	 * 
+	 * @param task
+	 *            The call. May not be null.
+	 * @return The result of the call.
+	 * @throws RejectedExecutionException
+	 *             Thrown if the queue is full.
+	 * @param <V>
+	 *            The result type.
+	 */
+	public <V> ListenableFuture<V> submit(final Callable<V> task) {
+		Validate.notNull(this.executor, "Executor must be initialized.");
+		Validate.notNull(task, "Task may not be null.");
+		final long queued = System.nanoTime();
+		final ListenableFutureTask<V> future = new ListenableFutureTask<V>(new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				ServiceExecutor.this.waited.addAndGet(System.nanoTime() - queued);
+				ServiceExecutor.this.started.incrementAndGet();
+				return task.call();
+			}
+		});
+		try {
+			this.executor.execute(future);
+		} catch (final RejectedExecutionException e) {
+			final long count = this.rejected.incrementAndGet();
+			ServiceExecutor.LOGGER.warn("Refused service call, {} waiting, {} refused in total.", this.getQueueDepth(), count);
+			throw e;
+		}
+		return future;
+	}
+
+	/**
+	 * Creates a factory for virtual threads. Looked up reflectively, since
+	 * they only exist on newer runtimes.
+	 * 
+	 * @return The factory, or null if virtual threads are not available.
+	 */
+	private static ThreadFactory createVirtualThreadFactory() {
+		ThreadFactory result = null;
+		try {
+			final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Object named = builderType.getMethod("name", String.class, long.class).invoke(builder,
+					ServiceExecutor.THREAD_PREFIX, 1L);
+			result = (ThreadFactory) builderType.getMethod("factory").invoke(named);
+		} catch (final ReflectiveOperationException e) {
+			ServiceExecutor.LOGGER.debug("Could not create virtual thread factory.", e);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,223 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * A configuration read from a properties file that is reloaded when the file
+ * changes. Every load is published as an immutable snapshot, so a lookup is a
+ * single volatile read and never sees a half loaded file. A file that can no
+ * longer be read keeps the previous snapshot.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class WatchedConfiguration
+		implements KeyedConfiguration, ResourceChangeListener {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(WatchedConfiguration.class);
+	/** The listeners. */
+	private final transient List<ConfigurationListener> listeners = new CopyOnWriteArrayList<ConfigurationListener>();
+	/** The properties file. */
+	private transient Resource resource;
+	/** The current snapshot. */
+	private transient volatile Map<String, String> snapshot = Collections.emptyMap();
+	/** Whether to watch the file for changes. */
+	private transient boolean watch = true;
+	/** The file watcher. */
+	private transient ResourceWatcher watcher;
+
+	/**
+	 * Default constructor.
+	 */
+	public WatchedConfiguration() {
+		// Default constructor.
+	}
+
+	/**
+	 * Adds a listener.
+	 * 
+	 * @param listener
+	 *            The listener. May not be null.
+	 */
+	public void addListener(final ConfigurationListener listener) {
+		Validate.notNull(listener, "Listener may not be null.");
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Stops watching the file.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.watcher)) {
+			this.watcher.stop();
+			this.watcher = null;
+		}
+		this.listeners.clear();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String get(final String key) {
+		return this.snapshot.get(key);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String get(final String key, final String defaultValue) {
+		final String value = this.snapshot.get(key);
+		if (CheckUtil.isNull(value)) {
+			return defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * Gets a value of this configuration.
+	 * 
+	 * @param key
+	 *            The key. May not be null.
+	 * @return The value.
+	 */
+	public ConfigurationValue getValue(final String key) {
+		return new WatchedConfigurationValue(this, key);
+	}
+
+	/**
+	 * Reads the file and starts watching it.
+	 */
+	public void init() {
+		Validate.notNull(this.resource, "Resource may not be null.");
+		this.snapshot = this.read();
+		if (this.watch) {
+			this.watcher = new ResourceWatcher(this.resource, this);
+			this.watcher.start();
+		}
+	}
+
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeListener(final ConfigurationListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resourceChanged(final Resource changed) {
+		final Map<String, String> previous = this.snapshot;
+		final Map<String, String> current;
+		try {
+			current = this.read();
+		} catch (final IllegalArgumentException e) {
+			WatchedConfiguration.LOGGER.warn("Could not reload configuration, keeping previous values.", e);
+			return;
+		}
+		final Set<String> keys = new HashSet<String>(previous.keySet());
+		keys.addAll(current.keySet());
+		final Set<String> changedKeys = new HashSet<String>();
+		for (final String key : keys) {
+			if (!ObjectUtils.equals(previous.get(key), current.get(key))) {
+				changedKeys.add(key);
+			}
+		}
+		this.snapshot = current;
+		if (changedKeys.isEmpty()) {
+			return;
+		}
+		WatchedConfiguration.LOGGER.info("Reloaded configuration from {}, changed: {}", changed, changedKeys);
+		final Set<String> unmodifiableKeys = Collections.unmodifiableSet(changedKeys);
+		for (final ConfigurationListener listener : this.listeners) {
+			try {
+				listener.configurationChanged(unmodifiableKeys);
+			} catch (final RuntimeException e) {
+				WatchedConfiguration.LOGGER.warn("Listener could not process configuration change.", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets a new value for the resource field.
+	 * 
+	 * @param resource
+	 *            The new value for the resource field.
+	 */
+	public void setResource(final Resource resource) {
+		this.resource = resource;
+	}
+
+	/**
+	 * Sets a new value for the watch field.
+	 * 
+	 * @param watch
+	 *            The new value for the watch field.
+	 */
+	public void setWatch(final boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Reads the file.
+	 * 
+	 * @return The immutable snapshot.
+	 */
+	private Map<String, String> read() {
+		final Properties properties = new Properties();
+		InputStream input = null;
+		try {
+			input = this.resource.getInputStream();
+			WatchedConfiguration.LOGGER.debug("Reading: {}", this.resource);
+			properties.load(input);
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Could not read configuration.", e);
+		} finally {
+			if (!CheckUtil.isNull(input)) {
+				try {
+					input.close();
+				} catch (final IOException e) {
+					WatchedConfiguration.LOGGER.warn("Could not close stream.");
+				}
+			}
+		}
+		final Map<String, String> result = new HashMap<String, String>();
+		for (final String key : properties.stringPropertyNames()) {
+			result.put(key, properties.getProperty(key).trim());
+		}
+		return Collections.unmodifiableMap(result);
+	}
+}
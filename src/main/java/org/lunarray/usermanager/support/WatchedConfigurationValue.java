@@ -0,0 +1,94 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support;
+
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A single value of a {@link WatchedConfiguration}, always reading the
+ * current snapshot.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class WatchedConfigurationValue
+		implements ConfigurationValue {
+
+	/** The configuration. */
+	private final transient WatchedConfiguration configuration;
+	/** The key. */
+	private final transient String key;
+
+	/**
+	 * Constructs the value.
+	 * 
+	 * @param configuration
+	 *            The configuration. May not be null.
+	 * @param key
+	 *            The key. May not be null.
+	 */
+	public WatchedConfigurationValue(final WatchedConfiguration configuration, final String key) {
+		Validate.notNull(configuration, "Configuration may not be null.");
+		Validate.notNull(key, "Key may not be null.");
+		this.configuration = configuration;
+		this.key = key;
+	}
+
+	/**
+	 * Registers a listener that is only called when this value changed.
+	 * 
+	 * @param listener
+	 *            The listener. May not be null.
+	 * @return The registered listener, to remove it from the configuration.
+	 */
+	public ConfigurationListener addListener(final ConfigurationListener listener) {
+		Validate.notNull(listener, "Listener may not be null.");
+		final ConfigurationListener filtered = new ConfigurationListener() {
+			@Override
+			public void configurationChanged(final Set<String> keys) {
+				if (keys.contains(WatchedConfigurationValue.this.key)) {
+					listener.configurationChanged(keys);
+				}
+			}
+		};
+		this.configuration.addListener(filtered);
+		return filtered;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String get() {
+		return this.configuration.get(this.key);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String get(final String defaultValue) {
+		return this.configuration.get(this.key, defaultValue);
+	}
+
+	/**
+	 * Gets the value for the key field.
+	 * 
+	 * @return The value for the key field.
+	 */
+	public String getKey() {
+		return this.key;
+	}
+}
@@ -0,0 +1,122 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.change;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * Describes a change of entities of a type.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ChangeEvent {
+
+	/** The identifiers of the changed entities, empty if unknown. */
+	private final List<String> identifiers;
+	/** The kind of change. */
+	private final Kind kind;
+	/** The changed type. */
+	private final Class<?> type;
+	/** The version of the type after the change. */
+	private final long version;
+
+	/**
+	 * Constructs the event.
+	 * 
+	 * @param type
+	 *            The changed type. May not be null.
+	 * @param kind
+	 *            The kind of change. May not be null.
+	 * @param identifiers
+	 *            The identifiers of the changed entities, empty if unknown.
+	 *            May not be null.
+	 * @param version
+	 *            The version of the type after the change.
+	 */
+	public ChangeEvent(final Class<?> type, final Kind kind, final Collection<String> identifiers, final long version) {
+		Validate.notNull(type, "Type may not be null.");
+		Validate.notNull(kind, "Kind may not be null.");
+		Validate.notNull(identifiers, "Identifiers may not be null.");
+		this.type = type;
+		this.kind = kind;
+		this.identifiers = Collections.unmodifiableList(new ArrayList<String>(identifiers));
+		this.version = version;
+	}
+
+	/**
+	 * Gets the value for the identifiers field.
+	 * 
+	 * @return The value for the identifiers field.
+	 */
+	public List<String> getIdentifiers() {
+		return this.identifiers;
+	}
+
+	/**
+	 * Gets the value for the kind field.
+	 * 
+	 * @return The value for the kind field.
+	 */
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * Gets the value for the type field.
+	 * 
+	 * @return The value for the type field.
+	 */
+	public Class<?> getType() {
+		return this.type;
+	}
+
+	/**
+	 * Gets the value for the version field.
+	 * 
+	 * @return The value for the version field.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+
+	/**
+	 * The kind of change.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public enum Kind {
+		/** Entities were created. */
+		CREATED,
+		/** Entities were deleted. */
+		DELETED,
+		/** Entities were modified, or an unknown change was detected. */
+		UPDATED;
+	}
+}
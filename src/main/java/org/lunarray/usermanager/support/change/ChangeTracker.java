@@ -0,0 +1,215 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.change;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a version per entity type that increases on every known change,
+ * whether written by this application or detected in the directory. Equal
+ * versions guarantee that nothing changed since, so derived results may be
+ * reused.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ChangeTracker {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangeTracker.class);
+	/** The counters per type. */
+	private transient Map<Class<?>, Counter> counters = Collections.emptyMap();
+	/** The start time, distinguishing versions of different runs. */
+	private final transient long epoch = System.currentTimeMillis();
+	/** The listeners. */
+	private final transient List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+	/**
+	 * Default constructor.
+	 */
+	public ChangeTracker() {
+		// Default constructor.
+	}
+
+	/**
+	 * Adds a listener.
+	 * 
+	 * @param listener
+	 *            The listener. May not be null.
+	 */
+	public void addListener(final ChangeListener listener) {
+		Validate.notNull(listener, "Listener may not be null.");
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Records a change of a type and notifies the listeners.
+	 * 
+	 * @param type
+	 *            The changed type.
+	 */
+	public void changed(final Class<?> type) {
+		this.changed(type, ChangeEvent.Kind.UPDATED, Collections.<String> emptyList());
+	}
+
+	/**
+	 * Records a change of entities of a type and notifies the listeners.
+	 * 
+	 * @param type
+	 *            The changed type.
+	 * @param kind
+	 *            The kind of change.
+	 * @param identifiers
+	 *            The identifiers of the changed entities, empty if unknown.
+	 */
+	public void changed(final Class<?> type, final ChangeEvent.Kind kind, final Collection<String> identifiers) {
+		final Counter counter = this.counters.get(type);
+		if (CheckUtil.isNull(counter)) {
+			ChangeTracker.LOGGER.debug("Ignoring change of untracked type {}", type);
+			return;
+		}
+		counter.lastModified = System.currentTimeMillis();
+		final long version = counter.version.incrementAndGet();
+		ChangeTracker.LOGGER.debug("Type {} changed to version {}", type, version);
+		final ChangeEvent event = new ChangeEvent(type, kind, identifiers, version);
+		for (final ChangeListener listener : this.listeners) {
+			try {
+				listener.changed(event);
+			} catch (final RuntimeException e) {
+				ChangeTracker.LOGGER.warn("Change listener failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the value for the epoch field.
+	 * 
+	 * @return The value for the epoch field.
+	 */
+	public long getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * Gets the time of the last change of a type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The time in milliseconds, or the epoch if it did not change.
+	 */
+	public long getLastModified(final Class<?> type) {
+		final Counter counter = this.counters.get(type);
+		return CheckUtil.isNull(counter) ? this.epoch : counter.lastModified;
+	}
+
+	/**
+	 * Resolves a tracked type by its simple name.
+	 * 
+	 * @param name
+	 *            The simple name, case insensitive.
+	 * @return The type, or null if it is not tracked.
+	 */
+	public Class<?> getType(final String name) {
+		for (final Class<?> type : this.counters.keySet()) {
+			if (type.getSimpleName().equalsIgnoreCase(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the tracked types.
+	 * 
+	 * @return The types.
+	 */
+	public List<Class<?>> getTypes() {
+		return new ArrayList<Class<?>>(this.counters.keySet());
+	}
+
+	/**
+	 * Gets the version of a type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The version, or zero if it is not tracked.
+	 */
+	public long getVersion(final Class<?> type) {
+		final Counter counter = this.counters.get(type);
+		return CheckUtil.isNull(counter) ? 0 : counter.version.get();
+	}
+
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeListener(final ChangeListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Sets the tracked types.
+	 * 
+	 * @param types
+	 *            The types. May not be null.
+	 */
+	public void setTypes(final List<Class<?>> types) {
+		Validate.notNull(types, "Types may not be null.");
+		final Map<Class<?>, Counter> created = new LinkedHashMap<Class<?>, Counter>();
+		for (final Class<?> type : types) {
+			created.put(type, new Counter(this.epoch));
+		}
+		this.counters = Collections.unmodifiableMap(created);
+	}
+
+	/**
+	 * The version of a type.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Counter {
+
+		/** The time of the last change. */
+		private volatile long lastModified;
+		/** The version. */
+		private final AtomicLong version = new AtomicLong();
+
+		/**
+		 * Constructs the counter.
+		 * 
+		 * @param lastModified
+		 *            The initial modification time.
+		 */
+		public Counter(final long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+}
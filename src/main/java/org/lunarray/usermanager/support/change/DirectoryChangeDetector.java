@@ -0,0 +1,226 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.change;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.BackgroundWork;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects changes made to the directory outside of this application. Every
+ * interval the entries of each tracked type are listed with only their
+ * modification time; a different entry count or latest modification time
+ * counts as a change.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class DirectoryChangeDetector {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryChangeDetector.class);
+	/** The modification time attribute. */
+	private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+	/** The change tracker. */
+	private transient ChangeTracker changeTracker;
+	/** The context factory. */
+	private transient LdapContextFactory factory;
+	/** The last seen state per type. */
+	private final transient Map<Class<?>, String> fingerprints = new ConcurrentHashMap<Class<?>, String>();
+	/** The poll interval in seconds, zero disables polling. */
+	private transient long interval = 60;
+	/** The start time of the last successful poll per type. */
+	private final transient Map<Class<?>, Long> lastPolls = new ConcurrentHashMap<Class<?>, Long>();
+	/** The model support. */
+	private transient ModelLdapSupport modelLdapSupport;
+	/** The poll scheduler. */
+	private transient ScheduledExecutorService scheduler;
+
+	/**
+	 * Default constructor.
+	 */
+	public DirectoryChangeDetector() {
+		// Default constructor.
+	}
+
+	/**
+	 * Stops polling.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.scheduler)) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Gets the time the last successful poll of a type started. Changes made
+	 * directly in the directory after that time have not been detected yet.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The time in milliseconds, zero if the type was never polled.
+	 */
+	public long getLastPoll(final Class<?> type) {
+		final Long lastPoll = this.lastPolls.get(type);
+		return CheckUtil.isNull(lastPoll) ? 0 : lastPoll.longValue();
+	}
+
+	/**
+	 * Starts polling.
+	 */
+	public void init() {
+		if (this.interval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(BackgroundWork.wrap(runnable), "directory-change-detector");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					DirectoryChangeDetector.this.poll();
+				}
+			}, 0, this.interval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Compares the directory state of every tracked type with the last seen
+	 * state.
+	 */
+	public void poll() {
+		for (final Class<?> type : this.changeTracker.getTypes()) {
+			try {
+				final long start = System.currentTimeMillis();
+				final String fingerprint = this.readFingerprint(type);
+				final String previous = this.fingerprints.put(type, fingerprint);
+				if (!CheckUtil.isNull(previous) && !previous.equals(fingerprint)) {
+					DirectoryChangeDetector.LOGGER.debug("Detected directory change of {}", type);
+					this.changeTracker.changed(type);
+				}
+				this.lastPolls.put(type, Long.valueOf(start));
+			} catch (final NamingException e) {
+				DirectoryChangeDetector.LOGGER.warn("Could not detect directory changes.", e);
+			} catch (final RuntimeException e) {
+				DirectoryChangeDetector.LOGGER.warn("Could not detect directory changes.", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the factory field.
+	 * 
+	 * @param factory
+	 *            The new value for the factory field.
+	 */
+	public void setFactory(final LdapContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Sets a new value for the interval field.
+	 * 
+	 * @param interval
+	 *            The new value for the interval field.
+	 */
+	public void setInterval(final long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Sets a new value for the modelLdapSupport field.
+	 * 
+	 * @param modelLdapSupport
+	 *            The new value for the modelLdapSupport field.
+	 */
+	public void setModelLdapSupport(final ModelLdapSupport modelLdapSupport) {
+		this.modelLdapSupport = modelLdapSupport;
+	}
+
+	/**
+	 * Reads the state of a type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The entry count and latest modification time.
+	 * @throws NamingException
+	 *             Thrown if the directory could not be read.
+	 */
+	private String readFingerprint(final Class<?> type) throws NamingException {
+		LdapContext ctx = null;
+		try {
+			ctx = this.factory.getSystemLdapContext();
+			final SearchControls controls = new SearchControls();
+			controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+			controls.setReturningAttributes(new String[] { DirectoryChangeDetector.MODIFY_TIMESTAMP });
+			final NamingEnumeration<SearchResult> results = ctx.search(this.modelLdapSupport.getSubTree(type), "(objectClass=*)",
+					controls);
+			long count = 0;
+			String latest = "";
+			while (results.hasMore()) {
+				final Attribute attribute = results.next().getAttributes().get(DirectoryChangeDetector.MODIFY_TIMESTAMP);
+				count++;
+				if (!CheckUtil.isNull(attribute) && !CheckUtil.isNull(attribute.get())) {
+					final String timestamp = attribute.get().toString();
+					if (timestamp.compareTo(latest) > 0) {
+						latest = timestamp;
+					}
+				}
+			}
+			return new StringBuilder().append(count).append('@').append(latest).toString();
+		} finally {
+			if (!CheckUtil.isNull(ctx)) {
+				try {
+					ctx.close();
+				} catch (final NamingException e) {
+					DirectoryChangeDetector.LOGGER.warn("Could not close context.", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a JSON document is malformed.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public class JsonSyntaxException
+		extends IOException {
+
+	/** Serial id. */
+	private static final long serialVersionUID = -4517920338467306582L;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param message
+	 *            The exception message.
+	 */
+	public JsonSyntaxException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,70 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.exceptions;
+
+/**
+ * Thrown if a record of an import could not be read into an entity. The
+ * reader is positioned after the record, so reading may continue.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public class RecordInvalidException
+		extends Exception {
+
+	/** Serial id. */
+	private static final long serialVersionUID = 6209174581837542290L;
+	/** The record number. */
+	private final long number;
+
+	/**
+	 * Constructs the exception.
+	 * 
+	 * @param number
+	 *            The one based record number.
+	 * @param message
+	 *            The exception message.
+	 */
+	public RecordInvalidException(final long number, final String message) {
+		super(message);
+		this.number = number;
+	}
+
+	/**
+	 * Constructs the exception.
+	 * 
+	 * @param number
+	 *            The one based record number.
+	 * @param message
+	 *            The exception message.
+	 * @param cause
+	 *            The cause.
+	 */
+	public RecordInvalidException(final long number, final String message, final Throwable cause) {
+		super(message, cause);
+		this.number = number;
+	}
+
+	/**
+	 * Gets the value for the number field.
+	 * 
+	 * @return The value for the number field.
+	 */
+	public final long getNumber() {
+		return this.number;
+	}
+}
@@ -0,0 +1,218 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.hash;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.exceptions.HashingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs password hashing on a few dedicated threads with a bounded queue. A
+ * burst of password changes then queues here, or is refused once the queue
+ * is full, instead of tying up the request threads with deliberately slow
+ * hashing.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class HashingExecutor {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashingExecutor.class);
+	/** The executor. */
+	private transient ThreadPoolExecutor executor;
+	/** The hasher. */
+	private transient PasswordHasher hasher;
+	/** The maximum number of waiting hashes. */
+	private transient int queueCapacity = 32;
+	/** The number of refused hashes. */
+	private final transient AtomicLong rejected = new AtomicLong();
+	/** The number of hashing threads. */
+	private transient int threads = 2;
+	/** The time to wait for a hash in milliseconds. */
+	private transient long timeout = 10000;
+
+	/**
+	 * Default constructor.
+	 */
+	public HashingExecutor() {
+		// Default constructor.
+	}
+
+	/**
+	 * Stops the hashing threads.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.executor)) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Gets the number of hashes being computed.
+	 * 
+	 * @return The number of hashes being computed.
+	 */
+	public int getActiveCount() {
+		return this.executor.getActiveCount();
+	}
+
+	/**
+	 * Gets the number of computed hashes.
+	 * 
+	 * @return The number of computed hashes.
+	 */
+	public long getCompletedCount() {
+		return this.executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Gets the number of waiting hashes.
+	 * 
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the number of refused hashes.
+	 * 
+	 * @return The number of refused hashes.
+	 */
+	public long getRejectedCount() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * Hashes a password on a hashing thread and waits for the result.
+	 * 
+	 * @param password
+	 *            The password. May not be null.
+	 * @return The tagged hash.
+	 * @throws HashingException
+	 *             Thrown if the queue is full, the hash timed out or failed.
+	 */
+	public String hash(final String password) throws HashingException {
+		Validate.notNull(this.executor, "Executor must be initialized.");
+		final Future<String> future;
+		try {
+			future = this.executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws HashingException {
+					return HashingExecutor.this.hasher.hash(password);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			final long count = this.rejected.incrementAndGet();
+			HashingExecutor.LOGGER.warn("Refused hash, {} waiting, {} refused in total.", this.getQueueDepth(), count);
+			throw new HashingException("Too many passwords are being hashed.", e);
+		}
+		HashingExecutor.LOGGER.debug("Queued hash, {} waiting.", this.getQueueDepth());
+		try {
+			return future.get(this.timeout, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new HashingException("Interrupted.", e);
+		} catch (final TimeoutException e) {
+			future.cancel(true);
+			throw new HashingException("Timed out.", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof HashingException) {
+				throw (HashingException) e.getCause();
+			}
+			throw new HashingException("Could not hash.", e);
+		}
+	}
+
+	/**
+	 * Starts the hashing threads.
+	 */
+	public void init() {
+		Validate.notNull(this.hasher, "Hasher may not be null.");
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(this.queueCapacity), new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "password-hashing-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		HashingExecutor.LOGGER.info("Hashing {} passwords on {} threads.", this.hasher.getScheme(), this.threads);
+	}
+
+	/**
+	 * Sets a new value for the hasher field.
+	 * 
+	 * @param hasher
+	 *            The new value for the hasher field.
+	 */
+	public void setHasher(final PasswordHasher hasher) {
+		this.hasher = hasher;
+	}
+
+	/**
+	 * Sets a new value for the queueCapacity field.
+	 * 
+	 * @param queueCapacity
+	 *            The new value for the queueCapacity field.
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		Validate.isTrue(queueCapacity > 0, "Queue capacity must be positive.");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets a new value for the threads field.
+	 * 
+	 * @param threads
+	 *            The new value for the threads field.
+	 */
+	public void setThreads(final int threads) {
+		Validate.isTrue(threads > 0, "Threads must be positive.");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets a new value for the timeout field.
+	 * 
+	 * @param timeout
+	 *            The new value for the timeout field.
+	 */
+	public void setTimeout(final long timeout) {
+		Validate.isTrue(timeout > 0, "Timeout must be positive.");
+		this.timeout = timeout;
+	}
+}
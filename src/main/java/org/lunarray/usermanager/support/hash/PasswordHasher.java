@@ -0,0 +1,47 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.hash;
+
+import org.lunarray.usermanager.support.exceptions.HashingException;
+
+/**
+ * Hashes passwords into the tagged form the directory stores and verifies,
+ * such as <code>{SSHA}...</code>.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface PasswordHasher {
+
+	/**
+	 * Gets the scheme, the tag of the hashes.
+	 * 
+	 * @return The scheme.
+	 */
+	String getScheme();
+
+	/**
+	 * Hashes a password with a fresh salt.
+	 * 
+	 * @param password
+	 *            The password. May not be null.
+	 * @return The tagged hash.
+	 * @throws HashingException
+	 *             Thrown if the password could not be hashed.
+	 */
+	String hash(String password) throws HashingException;
+}
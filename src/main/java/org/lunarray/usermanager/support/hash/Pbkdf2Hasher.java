@@ -0,0 +1,280 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.hash;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.usermanager.support.exceptions.HashingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashes passwords with PBKDF2, in the format of the OpenLDAP pw-pbkdf2
+ * module: <code>{PBKDF2-SHA256}iterations$salt$hash</code>, salt and hash in
+ * adapted base64. Unless a fixed cost is configured, the number of iterations
+ * is calibrated at startup so a hash takes about the target time on this
+ * host. The directory verifies these hashes on bind, so this hasher may only
+ * be used if it has the pw-pbkdf2 module loaded. SHA256 and SHA512 need a
+ * runtime that provides them, Java 8 or later.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class Pbkdf2Hasher
+		implements PasswordHasher {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(Pbkdf2Hasher.class);
+	/** The most iterations calibration may choose. */
+	private static final int MAX_ITERATIONS = 10000000;
+	/** The encoding. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** The digest, SHA1, SHA256 or SHA512. */
+	private transient String digest = "SHA256";
+	/** The number of iterations. */
+	private transient int iterations = 10000;
+	/** The derived key length in bytes, the digest length. */
+	private transient int keyLength;
+	/** The least iterations calibration may choose. */
+	private transient int minIterations = 10000;
+	/** The salt source. */
+	private final transient SecureRandom random = new SecureRandom();
+	/** The salt length in bytes. */
+	private transient int saltLength = 16;
+	/** The scheme. */
+	private transient String scheme;
+	/** The target time of a hash in milliseconds, 0 to not calibrate. */
+	private transient long targetTime = 100;
+
+	/**
+	 * Default constructor.
+	 */
+	public Pbkdf2Hasher() {
+		// Default constructor.
+	}
+
+	/**
+	 * Gets the value for the iterations field.
+	 * 
+	 * @return The value for the iterations field.
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getScheme() {
+		return this.scheme;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String hash(final String password) throws HashingException {
+		Validate.notNull(password, "Password may not be null.");
+		final byte[] salt = new byte[this.saltLength];
+		this.random.nextBytes(salt);
+		final int cost = this.iterations;
+		final byte[] hash = this.derive(password, salt, cost);
+		return String.format("{%s}%d$%s$%s", this.scheme, cost, Pbkdf2Hasher.encode(salt), Pbkdf2Hasher.encode(hash));
+	}
+
+	/**
+	 * Checks the digest and calibrates the iterations.
+	 * 
+	 * @throws HashingException
+	 *             Thrown if the digest is not available.
+	 */
+	public void init() throws HashingException {
+		final String name = this.digest.toUpperCase(Locale.ENGLISH);
+		if ("SHA1".equals(name)) {
+			this.scheme = "PBKDF2";
+			this.keyLength = 20;
+		} else if ("SHA256".equals(name)) {
+			this.scheme = "PBKDF2-SHA256";
+			this.keyLength = 32;
+		} else if ("SHA512".equals(name)) {
+			this.scheme = "PBKDF2-SHA512";
+			this.keyLength = 64;
+		} else {
+			throw new IllegalArgumentException("Unsupported digest: ".concat(this.digest));
+		}
+		this.digest = name;
+		try {
+			SecretKeyFactory.getInstance(this.getAlgorithm());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new HashingException(String.format("%s is not available on this runtime, it needs Java 8 or later. "
+					+ "Use digest SHA1 or a different hasher.", this.getAlgorithm()), e);
+		}
+		if (this.targetTime > 0) {
+			this.iterations = this.calibrate();
+			Pbkdf2Hasher.LOGGER.info("Calibrated {} to {} iterations for {} ms per hash.", this.scheme, this.iterations,
+					this.targetTime);
+		}
+	}
+
+	/**
+	 * Sets a new value for the digest field.
+	 * 
+	 * @param digest
+	 *            The new value for the digest field.
+	 */
+	public void setDigest(final String digest) {
+		Validate.notEmpty(digest, "Digest may not be empty.");
+		this.digest = digest;
+	}
+
+	/**
+	 * Sets a new value for the iterations field, used if not calibrating.
+	 * 
+	 * @param iterations
+	 *            The new value for the iterations field.
+	 */
+	public void setIterations(final int iterations) {
+		Validate.isTrue(iterations > 0, "Iterations must be positive.");
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Sets a new value for the minIterations field.
+	 * 
+	 * @param minIterations
+	 *            The new value for the minIterations field.
+	 */
+	public void setMinIterations(final int minIterations) {
+		Validate.isTrue(minIterations > 0, "Iterations must be positive.");
+		this.minIterations = minIterations;
+	}
+
+	/**
+	 * Sets a new value for the saltLength field.
+	 * 
+	 * @param saltLength
+	 *            The new value for the saltLength field.
+	 */
+	public void setSaltLength(final int saltLength) {
+		Validate.isTrue(saltLength >= 8, "Salt must be at least 8 bytes.");
+		this.saltLength = saltLength;
+	}
+
+	/**
+	 * Sets a new value for the targetTime field.
+	 * 
+	 * @param targetTime
+	 *            The new value for the targetTime field.
+	 */
+	public void setTargetTime(final long targetTime) {
+		Validate.isTrue(targetTime >= 0, "Target time may not be negative.");
+		this.targetTime = targetTime;
+	}
+
+	/**
+	 * Encodes in adapted base64, which uses '.' for '+' and has no padding.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The encoded value.
+	 */
+	private static String encode(final byte[] value) {
+		final String encoded = new String(Base64.encodeBase64(value), Pbkdf2Hasher.UTF_8);
+		return StringUtils.stripEnd(encoded, "=").replace('+', '.');
+	}
+
+	/**
+	 * Finds the number of iterations that takes about the target time. The
+	 * cost is doubled until a hash takes a measurable part of the target,
+	 * then scaled linearly to it.
+	 * 
+	 * @return The number of iterations.
+	 * @throws HashingException
+	 *             Thrown if hashing failed.
+	 */
+	private int calibrate() throws HashingException {
+		final byte[] salt = new byte[this.saltLength];
+		// Warm up, so the measurements are not of the interpreter.
+		this.time(salt, this.minIterations);
+		int candidate = this.minIterations;
+		long elapsed = this.time(salt, candidate);
+		while ((elapsed < (this.targetTime / 4)) && (candidate < (Pbkdf2Hasher.MAX_ITERATIONS / 2))) {
+			candidate *= 2;
+			elapsed = this.time(salt, candidate);
+		}
+		final long scaled = (candidate * this.targetTime) / Math.max(1, elapsed);
+		return (int) Math.max(this.minIterations, Math.min(Pbkdf2Hasher.MAX_ITERATIONS, scaled));
+	}
+
+	/**
+	 * Derives a key.
+	 * 
+	 * @param password
+	 *            The password.
+	 * @param salt
+	 *            The salt.
+	 * @param cost
+	 *            The number of iterations.
+	 * @return The key.
+	 * @throws HashingException
+	 *             Thrown if hashing failed.
+	 */
+	private byte[] derive(final String password, final byte[] salt, final int cost) throws HashingException {
+		final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, this.keyLength * 8);
+		try {
+			return SecretKeyFactory.getInstance(this.getAlgorithm()).generateSecret(spec).getEncoded();
+		} catch (final GeneralSecurityException e) {
+			throw new HashingException("Could not hash.", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Gets the JCE algorithm name.
+	 * 
+	 * @return The algorithm name.
+	 */
+	private String getAlgorithm() {
+		return "PBKDF2WithHmac".concat(this.digest);
+	}
+
+	/**
+	 * Times a hash.
+	 * 
+	 * @param salt
+	 *            The salt.
+	 * @param cost
+	 *            The number of iterations.
+	 * @return The elapsed time in milliseconds.
+	 * @throws HashingException
+	 *             Thrown if hashing failed.
+	 */
+	private long time(final byte[] salt, final int cost) throws HashingException {
+		final long start = System.nanoTime();
+		this.derive("calibration", salt, cost);
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,92 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.hash;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.Validate;
+import org.lunarray.usermanager.support.exceptions.HashingException;
+
+/**
+ * Hashes passwords as salted SHA-1, the <code>{SSHA}</code> scheme every
+ * directory supports. It has no cost factor, prefer {@link Pbkdf2Hasher}
+ * where the directory supports it.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class SaltedShaHasher
+		implements PasswordHasher {
+
+	/** The scheme. */
+	private static final String SCHEME = "SSHA";
+	/** The password encoding. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** The salt source. */
+	private final transient SecureRandom random = new SecureRandom();
+	/** The salt length in bytes. */
+	private transient int saltLength = 8;
+
+	/**
+	 * Default constructor.
+	 */
+	public SaltedShaHasher() {
+		// Default constructor.
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getScheme() {
+		return SaltedShaHasher.SCHEME;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String hash(final String password) throws HashingException {
+		Validate.notNull(password, "Password may not be null.");
+		final byte[] salt = new byte[this.saltLength];
+		this.random.nextBytes(salt);
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new HashingException("Could not hash.", e);
+		}
+		digest.update(password.getBytes(SaltedShaHasher.UTF_8));
+		digest.update(salt);
+		final byte[] hash = digest.digest();
+		final byte[] value = new byte[hash.length + salt.length];
+		System.arraycopy(hash, 0, value, 0, hash.length);
+		System.arraycopy(salt, 0, value, hash.length, salt.length);
+		return String.format("{%s}%s", SaltedShaHasher.SCHEME, new String(Base64.encodeBase64(value), SaltedShaHasher.UTF_8));
+	}
+
+	/**
+	 * Sets a new value for the saltLength field.
+	 * 
+	 * @param saltLength
+	 *            The new value for the saltLength field.
+	 */
+	public void setSaltLength(final int saltLength) {
+		Validate.isTrue(saltLength >= 4, "Salt must be at least 4 bytes.");
+		this.saltLength = saltLength;
+	}
+}
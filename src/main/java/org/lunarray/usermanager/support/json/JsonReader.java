@@ -0,0 +1,551 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedList;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.exceptions.JsonSyntaxException;
+
+/**
+ * Reads JSON token by token from a reader, without building a document first.
+ * The counterpart of the {@link JsonWriter}.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class JsonReader
+		implements Closeable {
+
+	/** The buffer size. */
+	private static final int BUFFER_SIZE = 1024;
+	/** The end of input marker. */
+	private static final int END_OF_INPUT = -1;
+	/** The read buffer. */
+	private final transient char[] buffer = new char[JsonReader.BUFFER_SIZE];
+	/** The number of characters in the buffer. */
+	private transient int limit;
+	/** The number of characters consumed before the buffer. */
+	private transient long offset;
+	/** The peeked token, if any. */
+	private transient Token peeked;
+	/** The text of the peeked name, string or literal. */
+	private transient String peekedText;
+	/** The position in the buffer. */
+	private transient int position;
+	/** The reader. */
+	private final transient Reader reader;
+	/** The open scopes, innermost first. */
+	private final transient LinkedList<Scope> scopes = new LinkedList<Scope>();
+
+	/**
+	 * Constructs the JSON reader.
+	 * 
+	 * @param reader
+	 *            The reader to read from. May not be null.
+	 */
+	public JsonReader(final Reader reader) {
+		Validate.notNull(reader, "Reader may not be null.");
+		this.reader = reader;
+		this.scopes.push(Scope.EMPTY_DOCUMENT);
+	}
+
+	/**
+	 * Consumes the start of an array.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not the
+	 *             start of an array.
+	 */
+	public void beginArray() throws IOException {
+		this.consume(Token.BEGIN_ARRAY);
+		this.scopes.push(Scope.EMPTY_ARRAY);
+	}
+
+	/**
+	 * Consumes the start of an object.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not the
+	 *             start of an object.
+	 */
+	public void beginObject() throws IOException {
+		this.consume(Token.BEGIN_OBJECT);
+		this.scopes.push(Scope.EMPTY_OBJECT);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	/**
+	 * Consumes the end of an array.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not the end
+	 *             of an array.
+	 */
+	public void endArray() throws IOException {
+		this.consume(Token.END_ARRAY);
+		this.scopes.pop();
+	}
+
+	/**
+	 * Consumes the end of an object.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not the end
+	 *             of an object.
+	 */
+	public void endObject() throws IOException {
+		this.consume(Token.END_OBJECT);
+		this.scopes.pop();
+	}
+
+	/**
+	 * Tests whether the current array or object has another element.
+	 * 
+	 * @return True if and only if there is another element.
+	 * @throws IOException
+	 *             Thrown if the reader failed.
+	 */
+	public boolean hasNext() throws IOException {
+		final Token token = this.peek();
+		return (token != Token.END_ARRAY) && (token != Token.END_OBJECT) && (token != Token.END_DOCUMENT);
+	}
+
+	/**
+	 * Consumes a boolean value.
+	 * 
+	 * @return The value.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not a
+	 *             boolean.
+	 */
+	public boolean nextBoolean() throws IOException {
+		return Boolean.parseBoolean(this.consume(Token.BOOLEAN));
+	}
+
+	/**
+	 * Consumes a number value.
+	 * 
+	 * @return The value.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not an
+	 *             integral number.
+	 */
+	public long nextLong() throws IOException {
+		final String text = this.consume(Token.NUMBER);
+		try {
+			return Long.parseLong(text);
+		} catch (final NumberFormatException e) {
+			throw this.syntaxError(String.format("Expected an integral number but was %s", text));
+		}
+	}
+
+	/**
+	 * Consumes a member name.
+	 * 
+	 * @return The name.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not a name.
+	 */
+	public String nextName() throws IOException {
+		return this.consume(Token.NAME);
+	}
+
+	/**
+	 * Consumes a string value. Numbers are returned as written and null as
+	 * null.
+	 * 
+	 * @return The value, may be null.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is not a
+	 *             string, number or null.
+	 */
+	public String nextString() throws IOException {
+		final Token token = this.peek();
+		if (token == Token.NULL) {
+			this.consume(Token.NULL);
+			return null;
+		} else if (token == Token.NUMBER) {
+			return this.consume(Token.NUMBER);
+		} else {
+			return this.consume(Token.STRING);
+		}
+	}
+
+	/**
+	 * Gets the type of the next token without consuming it.
+	 * 
+	 * @return The token type.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the input is malformed.
+	 */
+	public Token peek() throws IOException {
+		if (CheckUtil.isNull(this.peeked)) {
+			this.peeked = this.readToken();
+		}
+		return this.peeked;
+	}
+
+	/**
+	 * Skips the next value, including any nested values.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader failed or the input is malformed.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			final Token token = this.peek();
+			if (token == Token.BEGIN_ARRAY) {
+				this.beginArray();
+				depth++;
+			} else if (token == Token.BEGIN_OBJECT) {
+				this.beginObject();
+				depth++;
+			} else if (token == Token.END_ARRAY) {
+				this.endArray();
+				depth--;
+			} else if (token == Token.END_OBJECT) {
+				this.endObject();
+				depth--;
+			} else if (token == Token.END_DOCUMENT) {
+				throw this.syntaxError("Unexpected end of input");
+			} else {
+				this.consume(token);
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Consumes the peeked token.
+	 * 
+	 * @param expected
+	 *            The expected token type.
+	 * @return The text of the token, may be null.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the next token is of another
+	 *             type.
+	 */
+	private String consume(final Token expected) throws IOException {
+		final Token token = this.peek();
+		if (token != expected) {
+			throw this.syntaxError(String.format("Expected %s but was %s", expected, token));
+		}
+		final String text = this.peekedText;
+		this.peeked = null;
+		this.peekedText = null;
+		return text;
+	}
+
+	/**
+	 * Makes sure a character is available.
+	 * 
+	 * @return True if and only if a character is available.
+	 * @throws IOException
+	 *             Thrown if the reader failed.
+	 */
+	private boolean fill() throws IOException {
+		if (this.position < this.limit) {
+			return true;
+		}
+		this.offset += this.limit;
+		this.position = 0;
+		this.limit = 0;
+		final int read = this.reader.read(this.buffer, 0, this.buffer.length);
+		if (read > 0) {
+			this.limit = read;
+		}
+		return this.limit > 0;
+	}
+
+	/**
+	 * Reads the next character that is not white space.
+	 * 
+	 * @return The character, or the end of input marker.
+	 * @throws IOException
+	 *             Thrown if the reader failed.
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while (this.fill()) {
+			final char c = this.buffer[this.position++];
+			if ((c != ' ') && (c != '\t') && (c != '\n') && (c != '\r')) {
+				return c;
+			}
+		}
+		return JsonReader.END_OF_INPUT;
+	}
+
+	/**
+	 * Reads a literal, that is a number, boolean or null.
+	 * 
+	 * @param first
+	 *            The first character.
+	 * @return The literal type.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the literal is unknown.
+	 */
+	private Token readLiteral(final char first) throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(first);
+		while (this.fill()) {
+			final char c = this.buffer[this.position];
+			if (!Character.isLetterOrDigit(c) && (c != '-') && (c != '+') && (c != '.')) {
+				break;
+			}
+			builder.append(c);
+			this.position++;
+		}
+		final String text = builder.toString();
+		this.peekedText = text;
+		if ("true".equals(text) || "false".equals(text)) {
+			return Token.BOOLEAN;
+		} else if ("null".equals(text)) {
+			return Token.NULL;
+		} else if ((first == '-') || Character.isDigit(first)) {
+			return Token.NUMBER;
+		}
+		throw this.syntaxError(String.format("Unexpected literal %s", text));
+	}
+
+	/**
+	 * Reads the remainder of a quoted string.
+	 * 
+	 * @return The unescaped string.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the string is malformed.
+	 */
+	private String readString() throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		while (true) {
+			if (!this.fill()) {
+				throw this.syntaxError("Unterminated string");
+			}
+			final char c = this.buffer[this.position++];
+			if (c == '"') {
+				return builder.toString();
+			} else if (c == '\\') {
+				if (!this.fill()) {
+					throw this.syntaxError("Unterminated escape");
+				}
+				final char escaped = this.buffer[this.position++];
+				switch (escaped) {
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+					builder.append(this.readUnicodeEscape());
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					builder.append(escaped);
+					break;
+				default:
+					throw this.syntaxError(String.format("Invalid escape \\%s", escaped));
+				}
+			} else {
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads the next token.
+	 * 
+	 * @return The token type.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the input is malformed.
+	 */
+	private Token readToken() throws IOException {
+		final Scope scope = this.scopes.peek();
+		int c = this.nextNonWhitespace();
+		switch (scope) {
+		case EMPTY_ARRAY:
+			this.scopes.set(0, Scope.NONEMPTY_ARRAY);
+			if (c == ']') {
+				return Token.END_ARRAY;
+			}
+			return this.readValue(c);
+		case NONEMPTY_ARRAY:
+			if (c == ']') {
+				return Token.END_ARRAY;
+			} else if (c != ',') {
+				throw this.syntaxError("Expected , or ]");
+			}
+			return this.readValue(this.nextNonWhitespace());
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			if (c == '}') {
+				return Token.END_OBJECT;
+			} else if (scope == Scope.NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw this.syntaxError("Expected , or }");
+				}
+				c = this.nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw this.syntaxError("Expected a name");
+			}
+			this.scopes.set(0, Scope.DANGLING_NAME);
+			this.peekedText = this.readString();
+			return Token.NAME;
+		case DANGLING_NAME:
+			if (c != ':') {
+				throw this.syntaxError("Expected :");
+			}
+			this.scopes.set(0, Scope.NONEMPTY_OBJECT);
+			return this.readValue(this.nextNonWhitespace());
+		case EMPTY_DOCUMENT:
+			this.scopes.set(0, Scope.NONEMPTY_DOCUMENT);
+			return this.readValue(c);
+		default:
+			if (c != JsonReader.END_OF_INPUT) {
+				throw this.syntaxError("Expected the end of input");
+			}
+			return Token.END_DOCUMENT;
+		}
+	}
+
+	/**
+	 * Reads the four hexadecimal digits of a unicode escape.
+	 * 
+	 * @return The escaped character.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the escape is malformed.
+	 */
+	private char readUnicodeEscape() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			if (!this.fill()) {
+				throw this.syntaxError("Unterminated escape");
+			}
+			final int digit = Character.digit(this.buffer[this.position++], 16);
+			if (digit < 0) {
+				throw this.syntaxError("Invalid unicode escape");
+			}
+			value = (value << 4) | digit;
+		}
+		return (char) value;
+	}
+
+	/**
+	 * Reads the start of a value.
+	 * 
+	 * @param c
+	 *            The first character of the value.
+	 * @return The token type.
+	 * @throws IOException
+	 *             Thrown if the reader failed or the value is malformed.
+	 */
+	private Token readValue(final int c) throws IOException {
+		switch (c) {
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '"':
+			this.peekedText = this.readString();
+			return Token.STRING;
+		case JsonReader.END_OF_INPUT:
+			throw this.syntaxError("Unexpected end of input");
+		default:
+			return this.readLiteral((char) c);
+		}
+	}
+
+	/**
+	 * Creates a syntax error for the current position.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @return The exception.
+	 */
+	private JsonSyntaxException syntaxError(final String message) {
+		return new JsonSyntaxException(String.format("%s at character %s.", message, this.offset + this.position));
+	}
+
+	/**
+	 * The token types.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	public enum Token {
+		/** The start of an array. */
+		BEGIN_ARRAY,
+		/** The start of an object. */
+		BEGIN_OBJECT,
+		/** A boolean. */
+		BOOLEAN,
+		/** The end of an array. */
+		END_ARRAY,
+		/** The end of the document. */
+		END_DOCUMENT,
+		/** The end of an object. */
+		END_OBJECT,
+		/** A member name. */
+		NAME,
+		/** Null. */
+		NULL,
+		/** A number. */
+		NUMBER,
+		/** A string. */
+		STRING;
+	}
+
+	/**
+	 * The scopes the reader can be in.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private enum Scope {
+		/** A name was read, the value is next. */
+		DANGLING_NAME,
+		/** An array without elements read so far. */
+		EMPTY_ARRAY,
+		/** The document, before its value. */
+		EMPTY_DOCUMENT,
+		/** An object without members read so far. */
+		EMPTY_OBJECT,
+		/** An array with elements read. */
+		NONEMPTY_ARRAY,
+		/** The document, after its value. */
+		NONEMPTY_DOCUMENT,
+		/** An object with members read. */
+		NONEMPTY_OBJECT;
+	}
+}
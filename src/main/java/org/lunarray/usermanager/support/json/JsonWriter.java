@@ -0,0 +1,272 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.json;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedList;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+
+/**
+ * Writes JSON directly to a writer, without building a document first.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class JsonWriter
+		implements Flushable {
+
+	/** The hexadecimal digits. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** Whether a name was just written. */
+	private transient boolean afterName;
+	/** Per open container, whether it is still empty. */
+	private final transient LinkedList<Boolean> empty = new LinkedList<Boolean>();
+	/** The writer. */
+	private final transient Writer writer;
+
+	/**
+	 * Constructs the JSON writer.
+	 * 
+	 * @param writer
+	 *            The writer to write to. May not be null.
+	 */
+	public JsonWriter(final Writer writer) {
+		Validate.notNull(writer, "Writer may not be null.");
+		this.writer = writer;
+	}
+
+	/**
+	 * Opens an array.
+	 * 
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter beginArray() throws IOException {
+		this.separate();
+		this.writer.write('[');
+		this.empty.push(Boolean.TRUE);
+		return this;
+	}
+
+	/**
+	 * Opens an object.
+	 * 
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter beginObject() throws IOException {
+		this.separate();
+		this.writer.write('{');
+		this.empty.push(Boolean.TRUE);
+		return this;
+	}
+
+	/**
+	 * Closes an array.
+	 * 
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter endArray() throws IOException {
+		this.empty.pop();
+		this.writer.write(']');
+		return this;
+	}
+
+	/**
+	 * Closes an object.
+	 * 
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter endObject() throws IOException {
+		this.empty.pop();
+		this.writer.write('}');
+		return this;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() throws IOException {
+		this.writer.flush();
+	}
+
+	/**
+	 * Writes a member name.
+	 * 
+	 * @param name
+	 *            The name. May not be null.
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter name(final String name) throws IOException {
+		Validate.notNull(name, "Name may not be null.");
+		this.separate();
+		this.writeString(name);
+		this.writer.write(':');
+		this.afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes a null value.
+	 * 
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter nullValue() throws IOException {
+		this.separate();
+		this.writer.write("null");
+		return this;
+	}
+
+	/**
+	 * Writes a member with a string value.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value, may be null.
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter property(final String name, final String value) throws IOException {
+		return this.name(name).value(value);
+	}
+
+	/**
+	 * Writes a boolean value.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter value(final boolean value) throws IOException {
+		this.separate();
+		this.writer.write(String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Writes a number value.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter value(final long value) throws IOException {
+		this.separate();
+		this.writer.write(String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Writes a string value.
+	 * 
+	 * @param value
+	 *            The value, may be null.
+	 * @return This writer.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	public JsonWriter value(final String value) throws IOException {
+		if (CheckUtil.isNull(value)) {
+			return this.nullValue();
+		}
+		this.separate();
+		this.writeString(value);
+		return this;
+	}
+
+	/**
+	 * Writes a separator if needed.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private void separate() throws IOException {
+		if (this.afterName) {
+			this.afterName = false;
+		} else if (!this.empty.isEmpty()) {
+			if (this.empty.peek().booleanValue()) {
+				this.empty.set(0, Boolean.FALSE);
+			} else {
+				this.writer.write(',');
+			}
+		}
+	}
+
+	/**
+	 * Writes an escaped string.
+	 * 
+	 * @param value
+	 *            The string.
+	 * @throws IOException
+	 *             Thrown if the writer failed.
+	 */
+	private void writeString(final String value) throws IOException {
+		this.writer.write('"');
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				this.writer.write("\\\"");
+				break;
+			case '\\':
+				this.writer.write("\\\\");
+				break;
+			case '\n':
+				this.writer.write("\\n");
+				break;
+			case '\r':
+				this.writer.write("\\r");
+				break;
+			case '\t':
+				this.writer.write("\\t");
+				break;
+			default:
+				if ((c < 0x20) || (c == '<') || (c == '\u2028') || (c == '\u2029')) {
+					this.writer.write("\\u");
+					this.writer.write(JsonWriter.HEX[(c >> 12) & 0xf]);
+					this.writer.write(JsonWriter.HEX[(c >> 8) & 0xf]);
+					this.writer.write(JsonWriter.HEX[(c >> 4) & 0xf]);
+					this.writer.write(JsonWriter.HEX[c & 0xf]);
+				} else {
+					this.writer.write(c);
+				}
+				break;
+			}
+		}
+		this.writer.write('"');
+	}
+}
@@ -0,0 +1,110 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+/**
+ * A verified access token.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class AccessToken
+		implements Serializable {
+
+	/** The serial id. */
+	private static final long serialVersionUID = -6518820127563290446L;
+	/** The expiry time in milliseconds. */
+	private final long expires;
+	/** The principal. */
+	private final String principal;
+	/** The roles. */
+	private final Set<String> roles;
+
+	/**
+	 * Constructs the token.
+	 * 
+	 * @param principal
+	 *            The principal. May not be null.
+	 * @param roles
+	 *            The roles. May not be null.
+	 * @param expires
+	 *            The expiry time in milliseconds.
+	 */
+	public AccessToken(final String principal, final Collection<String> roles, final long expires) {
+		Validate.notNull(principal, "Principal may not be null.");
+		Validate.notNull(roles, "Roles may not be null.");
+		this.principal = principal;
+		this.roles = Collections.unmodifiableSet(new TreeSet<String>(roles));
+		this.expires = expires;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * Gets the value for the expires field.
+	 * 
+	 * @return The value for the expires field.
+	 */
+	public long getExpires() {
+		return this.expires;
+	}
+
+	/**
+	 * Gets the value for the principal field.
+	 * 
+	 * @return The value for the principal field.
+	 */
+	public String getPrincipal() {
+		return this.principal;
+	}
+
+	/**
+	 * Gets the value for the roles field.
+	 * 
+	 * @return The value for the roles field.
+	 */
+	public Set<String> getRoles() {
+		return this.roles;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+}
@@ -0,0 +1,210 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues and verifies HMAC signed access tokens. A token carries the
+ * principal, its roles and an expiry time, so it can be verified without
+ * consulting the directory or a session. Nodes sharing the same secret accept
+ * each others tokens.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class AccessTokenCodec {
+
+	/** The signature algorithm. */
+	private static final String ALGORITHM = "HmacSHA256";
+	/** The character set. */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenCodec.class);
+	/** The field separator. */
+	private static final char SEPARATOR = '\n';
+	/** The signing key. */
+	private transient SecretKeySpec key;
+	/** The base64 encoded secret. */
+	private transient String secret;
+	/** The token lifetime in seconds. */
+	private transient long timeToLive = 3600;
+
+	/**
+	 * Default constructor.
+	 */
+	public AccessTokenCodec() {
+		// Default constructor.
+	}
+
+	/**
+	 * Verifies and decodes a token.
+	 * 
+	 * @param token
+	 *            The token.
+	 * @return The access token, or null if the token is invalid or expired.
+	 */
+	public AccessToken decode(final String token) {
+		if (CheckUtil.isNull(token)) {
+			return null;
+		}
+		final int dot = token.indexOf('.');
+		if (dot < 0) {
+			return null;
+		}
+		final byte[] payload = Base64.decodeBase64(token.substring(0, dot));
+		final byte[] signature = Base64.decodeBase64(token.substring(dot + 1));
+		if (!MessageDigest.isEqual(signature, this.sign(payload))) {
+			AccessTokenCodec.LOGGER.debug("Rejected token with invalid signature.");
+			return null;
+		}
+		final String[] fields = StringUtils.splitPreserveAllTokens(new String(payload, AccessTokenCodec.CHARSET),
+				AccessTokenCodec.SEPARATOR);
+		if (fields.length < 2) {
+			return null;
+		}
+		final long expires;
+		try {
+			expires = Long.parseLong(fields[1]);
+		} catch (final NumberFormatException e) {
+			AccessTokenCodec.LOGGER.debug("Rejected malformed token.", e);
+			return null;
+		}
+		if (expires < System.currentTimeMillis()) {
+			AccessTokenCodec.LOGGER.debug("Rejected expired token for: {}", fields[0]);
+			return null;
+		}
+		final List<String> roles = new LinkedList<String>();
+		for (int i = 2; i < fields.length; i++) {
+			roles.add(fields[i]);
+		}
+		return new AccessToken(fields[0], roles, expires);
+	}
+
+	/**
+	 * Issues a token.
+	 * 
+	 * @param principal
+	 *            The principal. May not be null.
+	 * @param roles
+	 *            The roles. May not be null.
+	 * @return The signed token.
+	 */
+	public String encode(final String principal, final Collection<String> roles) {
+		Validate.notNull(principal, "Principal may not be null.");
+		Validate.notNull(roles, "Roles may not be null.");
+		Validate.isTrue(this.isEncodable(principal), "Principal may not contain a line break.");
+		final StringBuilder builder = new StringBuilder(principal);
+		builder.append(AccessTokenCodec.SEPARATOR).append(System.currentTimeMillis() + (this.timeToLive * 1000));
+		for (final String role : new TreeSet<String>(roles)) {
+			Validate.isTrue(role.indexOf(AccessTokenCodec.SEPARATOR) < 0, "Role may not contain a line break.");
+			builder.append(AccessTokenCodec.SEPARATOR).append(role);
+		}
+		final byte[] payload = builder.toString().getBytes(AccessTokenCodec.CHARSET);
+		return new StringBuilder(Base64.encodeBase64URLSafeString(payload)).append('.')
+				.append(Base64.encodeBase64URLSafeString(this.sign(payload))).toString();
+	}
+
+	/**
+	 * Gets the value for the timeToLive field.
+	 * 
+	 * @return The value for the timeToLive field.
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+
+	/**
+	 * Initializes the signing key.
+	 */
+	public void init() {
+		final byte[] keyBytes;
+		if (StringUtils.isBlank(this.secret)) {
+			AccessTokenCodec.LOGGER.warn("No token secret configured, tokens are only valid on this node until restart.");
+			keyBytes = new byte[32];
+			new SecureRandom().nextBytes(keyBytes);
+		} else {
+			keyBytes = Base64.decodeBase64(this.secret);
+		}
+		this.key = new SecretKeySpec(keyBytes, AccessTokenCodec.ALGORITHM);
+	}
+
+	/**
+	 * Tests whether a principal can be carried in a token.
+	 * 
+	 * @param principal
+	 *            The principal. May not be null.
+	 * @return True if the principal contains no line break.
+	 */
+	public boolean isEncodable(final String principal) {
+		return principal.indexOf(AccessTokenCodec.SEPARATOR) < 0;
+	}
+
+	/**
+	 * Sets a new value for the secret field.
+	 * 
+	 * @param secret
+	 *            The new value for the secret field.
+	 */
+	public void setSecret(final String secret) {
+		this.secret = secret;
+	}
+
+	/**
+	 * Sets a new value for the timeToLive field.
+	 * 
+	 * @param timeToLive
+	 *            The new value for the timeToLive field.
+	 */
+	public void setTimeToLive(final long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Signs a payload.
+	 * 
+	 * @param payload
+	 *            The payload.
+	 * @return The signature.
+	 */
+	private byte[] sign(final byte[] payload) {
+		try {
+			final Mac mac = Mac.getInstance(AccessTokenCodec.ALGORITHM);
+			mac.init(this.key);
+			return mac.doFinal(payload);
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException("Could not sign token.", e);
+		}
+	}
+}
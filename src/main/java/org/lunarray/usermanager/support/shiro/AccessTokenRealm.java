@@ -0,0 +1,115 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.BearerToken;
+import org.apache.shiro.authc.IncorrectCredentialsException;
+import org.apache.shiro.authc.SimpleAuthenticationInfo;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.realm.AuthorizingRealm;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Realm authenticating signed access tokens. Authorization is derived from
+ * the roles carried in the token, so neither step consults the directory.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class AccessTokenRealm
+		extends AuthorizingRealm {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenRealm.class);
+	/** The token codec. */
+	private transient AccessTokenCodec accessTokenCodec;
+	/** A user permission resolver. */
+	private transient UserPermissionResolver userPermissionResolver;
+
+	/**
+	 * Default constructor.
+	 */
+	public AccessTokenRealm() {
+		super();
+		this.setAuthenticationTokenClass(BearerToken.class);
+		this.setAuthorizationCachingEnabled(false);
+	}
+
+	/**
+	 * Sets a new value for the accessTokenCodec field.
+	 * 
+	 * @param accessTokenCodec
+	 *            The new value for the accessTokenCodec field.
+	 */
+	public void setAccessTokenCodec(final AccessTokenCodec accessTokenCodec) {
+		this.accessTokenCodec = accessTokenCodec;
+	}
+
+	/**
+	 * Sets a new value for the userPermissionResolver field.
+	 * 
+	 * @param userPermissionResolver
+	 *            The new value for the userPermissionResolver field.
+	 */
+	public void setUserPermissionResolver(final UserPermissionResolver userPermissionResolver) {
+		this.userPermissionResolver = userPermissionResolver;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected AuthenticationInfo doGetAuthenticationInfo(final AuthenticationToken token) {
+		final String credentials = ((BearerToken) token).getToken();
+		final AccessToken accessToken = this.accessTokenCodec.decode(credentials);
+		if (CheckUtil.isNull(accessToken)) {
+			throw new IncorrectCredentialsException("Invalid or expired token.");
+		}
+		AccessTokenRealm.LOGGER.debug("Authenticated token for principal: {}", accessToken.getPrincipal());
+		final PrincipalCollection principals = new SimplePrincipalCollection(Arrays.asList(accessToken.getPrincipal(), accessToken),
+				this.getName());
+		return new SimpleAuthenticationInfo(principals, credentials);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected AuthorizationInfo doGetAuthorizationInfo(final PrincipalCollection principals) {
+		final AccessToken accessToken = principals.oneByType(AccessToken.class);
+		if (CheckUtil.isNull(accessToken) || principals.fromRealm(this.getName()).isEmpty()) {
+			return null;
+		}
+		final SimpleAuthorizationInfo auth = new SimpleAuthorizationInfo(new HashSet<String>(accessToken.getRoles()));
+		if (!CheckUtil.isNull(this.getRolePermissionResolver())) {
+			for (final String role : accessToken.getRoles()) {
+				auth.addObjectPermissions(this.getRolePermissionResolver().resolvePermissionsInRole(role));
+			}
+		}
+		if (!CheckUtil.isNull(this.userPermissionResolver)) {
+			auth.addObjectPermissions(this.userPermissionResolver.resolvePermissions(accessToken.getPrincipal(), auth.getRoles()));
+		}
+		AccessTokenRealm.LOGGER.debug("Resolved authorization info for principal {}: {}", accessToken.getPrincipal(), auth);
+		return auth;
+	}
+}
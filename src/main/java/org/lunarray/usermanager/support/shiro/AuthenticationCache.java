@@ -0,0 +1,504 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.lunarray.common.check.CheckUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers recent authentication outcomes. Repeated failures for a principal
+ * or a source are rejected locally with an exponentially growing back off,
+ * and recent successes are remembered as salted keyed hashes for a short
+ * while. Failures only count within a sliding window, so a busy shared source
+ * does not build up a back off from occasional typos. Principals are keyed
+ * ignoring case and surrounding white space, as the directory matches them,
+ * so varying the spelling of a name does not escape its back off. Both tables
+ * are bounded and evict the least recently used entry.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class AuthenticationCache {
+
+	/** The hash algorithm. */
+	private static final String ALGORITHM = "HmacSHA256";
+	/** The character set. */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticationCache.class);
+	/** The salt length. */
+	private static final int SALT_LENGTH = 16;
+	/** The base back off delay in milliseconds. */
+	private transient long baseDelay = 1000;
+	/** The time failures are counted for in milliseconds. */
+	private transient long failureWindow = 15 * 60 * 1000;
+	/** The failures per key. */
+	private final transient Map<String, Failure> failures;
+	/** The maximum back off delay in milliseconds. */
+	private transient long maxDelay = 15 * 60 * 1000;
+	/** The failures allowed per principal before backing off. */
+	private transient int principalThreshold = 5;
+	/** The random source. */
+	private final transient SecureRandom random = new SecureRandom();
+	/** The secret key. */
+	private final transient SecretKeySpec secret;
+	/** The failures allowed per source before backing off. */
+	private transient int sourceThreshold = 50;
+	/** The successes per principal. */
+	private final transient Map<String, Success> successes;
+	/** The time a success is remembered in milliseconds. */
+	private transient long successTtl = 60 * 1000;
+
+	/**
+	 * Default constructor.
+	 */
+	public AuthenticationCache() {
+		this(10000);
+	}
+
+	/**
+	 * Constructs the cache.
+	 * 
+	 * @param maxEntries
+	 *            The maximum number of entries per table.
+	 */
+	public AuthenticationCache(final int maxEntries) {
+		this.failures = new BoundedMap<Failure>(maxEntries);
+		this.successes = new BoundedMap<Success>(maxEntries);
+		final byte[] key = new byte[32];
+		this.random.nextBytes(key);
+		this.secret = new SecretKeySpec(key, AuthenticationCache.ALGORITHM);
+	}
+
+	/**
+	 * Forgets a remembered success, for example after a password change.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 */
+	public void invalidate(final String principal) {
+		synchronized (this.successes) {
+			this.successes.remove(AuthenticationCache.normalize(principal));
+		}
+	}
+
+	/**
+	 * Tests whether a principal or source is currently backing off.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @param source
+	 *            The source, may be null.
+	 * @return True if the attempt should be rejected.
+	 */
+	public boolean isBlocked(final String principal, final String source) {
+		final long now = System.currentTimeMillis();
+		synchronized (this.failures) {
+			return this.isBlocked(AuthenticationCache.toPrincipalKey(principal), now)
+					|| (!CheckUtil.isNull(source) && this.isBlocked(AuthenticationCache.toSourceKey(source), now));
+		}
+	}
+
+	/**
+	 * Tests whether the credentials match a recent success.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @param credentials
+	 *            The credentials.
+	 * @return True if the credentials recently authenticated the principal.
+	 */
+	public boolean isRemembered(final String principal, final Object credentials) {
+		final String key = AuthenticationCache.normalize(principal);
+		final Success success;
+		synchronized (this.successes) {
+			success = this.successes.get(key);
+			if (CheckUtil.isNull(success)) {
+				return false;
+			}
+			if (success.expires < System.currentTimeMillis()) {
+				this.successes.remove(key);
+				return false;
+			}
+		}
+		return MessageDigest.isEqual(success.hash, this.hash(success.salt, key, credentials));
+	}
+
+	/**
+	 * Records a failed attempt.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @param source
+	 *            The source, may be null.
+	 */
+	public void recordFailure(final String principal, final String source) {
+		final long now = System.currentTimeMillis();
+		synchronized (this.failures) {
+			this.recordFailure(AuthenticationCache.toPrincipalKey(principal), this.principalThreshold, now);
+			if (!CheckUtil.isNull(source)) {
+				this.recordFailure(AuthenticationCache.toSourceKey(source), this.sourceThreshold, now);
+			}
+		}
+		synchronized (this.successes) {
+			this.successes.remove(AuthenticationCache.normalize(principal));
+		}
+	}
+
+	/**
+	 * Records a successful attempt.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @param credentials
+	 *            The credentials.
+	 */
+	public void recordSuccess(final String principal, final Object credentials) {
+		final String key = AuthenticationCache.normalize(principal);
+		synchronized (this.failures) {
+			this.failures.remove(AuthenticationCache.toPrincipalKey(principal));
+		}
+		if (this.successTtl > 0) {
+			final byte[] salt = new byte[AuthenticationCache.SALT_LENGTH];
+			this.random.nextBytes(salt);
+			final Success success = new Success(salt, this.hash(salt, key, credentials), System.currentTimeMillis()
+					+ this.successTtl);
+			synchronized (this.successes) {
+				this.successes.put(key, success);
+			}
+		}
+	}
+
+	/**
+	 * Sets a new value for the baseDelay field.
+	 * 
+	 * @param baseDelay
+	 *            The new value for the baseDelay field.
+	 */
+	public void setBaseDelay(final long baseDelay) {
+		this.baseDelay = baseDelay;
+	}
+
+	/**
+	 * Sets a new value for the failureWindow field.
+	 * 
+	 * @param failureWindow
+	 *            The new value for the failureWindow field.
+	 */
+	public void setFailureWindow(final long failureWindow) {
+		this.failureWindow = failureWindow;
+	}
+
+	/**
+	 * Sets a new value for the maxDelay field.
+	 * 
+	 * @param maxDelay
+	 *            The new value for the maxDelay field.
+	 */
+	public void setMaxDelay(final long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Sets a new value for the principalThreshold field.
+	 * 
+	 * @param principalThreshold
+	 *            The new value for the principalThreshold field.
+	 */
+	public void setPrincipalThreshold(final int principalThreshold) {
+		this.principalThreshold = principalThreshold;
+	}
+
+	/**
+	 * Sets a new value for the sourceThreshold field.
+	 * 
+	 * @param sourceThreshold
+	 *            The new value for the sourceThreshold field.
+	 */
+	public void setSourceThreshold(final int sourceThreshold) {
+		this.sourceThreshold = sourceThreshold;
+	}
+
+	/**
+	 * Sets a new value for the successTtl field.
+	 * 
+	 * @param successTtl
+	 *            The new value for the successTtl field.
+	 */
+	public void setSuccessTtl(final long successTtl) {
+		this.successTtl = successTtl;
+	}
+
+	/**
+	 * Normalizes a principal, so that spellings the directory considers equal,
+	 * differing in case or surrounding white space, share their entries.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @return The normalized principal.
+	 */
+	private static String normalize(final String principal) {
+		return principal.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Converts credentials to bytes.
+	 * 
+	 * @param credentials
+	 *            The credentials.
+	 * @return The bytes.
+	 */
+	private static byte[] toBytes(final Object credentials) {
+		if (credentials instanceof byte[]) {
+			return (byte[]) credentials;
+		}
+		final CharBuffer chars;
+		if (credentials instanceof char[]) {
+			chars = CharBuffer.wrap((char[]) credentials);
+		} else {
+			chars = CharBuffer.wrap(String.valueOf(credentials));
+		}
+		final ByteBuffer buffer = AuthenticationCache.CHARSET.encode(chars);
+		final byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+	/**
+	 * Creates the failure key for a principal.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @return The key.
+	 */
+	private static String toPrincipalKey(final String principal) {
+		return "principal:".concat(AuthenticationCache.normalize(principal));
+	}
+
+	/**
+	 * Creates the failure key for a source.
+	 * 
+	 * @param source
+	 *            The source.
+	 * @return The key.
+	 */
+	private static String toSourceKey(final String source) {
+		return "source:".concat(source);
+	}
+
+	/**
+	 * Hashes credentials.
+	 * 
+	 * @param salt
+	 *            The salt.
+	 * @param principal
+	 *            The principal.
+	 * @param credentials
+	 *            The credentials.
+	 * @return The keyed hash.
+	 */
+	private byte[] hash(final byte[] salt, final String principal, final Object credentials) {
+		try {
+			final Mac mac = Mac.getInstance(AuthenticationCache.ALGORITHM);
+			mac.init(this.secret);
+			mac.update(salt);
+			mac.update(principal.getBytes(AuthenticationCache.CHARSET));
+			mac.update((byte) 0);
+			return mac.doFinal(AuthenticationCache.toBytes(credentials));
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException("Could not hash credentials.", e);
+		}
+	}
+
+	/**
+	 * Tests whether a key is backing off.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param now
+	 *            The current time.
+	 * @return True if the key is backing off.
+	 */
+	private boolean isBlocked(final String key, final long now) {
+		final Failure failure = this.failures.get(key);
+		if (CheckUtil.isNull(failure)) {
+			return false;
+		}
+		if (this.isExpired(failure, now)) {
+			this.failures.remove(key);
+			return false;
+		}
+		return failure.blockedUntil > now;
+	}
+
+	/**
+	 * Tests whether failures are no longer counted. That is the case once the
+	 * window has passed since the last failure or the end of the back off,
+	 * whichever is later.
+	 * 
+	 * @param failure
+	 *            The failures.
+	 * @param now
+	 *            The current time.
+	 * @return True if the failures have expired.
+	 */
+	private boolean isExpired(final Failure failure, final long now) {
+		return Math.max(failure.lastFailure, failure.blockedUntil) + this.failureWindow <= now;
+	}
+
+	/**
+	 * Records a failure for a key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param threshold
+	 *            The failures allowed before backing off.
+	 * @param now
+	 *            The current time.
+	 */
+	private void recordFailure(final String key, final int threshold, final long now) {
+		this.removeExpired(now);
+		Failure failure = this.failures.get(key);
+		if (CheckUtil.isNull(failure) || this.isExpired(failure, now)) {
+			failure = new Failure();
+			this.failures.put(key, failure);
+		}
+		failure.count++;
+		failure.lastFailure = now;
+		final int exceeded = failure.count - threshold;
+		if (exceeded >= 0) {
+			final long delay = this.baseDelay << Math.min(exceeded, 30);
+			failure.blockedUntil = now + Math.min(this.maxDelay, delay);
+			AuthenticationCache.LOGGER.warn("Backing off {} after {} failures.", key, failure.count);
+		}
+	}
+
+	/**
+	 * Removes expired failures, starting at the least recently used entry
+	 * and stopping at the first one that is still counted.
+	 * 
+	 * @param now
+	 *            The current time.
+	 */
+	private void removeExpired(final long now) {
+		final Iterator<Failure> iterator = this.failures.values().iterator();
+		while (iterator.hasNext() && this.isExpired(iterator.next(), now)) {
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * A map that evicts the least recently used entry.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 * @param <V>
+	 *            The value type.
+	 */
+	private static final class BoundedMap<V>
+			extends LinkedHashMap<String, V> {
+
+		/** Serial id. */
+		private static final long serialVersionUID = -4395126745016270183L;
+		/** The maximum size. */
+		private final int maxEntries;
+
+		/**
+		 * Constructs the map.
+		 * 
+		 * @param maxEntries
+		 *            The maximum size.
+		 */
+		public BoundedMap(final int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+			return this.size() > this.maxEntries;
+		}
+	}
+
+	/**
+	 * Failures of a key.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Failure {
+
+		/** The time until which attempts are rejected. */
+		private long blockedUntil;
+		/** The number of failures within the window. */
+		private int count;
+		/** The time of the last failure. */
+		private long lastFailure;
+
+		/**
+		 * Default constructor.
+		 */
+		public Failure() {
+			// Default constructor.
+		}
+	}
+
+	/**
+	 * A remembered success.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Success {
+
+		/** The expiry time. */
+		private final long expires;
+		/** The keyed hash. */
+		private final byte[] hash;
+		/** The salt. */
+		private final byte[] salt;
+
+		/**
+		 * Constructs the success.
+		 * 
+		 * @param salt
+		 *            The salt.
+		 * @param hash
+		 *            The keyed hash.
+		 * @param expires
+		 *            The expiry time.
+		 */
+		public Success(final byte[] salt, final byte[] hash, final long expires) {
+			this.salt = salt;
+			this.hash = hash;
+			this.expires = expires;
+		}
+	}
+}
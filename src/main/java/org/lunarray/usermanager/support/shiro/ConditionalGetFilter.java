@@ -0,0 +1,142 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.util.List;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.web.filter.PathMatchingFilter;
+import org.apache.shiro.web.util.WebUtils;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.change.ChangeTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers repeated GET requests with 304 Not Modified while none of the
+ * entity types a response depends on changed. The types are given as filter
+ * configuration, e.g. {@code conditionalGet[User, Role]}, defaulting to all
+ * tracked types. The entity tag also covers the session, principal, role
+ * permission version and full request URL, since responses differ per user,
+ * per permission and per query. Only map this on JSON endpoints, JSF pages
+ * carry a view state that a 304 would keep stale.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class ConditionalGetFilter
+		extends PathMatchingFilter {
+
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConditionalGetFilter.class);
+	/** The change tracker. */
+	private transient ChangeTracker changeTracker;
+	/** The role permission resolver. */
+	private transient PropertyRolePermissionResolver rolePermissionResolver;
+
+	/**
+	 * Default constructor.
+	 */
+	public ConditionalGetFilter() {
+		super();
+	}
+
+	/**
+	 * Sets a new value for the changeTracker field.
+	 * 
+	 * @param changeTracker
+	 *            The new value for the changeTracker field.
+	 */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Sets a new value for the rolePermissionResolver field.
+	 * 
+	 * @param rolePermissionResolver
+	 *            The new value for the rolePermissionResolver field.
+	 */
+	public void setRolePermissionResolver(final PropertyRolePermissionResolver rolePermissionResolver) {
+		this.rolePermissionResolver = rolePermissionResolver;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean onPreHandle(final ServletRequest request, final ServletResponse response, final Object mappedValue)
+			throws Exception {
+		final HttpServletRequest httpRequest = WebUtils.toHttp(request);
+		if (!"GET".equals(httpRequest.getMethod()) && !"HEAD".equals(httpRequest.getMethod())) {
+			return true;
+		}
+		final HttpServletResponse httpResponse = WebUtils.toHttp(response);
+		final StringBuilder state = new StringBuilder().append(this.changeTracker.getEpoch());
+		long lastModified = this.changeTracker.getEpoch();
+		for (final Class<?> type : this.resolveTypes(mappedValue)) {
+			state.append('|').append(type.getSimpleName()).append(':').append(this.changeTracker.getVersion(type));
+			lastModified = Math.max(lastModified, this.changeTracker.getLastModified(type));
+		}
+		final HttpSession session = httpRequest.getSession(false);
+		state.append('|').append(CheckUtil.isNull(session) ? "" : session.getId());
+		state.append('|').append(SecurityUtils.getSubject().getPrincipal());
+		state.append('|').append(this.rolePermissionResolver.getVersion());
+		state.append('|').append(httpRequest.getRequestURI()).append('?').append(httpRequest.getQueryString());
+		final String tag = new StringBuilder("W/\"").append(DigestUtils.md5Hex(state.toString())).append('"').toString();
+		final String match = httpRequest.getHeader("If-None-Match");
+		if (!CheckUtil.isNull(match) && (match.contains(tag) || "*".equals(match.trim()))) {
+			ConditionalGetFilter.LOGGER.debug("Not modified: {}", httpRequest.getRequestURI());
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			httpResponse.setHeader("ETag", tag);
+			return false;
+		}
+		httpResponse.setHeader("ETag", tag);
+		httpResponse.setDateHeader("Last-Modified", lastModified);
+		httpResponse.setHeader("Cache-Control", "private, no-cache");
+		return true;
+	}
+
+	/**
+	 * Resolves the configured types.
+	 * 
+	 * @param mappedValue
+	 *            The filter configuration.
+	 * @return The types.
+	 */
+	private List<Class<?>> resolveTypes(final Object mappedValue) {
+		final List<Class<?>> types = this.changeTracker.getTypes();
+		if (mappedValue instanceof String[]) {
+			types.clear();
+			for (final String name : (String[]) mappedValue) {
+				final Class<?> type = this.changeTracker.getType(StringUtils.trim(name));
+				if (CheckUtil.isNull(type)) {
+					ConditionalGetFilter.LOGGER.warn("Ignoring untracked type: {}", name);
+				} else {
+					types.add(type);
+				}
+			}
+		}
+		return types;
+	}
+}
@@ -17,28 +17,64 @@
  */
 package org.lunarray.usermanager.support.shiro;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 
 import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
 import org.apache.shiro.realm.ldap.LdapContextFactory;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.BackgroundWork;
+import org.lunarray.usermanager.support.ConfigurationListener;
 import org.lunarray.usermanager.support.ConfigurationValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * An LDAP context based on a dynamic query.
+ * An LDAP context based on a dynamic query. Every resolved provider url is
+ * treated as a separate tenant with its own bounded number of open contexts,
+ * so a slow directory exhausts only its own permits. Background work, such as
+ * index rebuilds and sweeps, may only hold a smaller share of those permits,
+ * which keeps the remainder available to interactive requests and binds.
+ * Pooled connections are partitioned by url by the JNDI pool itself.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
 public final class DynamicLdapContextFactory
 		extends JndiLdapContextFactory
-		implements LdapContextFactory {
+		implements LdapContextFactory, ConfigurationListener {
 
+	/** The logger. */
+	private static final Logger LOGGER = LoggerFactory.getLogger(DynamicLdapContextFactory.class);
+	/** The time to wait for a permit in milliseconds. */
+	private transient long acquireTimeout = 5000;
 	/** The dynamic LDAP url. */
 	private ConfigurationValue dynamicUrl;
+	/** The maximum number of open contexts per tenant. */
+	private transient int maxActive = 20;
+	/** The maximum number of open contexts per tenant for background work. */
+	private transient int maxBackground = 5;
+	/** The creation latency above which a warning is logged, in milliseconds. */
+	private transient long slowThreshold = 1000;
+	/** The tenants per url. */
+	private final transient ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<String, Tenant>();
 
 	/**
 	 * Default constructor.
@@ -47,6 +83,24 @@ public final class DynamicLdapContextFactory
 		// Default constructor.
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The url is resolved per context, so a changed url applies to the next
+	 * context. Tenants of urls no longer in use are dropped, contexts still
+	 * open return their permits to the dropped tenant.
+	 * </p>
+	 */
+	@Override
+	public void configurationChanged(final Set<String> keys) {
+		final String url = this.dynamicUrl.get(this.getUrl());
+		for (final Map.Entry<String, Tenant> entry : this.tenants.entrySet()) {
+			if (!entry.getKey().equals(url) && this.tenants.remove(entry.getKey(), entry.getValue())) {
+				DynamicLdapContextFactory.LOGGER.info("Dropped tenant {}: {}", entry.getKey(), entry.getValue().statistics);
+			}
+		}
+	}
+
 	/**
 	 * Gets the value for the dynamicUrl field.
 	 * 
@@ -56,6 +110,29 @@ public final class DynamicLdapContextFactory
 		return this.dynamicUrl;
 	}
 
+	/**
+	 * Gets the statistics per tenant.
+	 * 
+	 * @return The statistics keyed by provider url.
+	 */
+	public Map<String, TenantStatistics> getStatistics() {
+		final Map<String, TenantStatistics> statistics = new HashMap<String, TenantStatistics>();
+		for (final Map.Entry<String, Tenant> entry : this.tenants.entrySet()) {
+			statistics.put(entry.getKey(), entry.getValue().statistics);
+		}
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	/**
+	 * Sets a new value for the acquireTimeout field.
+	 * 
+	 * @param acquireTimeout
+	 *            The new value for the acquireTimeout field.
+	 */
+	public void setAcquireTimeout(final long acquireTimeout) {
+		this.acquireTimeout = acquireTimeout;
+	}
+
 	/**
 	 * Sets a new value for the dynamicUrl field.
 	 * 
@@ -66,11 +143,224 @@ public final class DynamicLdapContextFactory
 		this.dynamicUrl = dynamicUrl;
 	}
 
+	/**
+	 * Sets a new value for the maxActive field.
+	 * 
+	 * @param maxActive
+	 *            The new value for the maxActive field.
+	 */
+	public void setMaxActive(final int maxActive) {
+		this.maxActive = maxActive;
+	}
+
+	/**
+	 * Sets a new value for the maxBackground field.
+	 * 
+	 * @param maxBackground
+	 *            The new value for the maxBackground field.
+	 */
+	public void setMaxBackground(final int maxBackground) {
+		this.maxBackground = maxBackground;
+	}
+
+	/**
+	 * Sets a new value for the slowThreshold field.
+	 * 
+	 * @param slowThreshold
+	 *            The new value for the slowThreshold field.
+	 */
+	public void setSlowThreshold(final long slowThreshold) {
+		this.slowThreshold = slowThreshold;
+	}
+
 	/** {@inheritDoc} */
 	@SuppressWarnings("unchecked")
 	@Override
 	protected LdapContext createLdapContext(@SuppressWarnings("rawtypes") final Hashtable env) throws NamingException {
-		env.put(Context.PROVIDER_URL, this.dynamicUrl.get(env.get(Context.PROVIDER_URL).toString()));
-		return new InitialLdapContext(env, null);
+		final String url = this.dynamicUrl.get(env.get(Context.PROVIDER_URL).toString());
+		env.put(Context.PROVIDER_URL, url);
+		final Tenant tenant = this.getTenant(url);
+		final boolean background = BackgroundWork.isBackground();
+		this.acquire(tenant, url, background);
+		final long start = System.currentTimeMillis();
+		final LdapContext context;
+		try {
+			context = new InitialLdapContext(env, null);
+		} catch (final NamingException e) {
+			tenant.release(background);
+			tenant.statistics.recordFailure(System.currentTimeMillis() - start);
+			throw e;
+		} catch (final RuntimeException e) {
+			tenant.release(background);
+			tenant.statistics.recordFailure(System.currentTimeMillis() - start);
+			throw e;
+		}
+		final long latency = System.currentTimeMillis() - start;
+		tenant.statistics.recordCreated(latency, background);
+		if (latency > this.slowThreshold) {
+			DynamicLdapContextFactory.LOGGER.warn("Slow context creation for {} took {} ms: {}", url, latency, tenant.statistics);
+		}
+		return (LdapContext) Proxy.newProxyInstance(LdapContext.class.getClassLoader(), new Class<?>[] { LdapContext.class },
+				new ReleasingHandler(context, tenant, background));
+	}
+
+	/**
+	 * Acquires the permits for a context. Background work first acquires a
+	 * background permit, so it never holds more than its share of the
+	 * permits.
+	 * 
+	 * @param tenant
+	 *            The tenant.
+	 * @param url
+	 *            The url.
+	 * @param background
+	 *            Whether the context is opened for background work.
+	 * @throws ServiceUnavailableException
+	 *             Thrown if no permit became available in time.
+	 */
+	private void acquire(final Tenant tenant, final String url, final boolean background)
+			throws ServiceUnavailableException {
+		try {
+			if (background && !tenant.backgroundPermits.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS)) {
+				this.reject(tenant, url);
+			}
+			if (!tenant.permits.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS)) {
+				if (background) {
+					tenant.backgroundPermits.release();
+				}
+				this.reject(tenant, url);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted while waiting for a context.");
+		}
+	}
+
+	/**
+	 * Gets or creates the tenant for a url.
+	 * 
+	 * @param url
+	 *            The url.
+	 * @return The tenant.
+	 */
+	private Tenant getTenant(final String url) {
+		Tenant tenant = this.tenants.get(url);
+		if (CheckUtil.isNull(tenant)) {
+			final Tenant created = new Tenant(url, this.maxActive, this.maxBackground);
+			tenant = this.tenants.putIfAbsent(url, created);
+			if (CheckUtil.isNull(tenant)) {
+				tenant = created;
+			}
+		}
+		return tenant;
+	}
+
+	/**
+	 * Rejects a context for lack of permits.
+	 * 
+	 * @param tenant
+	 *            The tenant.
+	 * @param url
+	 *            The url.
+	 * @throws ServiceUnavailableException
+	 *             Always thrown.
+	 */
+	private void reject(final Tenant tenant, final String url) throws ServiceUnavailableException {
+		tenant.statistics.recordRejected();
+		DynamicLdapContextFactory.LOGGER.warn("No context available for {}: {}", url, tenant.statistics);
+		throw new ServiceUnavailableException("Too many open contexts for ".concat(url));
+	}
+
+	/**
+	 * Delegates to a context and returns its permit when it is closed.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class ReleasingHandler
+			implements InvocationHandler {
+
+		/** Whether the context was opened for background work. */
+		private final boolean background;
+		/** Whether the context was closed. */
+		private final AtomicBoolean closed = new AtomicBoolean();
+		/** The context. */
+		private final LdapContext context;
+		/** The tenant. */
+		private final Tenant tenant;
+
+		/**
+		 * Constructs the handler.
+		 * 
+		 * @param context
+		 *            The context.
+		 * @param tenant
+		 *            The tenant.
+		 * @param background
+		 *            Whether the context was opened for background work.
+		 */
+		public ReleasingHandler(final LdapContext context, final Tenant tenant, final boolean background) {
+			this.context = context;
+			this.tenant = tenant;
+			this.background = background;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			try {
+				return method.invoke(this.context, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				if ("close".equals(method.getName()) && this.closed.compareAndSet(false, true)) {
+					this.tenant.release(this.background);
+					this.tenant.statistics.recordClosed(this.background);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The resources of a single tenant.
+	 * 
+	 * @author Pal Hargitai (pal@lunarray.org)
+	 */
+	private static final class Tenant {
+
+		/** The open background context permits. */
+		private final Semaphore backgroundPermits;
+		/** The open context permits. */
+		private final Semaphore permits;
+		/** The statistics. */
+		private final TenantStatistics statistics;
+
+		/**
+		 * Constructs the tenant.
+		 * 
+		 * @param url
+		 *            The url.
+		 * @param maxActive
+		 *            The maximum number of open contexts.
+		 * @param maxBackground
+		 *            The maximum number of open contexts for background work.
+		 */
+		public Tenant(final String url, final int maxActive, final int maxBackground) {
+			this.permits = new Semaphore(maxActive, true);
+			this.backgroundPermits = new Semaphore(maxBackground, true);
+			this.statistics = new TenantStatistics(url);
+		}
+
+		/**
+		 * Releases the permits of a context.
+		 * 
+		 * @param background
+		 *            Whether the context was opened for background work.
+		 */
+		public void release(final boolean background) {
+			this.permits.release();
+			if (background) {
+				this.backgroundPermits.release();
+			}
+		}
 	}
 }
@@ -17,6 +17,9 @@
  */
 package org.lunarray.usermanager.support.shiro;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -47,7 +50,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Shiro LDAP Realm.
+ * Shiro LDAP Realm. Subtree names are parsed once per resolved subtree and
+ * authorization info is cached per tenant, so equal principals in different
+ * directories never share an entry.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
@@ -58,6 +63,8 @@ public final class DynamicLdapRealm
 	private static final Logger LOGGER = LoggerFactory.getLogger(DynamicLdapRealm.class);
 	/** Ldap context factory. */
 	private transient LdapContextFactory ldapContextFactory;
+	/** The parsed names per subtree. */
+	private final transient ConcurrentMap<String, LdapName> names = new ConcurrentHashMap<String, LdapName>();
 	/** Role id attribute. */
 	private transient String roleAttribute;
 	/** Role find criteria. */
@@ -233,13 +240,14 @@ public final class DynamicLdapRealm
 	protected AuthorizationInfo doGetAuthorizationInfo(final PrincipalCollection principals) {
 		Object principal = principals.getPrimaryPrincipal();
 		DynamicLdapRealm.LOGGER.debug("Getting authorization info for principals: {}", principals);
+		LdapContext ctx = null;
 		try {
 			if (principal instanceof String) {
 				principal = this.toLdapName((String) principal);
 			}
-			final LdapContext ctx = this.ldapContextFactory.getLdapContext(this.systemUser, this.systemPassword);
+			ctx = this.ldapContextFactory.getLdapContext(this.systemUser, this.systemPassword);
 			final Attributes attributes = new BasicAttributes(this.roleCriteria, principal);
-			final NamingEnumeration<SearchResult> results = ctx.search(new LdapName(this.roleSubtree.get()), attributes);
+			final NamingEnumeration<SearchResult> results = ctx.search(this.getSubtreeName(this.roleSubtree.get()), attributes);
 			final SimpleAuthorizationInfo auth = new SimpleAuthorizationInfo();
 			while (results.hasMore()) {
 				final SearchResult result = results.next();
@@ -250,14 +258,40 @@ public final class DynamicLdapRealm
 					auth.addObjectPermissions(this.getRolePermissionResolver().resolvePermissionsInRole(role));
 				}
 			}
-			if (CheckUtil.isNull(this.userPermissionResolver)) {
+			if (!CheckUtil.isNull(this.userPermissionResolver)) {
 				auth.addObjectPermissions(this.userPermissionResolver.resolvePermissions(principals.getPrimaryPrincipal(), auth.getRoles()));
 			}
 			DynamicLdapRealm.LOGGER.debug("Resolved authorization info for principal {}: {}", principal, auth);
 			return auth;
 		} catch (final NamingException e) {
 			throw new IllegalArgumentException("Could not search.", e);
+		} finally {
+			LdapUtils.closeContext(ctx);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected Object getAuthorizationCacheKey(final PrincipalCollection principals) {
+		return new StringBuilder(this.userSubtree.get()).append('|').append(principals.getPrimaryPrincipal()).toString();
+	}
+
+	/**
+	 * Gets the parsed name of a subtree.
+	 * 
+	 * @param subtree
+	 *            The subtree.
+	 * @return A copy of the parsed name.
+	 * @throws InvalidNameException
+	 *             Thrown if the name was invalid.
+	 */
+	private LdapName getSubtreeName(final String subtree) throws InvalidNameException {
+		LdapName name = this.names.get(subtree);
+		if (CheckUtil.isNull(name)) {
+			name = new LdapName(subtree);
+			this.names.putIfAbsent(subtree, name);
 		}
+		return (LdapName) name.clone();
 	}
 
 	/**
@@ -270,7 +304,7 @@ public final class DynamicLdapRealm
 	 *             Thrown if the name was invalid.
 	 */
 	private String toLdapName(final String principal) throws NamingException {
-		final LdapName name = new LdapName(this.userSubtree.get());
+		final LdapName name = this.getSubtreeName(this.userSubtree.get());
 		name.add(new Rdn(this.userAttribute, principal));
 		return name.toString();
 	}
@@ -17,8 +17,10 @@
  */
 package org.lunarray.usermanager.support.shiro;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
@@ -36,6 +38,8 @@ import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.DisabledAccountException;
+import org.apache.shiro.authc.ExcessiveAttemptsException;
+import org.apache.shiro.authc.HostAuthenticationToken;
 import org.apache.shiro.authc.IncorrectCredentialsException;
 import org.apache.shiro.authc.SimpleAuthenticationInfo;
 import org.apache.shiro.authz.AuthorizationInfo;
@@ -45,6 +49,7 @@ import org.apache.shiro.realm.ldap.LdapContextFactory;
 import org.apache.shiro.realm.ldap.LdapUtils;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.RoleMembershipIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,12 +63,16 @@ public final class LdapRealm
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(LdapRealm.class);
+	/** The authentication cache, if any. */
+	private transient AuthenticationCache authenticationCache;
 	/** Ldap context factory. */
 	private transient LdapContextFactory ldapContextFactory;
 	/** Role id attribute. */
 	private transient String roleAttribute;
 	/** Role find criteria. */
 	private transient String roleCriteria;
+	/** The role membership index, if nested roles are resolved. */
+	private transient RoleMembershipIndex roleMembershipIndex;
 	/** Role subtree. */
 	private transient List<Rdn> roleSubTree;
 	/** System password for role lookups. */
@@ -84,6 +93,16 @@ public final class LdapRealm
 		// Default constructor.
 	}
 
+	/**
+	 * Sets a new value for the authenticationCache field.
+	 * 
+	 * @param authenticationCache
+	 *            The new value for the authenticationCache field.
+	 */
+	public void setAuthenticationCache(final AuthenticationCache authenticationCache) {
+		this.authenticationCache = authenticationCache;
+	}
+
 	/**
 	 * Sets a new value for the ldapContextFactory field.
 	 * 
@@ -114,6 +133,16 @@ public final class LdapRealm
 		this.roleCriteria = roleCriteria;
 	}
 
+	/**
+	 * Sets a new value for the roleMembershipIndex field.
+	 * 
+	 * @param roleMembershipIndex
+	 *            The new value for the roleMembershipIndex field.
+	 */
+	public void setRoleMembershipIndex(final RoleMembershipIndex roleMembershipIndex) {
+		this.roleMembershipIndex = roleMembershipIndex;
+	}
+
 	/**
 	 * Sets a new value for the roleSubTree field.
 	 * 
@@ -187,6 +216,21 @@ public final class LdapRealm
 	protected AuthenticationInfo doGetAuthenticationInfo(final AuthenticationToken token) {
 		final Object credentials = token.getCredentials();
 		LdapRealm.LOGGER.debug("Authenticating token: {}", token);
+		final String principalKey = String.valueOf(token.getPrincipal());
+		String source = null;
+		if (token instanceof HostAuthenticationToken) {
+			source = ((HostAuthenticationToken) token).getHost();
+		}
+		if (!CheckUtil.isNull(this.authenticationCache)) {
+			if (this.authenticationCache.isBlocked(principalKey, source)) {
+				LdapRealm.LOGGER.warn("Rejecting attempt for {} from {}, backing off.", principalKey, source);
+				throw new ExcessiveAttemptsException("Too many failed attempts.");
+			}
+			if (this.authenticationCache.isRemembered(principalKey, credentials)) {
+				LdapRealm.LOGGER.debug("Authenticated token from cache: {}", token);
+				return new SimpleAuthenticationInfo(token.getPrincipal(), token.getCredentials(), this.getName());
+			}
+		}
 		LdapContext ctx = null;
 		SimpleAuthenticationInfo info = null;
 		try {
@@ -198,11 +242,17 @@ public final class LdapRealm
 			LdapRealm.LOGGER.debug("Authenticating principal: {}", principal);
 			ctx = this.ldapContextFactory.getLdapContext(principal, credentials);
 			info = new SimpleAuthenticationInfo(token.getPrincipal(), token.getCredentials(), this.getName());
+			if (!CheckUtil.isNull(this.authenticationCache)) {
+				this.authenticationCache.recordSuccess(principalKey, credentials);
+			}
 		} catch (final NoPermissionException e) {
 			LdapRealm.LOGGER.warn("No permissions.", e);
 			throw new DisabledAccountException(e);
 		} catch (final javax.naming.AuthenticationException e) {
 			LdapRealm.LOGGER.warn("Naming exception.", e);
+			if (!CheckUtil.isNull(this.authenticationCache)) {
+				this.authenticationCache.recordFailure(principalKey, source);
+			}
 			throw new IncorrectCredentialsException(e);
 		} catch (final NamingSecurityException e) {
 			LdapRealm.LOGGER.warn("Could not log in.", e);
@@ -223,23 +273,21 @@ public final class LdapRealm
 	/** {@inheritDoc} */
 	@Override
 	protected AuthorizationInfo doGetAuthorizationInfo(final PrincipalCollection principals) {
+		if (principals.fromRealm(this.getName()).isEmpty()) {
+			return null;
+		}
 		Object principal = principals.getPrimaryPrincipal();
 		LdapRealm.LOGGER.debug("Getting authorization info for principals: {}", principals);
 		try {
 			if (principal instanceof String) {
 				principal = this.toLdapName((String) principal);
 			}
-			final LdapContext ctx = this.ldapContextFactory.getLdapContext(this.systemUser, this.systemPassword);
-			final Attributes attributes = new BasicAttributes(this.roleCriteria, principal);
-			final NamingEnumeration<SearchResult> results = ctx.search(new LdapName(this.roleSubTree), attributes);
 			final SimpleAuthorizationInfo auth = new SimpleAuthorizationInfo();
-			while (results.hasMore()) {
-				final SearchResult result = results.next();
-				final String role = result.getAttributes().get(this.roleAttribute).get().toString();
-				auth.addRole(role);
-				LdapRealm.LOGGER.debug("Found role {} for principal {}", role, principal);
-				if (!CheckUtil.isNull(this.getRolePermissionResolver())) {
-					auth.addObjectPermissions(this.getRolePermissionResolver().resolvePermissionsInRole(role));
+			if (CheckUtil.isNull(this.roleMembershipIndex) || !this.roleMembershipIndex.isAvailable()) {
+				this.searchRoles(principal, auth);
+			} else {
+				for (final String role : this.roleMembershipIndex.getEffectiveRoles(principal.toString())) {
+					this.addRole(auth, role, principal);
 				}
 			}
 			if (!CheckUtil.isNull(this.userPermissionResolver)) {
@@ -252,6 +300,59 @@ public final class LdapRealm
 		}
 	}
 
+	/**
+	 * Adds a role and its permissions.
+	 * 
+	 * @param auth
+	 *            The authorization info.
+	 * @param role
+	 *            The role.
+	 * @param principal
+	 *            The principal.
+	 */
+	private void addRole(final SimpleAuthorizationInfo auth, final String role, final Object principal) {
+		auth.addRole(role);
+		LdapRealm.LOGGER.debug("Found role {} for principal {}", role, principal);
+		if (!CheckUtil.isNull(this.getRolePermissionResolver())) {
+			auth.addObjectPermissions(this.getRolePermissionResolver().resolvePermissionsInRole(role));
+		}
+	}
+
+	/**
+	 * Searches the roles containing the principal, directly or through
+	 * nested roles, so the result matches that of the membership index.
+	 * 
+	 * @param principal
+	 *            The principal.
+	 * @param auth
+	 *            The authorization info to add to.
+	 * @throws NamingException
+	 *             Thrown if the search failed.
+	 */
+	private void searchRoles(final Object principal, final SimpleAuthorizationInfo auth) throws NamingException {
+		LdapContext ctx = null;
+		try {
+			ctx = this.ldapContextFactory.getLdapContext(this.systemUser, this.systemPassword);
+			final Set<LdapName> visited = new HashSet<LdapName>();
+			final LinkedList<Object> pending = new LinkedList<Object>();
+			pending.add(principal);
+			while (!pending.isEmpty()) {
+				final Attributes attributes = new BasicAttributes(this.roleCriteria, pending.removeFirst());
+				final NamingEnumeration<SearchResult> results = ctx.search(new LdapName(this.roleSubTree), attributes);
+				while (results.hasMore()) {
+					final SearchResult result = results.next();
+					final String role = result.getNameInNamespace();
+					if (visited.add(new LdapName(role))) {
+						this.addRole(auth, result.getAttributes().get(this.roleAttribute).get().toString(), principal);
+						pending.add(role);
+					}
+				}
+			}
+		} finally {
+			LdapUtils.closeContext(ctx);
+		}
+	}
+
 	/**
 	 * Convert a principal to an ldap name.
 	 * 
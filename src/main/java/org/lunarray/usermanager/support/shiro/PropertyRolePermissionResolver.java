@@ -20,10 +20,9 @@ package org.lunarray.usermanager.support.shiro;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -32,26 +31,35 @@ import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.authz.permission.RolePermissionResolver;
 import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.support.ResourceChangeListener;
+import org.lunarray.usermanager.support.ResourceWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
 /**
- * Property file based role permission resolver.
+ * Property file based role permission resolver. The permissions per role are
+ * resolved once and swapped as a whole whenever the backing file changes.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
 public final class PropertyRolePermissionResolver
-		implements RolePermissionResolver {
+		implements RolePermissionResolver, ResourceChangeListener {
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(PropertyRolePermissionResolver.class);
-	/** The mapping. */
-	private transient Map<String, List<String>> mapping;
+	/** The resolved permissions per role. */
+	private transient volatile Map<String, Collection<Permission>> mapping = Collections.emptyMap();
 	/** The permission resolver. */
 	private transient PermissionResolver permissionResolver;
 	/** The role permission mapping. */
 	private transient Resource rolePermission;
+	/** Whether to watch the mapping for changes. */
+	private transient boolean watch = true;
+	/** The mapping watcher. */
+	private transient ResourceWatcher watcher;
+	/** The version of the mapping, incremented on every reload. */
+	private transient volatile long version;
 
 	/**
 	 * Default constructor.
@@ -60,54 +68,60 @@ public final class PropertyRolePermissionResolver
 		// Default constructor.
 	}
 
+	/**
+	 * Stops watching the mapping.
+	 */
+	public void destroy() {
+		if (!CheckUtil.isNull(this.watcher)) {
+			this.watcher.stop();
+			this.watcher = null;
+		}
+	}
+
+	/**
+	 * Gets the version of the mapping, which changes whenever the mapping is
+	 * reloaded.
+	 * 
+	 * @return The version.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
 	/**
 	 * Initializes the resolver.
 	 */
 	public void init() {
-		this.mapping = new HashMap<String, List<String>>();
-		final Properties properties = new Properties();
-		InputStream input = null;
-		try {
-			input = this.rolePermission.getInputStream();
-			PropertyRolePermissionResolver.LOGGER.debug("Reading: {}", this.rolePermission);
-			properties.load(input);
-		} catch (final IOException e) {
-			throw new IllegalArgumentException("Could not initialize.", e);
-		} finally {
-			if (!CheckUtil.isNull(input)) {
-				try {
-					input.close();
-				} catch (final IOException e) {
-					PropertyRolePermissionResolver.LOGGER.warn("Could not close stream.");
-				}
-			}
-		}
-		for (final String key : properties.stringPropertyNames()) {
-			final List<String> list = this.createList();
-			this.mapping.put(key.trim(), list);
-			final String valuesString = properties.getProperty(key);
-			final String[] values = valuesString.split(",");
-			PropertyRolePermissionResolver.LOGGER.debug("Read key: {}", key);
-			for (final String value : values) {
-				list.add(value);
-				PropertyRolePermissionResolver.LOGGER.debug("Read value for key {}: {}", key, value);
-			}
+		this.mapping = this.readMapping();
+		if (this.watch) {
+			this.watcher = new ResourceWatcher(this.rolePermission, this);
+			this.watcher.start();
 		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public Collection<Permission> resolvePermissionsInRole(final String roleString) {
-		final Set<Permission> result = new LinkedHashSet<Permission>();
-		if (this.mapping.containsKey(roleString)) {
-			for (final String permission : this.mapping.get(roleString)) {
-				result.add(this.permissionResolver.resolvePermission(permission));
-			}
+		Collection<Permission> result = this.mapping.get(roleString);
+		if (CheckUtil.isNull(result)) {
+			result = Collections.emptySet();
 		}
 		PropertyRolePermissionResolver.LOGGER.debug("Read permissions for role {}: {}", roleString, result);
 		return result;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void resourceChanged(final Resource resource) {
+		try {
+			this.mapping = this.readMapping();
+			this.version++;
+			PropertyRolePermissionResolver.LOGGER.info("Reloaded role permissions from: {}", resource);
+		} catch (final IllegalArgumentException e) {
+			PropertyRolePermissionResolver.LOGGER.warn("Could not reload role permissions, keeping previous mapping.", e);
+		}
+	}
+
 	/**
 	 * Sets a new value for the permissionResolver field.
 	 * 
@@ -129,11 +143,50 @@ public final class PropertyRolePermissionResolver
 	}
 
 	/**
-	 * Creates a list.
+	 * Sets a new value for the watch field.
+	 * 
+	 * @param watch
+	 *            The new value for the watch field.
+	 */
+	public void setWatch(final boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Reads the mapping and resolves all permissions.
 	 * 
-	 * @return The list.
+	 * @return The immutable mapping.
 	 */
-	private LinkedList<String> createList() {
-		return new LinkedList<String>();
+	private Map<String, Collection<Permission>> readMapping() {
+		final Properties properties = new Properties();
+		InputStream input = null;
+		try {
+			input = this.rolePermission.getInputStream();
+			PropertyRolePermissionResolver.LOGGER.debug("Reading: {}", this.rolePermission);
+			properties.load(input);
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Could not initialize.", e);
+		} finally {
+			if (!CheckUtil.isNull(input)) {
+				try {
+					input.close();
+				} catch (final IOException e) {
+					PropertyRolePermissionResolver.LOGGER.warn("Could not close stream.");
+				}
+			}
+		}
+		final Map<String, Collection<Permission>> result = new HashMap<String, Collection<Permission>>();
+		for (final String key : properties.stringPropertyNames()) {
+			final Set<Permission> permissions = new LinkedHashSet<Permission>();
+			final String valuesString = properties.getProperty(key);
+			final String[] values = valuesString.split(",");
+			PropertyRolePermissionResolver.LOGGER.debug("Read key: {}", key);
+			for (final String value : values) {
+				permissions.add(this.permissionResolver.resolvePermission(value));
+				PropertyRolePermissionResolver.LOGGER.debug("Read value for key {}: {}", key, value);
+			}
+			result.put(key.trim(), Collections.unmodifiableSet(permissions));
+		}
+		return Collections.unmodifiableMap(result);
 	}
 }
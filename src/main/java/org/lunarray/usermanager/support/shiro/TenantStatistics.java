@@ -0,0 +1,204 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.shiro;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * Connection statistics for a single directory.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class TenantStatistics {
+
+	/** The number of currently open contexts. */
+	private final transient AtomicLong active = new AtomicLong();
+	/** The number of currently open contexts for background work. */
+	private final transient AtomicLong background = new AtomicLong();
+	/** The number of created contexts. */
+	private final transient AtomicLong created = new AtomicLong();
+	/** The number of failed context creations. */
+	private final transient AtomicLong failures = new AtomicLong();
+	/** The maximum creation latency in milliseconds. */
+	private final transient AtomicLong maxLatency = new AtomicLong();
+	/** The number of rejected context creations. */
+	private final transient AtomicLong rejected = new AtomicLong();
+	/** The total creation latency in milliseconds. */
+	private final transient AtomicLong totalLatency = new AtomicLong();
+	/** The provider url. */
+	private final String url;
+
+	/**
+	 * Constructs the statistics.
+	 * 
+	 * @param url
+	 *            The provider url.
+	 */
+	public TenantStatistics(final String url) {
+		this.url = url;
+	}
+
+	/**
+	 * Gets the number of currently open contexts.
+	 * 
+	 * @return The number of open contexts.
+	 */
+	public long getActive() {
+		return this.active.get();
+	}
+
+	/**
+	 * Gets the average creation latency.
+	 * 
+	 * @return The average latency in milliseconds.
+	 */
+	public long getAverageLatency() {
+		final long count = this.created.get() + this.failures.get();
+		if (count == 0) {
+			return 0;
+		}
+		return this.totalLatency.get() / count;
+	}
+
+	/**
+	 * Gets the number of currently open contexts for background work.
+	 * 
+	 * @return The number of open background contexts.
+	 */
+	public long getBackground() {
+		return this.background.get();
+	}
+
+	/**
+	 * Gets the number of created contexts.
+	 * 
+	 * @return The number of created contexts.
+	 */
+	public long getCreated() {
+		return this.created.get();
+	}
+
+	/**
+	 * Gets the number of failed context creations.
+	 * 
+	 * @return The number of failures.
+	 */
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	/**
+	 * Gets the maximum creation latency.
+	 * 
+	 * @return The maximum latency in milliseconds.
+	 */
+	public long getMaxLatency() {
+		return this.maxLatency.get();
+	}
+
+	/**
+	 * Gets the number of rejected context creations.
+	 * 
+	 * @return The number of rejections.
+	 */
+	public long getRejected() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * Gets the value for the url field.
+	 * 
+	 * @return The value for the url field.
+	 */
+	public String getUrl() {
+		return this.url;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("url", this.url).append("active", this.getActive())
+				.append("background", this.getBackground()).append("created", this.getCreated()).append("failures", this.getFailures())
+				.append("rejected", this.getRejected()).append("averageLatency", this.getAverageLatency())
+				.append("maxLatency", this.getMaxLatency()).toString();
+	}
+
+	/**
+	 * Records a closed context.
+	 * 
+	 * @param backgroundWork
+	 *            Whether the context was opened for background work.
+	 */
+	void recordClosed(final boolean backgroundWork) {
+		this.active.decrementAndGet();
+		if (backgroundWork) {
+			this.background.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a created context.
+	 * 
+	 * @param latency
+	 *            The creation latency in milliseconds.
+	 * @param backgroundWork
+	 *            Whether the context was opened for background work.
+	 */
+	void recordCreated(final long latency, final boolean backgroundWork) {
+		this.created.incrementAndGet();
+		this.active.incrementAndGet();
+		if (backgroundWork) {
+			this.background.incrementAndGet();
+		}
+		this.recordLatency(latency);
+	}
+
+	/**
+	 * Records a failed context creation.
+	 * 
+	 * @param latency
+	 *            The creation latency in milliseconds.
+	 */
+	void recordFailure(final long latency) {
+		this.failures.incrementAndGet();
+		this.recordLatency(latency);
+	}
+
+	/**
+	 * Records a rejected context creation.
+	 */
+	void recordRejected() {
+		this.rejected.incrementAndGet();
+	}
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param latency
+	 *            The latency in milliseconds.
+	 */
+	private void recordLatency(final long latency) {
+		this.totalLatency.addAndGet(latency);
+		long current = this.maxLatency.get();
+		while ((latency > current) && !this.maxLatency.compareAndSet(current, latency)) {
+			current = this.maxLatency.get();
+		}
+	}
+}
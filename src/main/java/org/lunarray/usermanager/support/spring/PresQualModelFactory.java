@@ -17,6 +17,13 @@
  */
 package org.lunarray.usermanager.support.spring;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
 import org.lunarray.model.descriptor.builder.annotation.presentation.builder.PresQualBuilder;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.registry.Registry;
@@ -25,21 +32,34 @@ import org.lunarray.model.descriptor.resource.ResourceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.FactoryBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 /**
- * A factory for a presentation and qualifier model.
+ * A factory for a presentation and qualifier model. The model is built once
+ * and shared by everything it is injected into. By default it is built in the
+ * background while the rest of the context starts, and the context waits for
+ * the build once it has been refreshed. The build thus overlaps with startup,
+ * yet a model that can not be built still fails the startup rather than the
+ * first page.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
 public final class PresQualModelFactory
-		implements FactoryBean<Model<Object>> {
+		implements FactoryBean<Model<Object>>, ApplicationListener<ContextRefreshedEvent> {
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(PresQualModelFactory.class);
+	/** Whether to build in the background. */
+	private transient boolean background = true;
+	/** The build. */
+	private transient FutureTask<Model<Object>> build;
 	/** A registry. */
 	private transient Registry<String> registry;
 	/** A resource. */
 	private transient Resource<Class<? extends Object>> resource;
+	/** Whether the background build was awaited. */
+	private final transient AtomicBoolean awaited = new AtomicBoolean();
 
 	/**
 	 * Default constructor.
@@ -48,12 +68,27 @@ public final class PresQualModelFactory
 		// Default constructor.
 	}
 
-	/** {@inheritDoc} */
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws ResourceException
+	 */
 	@Override
 	public Model<Object> getObject() throws ResourceException {
-		final Model<Object> result = PresQualBuilder.createBuilder().extensions(this.registry).resources(this.resource).build();
-		PresQualModelFactory.LOGGER.debug("Created model: {}", result);
-		return result;
+		Validate.notNull(this.build, "Factory must be initialized.");
+		// Builds in this thread if the build has not started yet, waits for it otherwise.
+		this.build.run();
+		try {
+			return this.build.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building model.", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof ResourceException) {
+				throw (ResourceException) e.getCause();
+			}
+			throw new IllegalStateException("Could not build model.", e.getCause());
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -62,10 +97,60 @@ public final class PresQualModelFactory
 		return Model.class;
 	}
 
+	/**
+	 * Starts the build in the background, or performs it unless it runs in
+	 * the background.
+	 * 
+	 * @throws ResourceException
+	 *             Thrown if the model could not be built.
+	 */
+	public void init() throws ResourceException {
+		this.build = new FutureTask<Model<Object>>(new Callable<Model<Object>>() {
+			@Override
+			public Model<Object> call() throws ResourceException {
+				return PresQualModelFactory.this.buildModel();
+			}
+		});
+		if (this.background) {
+			final Thread thread = new Thread(this.build, "presentation-model");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			this.getObject();
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public boolean isSingleton() {
-		return false;
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Waits for the background build, so a failed build fails the refresh.
+	 * </p>
+	 */
+	@Override
+	public void onApplicationEvent(final ContextRefreshedEvent event) {
+		if (this.background && !CheckUtil.isNull(this.build) && this.awaited.compareAndSet(false, true)) {
+			try {
+				this.getObject();
+			} catch (final ResourceException e) {
+				throw new IllegalStateException("Could not build model.", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets a new value for the background field.
+	 * 
+	 * @param background
+	 *            The new value for the background field.
+	 */
+	public void setBackground(final boolean background) {
+		this.background = background;
 	}
 
 	/**
@@ -87,4 +172,19 @@ public final class PresQualModelFactory
 	public void setResource(final Resource<Class<? extends Object>> resource) {
 		this.resource = resource;
 	}
+
+	/**
+	 * Builds the model.
+	 * 
+	 * @return The model.
+	 * @throws ResourceException
+	 *             Thrown if the model could not be built.
+	 */
+	private Model<Object> buildModel() throws ResourceException {
+		final long start = System.currentTimeMillis();
+		final Model<Object> result = PresQualBuilder.createBuilder().extensions(this.registry).resources(this.resource).build();
+		PresQualModelFactory.LOGGER.info("Built model in {} ms.", System.currentTimeMillis() - start);
+		PresQualModelFactory.LOGGER.debug("Created model: {}", result);
+		return result;
+	}
 }
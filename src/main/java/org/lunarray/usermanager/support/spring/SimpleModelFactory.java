@@ -17,6 +17,7 @@
  */
 package org.lunarray.usermanager.support.spring;
 
+import org.apache.commons.lang.Validate;
 import org.lunarray.model.descriptor.builder.annotation.simple.SimpleBuilder;
 import org.lunarray.model.descriptor.model.Model;
 import org.lunarray.model.descriptor.registry.Registry;
@@ -27,7 +28,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.FactoryBean;
 
 /**
- * Builds a simple model.
+ * Builds a simple model. The model is built once, at startup, and shared
+ * by everything it is injected into.
  * 
  * @author Pal Hargitai (pal@lunarray.org)
  */
@@ -36,6 +38,8 @@ public final class SimpleModelFactory
 
 	/** The logger. */
 	private static final Logger LOGGER = LoggerFactory.getLogger(SimpleModelFactory.class);
+	/** The model. */
+	private transient Model<Object> model;
 	/** A registry. */
 	private transient Registry<String> registry;
 	/** A resource. */
@@ -48,16 +52,11 @@ public final class SimpleModelFactory
 		// Default constructor.
 	}
 
-	/**
-	 * {@inheritDoc}
-	 * 
-	 * @throws ResourceException
-	 */
+	/** {@inheritDoc} */
 	@Override
-	public Model<Object> getObject() throws ResourceException {
-		final Model<Object> result = SimpleBuilder.createBuilder().extensions(this.registry).resources(this.resource).build();
-		SimpleModelFactory.LOGGER.debug("Created model: {}", result);
-		return result;
+	public Model<Object> getObject() {
+		Validate.notNull(this.model, "Factory must be initialized.");
+		return this.model;
 	}
 
 	/** {@inheritDoc} */
@@ -66,10 +65,23 @@ public final class SimpleModelFactory
 		return Model.class;
 	}
 
+	/**
+	 * Builds the model.
+	 * 
+	 * @throws ResourceException
+	 *             Thrown if the model could not be built.
+	 */
+	public void init() throws ResourceException {
+		final long start = System.currentTimeMillis();
+		this.model = SimpleBuilder.createBuilder().extensions(this.registry).resources(this.resource).build();
+		SimpleModelFactory.LOGGER.info("Built model in {} ms.", System.currentTimeMillis() - start);
+		SimpleModelFactory.LOGGER.debug("Created model: {}", this.model);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public boolean isSingleton() {
-		return false;
+		return true;
 	}
 
 	/**
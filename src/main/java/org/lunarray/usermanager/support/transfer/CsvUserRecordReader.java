@@ -0,0 +1,212 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+import org.lunarray.usermanager.support.exceptions.RecordInvalidException;
+
+/**
+ * Reads users from comma separated values as described in RFC 4180. The
+ * first row names the columns, which are mapped user properties or roles,
+ * holding role identifiers separated by semicolons. Every value is mapped
+ * through the model, as if it were read from the directory.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class CsvUserRecordReader
+		implements UserRecordReader {
+
+	/** The roles column. */
+	public static final String ROLES = "roles";
+	/** The role separator. */
+	public static final char ROLE_SEPARATOR = ';';
+	/** The end of input. */
+	private static final int END = -1;
+	/** The attribute of every column, null for the roles column. */
+	private transient List<String> attributes;
+	/** The input. */
+	private final transient BufferedReader input;
+	/** The number of the last record. */
+	private transient long number;
+	/** The model support. */
+	private final transient ModelLdapSupport support;
+
+	/**
+	 * Constructs the reader.
+	 * 
+	 * @param input
+	 *            The input. May not be null.
+	 * @param support
+	 *            The model support. May not be null.
+	 */
+	public CsvUserRecordReader(final Reader input, final ModelLdapSupport support) {
+		Validate.notNull(input, "Input may not be null.");
+		Validate.notNull(support, "Model support may not be null.");
+		this.input = new BufferedReader(input);
+		this.support = support;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		this.input.close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UserRecord read() throws IOException, RecordInvalidException {
+		if (CheckUtil.isNull(this.attributes)) {
+			this.readHeader();
+		}
+		final List<String> row = this.readRow();
+		if (CheckUtil.isNull(row)) {
+			return null;
+		}
+		this.number++;
+		if (row.size() != this.attributes.size()) {
+			throw new RecordInvalidException(this.number, String.format("Expected %s values but got %s.",
+					this.attributes.size(), row.size()));
+		}
+		final Attributes values = new BasicAttributes(true);
+		List<String> roles = null;
+		for (int i = 0; i < row.size(); i++) {
+			final String value = row.get(i);
+			if (!StringUtils.isBlank(value)) {
+				final String attribute = this.attributes.get(i);
+				if (CheckUtil.isNull(attribute)) {
+					roles = new ArrayList<String>();
+					for (final String role : StringUtils.split(value, CsvUserRecordReader.ROLE_SEPARATOR)) {
+						if (!StringUtils.isBlank(role)) {
+							roles.add(role.trim());
+						}
+					}
+				} else {
+					values.put(attribute, value);
+				}
+			}
+		}
+		try {
+			final User user = this.support.map(User.class, values);
+			if (StringUtils.isBlank(user.getIdentifier())) {
+				throw new RecordInvalidException(this.number, "Record has no identifier.");
+			}
+			return new UserRecord(this.number, user, roles);
+		} catch (final ModelSupportException e) {
+			throw new RecordInvalidException(this.number, "Could not map record.", e);
+		}
+	}
+
+	/**
+	 * Reads the header and resolves the column attributes.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the header is missing or names an unknown column.
+	 */
+	private void readHeader() throws IOException {
+		final List<String> header = this.readRow();
+		if (CheckUtil.isNull(header)) {
+			throw new IOException("Header is missing.");
+		}
+		final List<String> resolved = new ArrayList<String>();
+		for (final String column : header) {
+			final String name = column.trim();
+			if (CsvUserRecordReader.ROLES.equals(name)) {
+				resolved.add(null);
+			} else if (this.support.isMapped(User.class, name)) {
+				resolved.add(this.support.resolveAttribute(User.class, name));
+			} else {
+				throw new IOException(String.format("Unknown column %s.", name));
+			}
+		}
+		this.attributes = resolved;
+	}
+
+	/**
+	 * Reads a row, skipping empty lines.
+	 * 
+	 * @return The values, or null at the end of the input.
+	 * @throws IOException
+	 *             Thrown if the input could not be read or a quoted value is
+	 *             not terminated.
+	 */
+	private List<String> readRow() throws IOException {
+		final List<String> row = new ArrayList<String>();
+		final StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		boolean empty = true;
+		int c = this.input.read();
+		while (c != CsvUserRecordReader.END) {
+			if (quoted) {
+				if (c == '"') {
+					this.input.mark(1);
+					if (this.input.read() == '"') {
+						value.append('"');
+					} else {
+						this.input.reset();
+						quoted = false;
+					}
+				} else {
+					value.append((char) c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+				empty = false;
+			} else if (c == ',') {
+				row.add(value.toString());
+				value.setLength(0);
+				empty = false;
+			} else if ((c == '\r') || (c == '\n')) {
+				if (c == '\r') {
+					this.input.mark(1);
+					if (this.input.read() != '\n') {
+						this.input.reset();
+					}
+				}
+				if (!empty || (value.length() > 0)) {
+					row.add(value.toString());
+					return row;
+				}
+			} else {
+				value.append((char) c);
+			}
+			c = this.input.read();
+		}
+		if (quoted) {
+			throw new IOException("Quoted value is not terminated.");
+		}
+		if (!empty || (value.length() > 0)) {
+			row.add(value.toString());
+			return row;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,148 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+
+/**
+ * Writes users as comma separated values, readable by the
+ * {@link CsvUserRecordReader}.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class CsvUserRecordWriter
+		implements UserRecordWriter {
+
+	/** The line separator. */
+	private static final String CRLF = "\r\n";
+	/** The attribute of every property column. */
+	private final transient List<String> attributes = new ArrayList<String>();
+	/** Whether the header was written. */
+	private transient boolean header;
+	/** The output. */
+	private final transient Writer output;
+	/** The property columns. */
+	private final transient List<String> properties;
+	/** Whether to write roles. */
+	private final transient boolean roles;
+	/** The model support. */
+	private final transient ModelLdapSupport support;
+
+	/**
+	 * Constructs the writer.
+	 * 
+	 * @param output
+	 *            The output. May not be null.
+	 * @param support
+	 *            The model support. May not be null.
+	 * @param roles
+	 *            Whether to write a roles column.
+	 */
+	public CsvUserRecordWriter(final Writer output, final ModelLdapSupport support, final boolean roles) {
+		Validate.notNull(output, "Output may not be null.");
+		Validate.notNull(support, "Model support may not be null.");
+		this.output = output;
+		this.support = support;
+		this.roles = roles;
+		this.properties = support.getMappedProperties(User.class);
+		for (final String property : this.properties) {
+			this.attributes.add(support.resolveAttribute(User.class, property));
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() throws IOException {
+		this.output.flush();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(final User user, final List<String> userRoles) throws IOException {
+		if (!this.header) {
+			final List<String> columns = new ArrayList<String>(this.properties);
+			if (this.roles) {
+				columns.add(CsvUserRecordReader.ROLES);
+			}
+			this.writeRow(columns);
+			this.header = true;
+		}
+		final List<String> row = new ArrayList<String>();
+		try {
+			final Attributes values = this.support.map(user);
+			for (final String attribute : this.attributes) {
+				final Attribute value = values.get(attribute);
+				row.add((CheckUtil.isNull(value) || (value.size() == 0)) ? "" : String.valueOf(value.get()));
+			}
+		} catch (final ModelSupportException e) {
+			throw new IOException("Could not map user.", e);
+		} catch (final NamingException e) {
+			throw new IOException("Could not read attribute.", e);
+		}
+		if (this.roles) {
+			row.add(CheckUtil.isNull(userRoles) ? "" : StringUtils.join(userRoles, CsvUserRecordReader.ROLE_SEPARATOR));
+		}
+		this.writeRow(row);
+	}
+
+	/**
+	 * Escapes a value, quoting it if needed.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The escaped value.
+	 */
+	private static String escape(final String value) {
+		if (StringUtils.containsNone(value, "\",\r\n") && (value.trim().length() == value.length())) {
+			return value;
+		}
+		return new StringBuilder().append('"').append(StringUtils.replace(value, "\"", "\"\"")).append('"').toString();
+	}
+
+	/**
+	 * Writes a row.
+	 * 
+	 * @param row
+	 *            The values.
+	 * @throws IOException
+	 *             Thrown if the output could not be written.
+	 */
+	private void writeRow(final List<String> row) throws IOException {
+		for (int i = 0; i < row.size(); i++) {
+			if (i > 0) {
+				this.output.write(',');
+			}
+			this.output.write(CsvUserRecordWriter.escape(row.get(i)));
+		}
+		this.output.write(CsvUserRecordWriter.CRLF);
+	}
+}
@@ -0,0 +1,225 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+import org.lunarray.usermanager.support.exceptions.RecordInvalidException;
+
+/**
+ * Reads users from LDIF content records as described in RFC 2849. The
+ * attributes of every entry are mapped through the model, as if the entry
+ * were read from the directory. Role memberships are read from memberOf
+ * values, holding role names or identifiers. Change records other than add
+ * and values given by URL are not supported.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class LdifUserRecordReader
+		implements UserRecordReader {
+
+	/** The role membership attribute. */
+	public static final String MEMBER_OF = "memberOf";
+	/** The change type attribute. */
+	private static final String CHANGE_TYPE = "changetype";
+	/** The distinguished name attribute. */
+	private static final String DN = "dn";
+	/** The object class attribute. */
+	private static final String OBJECT_CLASS = "objectClass";
+	/** The encoding of base 64 values. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** The version attribute. */
+	private static final String VERSION = "version";
+	/** The input. */
+	private final transient BufferedReader input;
+	/** The physical line following the last logical line, if read. */
+	private transient String lookahead;
+	/** Whether the lookahead was read. */
+	private transient boolean lookaheadRead;
+	/** The number of the last record. */
+	private transient long number;
+	/** The model support. */
+	private final transient ModelLdapSupport support;
+
+	/**
+	 * Constructs the reader.
+	 * 
+	 * @param input
+	 *            The input. May not be null.
+	 * @param support
+	 *            The model support. May not be null.
+	 */
+	public LdifUserRecordReader(final Reader input, final ModelLdapSupport support) {
+		Validate.notNull(input, "Input may not be null.");
+		Validate.notNull(support, "Model support may not be null.");
+		this.input = new BufferedReader(input);
+		this.support = support;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		this.input.close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UserRecord read() throws IOException, RecordInvalidException {
+		final List<String> lines = new ArrayList<String>();
+		String line = this.readLine();
+		while (!CheckUtil.isNull(line)) {
+			if (line.length() == 0) {
+				if (!lines.isEmpty()) {
+					break;
+				}
+			} else if (!line.startsWith("#")) {
+				final boolean version = (this.number == 0) && lines.isEmpty()
+						&& StringUtils.startsWithIgnoreCase(line, LdifUserRecordReader.VERSION + ":");
+				if (!version) {
+					lines.add(line);
+				}
+			}
+			line = this.readLine();
+		}
+		if (lines.isEmpty()) {
+			return null;
+		}
+		this.number++;
+		return this.toRecord(lines);
+	}
+
+	/**
+	 * Reads a logical line, joining folded lines.
+	 * 
+	 * @return The line, or null at the end of the input.
+	 * @throws IOException
+	 *             Thrown if the input could not be read.
+	 */
+	private String readLine() throws IOException {
+		final String line = this.lookaheadRead ? this.lookahead : this.input.readLine();
+		if (CheckUtil.isNull(line)) {
+			this.lookaheadRead = false;
+			return null;
+		}
+		final StringBuilder builder = new StringBuilder(line);
+		String next = this.input.readLine();
+		while (!CheckUtil.isNull(next) && next.startsWith(" ")) {
+			builder.append(next, 1, next.length());
+			next = this.input.readLine();
+		}
+		this.lookahead = next;
+		this.lookaheadRead = true;
+		return builder.toString();
+	}
+
+	/**
+	 * Converts the lines of an entry to a record.
+	 * 
+	 * @param lines
+	 *            The lines.
+	 * @return The record.
+	 * @throws RecordInvalidException
+	 *             Thrown if the entry is malformed or does not describe a
+	 *             valid user.
+	 */
+	private UserRecord toRecord(final List<String> lines) throws RecordInvalidException {
+		String dn = null;
+		List<String> roles = null;
+		final Attributes attributes = new BasicAttributes(true);
+		try {
+			for (final String line : lines) {
+				final int separator = line.indexOf(':');
+				if (separator <= 0) {
+					throw new RecordInvalidException(this.number, "Malformed line.");
+				}
+				final String name = line.substring(0, separator);
+				final String value = this.toValue(line.substring(separator + 1));
+				if (CheckUtil.isNull(dn)) {
+					if (!LdifUserRecordReader.DN.equalsIgnoreCase(name)) {
+						throw new RecordInvalidException(this.number, "Record does not start with a dn.");
+					}
+					dn = value;
+				} else if (LdifUserRecordReader.CHANGE_TYPE.equalsIgnoreCase(name)) {
+					if (!"add".equals(value.toLowerCase(Locale.ENGLISH))) {
+						throw new RecordInvalidException(this.number, "Only add records are supported.");
+					}
+				} else if (LdifUserRecordReader.MEMBER_OF.equalsIgnoreCase(name)) {
+					if (CheckUtil.isNull(roles)) {
+						roles = new ArrayList<String>();
+					}
+					roles.add(this.support.toShortName(value, Role.class));
+				} else if (!LdifUserRecordReader.OBJECT_CLASS.equalsIgnoreCase(name)) {
+					final Attribute attribute = attributes.get(name);
+					if (CheckUtil.isNull(attribute)) {
+						attributes.put(new BasicAttribute(name, value));
+					} else {
+						attribute.add(value);
+					}
+				}
+			}
+			final User user = this.support.map(User.class, attributes);
+			if (StringUtils.isBlank(user.getIdentifier())) {
+				final String identifier = this.support.toShortName(dn, User.class);
+				if (StringUtils.isBlank(identifier) || identifier.equals(dn)) {
+					throw new RecordInvalidException(this.number, "Record has no identifier.");
+				}
+				user.setIdentifier(identifier);
+			}
+			return new UserRecord(this.number, user, roles);
+		} catch (final ModelSupportException e) {
+			throw new RecordInvalidException(this.number, "Could not map record.", e);
+		}
+	}
+
+	/**
+	 * Decodes the value part of a line.
+	 * 
+	 * @param part
+	 *            The part following the first colon.
+	 * @return The value.
+	 * @throws RecordInvalidException
+	 *             Thrown if the value is given by URL.
+	 */
+	private String toValue(final String part) throws RecordInvalidException {
+		if (part.startsWith(":")) {
+			return new String(Base64.decodeBase64(part.substring(1).trim()), LdifUserRecordReader.UTF_8);
+		} else if (part.startsWith("<")) {
+			throw new RecordInvalidException(this.number, "Values given by URL are not supported.");
+		}
+		return StringUtils.stripStart(part, " ");
+	}
+}
@@ -0,0 +1,177 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.Validate;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.Role;
+import org.lunarray.usermanager.domain.User;
+import org.lunarray.usermanager.support.ModelLdapSupport;
+import org.lunarray.usermanager.support.exceptions.ModelSupportException;
+
+/**
+ * Writes users as LDIF content records, readable by the
+ * {@link LdifUserRecordReader} and by directory tools.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class LdifUserRecordWriter
+		implements UserRecordWriter {
+
+	/** The line separator. */
+	private static final char LF = '\n';
+	/** The maximum line length. */
+	private static final int LINE_LENGTH = 76;
+	/** The highest character of a safe string. */
+	private static final char SAFE_MAX = 0x7F;
+	/** The encoding of base 64 values. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** The output. */
+	private final transient Writer output;
+	/** Whether the version was written. */
+	private transient boolean started;
+	/** The model support. */
+	private final transient ModelLdapSupport support;
+
+	/**
+	 * Constructs the writer.
+	 * 
+	 * @param output
+	 *            The output. May not be null.
+	 * @param support
+	 *            The model support. May not be null.
+	 */
+	public LdifUserRecordWriter(final Writer output, final ModelLdapSupport support) {
+		Validate.notNull(output, "Output may not be null.");
+		Validate.notNull(support, "Model support may not be null.");
+		this.output = output;
+		this.support = support;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() throws IOException {
+		this.output.flush();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(final User user, final List<String> roles) throws IOException {
+		if (!this.started) {
+			this.output.write("version: 1");
+			this.output.write(LdifUserRecordWriter.LF);
+			this.started = true;
+		}
+		this.output.write(LdifUserRecordWriter.LF);
+		try {
+			this.writeLine("dn", this.support.toQualifiedName(user));
+			this.writeAttribute(this.support.mapObjectType(User.class));
+			final NamingEnumeration<? extends Attribute> attributes = this.support.map(user).getAll();
+			while (attributes.hasMore()) {
+				this.writeAttribute(attributes.next());
+			}
+			if (!CheckUtil.isNull(roles)) {
+				for (final String role : roles) {
+					this.writeLine(LdifUserRecordReader.MEMBER_OF, this.support.toQualifiedName(role, Role.class));
+				}
+			}
+		} catch (final ModelSupportException e) {
+			throw new IOException("Could not map user.", e);
+		} catch (final NamingException e) {
+			throw new IOException("Could not read attribute.", e);
+		}
+	}
+
+	/**
+	 * Tests whether a value may be written as is.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return True if and only if the value is a safe string.
+	 */
+	private static boolean isSafe(final String value) {
+		if (value.length() == 0) {
+			return true;
+		}
+		final char first = value.charAt(0);
+		if ((first == ' ') || (first == ':') || (first == '<') || (value.charAt(value.length() - 1) == ' ')) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if ((c == 0) || (c == '\r') || (c == '\n') || (c > LdifUserRecordWriter.SAFE_MAX)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all values of an attribute.
+	 * 
+	 * @param attribute
+	 *            The attribute.
+	 * @throws NamingException
+	 *             Thrown if the values could not be read.
+	 * @throws IOException
+	 *             Thrown if the output could not be written.
+	 */
+	private void writeAttribute(final Attribute attribute) throws NamingException, IOException {
+		final NamingEnumeration<?> values = attribute.getAll();
+		while (values.hasMore()) {
+			this.writeLine(attribute.getID(), String.valueOf(values.next()));
+		}
+	}
+
+	/**
+	 * Writes an attribute value line, folding it if it is too long.
+	 * 
+	 * @param name
+	 *            The attribute name.
+	 * @param value
+	 *            The value.
+	 * @throws IOException
+	 *             Thrown if the output could not be written.
+	 */
+	private void writeLine(final String name, final String value) throws IOException {
+		final StringBuilder line = new StringBuilder(name);
+		if (LdifUserRecordWriter.isSafe(value)) {
+			line.append(": ").append(value);
+		} else {
+			line.append(":: ").append(new String(Base64.encodeBase64(value.getBytes(LdifUserRecordWriter.UTF_8)), LdifUserRecordWriter.UTF_8));
+		}
+		int start = 0;
+		int end = Math.min(line.length(), LdifUserRecordWriter.LINE_LENGTH);
+		this.output.append(line, start, end).append(LdifUserRecordWriter.LF);
+		while (end < line.length()) {
+			start = end;
+			end = Math.min(line.length(), start + LdifUserRecordWriter.LINE_LENGTH - 1);
+			this.output.append(' ').append(line, start, end).append(LdifUserRecordWriter.LF);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+
+import org.lunarray.usermanager.support.ModelLdapSupport;
+
+/**
+ * The supported import and export formats.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public enum TransferFormat {
+
+	/** Comma separated values. */
+	CSV("text/csv"),
+	/** LDAP data interchange format. */
+	LDIF("text/x-ldif");
+
+	/** The content type. */
+	private final String contentType;
+
+	/**
+	 * Constructs the format.
+	 * 
+	 * @param contentType
+	 *            The content type.
+	 */
+	private TransferFormat(final String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Resolves a format by name.
+	 * 
+	 * @param name
+	 *            The name, case insensitive.
+	 * @return The format.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the format is unknown.
+	 */
+	public static TransferFormat forName(final String name) {
+		return TransferFormat.valueOf(name.toUpperCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * Creates a reader of this format.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param support
+	 *            The model support.
+	 * @return The reader.
+	 */
+	public UserRecordReader createReader(final Reader input, final ModelLdapSupport support) {
+		if (this == TransferFormat.CSV) {
+			return new CsvUserRecordReader(input, support);
+		}
+		return new LdifUserRecordReader(input, support);
+	}
+
+	/**
+	 * Creates a writer of this format.
+	 * 
+	 * @param output
+	 *            The output.
+	 * @param support
+	 *            The model support.
+	 * @param roles
+	 *            Whether roles are written.
+	 * @return The writer.
+	 */
+	public UserRecordWriter createWriter(final Writer output, final ModelLdapSupport support, final boolean roles) {
+		if (this == TransferFormat.CSV) {
+			return new CsvUserRecordWriter(output, support, roles);
+		}
+		return new LdifUserRecordWriter(output, support);
+	}
+
+	/**
+	 * Gets the value for the contentType field.
+	 * 
+	 * @return The value for the contentType field.
+	 */
+	public String getContentType() {
+		return this.contentType;
+	}
+}
@@ -0,0 +1,92 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+import org.lunarray.common.check.CheckUtil;
+import org.lunarray.usermanager.domain.User;
+
+/**
+ * A user read from an import, with the roles to give it.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public final class UserRecord {
+
+	/** The one based record number. */
+	private final long number;
+	/** The role identifiers, null to leave the roles unchanged. */
+	private final List<String> roles;
+	/** The user. */
+	private final User user;
+
+	/**
+	 * Constructs the record.
+	 * 
+	 * @param number
+	 *            The one based record number.
+	 * @param user
+	 *            The user. May not be null.
+	 * @param roles
+	 *            The role identifiers, null to leave the roles unchanged.
+	 */
+	public UserRecord(final long number, final User user, final List<String> roles) {
+		Validate.notNull(user, "User may not be null.");
+		this.number = number;
+		this.user = user;
+		this.roles = CheckUtil.isNull(roles) ? null : Collections.unmodifiableList(new ArrayList<String>(roles));
+	}
+
+	/**
+	 * Gets the value for the number field.
+	 * 
+	 * @return The value for the number field.
+	 */
+	public long getNumber() {
+		return this.number;
+	}
+
+	/**
+	 * Gets the value for the roles field.
+	 * 
+	 * @return The value for the roles field.
+	 */
+	public List<String> getRoles() {
+		return this.roles;
+	}
+
+	/**
+	 * Gets the value for the user field.
+	 * 
+	 * @return The value for the user field.
+	 */
+	public User getUser() {
+		return this.user;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this);
+	}
+}
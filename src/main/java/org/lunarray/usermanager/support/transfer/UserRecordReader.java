@@ -0,0 +1,45 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.lunarray.usermanager.support.exceptions.RecordInvalidException;
+
+/**
+ * Reads users one record at a time.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface UserRecordReader
+		extends Closeable {
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @return The record, or null at the end of the input.
+	 * @throws IOException
+	 *             Thrown if the input could not be read or is malformed
+	 *             beyond recovery.
+	 * @throws RecordInvalidException
+	 *             Thrown if the record does not describe a valid user. The
+	 *             next record may still be read.
+	 */
+	UserRecord read() throws IOException, RecordInvalidException;
+}
@@ -0,0 +1,46 @@
+/* 
+ * User manager.
+ * Copyright (C) 2013 Pal Hargitai (pal@lunarray.org)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lunarray.usermanager.support.transfer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+
+import org.lunarray.usermanager.domain.User;
+
+/**
+ * Writes users one record at a time.
+ * 
+ * @author Pal Hargitai (pal@lunarray.org)
+ */
+public interface UserRecordWriter
+		extends Flushable {
+
+	/**
+	 * Writes a user.
+	 * 
+	 * @param user
+	 *            The user.
+	 * @param roles
+	 *            The identifiers of the roles of the user, null if they
+	 *            aren't exported.
+	 * @throws IOException
+	 *             Thrown if the output could not be written.
+	 */
+	void write(User user, List<String> roles) throws IOException;
+}
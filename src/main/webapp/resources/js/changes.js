@@ -0,0 +1,146 @@
+/*
+ * Live updates for a table marked with a data-changes attribute, naming the
+ * entity types it shows, e.g. data-changes="User". The page subscribes to the
+ * change feed and, when a change may affect it, reads the shown slice of the
+ * listing from the JSON API named by data-changes-source. Cells that differ
+ * are updated in place, the columns being named by data-changes-fields. When
+ * rows appear or disappear, a notice offers to reload the page instead, so
+ * the JSF view is never rendered in the background. Bursts of changes are
+ * debounced into a single fetch.
+ */
+(function ($) {
+	var delay = 500;
+
+	$(function () {
+		var container = $('[data-changes]').first(), types = container.attr('data-changes'), fields, versions = null, timer = null, pending = null, source;
+		if (!container.length || !window.EventSource || !container.attr('data-changes-source')) {
+			return;
+		}
+		fields = container.attr('data-changes-fields').split(',');
+
+		// Mirrors PageToken, so the listing starts at the shown page.
+		function token() {
+			var state = {
+				o : parseInt(container.attr('data-changes-offset'), 10) || 0,
+				a : container.attr('data-changes-ascending') !== 'false'
+			};
+			if (container.attr('data-changes-sort')) {
+				state.s = container.attr('data-changes-sort');
+			}
+			if (container.attr('data-changes-filter')) {
+				state.f = container.attr('data-changes-filter');
+			}
+			return window.btoa(window.unescape(encodeURIComponent(JSON.stringify(state))));
+		}
+
+		function text(value) {
+			return value === undefined || value === null ? '' : String(value);
+		}
+
+		function notify() {
+			if (container.prev('.changes-notice').length) {
+				return;
+			}
+			$('<div class="alert alert-info changes-notice">This list has changed. </div>').append(
+					$('<a href="#">Reload</a>').on('click', function (event) {
+						event.preventDefault();
+						window.location.reload();
+					})).insertBefore(container);
+		}
+
+		function update(cell, value) {
+			var node = cell.find('*').add(cell).contents().filter(function () {
+				return this.nodeType === 3 && $.trim(this.nodeValue).length > 0;
+			}).first();
+			if (node.length) {
+				node[0].nodeValue = value;
+			} else {
+				cell.text(value);
+			}
+		}
+
+		function patch(listing) {
+			var rows = container.find('tbody tr'), items = listing.items || [], i;
+			if (rows.length !== items.length) {
+				notify();
+				return;
+			}
+			for (i = 0; i < items.length; i++) {
+				if ($.trim(rows.eq(i).children('td').eq(0).text()) !== text(items[i].identifier)) {
+					notify();
+					return;
+				}
+			}
+			rows.each(function (i) {
+				var row = $(this), cells = row.children('td'), changed = false, j, value;
+				for (j = 1; j < fields.length && j < cells.length; j++) {
+					value = text(items[i][fields[j]]);
+					if ($.trim(cells.eq(j).text()) !== value) {
+						update(cells.eq(j), value);
+						changed = true;
+					}
+				}
+				if (changed) {
+					row.addClass('info');
+					window.setTimeout(function () {
+						row.removeClass('info');
+					}, 2000);
+				}
+			});
+		}
+
+		function refresh() {
+			if (pending) {
+				pending.abort();
+			}
+			pending = $.ajax({
+				url : container.attr('data-changes-source'),
+				data : {
+					pageToken : token(),
+					limit : container.attr('data-changes-limit'),
+					fields : fields.join(',')
+				},
+				dataType : 'json',
+				cache : false
+			}).done(patch).always(function () {
+				pending = null;
+			});
+		}
+
+		function schedule() {
+			window.clearTimeout(timer);
+			timer = window.setTimeout(refresh, delay);
+		}
+
+		function shown(identifiers) {
+			var text = container.text(), i;
+			for (i = 0; i < identifiers.length; i++) {
+				if (text.indexOf(identifiers[i]) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		source = new window.EventSource('/api/events?types=' + encodeURIComponent(types));
+		source.addEventListener('versions', function (event) {
+			var current = JSON.parse(event.data);
+			if (versions && JSON.stringify(versions) !== JSON.stringify(current)) {
+				schedule();
+			}
+			versions = current;
+		});
+		source.addEventListener('change', function (event) {
+			var change = JSON.parse(event.data);
+			if (versions) {
+				versions[change.type] = change.version;
+			}
+			if (change.kind === 'created' || !change.identifiers.length || shown(change.identifiers)) {
+				schedule();
+			}
+		});
+		$(window).on('unload', function () {
+			source.close();
+		});
+	});
+}(window.jQuery));
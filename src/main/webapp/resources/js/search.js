@@ -0,0 +1,67 @@
+/*
+ * Incremental search for inputs marked with a data-search attribute, naming
+ * the search endpoint, e.g. data-search="users". Requests are debounced and
+ * a pending request is aborted when the text changes. Choosing a suggestion
+ * fills in its identifier and submits the surrounding form.
+ */
+(function ($) {
+	var delay = 150;
+
+	function label(item) {
+		return item.displayName && item.displayName !== item.identifier ? item.identifier + ' - ' + item.displayName
+				: item.identifier;
+	}
+
+	$(function () {
+		$('input[data-search]').each(function () {
+			var input = $(this), endpoint = input.attr('data-search'), timer = null, pending = null, identifiers = {};
+			if (!endpoint) {
+				return;
+			}
+			input.attr('autocomplete', 'off').typeahead({
+				items : 10,
+				minLength : 1,
+				source : function (query, process) {
+					window.clearTimeout(timer);
+					timer = window.setTimeout(function () {
+						if (pending) {
+							pending.abort();
+						}
+						pending = $.ajax({
+							url : '/api/search/' + endpoint,
+							data : {
+								q : query,
+								limit : 10
+							},
+							dataType : 'json'
+						}).done(function (items) {
+							var labels = [];
+							identifiers = {};
+							$.each(items, function (i, item) {
+								var text = label(item);
+								identifiers[text] = item.identifier;
+								labels.push(text);
+							});
+							process(labels);
+						}).always(function () {
+							pending = null;
+						});
+					}, delay);
+				},
+				matcher : function () {
+					return true;
+				},
+				sorter : function (items) {
+					return items;
+				},
+				updater : function (text) {
+					var identifier = identifiers[text] || text;
+					window.setTimeout(function () {
+						input.closest('form').submit();
+					}, 0);
+					return identifier;
+				}
+			});
+		});
+	});
+}(window.jQuery));
@@ -0,0 +1,26 @@
+/*
+ * Guards the selection of a form with the unsaved class, e.g. the role
+ * assignment pages. Once a checkbox changed, following a link away from the
+ * page, such as the pager, asks for confirmation first, since the selection
+ * of the shown page would be lost.
+ */
+(function ($) {
+	var message = 'The selection on this page has not been saved. Leave the page anyway?';
+
+	$(function () {
+		var dirty = false;
+		if (!$('form.unsaved').length) {
+			return;
+		}
+		$('form.unsaved').on('change', 'input', function () {
+			dirty = true;
+		});
+		$(document).on('click', 'a[href]', function (event) {
+			var href = $(this).attr('href');
+			if (dirty && href.charAt(0) !== '#' && !window.confirm(message)) {
+				event.preventDefault();
+				event.stopImmediatePropagation();
+			}
+		});
+	});
+}(window.jQuery));